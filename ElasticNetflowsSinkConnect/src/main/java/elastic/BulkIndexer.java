@@ -0,0 +1,398 @@
+package elastic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.IndexOperation;
+
+/**
+ * BulkIndexer accumulates documents and indexes them with _bulk requests,
+ * instead of one index request per document, so that throughput is bounded
+ * by OpenSearch and not by the round trip time. Pending documents are sent
+ * when their number reaches a maximum, when their payload reaches a maximum
+ * size, or when the oldest of them has waited for a maximum time. Up to a
+ * maximum number of bulk requests are in flight concurrently, each one sent
+ * by its own sender thread, and adding documents blocks only while all of
+ * them are in flight. The result of each document is read from the bulk
+ * response, and only documents, that failed with a transient error (429 Too
+ * Many Requests, 502, 503, 504), are retried, with exponential backoff.
+ * Documents, that failed with any other error, e.g. mapping errors, are logged
+ * and dropped. Each document is acknowledged, when it has been indexed or
+ * dropped. If the retries of a request are exhausted, or the request fails
+ * with an unexpected error, its documents are not acknowledged, and the
+ * failure is kept, until it is read by getFailure().
+ * Documents must be added by a single thread.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class BulkIndexer {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(BulkIndexer.class);
+
+    /**
+     * Bytes of the action line of each document, besides its index and id:
+     * {"index":{"_index":"","_id":""}}\n
+     */
+    private static final int ACTION_OVERHEAD_BYTES = 32;
+
+    /**
+     * Receives the acknowledgement of a document, from a sender thread.
+     */
+    public interface Acknowledgement {
+        /**
+         * Called once, when the document has been indexed, or has been dropped
+         * because of a permanent error.
+         */
+        void acknowledged();
+    }
+
+    /**
+     * A document waiting to be indexed.
+     */
+    private static class PendingDocument {
+        String index;
+        String id;
+        Object document;
+        Acknowledgement ack;
+
+        PendingDocument(String index, String id, Object document, Acknowledgement ack) {
+            this.index = index;
+            this.id = id;
+            this.document = document;
+            this.ack = ack;
+        }
+    }
+
+    private OpenSearchClient client;
+
+    private int maxRecords;
+    private long maxBytes;
+    private long lingerMs;
+    private int maxRetries;
+    private long retryBackoffMs;
+    private int maxInFlight;
+
+    /**
+     * Documents waiting to be sent, in the order they were added.
+     */
+    private List<PendingDocument> pending = new ArrayList<PendingDocument>();
+    /**
+     * Estimated payload (bytes) of pending documents.
+     */
+    private long pendingBytes = 0;
+    /**
+     * Time (milliseconds), when the oldest pending document was added.
+     */
+    private long oldestPendingMs = 0;
+
+    /**
+     * Threads, that send bulk requests.
+     */
+    private ExecutorService senders;
+    /**
+     * Permits of bulk requests, that may be in flight.
+     */
+    private Semaphore inFlight;
+    /**
+     * Failure of a bulk request, whose retries have been exhausted, or that failed with an
+     * unexpected error. Null if there is none.
+     */
+    private volatile Exception failure = null;
+
+    // Statistics
+    private AtomicLong documentsIndexed = new AtomicLong();
+    private AtomicLong documentsFailed = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param client         OpenSearchClient Client, used for bulk requests.
+     * @param maxRecords     int Maximum number of documents in a bulk request.
+     * @param maxBytes       long Maximum payload (bytes) of a bulk request.
+     * @param lingerMs       long Maximum time (milliseconds) a document waits, before it is sent.
+     * @param maxRetries     int Maximum number of retries of a document, that failed with a transient error.
+     * @param retryBackoffMs long Time (milliseconds) before the first retry. Doubled on each retry.
+     * @param maxInFlight    int Maximum number of bulk requests in flight concurrently.
+     */
+    public BulkIndexer(OpenSearchClient client, int maxRecords, long maxBytes, long lingerMs, int maxRetries,
+                       long retryBackoffMs, int maxInFlight) {
+        this.client = client;
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(maxInFlight, r -> {
+            Thread thread = new Thread(r, "bulk-indexer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a document to be indexed. Pending documents are sent, if they
+     * reach the maximum number or payload. The payload is estimated by the
+     * caller, because documents are serialized only once, when they are sent.
+     *
+     * @param index         String Name of the index.
+     * @param id            String Id of the document.
+     * @param document      Object The document.
+     * @param documentBytes long Estimated size (bytes) of the serialized document.
+     * @param ack           Acknowledgement Receives the acknowledgement of the document. May be null.
+     * @throws InterruptedException If the thread is interrupted, while all bulk requests are in flight.
+     */
+    public void add(String index, String id, Object document, long documentBytes, Acknowledgement ack)
+            throws InterruptedException {
+        if (pending.isEmpty()) {
+            oldestPendingMs = System.currentTimeMillis();
+        }
+        pending.add(new PendingDocument(index, id, document, ack));
+        pendingBytes += ACTION_OVERHEAD_BYTES + index.length() + id.length() + documentBytes;
+
+        if (pending.size() >= maxRecords || pendingBytes >= maxBytes) {
+            send();
+        }
+    }
+
+    /**
+     * Sends pending documents, if the oldest of them has waited for the linger time.
+     *
+     * @throws InterruptedException If the thread is interrupted, while all bulk requests are in flight.
+     */
+    public void sendIfDue() throws InterruptedException {
+        if (!pending.isEmpty() && System.currentTimeMillis() - oldestPendingMs >= lingerMs) {
+            send();
+        }
+    }
+
+    /**
+     * Sends all pending documents in a bulk request, without waiting for its
+     * response. It blocks only while all bulk requests are in flight.
+     *
+     * @throws InterruptedException If the thread is interrupted, while all bulk requests are in flight.
+     */
+    public void send() throws InterruptedException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final List<PendingDocument> batch = pending;
+        pending = new ArrayList<PendingDocument>();
+        pendingBytes = 0;
+
+        inFlight.acquire();
+        try {
+            senders.execute(() -> {
+                try {
+                    index(batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends all pending documents and waits, until all bulk requests have completed.
+     *
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public void flush() throws InterruptedException {
+        send();
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    /**
+     * Sends all pending documents, waits for all bulk requests to complete for
+     * up to a timeout, and stops the sender threads.
+     *
+     * @param timeoutMs long Maximum time (milliseconds) to wait.
+     */
+    public void close(long timeoutMs) {
+        try {
+            send();
+            senders.shutdown();
+            if (!senders.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("Bulk requests did not complete in " + timeoutMs + " ms. Their records will be sent again.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        senders.shutdownNow();
+    }
+
+    /**
+     * Indexes a batch of documents, in a sender thread. Documents, that fail
+     * with a transient error, are retried, until they are indexed or the
+     * retries are exhausted. Any other unexpected error, e.g. a document that
+     * cannot be serialized, fails the batch, like exhausted retries.
+     *
+     * @param batch List(PendingDocument) The documents.
+     */
+    private void index(List<PendingDocument> batch) {
+        try {
+            for (int attempt = 0; !batch.isEmpty(); attempt++) {
+                if (attempt > 0) {
+                    if (attempt > maxRetries) {
+                        logger.error("Bulk indexing failed after " + maxRetries + " retries. " + batch.size()
+                                + " documents have not been indexed.");
+                        documentsFailed.addAndGet(batch.size());
+                        failure = new IOException("Bulk indexing of " + batch.size() + " documents failed after "
+                                + maxRetries + " retries.");
+                        return;
+                    }
+                    try {
+                        Thread.sleep(retryBackoffMs << Math.min(attempt - 1, 16));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        logger.error("Bulk indexing interrupted. " + batch.size() + " documents have not been indexed.");
+                        return;
+                    }
+                }
+                batch = sendBatch(batch);
+            }
+        } catch (RuntimeException e) {
+            logger.error("RuntimeException. An error occurred trying to send bulk request to Elastic. " + batch.size()
+                    + " documents have not been indexed.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            documentsFailed.addAndGet(batch.size());
+            failure = e;
+        }
+    }
+
+    /**
+     * Sends a bulk request with a batch of documents. Indexed documents and
+     * documents with permanent errors are acknowledged.
+     *
+     * @param batch List(PendingDocument) The documents.
+     * @return List(PendingDocument) Documents with transient errors, or all
+     * documents if the request failed, that must be retried.
+     */
+    private List<PendingDocument> sendBatch(List<PendingDocument> batch) {
+        List<BulkOperation> operations = new ArrayList<BulkOperation>(batch.size());
+        for (PendingDocument doc : batch) {
+            operations.add(new BulkOperation.Builder()
+                    .index(new IndexOperation.Builder<Object>()
+                            .index(doc.index)
+                            .id(doc.id)
+                            .document(doc.document)
+                            .build())
+                    .build());
+        }
+
+        BulkResponse response;
+        try {
+            response = client.bulk(new BulkRequest.Builder().operations(operations).build());
+        } catch (IOException e) {
+            logger.error("IOException. An error occurred trying to send bulk request to Elastic. Retrying.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            return batch;
+        } catch (OpenSearchException e) {
+            logger.error("OpensearchException. An error occurred trying to send bulk request to Elastic. Retrying.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            return batch;
+        }
+
+        if (!response.errors()) {
+            documentsIndexed.addAndGet(batch.size());
+            logger.debug("Bulk indexed " + batch.size() + " documents in " + response.took() + " ms.");
+            for (PendingDocument doc : batch) {
+                acknowledge(doc);
+            }
+            return new ArrayList<PendingDocument>();
+        }
+
+        // Items are in the same order as operations.
+        List<PendingDocument> retries = new ArrayList<PendingDocument>();
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < batch.size(); i++) {
+            BulkResponseItem item = i < items.size() ? items.get(i) : null;
+            if (item == null || isTransient(item.status())) {
+                retries.add(batch.get(i));
+                continue;
+            }
+            if (item.error() == null) {
+                documentsIndexed.incrementAndGet();
+            } else {
+                documentsFailed.incrementAndGet();
+                logger.error("Cannot index document " + item.id() + " to " + item.index() + " (" + item.status()
+                        + "): " + item.error().type() + ": " + item.error().reason());
+            }
+            acknowledge(batch.get(i));
+        }
+        if (!retries.isEmpty()) {
+            logger.warn("Bulk indexing of " + retries.size() + " documents failed with transient errors. Retrying.");
+        }
+        return retries;
+    }
+
+    private static void acknowledge(PendingDocument doc) {
+        if (doc.ack != null) {
+            doc.ack.acknowledged();
+        }
+    }
+
+    /**
+     * Checks if a failed document can be retried.
+     *
+     * @param status int HTTP status of the document.
+     * @return boolean True for 429 Too Many Requests and 502, 503, 504.
+     */
+    private static boolean isTransient(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Returns the failure of a bulk request, whose retries have been exhausted.
+     *
+     * @return Exception The failure, or null if all requests have succeeded so far.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public long getDocumentsIndexed() {
+        return documentsIndexed.get();
+    }
+
+    public long getDocumentsFailed() {
+        return documentsFailed.get();
+    }
+}
@@ -51,6 +51,12 @@ public class OpenSearchUtils {
      */
     private static Logger logger = Logger.getLogger(OpenSearchUtils.class);
 
+    /**
+     * Estimated size (bytes) of a serialized netflow record, besides its raw
+     * csv line, for the field names, agent and parsed values.
+     */
+    private static final int NETFLOW_DOCUMENT_OVERHEAD_BYTES = 900;
+
     /**
      * High level Elastic REST client. It wraps low level client
      * for doing operations in Elastic.
@@ -62,6 +68,11 @@ public class OpenSearchUtils {
      */
     private OpenSearchClient client;
 
+    /**
+     * Bulk indexer of netflow records. Null until bulk indexing is configured.
+     */
+    private BulkIndexer bulkIndexer = null;
+
     /**
      * Processor rename pipeline, used for any renaming functionality.
      */
@@ -397,9 +408,102 @@ public class OpenSearchUtils {
     }
 
     /**
-     * Closes high level Elastic REST client.
+     * Configures bulk indexing of netflow records. Records added with
+     * bulkInsertNetflowRecord are sent in _bulk requests, when there are
+     * maxRecords of them, when their payload reaches maxBytes, or when the
+     * oldest of them has waited for lingerMs. Up to maxInFlight requests are
+     * sent concurrently, without waiting for their responses.
+     *
+     * @param maxRecords     Integer Maximum number of records in a bulk request.
+     * @param maxBytes       Long Maximum payload (bytes) of a bulk request.
+     * @param lingerMs       Long Maximum time (milliseconds) a record waits, before it is sent.
+     * @param maxRetries     Integer Maximum number of retries of records, that failed with a transient error.
+     * @param retryBackoffMs Long Time (milliseconds) before the first retry. Doubled on each retry.
+     * @param maxInFlight    Integer Maximum number of bulk requests in flight concurrently.
+     */
+    public void configureBulk(int maxRecords, long maxBytes, long lingerMs, int maxRetries, long retryBackoffMs,
+                              int maxInFlight) {
+        bulkIndexer = new BulkIndexer(client, maxRecords, maxBytes, lingerMs, maxRetries, retryBackoffMs,
+                maxInFlight);
+    }
+
+    /**
+     * Adds a netflow record to the pending bulk request. Pending records are
+     * sent, if they reach the maximum number or payload. Without bulk
+     * configuration, the record is inserted immediately.
+     *
+     * @param docId     String Id of the document, that will be inserted.
+     * @param netflow   NetflowRecord NetflowRecord that will be inserted.
+     * @param indexName String Name of the index, that the document will be inserted.
+     * @param ack       BulkIndexer.Acknowledgement Receives the acknowledgement of the record, when
+     *                  it has been indexed or dropped. May be null.
+     * @throws InterruptedException If the thread is interrupted, while all bulk requests are in flight.
+     */
+    public void bulkInsertNetflowRecord(String docId, NetflowRecord netflow, String indexName,
+                                        BulkIndexer.Acknowledgement ack) throws InterruptedException {
+        if (bulkIndexer == null) {
+            insertNetflowRecord(docId, netflow, indexName);
+            if (ack != null) {
+                ack.acknowledged();
+            }
+            return;
+        }
+        bulkIndexer.add(indexName, docId, netflow,
+                netflow.getNetwork().getRaw().length() + NETFLOW_DOCUMENT_OVERHEAD_BYTES, ack);
+    }
+
+    /**
+     * Sends pending netflow records, if the oldest of them has waited for the linger time.
+     *
+     * @throws InterruptedException If the thread is interrupted, while all bulk requests are in flight.
+     */
+    public void sendBulkIfDue() throws InterruptedException {
+        if (bulkIndexer != null) {
+            bulkIndexer.sendIfDue();
+        }
+    }
+
+    /**
+     * Sends all pending netflow records, without waiting for the response.
+     *
+     * @throws InterruptedException If the thread is interrupted, while all bulk requests are in flight.
+     */
+    public void sendBulk() throws InterruptedException {
+        if (bulkIndexer != null) {
+            bulkIndexer.send();
+        }
+    }
+
+    /**
+     * Sends all pending netflow records and waits, until all bulk requests have completed.
+     *
+     * @throws InterruptedException If the thread is interrupted.
      */
-    public void close() {
+    public void flushBulk() throws InterruptedException {
+        if (bulkIndexer != null) {
+            bulkIndexer.flush();
+        }
+    }
+
+    /**
+     * Returns the failure of a bulk request, whose retries have been exhausted.
+     *
+     * @return Exception The failure, or null if there is none.
+     */
+    public Exception getBulkFailure() {
+        return bulkIndexer != null ? bulkIndexer.getFailure() : null;
+    }
+
+    /**
+     * Sends pending netflow records, waits for bulk requests to complete for up
+     * to a timeout, and closes high level Elastic REST client.
+     *
+     * @param timeoutMs Long Maximum time (milliseconds) to wait for bulk requests.
+     */
+    public void close(long timeoutMs) {
+        if (bulkIndexer != null) {
+            bulkIndexer.close(timeoutMs);
+        }
         try {
             restClient.close();
         } catch (IOException e) {
@@ -1,5 +1,7 @@
 package models;
 
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
 import org.json.JSONObject;
 import utils.ColumnsIndex;
 import utils.Helpers;
@@ -7,8 +9,15 @@ import utils.Helpers;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 public class NetflowRecord {
+    /**
+     * Time zone of the exported timestamp, that is written with a 'Z' suffix.
+     */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
     private Netflow netflow;
     private NetflowAgent agent;
     private NetflowAddress source;
@@ -18,40 +27,94 @@ public class NetflowRecord {
     private NetflowInput input;
     private NetflowZeek zeek;
     private NetflowTenant tenant;
-    private Helpers helpers;
-
-    public NetflowRecord(String recordKey, String recordValue, NetflowAgent agent, NetflowInput input) {
-        helpers = new Helpers();
 
+    /**
+     * Creates a record from a csv line.
+     *
+     * @param helpers Helpers Helpers of the task, that enrich the record.
+     */
+    public NetflowRecord(String recordKey, String recordValue, NetflowAgent agent, NetflowInput input,
+                         Helpers helpers) {
         String[] data = recordValue.split(",");
 
-        String srcIp = data[ColumnsIndex.SRC_IP_ADDR];
-        int srcPort = Integer.parseInt(data[ColumnsIndex.SRC_PORT]);
-        double srcBytes = Double.parseDouble(data[ColumnsIndex.SRC_BYT]);
-        int srcPackets = Integer.parseInt(data[ColumnsIndex.SRC_PKT]);
-        String dstIp = data[ColumnsIndex.DST_IP_ADDR];
-        int dstPort = Integer.parseInt(data[ColumnsIndex.DST_PORT]);
-        double dstBytes = Double.parseDouble(data[ColumnsIndex.DST_BYT]);
-        int dstPackets = Integer.parseInt(data[ColumnsIndex.DST_PKT]);
+        init(
+                recordKey, recordValue, agent, input, helpers,
+                data[ColumnsIndex.SRC_IP_ADDR],
+                Integer.parseInt(data[ColumnsIndex.SRC_PORT]),
+                Double.parseDouble(data[ColumnsIndex.SRC_BYT]),
+                Integer.parseInt(data[ColumnsIndex.SRC_PKT]),
+                data[ColumnsIndex.DST_IP_ADDR],
+                Integer.parseInt(data[ColumnsIndex.DST_PORT]),
+                Double.parseDouble(data[ColumnsIndex.DST_BYT]),
+                Integer.parseInt(data[ColumnsIndex.DST_PKT]),
+                data[ColumnsIndex.NETWORK_PROTOCOL],
+                data[ColumnsIndex.TCP_FLAGS],
+                Double.parseDouble(data[ColumnsIndex.EVENT_DURATION]),
+                data[ColumnsIndex.EVENT_CREATED],
+                data[ColumnsIndex.EVENT_STARTED],
+                data[ColumnsIndex.EVENT_ENDED],
+                data[ColumnsIndex.ZEEK_SCORE]
+        );
+    }
+
+    /**
+     * Creates a record from a typed Struct, sent by the netflow source in "struct"
+     * record format. Fields are read directly, without parsing text. Dates are
+     * formatted in the time zone of the netflow source, so that they are the
+     * same as in csv format.
+     *
+     * @param helpers  Helpers Helpers of the task, that enrich the record.
+     * @param timeZone TimeZone Time zone of the dates of the netflow source.
+     */
+    public NetflowRecord(String recordKey, Struct recordValue, NetflowAgent agent, NetflowInput input,
+                         Helpers helpers, TimeZone timeZone) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        SimpleDateFormat receivedFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        dateFormat.setTimeZone(timeZone);
+        receivedFormat.setTimeZone(timeZone);
+
+        init(
+                recordKey, structToCsv(recordValue, dateFormat, receivedFormat), agent, input, helpers,
+                recordValue.getString(ColumnsIndex.SRC_IP_ADDR_FIELD),
+                recordValue.getInt32(ColumnsIndex.SRC_PORT_FIELD),
+                recordValue.getInt64(ColumnsIndex.SRC_BYT_FIELD),
+                (int) (long) recordValue.getInt64(ColumnsIndex.SRC_PKT_FIELD),
+                recordValue.getString(ColumnsIndex.DST_IP_ADDR_FIELD),
+                recordValue.getInt32(ColumnsIndex.DST_PORT_FIELD),
+                recordValue.getInt64(ColumnsIndex.DST_BYT_FIELD),
+                (int) (long) recordValue.getInt64(ColumnsIndex.DST_PKT_FIELD),
+                recordValue.getString(ColumnsIndex.NETWORK_PROTOCOL_FIELD),
+                recordValue.getString(ColumnsIndex.TCP_FLAGS_FIELD),
+                recordValue.getFloat64(ColumnsIndex.EVENT_DURATION_FIELD),
+                receivedFormat.format((Date) recordValue.get(ColumnsIndex.EVENT_CREATED_FIELD)),
+                formatTime((Date) recordValue.get(ColumnsIndex.EVENT_STARTED_FIELD), dateFormat, receivedFormat),
+                formatTime((Date) recordValue.get(ColumnsIndex.EVENT_ENDED_FIELD), dateFormat, receivedFormat),
+                "0.0"
+        );
+    }
+
+    private void init(String recordKey, String recordValue, NetflowAgent agent, NetflowInput input, Helpers helpers,
+                      String srcIp, int srcPort, double srcBytes, int srcPackets,
+                      String dstIp, int dstPort, double dstBytes, int dstPackets,
+                      String networkProtocol, String tcpFlags,
+                      double duration, String created, String started, String ended, String zeekScore) {
+        int tenantId = helpers.extractTenantId(recordKey);
 
         double totalBytes = srcBytes + dstBytes;
         int totalPackets = dstPackets + dstPackets;
 
-        String networkProtocol = data[ColumnsIndex.NETWORK_PROTOCOL];
-        String tcpFlags = data[ColumnsIndex.TCP_FLAGS];
-
+        SimpleDateFormat exportedFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        exportedFormat.setTimeZone(UTC);
         this.netflow = new Netflow(
-                new NetflowExporter(
-                        new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").format(System.currentTimeMillis())
-                )
+                new NetflowExporter(exportedFormat.format(System.currentTimeMillis()))
         );
 
         this.agent = agent;
         this.source = new NetflowAddress(
-                srcIp, srcPort, srcBytes, srcPackets, helpers.checkIpLocality(data[ColumnsIndex.SRC_IP_ADDR])
+                srcIp, srcPort, srcBytes, srcPackets, helpers.checkIpLocality(srcIp, tenantId)
         );
         this.destination = new NetflowAddress(
-                dstIp, dstPort, dstBytes, dstPackets, helpers.checkIpLocality(data[ColumnsIndex.DST_IP_ADDR])
+                dstIp, dstPort, dstBytes, dstPackets, helpers.checkIpLocality(dstIp, tenantId)
         );
         this.network = new NetflowNetwork(
                 helpers.getNetworkCommunityId(srcIp, dstIp, srcPort, dstPort, networkProtocol), totalBytes,
@@ -59,18 +122,47 @@ public class NetflowRecord {
                 networkProtocol, totalPackets
         );
         this.event = new NetflowEvent(
-                Double.parseDouble(data[ColumnsIndex.EVENT_DURATION]), data[ColumnsIndex.EVENT_CREATED],
-                data[ColumnsIndex.EVENT_STARTED], data[ColumnsIndex.EVENT_ENDED]
+                duration, created, started, ended
         );
         this.input = input;
         this.zeek = new NetflowZeek(
-                data[ColumnsIndex.ZEEK_SCORE]
+                zeekScore
         );
         this.tenant = new NetflowTenant(
-                helpers.extractTenantId(recordKey)
+                tenantId
         );
     }
 
+    /**
+     * Formats a start or end time like nfdump, with milliseconds only if it has any.
+     */
+    private static String formatTime(Date date, SimpleDateFormat dateFormat, SimpleDateFormat receivedFormat) {
+        return date.getTime() % 1000 == 0 ? dateFormat.format(date) : receivedFormat.format(date);
+    }
+
+    /**
+     * Formats a Struct as a csv line, in the order of its fields, for the raw field.
+     */
+    private static String structToCsv(Struct struct, SimpleDateFormat dateFormat, SimpleDateFormat receivedFormat) {
+        StringBuilder sb = new StringBuilder(512);
+        for (Field field : struct.schema().fields()) {
+            Object value = struct.get(field);
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            if (value instanceof Date) {
+                sb.append(field.name().equals(ColumnsIndex.EVENT_CREATED_FIELD)
+                        ? receivedFormat.format((Date) value)
+                        : formatTime((Date) value, dateFormat, receivedFormat));
+            } else if (value instanceof Double) {
+                sb.append(String.format(Locale.ROOT, "%.3f", (Double) value));
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
     public Netflow getNetflow() {
         return netflow;
     }
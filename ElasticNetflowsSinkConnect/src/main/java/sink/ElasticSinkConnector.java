@@ -1,12 +1,15 @@
 package sink;
 
 import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.*;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.sink.SinkConnector;
@@ -72,6 +75,37 @@ public class ElasticSinkConnector extends SinkConnector {
      * Default: 1
      */
     public static final String ELASTIC_INDEX_PARTITIONS = "elastic.indexes.partitions";
+    /**
+     * Maximum number of netflow records in a bulk request to Elastic.
+     * Default: 1000
+     */
+    public static final String ELASTIC_BULK_MAX_RECORDS = "elastic.bulk.max.records";
+    /**
+     * Maximum payload (bytes) of a bulk request to Elastic.
+     * Default: 5242880 (5 MB)
+     */
+    public static final String ELASTIC_BULK_MAX_BYTES = "elastic.bulk.max.bytes";
+    /**
+     * Maximum time (milliseconds) a netflow record waits, before its bulk request is sent.
+     * Default: 1000
+     */
+    public static final String ELASTIC_BULK_LINGER_MS = "elastic.bulk.linger.ms";
+    /**
+     * Maximum number of retries of netflow records, that failed with a transient
+     * error (429, 502, 503, 504) or whose bulk request failed.
+     * Default: 5
+     */
+    public static final String ELASTIC_BULK_MAX_RETRIES = "elastic.bulk.max.retries";
+    /**
+     * Time (milliseconds) before the first retry of a bulk request. Doubled on each retry.
+     * Default: 100
+     */
+    public static final String ELASTIC_BULK_RETRY_BACKOFF_MS = "elastic.bulk.retry.backoff.ms";
+    /**
+     * Maximum number of bulk requests to Elastic in flight concurrently.
+     * Default: 4
+     */
+    public static final String ELASTIC_BULK_MAX_IN_FLIGHT = "elastic.bulk.max.in.flight";
     /**
      * Kafka topics, from where data will be retrieved to be sent in Elastic.
      * For netflow collection two topics are required, for both raw and
@@ -106,6 +140,18 @@ public class ElasticSinkConnector extends SinkConnector {
      */
     public static final String BENCHMARK_MODE = "benchmark_mode";
 
+    /**
+     * Time interval (seconds), that latency percentiles are written to
+     * benchmarking.log in benchmark mode. Default: 10.
+     */
+    public static final String BENCHMARK_FLUSH_INTERVAL_S = "benchmark.flush.interval.s";
+
+    /**
+     * Time zone of the dates of netflow records, i.e. the netflow.time.zone of
+     * the netflow source. Dates of struct records are formatted in it. Default: UTC.
+     */
+    public static final String NETFLOW_TIME_ZONE = "netflow.time.zone";
+
     // kafka properties
     
     /**
@@ -161,6 +207,24 @@ public class ElasticSinkConnector extends SinkConnector {
             .define(ELASTIC_INDEX_PARTITIONS, ConfigDef.Type.INT, 1, ConfigDef.Importance.HIGH,
                     "Elastic index partitions", ELASTIC_PARAM_GROUP, 8, ConfigDef.Width.SHORT,
                     "Number of partitions for new Elastic indexes (required)")
+            .define(ELASTIC_BULK_MAX_RECORDS, ConfigDef.Type.INT, 1000, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.MEDIUM, "Maximum number of records in a bulk request (Default: 1000)",
+                    ELASTIC_PARAM_GROUP, 9, ConfigDef.Width.SHORT, "Elastic bulk max records (optional).")
+            .define(ELASTIC_BULK_MAX_BYTES, ConfigDef.Type.LONG, 5242880L, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.MEDIUM, "Maximum payload (bytes) of a bulk request (Default: 5242880)",
+                    ELASTIC_PARAM_GROUP, 10, ConfigDef.Width.SHORT, "Elastic bulk max bytes (optional).")
+            .define(ELASTIC_BULK_LINGER_MS, ConfigDef.Type.LONG, 1000L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.MEDIUM, "Maximum time (milliseconds) a record waits to be sent (Default: 1000)",
+                    ELASTIC_PARAM_GROUP, 11, ConfigDef.Width.SHORT, "Elastic bulk linger time (optional).")
+            .define(ELASTIC_BULK_MAX_RETRIES, ConfigDef.Type.INT, 5, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of retries of failed records (Default: 5)",
+                    ELASTIC_PARAM_GROUP, 12, ConfigDef.Width.SHORT, "Elastic bulk max retries (optional).")
+            .define(ELASTIC_BULK_RETRY_BACKOFF_MS, ConfigDef.Type.LONG, 100L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Time (milliseconds) before the first retry, doubled on each retry (Default: 100)",
+                    ELASTIC_PARAM_GROUP, 13, ConfigDef.Width.SHORT, "Elastic bulk retry backoff (optional).")
+            .define(ELASTIC_BULK_MAX_IN_FLIGHT, ConfigDef.Type.INT, 4, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.MEDIUM, "Maximum number of bulk requests in flight concurrently (Default: 4)",
+                    ELASTIC_PARAM_GROUP, 14, ConfigDef.Width.SHORT, "Elastic bulk max in flight requests (optional).")
             .define(KAFKA_SINK_TOPICS, ConfigDef.Type.STRING,
                     "netflow-raw-connector,netflow-preprocessed-connector", ConfigDef.Importance.HIGH,
                     "Kafka topics for reading data from (comma separated)", KAFKA_PARAM_GROUP,
@@ -182,7 +246,13 @@ public class ElasticSinkConnector extends SinkConnector {
                     "Netflows will be integrated with Zeek (optional).")
             .define(BENCHMARK_MODE, ConfigDef.Type.STRING, "false", ConfigDef.Importance.HIGH,
                     "Run Kafka Source Connector in benchmark mode (Default: false)", OTHER_PARAM_GROUP, 1, ConfigDef.Width.SHORT,
-                    "Run Kafka Source Connector in benchmark mode (optional).");
+                    "Run Kafka Source Connector in benchmark mode (optional).")
+            .define(BENCHMARK_FLUSH_INTERVAL_S, ConfigDef.Type.INT, 10, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Interval (seconds) of writing latency percentiles in benchmark mode (Default: 10)",
+                    OTHER_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "Benchmark flush interval (optional).")
+            .define(NETFLOW_TIME_ZONE, ConfigDef.Type.STRING, "UTC", ElasticSinkConnector::validateTimeZone,
+                    ConfigDef.Importance.MEDIUM, "Time zone of the dates of netflow records (Default: UTC)",
+                    OTHER_PARAM_GROUP, 3, ConfigDef.Width.SHORT, "Netflow time zone (optional).");
     /**
      * Map, that will store configuration from configDef object, after validation.
      */
@@ -219,6 +289,21 @@ public class ElasticSinkConnector extends SinkConnector {
         logger.info("Starting Elastic sink connector.");
     }
 
+    /**
+     * Validates a time zone ID, e.g. UTC or Europe/Athens.
+     *
+     * @param name  String Name of the configuration key.
+     * @param value Object The time zone ID.
+     * @throws ConfigException If the time zone is unknown.
+     */
+    private static void validateTimeZone(String name, Object value) {
+        try {
+            ZoneId.of(String.valueOf(value).trim());
+        } catch (DateTimeException e) {
+            throw new ConfigException(name, value, e.getMessage());
+        }
+    }
+
     /**
      * Configure tasks for connector.
      *
@@ -4,18 +4,23 @@ import elastic.OpenSearchUtils;
 import models.NetflowAgent;
 import models.NetflowInput;
 import models.NetflowRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.utils.AppInfoParser;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.apache.log4j.Logger;
+import utils.EnrichmentContext;
 import utils.Helpers;
+import utils.LatencyRecorder;
 
+import java.time.ZoneId;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.TimeZone;
 
 /**
  * ElasticSinkTask is a Task that receives raw and preprocessed netflow data
@@ -30,11 +35,20 @@ public class ElasticSinkTask extends SinkTask {
      * Logger Instance.
      */
     private Logger logger = Logger.getLogger(ElasticSinkTask.class);
+    /**
+     * Maximum time (milliseconds) to wait for bulk requests in flight, when the task stops.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 30000;
     /**
      * Object, that initializes connection with Elastic and does operations.
      */
     private OpenSearchUtils elasticFunctions;
 
+    /**
+     * Offsets of records, that have been sent to Elastic and have not been acknowledged yet.
+     */
+    private OffsetTracker offsetTracker = new OffsetTracker();
+
     /**
      * HashMap(String, String) A hashmap contains all props passed in start() function.
      */
@@ -51,15 +65,38 @@ public class ElasticSinkTask extends SinkTask {
      */
     private boolean BENCHMARK_MODE = false;
 
+    /**
+     * Recorder of latencies in benchmark mode. Null if benchmark mode is disabled.
+     */
+    private LatencyRecorder latencyRecorder = null;
+    /**
+     * Latencies of records, from their creation in Kafka producer until they are received by the sink.
+     */
+    private LatencyRecorder.Stage transitLatency;
+    /**
+     * Latencies of converting a record and inserting it to Elastic.
+     */
+    private LatencyRecorder.Stage indexLatency;
+    /**
+     * Latencies of processing all records of a put.
+     */
+    private LatencyRecorder.Stage batchLatency;
+
     /**
      * A variable that says if netflows are integrated with Zeek.
      */
     private boolean ZEEK_ENABLED = false;
 
     /**
-     * Helper functions.
+     * Time zone of the dates of netflow records, in which dates of struct records are formatted.
      */
-    private Helpers helperFunctions = null;
+    private TimeZone NETFLOW_TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Helper functions, that enrich records. Shared by all records and
+     * replaced, when the subnets file changes.
+     */
+    private EnrichmentContext enrichmentContext = null;
 
     /**
      * Metadata about collector agent.
@@ -102,6 +139,16 @@ public class ElasticSinkTask extends SinkTask {
             BENCHMARK_MODE = false;
         }
         logger.info("BENCHMARK_MODE:" + BENCHMARK_MODE);
+        if (BENCHMARK_MODE) {
+            latencyRecorder = new LatencyRecorder("netflow-sink",
+                    Integer.parseInt(props.get(ElasticSinkConnector.BENCHMARK_FLUSH_INTERVAL_S)));
+            transitLatency = latencyRecorder.stage("record.transit");
+            indexLatency = latencyRecorder.stage("record.index");
+            batchLatency = latencyRecorder.stage("put.batch");
+        }
+
+        NETFLOW_TIME_ZONE = TimeZone.getTimeZone(ZoneId.of(props.get(ElasticSinkConnector.NETFLOW_TIME_ZONE).trim()));
+        logger.info("NETFLOW_TIME_ZONE:" + NETFLOW_TIME_ZONE.getID());
 
         // Connector properties
         try {
@@ -123,12 +170,22 @@ public class ElasticSinkTask extends SinkTask {
                 config.get(ElasticSinkConnector.ELASTIC_PASSWORD)
         );
 
+        elasticFunctions.configureBulk(
+                Integer.parseInt(config.get(ElasticSinkConnector.ELASTIC_BULK_MAX_RECORDS)),
+                Long.parseLong(config.get(ElasticSinkConnector.ELASTIC_BULK_MAX_BYTES)),
+                Long.parseLong(config.get(ElasticSinkConnector.ELASTIC_BULK_LINGER_MS)),
+                Integer.parseInt(config.get(ElasticSinkConnector.ELASTIC_BULK_MAX_RETRIES)),
+                Long.parseLong(config.get(ElasticSinkConnector.ELASTIC_BULK_RETRY_BACKOFF_MS)),
+                Integer.parseInt(config.get(ElasticSinkConnector.ELASTIC_BULK_MAX_IN_FLIGHT))
+        );
+
         // Initialize Elastic indexes for raw & preprocessed netflows
         elasticFunctions.initializeElasticIndex(config.get(ElasticSinkConnector.RAW_NETFLOW_ELASTIC_INDEX));
         elasticFunctions.initializeElasticIndex(config.get(ElasticSinkConnector.PREPROCESSED_NETFLOW_ELASTIC_INDEX));
 
-        // Create Helpers object for creating JSON object for Elasticsearch
-        helperFunctions = new Helpers();
+        // Create Helpers object for creating JSON object for Elasticsearch, once for all records
+        enrichmentContext = new EnrichmentContext("subnets.txt");
+        Helpers helperFunctions = enrichmentContext.get();
 
         // Initialize some metadata properties about collector, that will be
         // included in final object, that will be pushed in Elasticsearch.
@@ -145,98 +202,161 @@ public class ElasticSinkTask extends SinkTask {
     /**
      * Main task of sink connectors. Retrieves data from Kafka topics, converts them
      * from csv format to json format using mapping files and stores them to appropriate
-     * Elastic index.
+     * Elastic index. Records are sent in bulk requests, when enough of them are
+     * pending, or when they have waited for elastic.bulk.linger.ms. It does not
+     * wait for the responses of the requests, unless elastic.bulk.max.in.flight
+     * requests are already in flight.
      *
      * @param sinkRecords Collection(SinkRecord) A Java collection, that contains all
      *                    retrieved records from Kafka topics.
      */
     public void put(Collection<SinkRecord> sinkRecords) {
+        checkBulkFailure();
+
         int counterRaw = 0;
         int counterPreprocessed = 0;
+        long batchStart = System.nanoTime();
 
-        for (SinkRecord record : sinkRecords) {
-            if (BENCHMARK_MODE) {
-                try {
-                    FileWriter fw = new FileWriter("benchmarking.log", true);
-                    fw.write(record.topic() + " " + record.key().toString() + " get-sink " + System.currentTimeMillis() + "\n");
-                    fw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+        try {
+            for (SinkRecord record : sinkRecords) {
+                long recordStart = System.nanoTime();
+                if (latencyRecorder != null && record.timestamp() != null) {
+                    transitLatency.recordSinceMillis(record.timestamp());
                 }
 
-            }
+                if (record.topic().equals(config.get(ElasticSinkConnector.RAW_NETFLOW_KAFKA_TOPIC))) {
+                    if (SINK_RAW_NETFLOW) {
+                        try {
+                            NetflowRecord netflowRecord = record.value() instanceof Struct
+                                    ? new NetflowRecord(record.key().toString(), (Struct) record.value(), agent, input,
+                                            enrichmentContext.get(), NETFLOW_TIME_ZONE)
+                                    : new NetflowRecord(record.key().toString(), record.value().toString(), agent, input,
+                                            enrichmentContext.get());
+
+                            // Add them to bulk request for Elastic index
+                            elasticFunctions.bulkInsertNetflowRecord(
+                                    record.key().toString(),
+                                    netflowRecord,
+                                    config.get(ElasticSinkConnector.RAW_NETFLOW_ELASTIC_INDEX),
+                                    offsetTracker.track(
+                                            new TopicPartition(record.topic(), record.kafkaPartition()),
+                                            record.kafkaOffset())
+                            );
+
+                            if (latencyRecorder != null) {
+                                indexLatency.recordSince(recordStart);
+                            }
+                        }
+                        catch (NullPointerException e) {
+                            logger.error("Cannot convert raw record (" + record.key().toString() + ") " + record.value().toString());
+                        }
 
-            if (record.topic().equals(config.get(ElasticSinkConnector.RAW_NETFLOW_KAFKA_TOPIC))) {
-                if (SINK_RAW_NETFLOW) {
+                        counterRaw++;
+                    }
+                } else if (record.topic().equals(config.get(ElasticSinkConnector.PREPROCESSED_NETFLOW_KAFKA_TOPIC))) {
                     try {
                         NetflowRecord netflowRecord = new NetflowRecord(
-                                record.key().toString(), record.value().toString(), agent, input
+                                record.key().toString(), record.value().toString(), agent, input,
+                                enrichmentContext.get()
                         );
 
-                        // Insert them to Elastic index
-                        elasticFunctions.insertNetflowRecord(
+                        // Add them to bulk request for Elastic index
+                        elasticFunctions.bulkInsertNetflowRecord(
                                 record.key().toString(),
                                 netflowRecord,
-                                config.get(ElasticSinkConnector.RAW_NETFLOW_ELASTIC_INDEX)
+                                config.get(ElasticSinkConnector.PREPROCESSED_NETFLOW_ELASTIC_INDEX),
+                                offsetTracker.track(
+                                        new TopicPartition(record.topic(), record.kafkaPartition()),
+                                        record.kafkaOffset())
                         );
 
-                        if (BENCHMARK_MODE) {
-                            try {
-                                FileWriter fw = new FileWriter("benchmarking.log", true);
-                                fw.write(record.topic() + " " + record.key().toString() + " send-elk " + System.currentTimeMillis() + "\n");
-                                fw.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
+                        if (latencyRecorder != null) {
+                            indexLatency.recordSince(recordStart);
                         }
                     }
                     catch (NullPointerException e) {
-                        logger.error("Cannot convert raw record (" + record.key().toString() + ") " + record.value().toString());
+                        logger.error("Cannot convert preprocessed & anonymized record (" + record.key().toString() + ") " + record.value().toString());
                     }
 
-                    counterRaw++;
+                    counterPreprocessed++;
                 }
-            } else if (record.topic().equals(config.get(ElasticSinkConnector.PREPROCESSED_NETFLOW_KAFKA_TOPIC))) {
-                try {
-                    NetflowRecord netflowRecord = new NetflowRecord(
-                            record.key().toString(), record.value().toString(), agent, input
-                    );
-
-                    // Insert them to Elastic index
-                    elasticFunctions.insertNetflowRecord(
-                            record.key().toString(),
-                            netflowRecord,
-                            config.get(ElasticSinkConnector.PREPROCESSED_NETFLOW_ELASTIC_INDEX)
-                    );
-
-                    if (BENCHMARK_MODE) {
-                        try {
-                            FileWriter fw = new FileWriter("benchmarking.log", true);
-                            fw.write(record.topic() + " " + record.key().toString() + " send-elk " + System.currentTimeMillis() + "\n");
-                            fw.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-                catch (NullPointerException e) {
-                    logger.error("Cannot convert preprocessed & anonymized record (" + record.key().toString() + ") " + record.value().toString());
-                }
-
-                counterPreprocessed++;
             }
+            elasticFunctions.sendBulkIfDue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectException("Interrupted while sending netflow records to Elastic.", e);
+        }
+        if (latencyRecorder != null) {
+            batchLatency.recordSince(batchStart);
         }
         logger.info("Retrieved " + sinkRecords.size() + " messages (" + counterRaw + " raw netflows, " + counterPreprocessed + " prepprocessed netflows)!");
     }
 
     /**
-     * Stop sink task. Closes Elastic connection.
+     * Sends all pending records to Elastic, without waiting for the response,
+     * and returns the offsets of the records, that have been acknowledged by
+     * Elastic, so that only durably indexed records are committed.
+     *
+     * @param currentOffsets Map(TopicPartition, OffsetAndMetadata) Offsets after the last record put to the task.
+     * @return Map(TopicPartition, OffsetAndMetadata) Offsets, that can be committed.
+     */
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        checkBulkFailure();
+        try {
+            elasticFunctions.sendBulk();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return offsetTracker.committableOffsets(currentOffsets);
+    }
+
+    /**
+     * Sends all pending records of partitions, that are not assigned to the
+     * task anymore, and waits for their bulk requests to complete.
+     *
+     * @param partitions Collection(TopicPartition) The partitions.
+     */
+    @Override
+    public void close(Collection<TopicPartition> partitions) {
+        if (elasticFunctions != null) {
+            try {
+                elasticFunctions.flushBulk();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        offsetTracker.remove(partitions);
+    }
+
+    /**
+     * Fails the task, if a bulk request has failed after all its retries, so
+     * that its records are not committed and are retrieved again on restart.
+     */
+    private void checkBulkFailure() {
+        Exception failure = elasticFunctions.getBulkFailure();
+        if (failure != null) {
+            throw new ConnectException("Cannot index netflow records to Elastic.", failure);
+        }
+    }
+
+    /**
+     * Stop sink task. Sends pending records and closes Elastic connection.
      */
     @Override
     public void stop() {
         logger.info("Closing elastic connection.");
         if (elasticFunctions != null) {
-            elasticFunctions.close();
+            elasticFunctions.close(CLOSE_TIMEOUT_MS);
+        }
+
+        if (enrichmentContext != null) {
+            enrichmentContext.close();
+        }
+
+        if (latencyRecorder != null) {
+            latencyRecorder.close();
         }
 
         logger.info("Stopping netflow sink task.");
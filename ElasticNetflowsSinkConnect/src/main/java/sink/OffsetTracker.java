@@ -0,0 +1,107 @@
+package sink;
+
+import elastic.BulkIndexer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OffsetTracker keeps the offsets of records, that have been handed to the
+ * bulk indexer and have not been acknowledged yet, per topic partition, so
+ * that only offsets of records durably indexed in Elastic are committed.
+ * Bulk requests complete out of order, so the offset committed for a
+ * partition is the offset of its oldest record, that has not been
+ * acknowledged. Records, that are not indexed at all, e.g. raw records when
+ * they are ignored, are not tracked, and their offsets are committed as soon
+ * as all older tracked records of their partition have been acknowledged.
+ * Records are tracked and offsets are read by the task thread, while
+ * acknowledgements come from sender threads.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class OffsetTracker {
+    /**
+     * A tracked record.
+     */
+    public static class Entry implements BulkIndexer.Acknowledgement {
+        private final long offset;
+        private volatile boolean acked = false;
+
+        Entry(long offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void acknowledged() {
+            acked = true;
+        }
+    }
+
+    /**
+     * Tracked records of each partition, in the order of their offsets.
+     */
+    private Map<TopicPartition, ArrayDeque<Entry>> entries = new HashMap<TopicPartition, ArrayDeque<Entry>>();
+
+    /**
+     * Starts tracking a record.
+     *
+     * @param partition TopicPartition Partition of the record.
+     * @param offset    long Offset of the record.
+     * @return Entry The acknowledgement, that must be passed to the bulk indexer with the record.
+     */
+    public Entry track(TopicPartition partition, long offset) {
+        ArrayDeque<Entry> queue = entries.get(partition);
+        if (queue == null) {
+            queue = new ArrayDeque<Entry>();
+            entries.put(partition, queue);
+        }
+        Entry entry = new Entry(offset);
+        queue.addLast(entry);
+        return entry;
+    }
+
+    /**
+     * Returns the offsets, that can be committed, i.e. the offsets after the
+     * last record of each partition, whose older records have all been acknowledged.
+     *
+     * @param currentOffsets Map(TopicPartition, OffsetAndMetadata) Offsets after the last record
+     *                       put to the task, for each partition.
+     * @return Map(TopicPartition, OffsetAndMetadata) Offsets, that can be committed.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committableOffsets(
+            Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        Map<TopicPartition, OffsetAndMetadata> committable = new HashMap<TopicPartition, OffsetAndMetadata>();
+
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> current : currentOffsets.entrySet()) {
+            ArrayDeque<Entry> queue = entries.get(current.getKey());
+            while (queue != null && !queue.isEmpty() && queue.peekFirst().acked) {
+                queue.pollFirst();
+            }
+
+            if (queue == null || queue.isEmpty()) {
+                committable.put(current.getKey(), current.getValue());
+            } else {
+                committable.put(current.getKey(), new OffsetAndMetadata(queue.peekFirst().offset));
+            }
+        }
+
+        return committable;
+    }
+
+    /**
+     * Stops tracking the records of partitions, that are not assigned to the task anymore.
+     *
+     * @param partitions Collection(TopicPartition) The partitions.
+     */
+    public void remove(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            entries.remove(partition);
+        }
+    }
+}
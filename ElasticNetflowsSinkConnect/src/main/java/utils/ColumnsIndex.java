@@ -16,4 +16,20 @@ public class ColumnsIndex {
     public static final int EVENT_ENDED = 1;
     public static final int EVENT_DURATION = 2;
     public static final int ZEEK_SCORE = 48;
+
+    // Field names of records sent as Structs by the netflow source
+    public static final String SRC_IP_ADDR_FIELD = "sa";
+    public static final String SRC_PORT_FIELD = "sp";
+    public static final String SRC_BYT_FIELD = "ibyt";
+    public static final String SRC_PKT_FIELD = "ipkt";
+    public static final String DST_IP_ADDR_FIELD = "da";
+    public static final String DST_PORT_FIELD = "dp";
+    public static final String DST_BYT_FIELD = "obyt";
+    public static final String DST_PKT_FIELD = "opkt";
+    public static final String NETWORK_PROTOCOL_FIELD = "pr";
+    public static final String TCP_FLAGS_FIELD = "flg";
+    public static final String EVENT_CREATED_FIELD = "tr";
+    public static final String EVENT_STARTED_FIELD = "ts";
+    public static final String EVENT_ENDED_FIELD = "te";
+    public static final String EVENT_DURATION_FIELD = "td";
 }
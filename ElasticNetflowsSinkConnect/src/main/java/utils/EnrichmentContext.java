@@ -0,0 +1,230 @@
+package utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * EnrichmentContext keeps the Helpers object, that enriches netflow records
+ * (IP locality, network community ID, tenant ID), so that it is built once per
+ * task and shared by all records, instead of once per record. A background
+ * thread watches the subnets file, and when it changes, it loads the subnets
+ * again and swaps in a new Helpers object atomically. Records that are being
+ * converted keep the Helpers object they started with, and the next records
+ * use the new one, so a reload costs nothing per record and does not require
+ * a restart of the connector. The directory of the file is watched with the
+ * file system's WatchService (inotify in Linux), and the modification time and
+ * size of the file are also checked periodically, for file systems without
+ * events and for files replaced through symbolic links, e.g. Kubernetes
+ * ConfigMaps. A changed file is loaded, once it has not changed for a settle
+ * time. If the file has been removed, or cannot be read or parsed, the
+ * current subnets are kept; the default subnets are used only if the file
+ * cannot be loaded when the task starts.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class EnrichmentContext {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(EnrichmentContext.class);
+
+    /**
+     * Time (milliseconds) between periodic checks of the subnets file.
+     */
+    private static final long CHECK_INTERVAL_MS = 10000;
+    /**
+     * Time (milliseconds) the subnets file must stay unchanged, before it is
+     * loaded, so that a file being written is not loaded partially.
+     */
+    private static final long SETTLE_MS = 1000;
+
+    /**
+     * The subnets file.
+     */
+    private Path subnetsFile;
+
+    /**
+     * The current Helpers object.
+     */
+    private AtomicReference<Helpers> helpers = new AtomicReference<Helpers>();
+
+    /**
+     * Modification time (milliseconds) and size of the subnets file, when it was last loaded.
+     */
+    private long loadedModifiedMs = -1;
+    private long loadedSize = -1;
+
+    /**
+     * Thread, that watches the subnets file.
+     */
+    private Thread watcher;
+
+    /**
+     * Constructor. Loads the subnets file and starts watching it.
+     *
+     * @param subnetsFile String Path of the subnets file.
+     */
+    public EnrichmentContext(String subnetsFile) {
+        this.subnetsFile = Paths.get(subnetsFile).toAbsolutePath();
+        this.loadedModifiedMs = modifiedMs();
+        this.loadedSize = size();
+        this.helpers.set(new Helpers(InternalSubnets.load(subnetsFile)));
+
+        this.watcher = new Thread(this::watch, "subnets-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * Returns the current Helpers object. Callers should get it once per
+     * record, so that a record is enriched consistently.
+     *
+     * @return Helpers The current Helpers object.
+     */
+    public Helpers get() {
+        return helpers.get();
+    }
+
+    /**
+     * Stops watching the subnets file.
+     */
+    public void close() {
+        watcher.interrupt();
+    }
+
+    /**
+     * Watches the directory of the subnets file, until the thread is
+     * interrupted. If the directory cannot be watched, the file is only checked
+     * periodically.
+     */
+    private void watch() {
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            subnetsFile.getParent().register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+            );
+        } catch (IOException e) {
+            logger.warn("IOException. Cannot watch directory of " + subnetsFile + ". It will be checked every "
+                    + CHECK_INTERVAL_MS + " ms.");
+            logger.warn(e.getMessage());
+            watchService = null;
+        }
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        // Any event in the directory may replace the file, e.g. a symbolic link.
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(CHECK_INTERVAL_MS);
+                }
+                reloadIfChanged();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    logger.warn("IOException. Cannot close WatchService of " + subnetsFile + ".");
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the subnets file and swaps in a new Helpers object, if the file has
+     * been modified since it was last loaded and has not changed for the settle
+     * time. If it cannot be read or parsed, the current Helpers object is kept.
+     *
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    private void reloadIfChanged() throws InterruptedException {
+        long modifiedMs = modifiedMs();
+        long size = size();
+        if (modifiedMs < 0) {
+            if (loadedModifiedMs >= 0) {
+                logger.warn("Subnets file " + subnetsFile + " has been removed. Keeping the loaded subnets.");
+                loadedModifiedMs = -1;
+            }
+            return;
+        }
+        if (modifiedMs == loadedModifiedMs && size == loadedSize) {
+            return;
+        }
+        Thread.sleep(SETTLE_MS);
+        if (modifiedMs() != modifiedMs || size() != size) {
+            // Still being written. It is checked again on its next event or check.
+            return;
+        }
+
+        logger.info("Subnets file " + subnetsFile + " has changed. Reloading internal subnets.");
+        Helpers reloaded;
+        try {
+            reloaded = new Helpers(InternalSubnets.loadStrict(subnetsFile.toString()));
+        } catch (IOException e) {
+            // Removed or being replaced. It is loaded again on its next event or check.
+            logger.error("IOException. Cannot reload subnets file " + subnetsFile + ". Keeping the loaded subnets.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            logger.error("IllegalArgumentException. Cannot reload subnets file " + subnetsFile
+                    + ". Keeping the loaded subnets.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            return;
+        }
+        loadedModifiedMs = modifiedMs;
+        loadedSize = size;
+        helpers.set(reloaded);
+    }
+
+    /**
+     * Returns the modification time of the subnets file, following symbolic links.
+     *
+     * @return long Time in milliseconds, or -1 if the file does not exist.
+     */
+    private long modifiedMs() {
+        try {
+            return Files.getLastModifiedTime(subnetsFile).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the size of the subnets file, following symbolic links.
+     *
+     * @return long Size in bytes, or -1 if the file does not exist.
+     */
+    private long size() {
+        try {
+            return Files.size(subnetsFile);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -1,9 +1,6 @@
 package utils;
 
-import com.rapid7.communityid.CommunityIdGenerator;
-import com.rapid7.communityid.Protocol;
 import models.*;
-import org.apache.commons.net.util.SubnetUtils;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
@@ -18,16 +15,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Helpers class. Contains static methods
- * that may be used from all classes.
+ * Helpers class. Contains methods that may be used from all classes. An
+ * instance is not modified after it has been created, so one instance is
+ * shared by all records of a task (see EnrichmentContext).
  *
  * @author Space Hellas S.A.
  * @version 0.1-SNAPSHOT
@@ -37,22 +33,21 @@ public class Helpers {
     /**
      * Logger Instance.
      */
-    private Logger logger;
+    private final Logger logger;
 
     /**
-     * List with all IPs that are considered internals
+     * Subnets, whose IPs are considered internals
      */
-    private ArrayList<String> internalIps;
+    private final InternalSubnets internalSubnets;
 
     /**
-     * Generator for network community ID
+     * Constructor
+     *
+     * @param internalSubnets InternalSubnets Subnets, whose IPs are considered internals.
      */
-    private CommunityIdGenerator networkCommunityIdGenerator;
-
-    public Helpers() {
+    public Helpers(InternalSubnets internalSubnets) {
         this.logger = Logger.getLogger(Helpers.class);
-        this.internalIps = loadInternalSubnets();
-        this.networkCommunityIdGenerator = new CommunityIdGenerator();
+        this.internalSubnets = internalSubnets;
     }
 
     /**
@@ -163,111 +158,59 @@ public class Helpers {
 
     /**
      * Checks if a given IP address is internal or external. The checking is taking place using a file
-     * with all internal IP addresses. If the given IP is found in this list, then it is considered as
+     * with all internal subnets. If the given IP belongs to one of these subnets, then it is considered as
      * internal IP. Otherwise, it is considered as external IP address.
      *
      * @param ipAddr String The IP address to check if it is internal or not.
-     * @return String Returns "internal" if the given IP is found in list with internal IP addresses
+     * @return String Returns "internal" if the given IP belongs to an internal subnet
      * and "external" otherwise.
      */
     public String checkIpLocality(String ipAddr) {
-        if (internalIps.contains(ipAddr)) {
-            return "internal";
-        }
-        return "external";
+        return checkIpLocality(ipAddr, -1);
     }
 
     /**
-     * Loads all subnets, that their IPs must be defined as internal IPs. The list
-     * of these subnets must be written in a txt file, in the following format: IP/Mask.
-     * (For example: 192.168.2.0/24). All IPs of these subnets will be a loaded in a
-     * list and used for defining if an IP is internal (belonging in one of these subnets)
-     * or external. If the file with the subnets cannot be loaded, some default subnets will
-     * be returned. These default subnets are the following: 10.10.5.0/24, 10.10.11.0/24,
-     * 192.168.1.0/24, 192.168.2.0/24.
+     * Checks if a given IP address is internal or external for a tenant. The IP is
+     * considered as internal, if it belongs to the internal subnets of all tenants,
+     * or to the internal subnets of the given tenant.
      *
-     * @return ArrayList(String) A list which contains all IPs that will be marked as internals.
+     * @param ipAddr   String The IP address to check if it is internal or not.
+     * @param tenantId Int The ID of the tenant, or -1 if it is unknown.
+     * @return String Returns "internal" if the given IP belongs to an internal subnet
+     * and "external" otherwise.
      */
-    private ArrayList<String> loadInternalSubnets() {
-        ArrayList<String> internalAddresses = new ArrayList<String>();
-        ArrayList<String> subnets = new ArrayList<String>();
-        String subnetsFile = "subnets.txt";
-
-        try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(subnetsFile)));
-            String line = null;
-            while ((line = bufferedReader.readLine()) != null) {
-                subnets.add(line.trim());
-            }
-        } catch (FileNotFoundException e) {
-            logger.error("FileNotFoundException. Something went wrong loading subnets file. Initializing with default subnets values:");
-            logger.error("10.10.5.0/24, 10.10.11.0/24, 192.168.1.0/24, 192.168.2.0/24");
-            logger.error(e.getCause());
-            logger.error(e.getMessage());
-
-            subnets.clear();
-            subnets.add("10.10.5.0/24");
-            subnets.add("10.10.11.0/24");
-            subnets.add("192.168.1.0/24");
-            subnets.add("192.168.2.0/24");
-        } catch (IOException e) {
-            logger.error("IOException. Something went wrong loading subnets file. Initializing with default subnets values:");
-            logger.error("10.10.5.0/24, 10.10.11.0/24, 192.168.1.0/24, 192.168.2.0/24");
-            logger.error(e.getCause());
-            logger.error(e.getMessage());
-
-            subnets.clear();
-            subnets.add("10.10.5.0/24");
-            subnets.add("10.10.11.0/24");
-            subnets.add("192.168.1.0/24");
-            subnets.add("192.168.2.0/24");
+    public String checkIpLocality(String ipAddr, int tenantId) {
+        if (internalSubnets.isInternal(ipAddr, tenantId)) {
+            return "internal";
         }
-
-        subnets.forEach(subnet -> {
-            SubnetUtils subnetUtils = new SubnetUtils(subnet.trim());
-            internalAddresses.addAll(Arrays.asList(subnetUtils.getInfo().getAllAddresses()));
-        });
-
-        return internalAddresses;
+        return "external";
     }
 
     /**
      * Creates and returns the network community ID of the netflow. The
      * community ID is an identifier for a netflow, which is produced using
      * some netflow fields. More specifically it uses source IP address,
-     * destination IP address, source and destination ports and the netflow
-     * protocol (UDP, TCP). The flow community ID is generated using the open-source
-     * community-id-java library (https://github.com/rapid7/community-id-java).
+     * destination IP address, source and destination ports (or ICMP type and
+     * code) and the netflow protocol. The flow community ID is generated with
+     * CommunityId, which implements version 1 of the Community ID spec.
      *
      * @param srcIp    String Source IP address.
      * @param dstIp    String Destination IP address.
      * @param srcPort  Int Source port.
      * @param dstPort  Int Destination port.
-     * @param protocol String Protocol of the netflow (TCP, UDP).
+     * @param protocol String Protocol of the netflow (e.g. TCP, UDP, ICMP), or its IANA number.
      * @return String A netflow hash, which follows the open Community ID
      * (https://github.com/corelight/community-id-spec) netflow hashing standard.
      */
     public String getNetworkCommunityId(String srcIp, String dstIp, int srcPort, int dstPort, String protocol) {
-        Protocol pr = Protocol.UDP;
-        if (protocol.toUpperCase().trim().equals("TCP")) {
-            pr = Protocol.TCP;
-        }
-
-        try {
-            return this.networkCommunityIdGenerator.generateCommunityId(
-                    pr,
-                    InetAddress.getByName(srcIp),
-                    srcPort,
-                    InetAddress.getByName(dstIp),
-                    dstPort
-            );
-        } catch (UnknownHostException e) {
-            logger.error("UnknownHostException. Cannot create network community ID. Returning default 1:unknown.");
-            logger.error(e.getCause());
-            logger.error(e.getMessage());
+        String communityId = CommunityId.communityId(srcIp, dstIp, srcPort, dstPort, protocol);
+        if (communityId == null) {
+            logger.error("Cannot create network community ID for netflow " + srcIp + ":" + srcPort + " -> " + dstIp + ":"
+                    + dstPort + " (" + protocol + "). Returning default 1:unknown.");
 
             return "1:unknown";
         }
+        return communityId;
     }
 
     /**
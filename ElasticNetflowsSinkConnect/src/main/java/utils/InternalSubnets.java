@@ -0,0 +1,181 @@
+package utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * InternalSubnets keeps the subnets, whose IPs are considered internal, in
+ * SubnetTries: one with the subnets of all tenants, and optionally one per
+ * tenant. The subnets are loaded from a txt file, one per line, in the format
+ * SUBNET_IP/SUBNET_MASK (e.g. 192.168.2.0/24 or fd00::/8) for subnets of all
+ * tenants, or TENANT_ID,SUBNET_IP/SUBNET_MASK for subnets of a single tenant.
+ * Empty lines and lines starting with '#' are ignored. An instance is not
+ * modified after it has been loaded, so it can be shared by threads.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class InternalSubnets {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(InternalSubnets.class);
+
+    /**
+     * Subnets, that are used if the subnets file cannot be loaded.
+     */
+    private static final String[] DEFAULT_SUBNETS = {
+            "10.10.5.0/24", "10.10.11.0/24", "192.168.1.0/24", "192.168.2.0/24"
+    };
+
+    /**
+     * Subnets of all tenants.
+     */
+    private SubnetTrie subnets = new SubnetTrie();
+    /**
+     * Subnets of single tenants, by tenant ID.
+     */
+    private HashMap<Integer, SubnetTrie> tenantSubnets = new HashMap<Integer, SubnetTrie>();
+
+    private InternalSubnets() {
+    }
+
+    /**
+     * Checks if an IP address belongs to the subnets of all tenants, or to the
+     * subnets of the given tenant.
+     *
+     * @param ipAddr   String The IP address.
+     * @param tenantId int The ID of the tenant, or -1 if it is unknown.
+     * @return boolean True if the IP is internal.
+     */
+    public boolean isInternal(String ipAddr, int tenantId) {
+        if (subnets.contains(ipAddr)) {
+            return true;
+        }
+        SubnetTrie tenantTrie = tenantSubnets.get(tenantId);
+        return tenantTrie != null && tenantTrie.contains(ipAddr);
+    }
+
+    /**
+     * Loads all subnets, that their IPs must be defined as internal IPs, from a
+     * txt file. If the file cannot be loaded, some default subnets are used.
+     * These default subnets are the following: 10.10.5.0/24, 10.10.11.0/24,
+     * 192.168.1.0/24, 192.168.2.0/24. Invalid lines are logged and skipped.
+     *
+     * @param subnetsFile String Path of the subnets file.
+     * @return InternalSubnets The loaded subnets.
+     */
+    public static InternalSubnets load(String subnetsFile) {
+        ArrayList<String> lines = new ArrayList<String>();
+
+        try {
+            lines = readLines(subnetsFile);
+        } catch (FileNotFoundException e) {
+            logger.error("FileNotFoundException. Something went wrong loading subnets file. Initializing with default subnets values:");
+            logger.error(String.join(", ", DEFAULT_SUBNETS));
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+
+            lines.clear();
+            for (String subnet : DEFAULT_SUBNETS) {
+                lines.add(subnet);
+            }
+        } catch (IOException e) {
+            logger.error("IOException. Something went wrong loading subnets file. Initializing with default subnets values:");
+            logger.error(String.join(", ", DEFAULT_SUBNETS));
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+
+            lines.clear();
+            for (String subnet : DEFAULT_SUBNETS) {
+                lines.add(subnet);
+            }
+        }
+
+        return parse(subnetsFile, lines, false);
+    }
+
+    /**
+     * Loads all subnets from a txt file, like load(), but without falling back
+     * to the default subnets. Used to reload a file, that has changed, so that
+     * a file removed or partially written is not loaded, and the subnets
+     * already loaded are kept instead.
+     *
+     * @param subnetsFile String Path of the subnets file.
+     * @return InternalSubnets The loaded subnets.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If a line is not a valid subnet.
+     */
+    public static InternalSubnets loadStrict(String subnetsFile) throws IOException, IllegalArgumentException {
+        return parse(subnetsFile, readLines(subnetsFile), true);
+    }
+
+    /**
+     * Reads the trimmed lines of the subnets file.
+     *
+     * @param subnetsFile String Path of the subnets file.
+     * @return ArrayList(String) The lines.
+     * @throws IOException If the file cannot be read.
+     */
+    private static ArrayList<String> readLines(String subnetsFile) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(new File(subnetsFile)))) {
+            String line = null;
+            while ((line = bufferedReader.readLine()) != null) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Adds the subnets of the lines of a subnets file to new InternalSubnets.
+     *
+     * @param subnetsFile String Path of the subnets file, for logging.
+     * @param lines       List(String) The trimmed lines.
+     * @param strict      boolean If true, an invalid line fails the whole file, otherwise it is skipped.
+     * @return InternalSubnets The subnets.
+     * @throws IllegalArgumentException If strict and a line is not a valid subnet.
+     */
+    private static InternalSubnets parse(String subnetsFile, List<String> lines, boolean strict)
+            throws IllegalArgumentException {
+        InternalSubnets internalSubnets = new InternalSubnets();
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    internalSubnets.subnets.add(line);
+                } else {
+                    int tenantId = Integer.parseInt(line.substring(0, comma).trim());
+                    SubnetTrie tenantTrie = internalSubnets.tenantSubnets.get(tenantId);
+                    if (tenantTrie == null) {
+                        tenantTrie = new SubnetTrie();
+                        internalSubnets.tenantSubnets.put(tenantId, tenantTrie);
+                    }
+                    tenantTrie.add(line.substring(comma + 1));
+                }
+            } catch (IllegalArgumentException e) {
+                if (strict) {
+                    throw new IllegalArgumentException("Invalid subnet " + line + " in file " + subnetsFile + ".", e);
+                }
+                logger.warn("Ignoring invalid subnet " + line + " in file " + subnetsFile + ".");
+            }
+        }
+        logger.info("Loaded " + internalSubnets.subnets.size() + " internal subnets and subnets of "
+                + internalSubnets.tenantSubnets.size() + " tenants.");
+
+        return internalSubnets;
+    }
+}
@@ -0,0 +1,252 @@
+package utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyRecorder class. Records latencies of processing stages in benchmark mode.
+ * Each stage has a preallocated log-linear histogram (like HdrHistogram, with about
+ * 3% precision), so recording a latency is a lock free counter increment, without
+ * any allocation or I/O. Percentiles of each stage are appended to benchmarking.log
+ * periodically by a background thread, and histograms are reset after each flush.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class LatencyRecorder implements Closeable {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(LatencyRecorder.class);
+
+    /**
+     * File, where percentiles are appended.
+     */
+    private static final String BENCHMARK_FILE = "benchmarking.log";
+
+    /**
+     * Values below this number have a bucket each. Above it, each power of 2
+     * range is split in half as many buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    /**
+     * Number of buckets, enough for any positive long value.
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    /**
+     * Name of the component, e.g. source or sink, written in each line.
+     */
+    private String component;
+
+    /**
+     * Registered stages.
+     */
+    private List<Stage> stages = new CopyOnWriteArrayList<Stage>();
+
+    /**
+     * Snapshot of a histogram, reused in each flush.
+     */
+    private long[] snapshot = new long[BUCKET_COUNT];
+
+    /**
+     * Thread flushing percentiles periodically.
+     */
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Constructor. Starts a background thread, which appends percentiles of all
+     * stages to benchmarking.log periodically.
+     *
+     * @param component      String Name of the component, written in each line.
+     * @param flushIntervalS int Time interval (seconds) between flushes.
+     */
+    public LatencyRecorder(String component, int flushIntervalS) {
+        this.component = component;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "latency-recorder-" + component);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleAtFixedRate(this::flush, flushIntervalS, flushIntervalS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a new stage. Stages should be registered before recording starts,
+     * and the returned object should be kept for recording.
+     *
+     * @param name String Name of the stage.
+     * @return Stage The stage, where latencies are recorded.
+     */
+    public Stage stage(String name) {
+        Stage stage = new Stage(name);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Appends count and percentiles (in microseconds) of the latencies recorded in
+     * each stage since the previous flush to benchmarking.log. Stages without any
+     * recorded latency are skipped.
+     */
+    public synchronized void flush() {
+        StringBuilder lines = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (Stage stage : stages) {
+            long count = 0;
+            int highest = -1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                snapshot[i] = stage.counts.getAndSet(i, 0);
+                if (snapshot[i] > 0) {
+                    count += snapshot[i];
+                    highest = i;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+
+            lines.append(now).append(' ').append(component).append(' ').append(stage.name)
+                    .append(" count=").append(count)
+                    .append(" p50=").append(percentile(count, 0.5))
+                    .append(" p99=").append(percentile(count, 0.99))
+                    .append(" p999=").append(percentile(count, 0.999))
+                    .append(" max=").append(bucketValue(highest))
+                    .append(" us\n");
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+
+        try (FileWriter fw = new FileWriter(BENCHMARK_FILE, true)) {
+            fw.write(lines.toString());
+        } catch (IOException e) {
+            logger.error("IOException. Cannot write latencies to " + BENCHMARK_FILE + ".");
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Finds a percentile in current snapshot.
+     *
+     * @param count    long Number of values in snapshot.
+     * @param quantile double Quantile of the percentile, e.g. 0.99.
+     * @return long Highest value of the bucket, where the percentile is.
+     */
+    private long percentile(long count, double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return bucketValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index of the bucket, where a value is counted.
+     *
+     * @param value long The value. Negative values are counted as 0.
+     * @return int Index of the bucket.
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    /**
+     * Returns the highest value counted in a bucket.
+     *
+     * @param index int Index of the bucket.
+     * @return long Highest value of the bucket.
+     */
+    private static long bucketValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Stops the background thread and flushes latencies recorded since the
+     * last flush.
+     */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Stage class. Histogram of the latencies of a processing stage. Latencies
+     * may be recorded from any thread.
+     */
+    public static class Stage {
+        /**
+         * Name of the stage.
+         */
+        private String name;
+
+        /**
+         * Count of latencies in each bucket.
+         */
+        private AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+        /**
+         * Constructor
+         *
+         * @param name String Name of the stage.
+         */
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records a latency.
+         *
+         * @param micros long Latency in microseconds.
+         */
+        public void record(long micros) {
+            counts.incrementAndGet(bucketIndex(micros));
+        }
+
+        /**
+         * Records the latency from a start time, taken by System.nanoTime(), until now.
+         *
+         * @param startNanos long Start time in nanoseconds.
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        /**
+         * Records the latency from a wall clock time, e.g. a Kafka record timestamp,
+         * until now.
+         *
+         * @param startMillis long Start time in milliseconds since epoch.
+         */
+        public void recordSinceMillis(long startMillis) {
+            record((System.currentTimeMillis() - startMillis) * 1000);
+        }
+    }
+}
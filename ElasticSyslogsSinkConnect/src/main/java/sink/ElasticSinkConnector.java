@@ -100,6 +100,12 @@ public class ElasticSinkConnector extends SinkConnector {
      */
     public static final String BENCHMARK_MODE = "benchmark_mode";
 
+    /**
+     * Time interval (seconds), that latency percentiles are written to
+     * benchmarking.log in benchmark mode. Default: 10.
+     */
+    public static final String BENCHMARK_FLUSH_INTERVAL_S = "benchmark.flush.interval.s";
+
     // kafka properties
     
     /**
@@ -169,7 +175,10 @@ public class ElasticSinkConnector extends SinkConnector {
                     "Sink raw syslog data or not (required).")
             .define(BENCHMARK_MODE, ConfigDef.Type.STRING, "false", ConfigDef.Importance.HIGH,
                     "Run Kafka Source Connector in benchmark mode (Default: false)", OTHER_PARAM_GROUP, 0, ConfigDef.Width.SHORT,
-                    "Run Kafka Source Connector in benchmark mode (optional).");
+                    "Run Kafka Source Connector in benchmark mode (optional).")
+            .define(BENCHMARK_FLUSH_INTERVAL_S, ConfigDef.Type.INT, 10, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Interval (seconds) of writing latency percentiles in benchmark mode (Default: 10)",
+                    OTHER_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Benchmark flush interval (optional).");
     /**
      * Map, that will store configuration from configDef object, after validation.
      */
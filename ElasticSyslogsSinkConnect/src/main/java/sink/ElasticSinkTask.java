@@ -8,6 +8,7 @@ import org.apache.log4j.Logger;
 import org.json.JSONObject;
 import utils.CsvRecordSchema;
 import utils.ElasticJsonObject;
+import utils.LatencyRecorder;
 
 import java.io.File;
 import java.net.URISyntaxException;
@@ -15,9 +16,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
-import java.io.FileWriter;
-import java.io.IOException;
-
 /**
  * ElasticSinkTask is a Task that receives raw and preprocessed syslog data
  * in csv format, converts them to json format and stores them to Elastic.
@@ -34,6 +32,11 @@ public class ElasticSinkTask extends SinkTask {
      */
 
     CsvRecordSchema csvRecordSchemaRaw;
+    /**
+     * An object responsible for storing information about the columns in csv schema (preprocessed
+     * syslog schema). It parses csv records, like csvRecordSchemaRaw.
+     */
+    CsvRecordSchema csvRecordSchemaPreprocessed;
     /**
      * An object keeping information about the JSON schema (raw syslog records),
      * that will be used for storing records in Elastic. It loads a JSON file, which has information
@@ -79,6 +82,23 @@ public class ElasticSinkTask extends SinkTask {
      */
     private String BENCHMARK_MODE = "false";
 
+    /**
+     * Recorder of latencies in benchmark mode. Null if benchmark mode is disabled.
+     */
+    private LatencyRecorder latencyRecorder = null;
+    /**
+     * Latencies of records, from their creation in Kafka producer until they are received by the sink.
+     */
+    private LatencyRecorder.Stage transitLatency;
+    /**
+     * Latencies of converting a record and inserting it to Elastic.
+     */
+    private LatencyRecorder.Stage indexLatency;
+    /**
+     * Latencies of processing all records of a put.
+     */
+    private LatencyRecorder.Stage batchLatency;
+
     /**
      * Start function of sink task. It creates an Elastic functions object,
      * load some required mapping files for conversion.
@@ -98,6 +118,13 @@ public class ElasticSinkTask extends SinkTask {
 
         BENCHMARK_MODE = props.get("benchmark_mode");
         logger.info("BENCHMARK_MODE:" + BENCHMARK_MODE);
+        if ("true".equals(BENCHMARK_MODE)) {
+            latencyRecorder = new LatencyRecorder("syslog-sink",
+                    Integer.parseInt(props.get(ElasticSinkConnector.BENCHMARK_FLUSH_INTERVAL_S)));
+            transitLatency = latencyRecorder.stage("record.transit");
+            indexLatency = latencyRecorder.stage("record.index");
+            batchLatency = latencyRecorder.stage("put.batch");
+        }
 
         // Connector properties
         try {
@@ -150,17 +177,11 @@ public class ElasticSinkTask extends SinkTask {
     public void put(Collection<SinkRecord> sinkRecords) {
         int counterRaw = 0;
         int counterPreprocessed = 0;
+        long batchStart = System.nanoTime();
         for (SinkRecord record : sinkRecords) {
-            
-            if (BENCHMARK_MODE.equals("true")) {
-                try {
-                    FileWriter fw = new FileWriter("benchmarking.log", true);
-                    fw.write(record.topic() + " " + record.key().toString() + " get-sink " + System.currentTimeMillis() + "\n");
-                    fw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-
+            long recordStart = System.nanoTime();
+            if (latencyRecorder != null && record.timestamp() != null) {
+                transitLatency.recordSinceMillis(record.timestamp());
             }
 
             if (record.topic().equals(config.get("kafka.topic.sink.syslog.raw"))) {
@@ -176,14 +197,8 @@ public class ElasticSinkTask extends SinkTask {
                         String elasticIndex = config.get("elastic.index.syslog.raw");
                         elasticFunctions.insertJsonDoc(docRaw.toString(), record.key().toString(), elasticIndex);
 
-                        if (BENCHMARK_MODE.equals("true")) {
-                            try {
-                                FileWriter fw = new FileWriter("benchmarking.log", true);
-                                fw.write(record.topic() + " " + record.key().toString() + " send-elk " + System.currentTimeMillis() + "\n");
-                                fw.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
+                        if (latencyRecorder != null) {
+                            indexLatency.recordSince(recordStart);
                         }
                     }
                     catch (NullPointerException e) {
@@ -202,15 +217,8 @@ public class ElasticSinkTask extends SinkTask {
                     String elasticIndex = config.get("elastic.index.syslog.preprocessed");
                     elasticFunctions.insertJsonDoc(docPreprocessed.toString(), record.key().toString(), elasticIndex);
 
-                    if (BENCHMARK_MODE.equals("true")) {
-                        try {
-                            FileWriter fw = new FileWriter("benchmarking.log", true);
-                            fw.write(record.topic() + " " + record.key().toString() + " send-elk "
-                                    + System.currentTimeMillis() + "\n");
-                            fw.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+                    if (latencyRecorder != null) {
+                        indexLatency.recordSince(recordStart);
                     }
                 }
                 catch (NullPointerException e) {
@@ -218,6 +226,9 @@ public class ElasticSinkTask extends SinkTask {
                 }
             }
         }
+        if (latencyRecorder != null) {
+            batchLatency.recordSince(batchStart);
+        }
         logger.info("Retrieved " + sinkRecords.size() + " messages (" + counterRaw + " raw syslogs, " + counterPreprocessed + " prepprocessed syslogs)!");
     }
 
@@ -231,6 +242,10 @@ public class ElasticSinkTask extends SinkTask {
             elasticFunctions.close();
         }
 
+        if (latencyRecorder != null) {
+            latencyRecorder.close();
+        }
+
         logger.info("Stopping syslog sink task.");
     }
 
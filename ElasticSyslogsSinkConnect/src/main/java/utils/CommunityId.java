@@ -0,0 +1,335 @@
+package utils;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * CommunityId computes version 1 of the Community ID flow hash
+ * (https://github.com/corelight/community-id-spec), i.e. "1:" followed by the
+ * Base64 SHA-1 hash of the seed, the ordered endpoints, the protocol and the
+ * ports of a flow. Addresses are parsed into bytes without name resolution,
+ * and the hash input, the digest and the Base64 characters are written into
+ * buffers, that are allocated once per thread together with the SHA-1 digest,
+ * so that the only object created per flow is the resulting String.
+ * Protocols are handled as in the reference implementation: TCP, UDP and SCTP
+ * hash their ports, ICMP and ICMPv6 hash their type and code (or the type of
+ * the counterpart message, e.g. echo reply for echo request, so that both
+ * directions have the same ID), and all other protocols hash only the
+ * addresses. For ICMP, the source port is the type and the destination port is
+ * the code, or, as nfdump writes them, the source port is 0 and the
+ * destination port is type * 256 + code.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public final class CommunityId {
+    public static final int ICMP = 1;
+    public static final int TCP = 6;
+    public static final int UDP = 17;
+    public static final int ICMP6 = 58;
+    public static final int SCTP = 132;
+
+    /**
+     * Seed of the hash. 0 unless all sensors of a deployment agree on another one.
+     */
+    public static final int DEFAULT_SEED = 0;
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * Buffers and digest of a thread.
+     */
+    private static final class State {
+        final MessageDigest sha1;
+        /**
+         * Hash input: seed (2), addresses (2 x 16), protocol (1), padding (1), ports (2 x 2).
+         */
+        final byte[] input = new byte[40];
+        final byte[] digest = new byte[20];
+        /**
+         * "1:" and 28 Base64 characters.
+         */
+        final char[] output = new char[30];
+        final byte[] srcAddr = new byte[16];
+        final byte[] dstAddr = new byte[16];
+        final long[] bits = new long[2];
+
+        State() {
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-1.
+                throw new IllegalStateException(e);
+            }
+            output[0] = '1';
+            output[1] = ':';
+        }
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private CommunityId() {
+    }
+
+    /**
+     * Computes the Community ID of a flow, with the default seed.
+     *
+     * @param srcIp    String Source IPv4 or IPv6 address.
+     * @param dstIp    String Destination IPv4 or IPv6 address.
+     * @param srcPort  int Source port, or ICMP type.
+     * @param dstPort  int Destination port, or ICMP code.
+     * @param protocol String Name (e.g. TCP, UDP, ICMP) or IANA number of the protocol.
+     * @return String The Community ID, or null if an address or the protocol is not valid.
+     */
+    public static String communityId(String srcIp, String dstIp, int srcPort, int dstPort, String protocol) {
+        int protocolNumber = protocolNumber(protocol);
+        if (protocolNumber < 0 || srcIp == null || dstIp == null) {
+            return null;
+        }
+
+        State state = STATE.get();
+        int srcLength = parseAddress(srcIp, state.srcAddr, state.bits);
+        int dstLength = parseAddress(dstIp, state.dstAddr, state.bits);
+        if (srcLength < 0 || srcLength != dstLength) {
+            return null;
+        }
+        return communityId(state, DEFAULT_SEED, state.srcAddr, state.dstAddr, srcLength, srcPort, dstPort,
+                protocolNumber);
+    }
+
+    /**
+     * Computes the Community ID of a flow from parsed addresses.
+     *
+     * @param seed     int Seed of the hash (16 bits).
+     * @param srcAddr  byte[] Source address in network byte order, 4 or 16 bytes.
+     * @param dstAddr  byte[] Destination address in network byte order, of the same length.
+     * @param srcPort  int Source port, or ICMP type.
+     * @param dstPort  int Destination port, or ICMP code.
+     * @param protocol int IANA number of the protocol.
+     * @return String The Community ID, or null if the addresses are not valid.
+     */
+    public static String communityId(int seed, byte[] srcAddr, byte[] dstAddr, int srcPort, int dstPort,
+                                     int protocol) {
+        if (srcAddr.length != dstAddr.length || (srcAddr.length != 4 && srcAddr.length != 16)) {
+            return null;
+        }
+        return communityId(STATE.get(), seed, srcAddr, dstAddr, srcAddr.length, srcPort, dstPort, protocol);
+    }
+
+    private static String communityId(State state, int seed, byte[] srcAddr, byte[] dstAddr, int addrLength,
+                                      int srcPort, int dstPort, int protocol) {
+        boolean hasPorts = protocol == TCP || protocol == UDP || protocol == SCTP
+                || protocol == ICMP || protocol == ICMP6;
+        boolean oneWay = false;
+
+        if (protocol == ICMP || protocol == ICMP6) {
+            int type = srcPort;
+            int code = dstPort;
+            if (srcPort == 0 && dstPort > 255) {
+                type = dstPort >>> 8;
+                code = dstPort & 0xff;
+            }
+            int counterpart = protocol == ICMP ? icmpCounterpart(type) : icmp6Counterpart(type);
+            srcPort = type;
+            if (counterpart >= 0) {
+                dstPort = counterpart;
+            } else {
+                dstPort = code;
+                oneWay = true;
+            }
+        }
+        if (!hasPorts) {
+            srcPort = 0;
+            dstPort = 0;
+        }
+
+        // Order the endpoints, so that both directions of a flow have the same ID.
+        boolean swap = false;
+        if (!oneWay) {
+            int cmp = compare(srcAddr, dstAddr, addrLength);
+            swap = cmp > 0 || (cmp == 0 && srcPort > dstPort);
+        }
+
+        byte[] input = state.input;
+        int pos = 0;
+        input[pos++] = (byte) (seed >>> 8);
+        input[pos++] = (byte) seed;
+        System.arraycopy(swap ? dstAddr : srcAddr, 0, input, pos, addrLength);
+        pos += addrLength;
+        System.arraycopy(swap ? srcAddr : dstAddr, 0, input, pos, addrLength);
+        pos += addrLength;
+        input[pos++] = (byte) protocol;
+        input[pos++] = 0;
+        if (hasPorts) {
+            int first = swap ? dstPort : srcPort;
+            int second = swap ? srcPort : dstPort;
+            input[pos++] = (byte) (first >>> 8);
+            input[pos++] = (byte) first;
+            input[pos++] = (byte) (second >>> 8);
+            input[pos++] = (byte) second;
+        }
+
+        MessageDigest sha1 = state.sha1;
+        sha1.update(input, 0, pos);
+        try {
+            sha1.digest(state.digest, 0, 20);
+        } catch (DigestException e) {
+            // The buffer always fits a SHA-1 digest.
+            throw new IllegalStateException(e);
+        }
+
+        encodeBase64(state.digest, state.output);
+        return new String(state.output);
+    }
+
+    /**
+     * Returns the IANA number of a protocol.
+     *
+     * @param protocol String Name (e.g. TCP, ICMP6) or number of the protocol, as written by nfdump.
+     * @return int The protocol number, or -1 if it is not known.
+     */
+    public static int protocolNumber(String protocol) {
+        if (protocol == null) {
+            return -1;
+        }
+        String name = protocol.trim();
+        if (name.equalsIgnoreCase("TCP")) {
+            return TCP;
+        } else if (name.equalsIgnoreCase("UDP")) {
+            return UDP;
+        } else if (name.equalsIgnoreCase("ICMP")) {
+            return ICMP;
+        } else if (name.equalsIgnoreCase("ICMP6") || name.equalsIgnoreCase("IPv6-ICMP")
+                || name.equalsIgnoreCase("ICMPv6")) {
+            return ICMP6;
+        } else if (name.equalsIgnoreCase("SCTP")) {
+            return SCTP;
+        } else if (name.equalsIgnoreCase("IGMP")) {
+            return 2;
+        } else if (name.equalsIgnoreCase("GRE")) {
+            return 47;
+        } else if (name.equalsIgnoreCase("ESP")) {
+            return 50;
+        } else if (name.equalsIgnoreCase("AH")) {
+            return 51;
+        } else if (name.equalsIgnoreCase("OSPF")) {
+            return 89;
+        } else if (name.equalsIgnoreCase("PIM")) {
+            return 103;
+        }
+
+        int number = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9' || i >= 3) {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return name.isEmpty() || number > 255 ? -1 : number;
+    }
+
+    /**
+     * ICMP message type, that answers the given one, or -1 if there is none.
+     */
+    private static int icmpCounterpart(int type) {
+        switch (type) {
+            case 8: return 0;    // Echo request -> echo reply
+            case 0: return 8;
+            case 13: return 14;  // Timestamp
+            case 14: return 13;
+            case 15: return 16;  // Information
+            case 16: return 15;
+            case 10: return 9;   // Router solicitation -> router advertisement
+            case 9: return 10;
+            case 17: return 18;  // Address mask
+            case 18: return 17;
+            default: return -1;
+        }
+    }
+
+    /**
+     * ICMPv6 message type, that answers the given one, or -1 if there is none.
+     */
+    private static int icmp6Counterpart(int type) {
+        switch (type) {
+            case 128: return 129; // Echo request -> echo reply
+            case 129: return 128;
+            case 130: return 131; // Multicast listener query -> report
+            case 131: return 130;
+            case 133: return 134; // Router solicitation -> router advertisement
+            case 134: return 133;
+            case 135: return 136; // Neighbor solicitation -> neighbor advertisement
+            case 136: return 135;
+            case 139: return 140; // Who are you request -> reply
+            case 140: return 139;
+            case 144: return 145; // Home agent address discovery request -> reply
+            case 145: return 144;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address into bytes, in network byte order.
+     *
+     * @return int Number of bytes (4 or 16), or -1 if the address is not valid.
+     */
+    private static int parseAddress(String ip, byte[] addr, long[] bits) {
+        if (ip.indexOf(':') < 0) {
+            long v4 = SubnetTrie.parseIPv4(ip, 0, ip.length());
+            if (v4 < 0) {
+                return -1;
+            }
+            for (int i = 0; i < 4; i++) {
+                addr[i] = (byte) (v4 >>> (24 - 8 * i));
+            }
+            return 4;
+        }
+
+        if (!SubnetTrie.parseIPv6(ip, 0, ip.length(), bits)) {
+            return -1;
+        }
+        for (int i = 0; i < 8; i++) {
+            addr[i] = (byte) (bits[0] >>> (56 - 8 * i));
+            addr[8 + i] = (byte) (bits[1] >>> (56 - 8 * i));
+        }
+        return 16;
+    }
+
+    /**
+     * Compares two addresses as unsigned bytes.
+     */
+    private static int compare(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Encodes a 20-byte digest as 28 Base64 characters, after the "1:" prefix.
+     */
+    private static void encodeBase64(byte[] digest, char[] output) {
+        int out = 2;
+        int i = 0;
+        for (; i + 3 <= 18; i += 3) {
+            int v = (digest[i] & 0xff) << 16 | (digest[i + 1] & 0xff) << 8 | (digest[i + 2] & 0xff);
+            output[out++] = BASE64[v >>> 18];
+            output[out++] = BASE64[(v >>> 12) & 0x3f];
+            output[out++] = BASE64[(v >>> 6) & 0x3f];
+            output[out++] = BASE64[v & 0x3f];
+        }
+        // The last 2 bytes give 3 characters and one padding character.
+        int v = (digest[18] & 0xff) << 16 | (digest[19] & 0xff) << 8;
+        output[out++] = BASE64[v >>> 18];
+        output[out++] = BASE64[(v >>> 12) & 0x3f];
+        output[out++] = BASE64[(v >>> 6) & 0x3f];
+        output[out] = '=';
+    }
+}
@@ -0,0 +1,98 @@
+package utils;
+
+/**
+ * CommunityIdCheck verifies CommunityId against known Community ID v1 values,
+ * so that any change of it can be checked bit for bit. Vectors of TCP, UDP,
+ * ICMP, ICMPv6 and SCTP, and of a seed other than 0, are the ones published
+ * with the reference implementation. Vectors of other protocols, IPv6 TCP and
+ * UDP, and one-way ICMP messages in the reverse direction are computed from
+ * the specification. Flows are listed in both directions, that must have the
+ * same ID, except one-way ICMP messages. Run it with:
+ * java -cp target/classes utils.CommunityIdCheck
+ * It exits with status 1, if any vector does not match.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public final class CommunityIdCheck {
+    /**
+     * Source address, destination address, source port, destination port,
+     * protocol and expected Community ID (null for invalid flows).
+     */
+    private static final String[][] VECTORS = {
+            // TCP
+            {"128.232.110.120", "66.35.250.204", "34855", "80", "TCP", "1:LQU9qZlK+B5F3KDmev6m5PMibrg="},
+            {"66.35.250.204", "128.232.110.120", "80", "34855", "TCP", "1:LQU9qZlK+B5F3KDmev6m5PMibrg="},
+            {"2001:db8::1", "2001:db8::2", "1234", "80", "tcp", "1:r0kqPLw6hSIAasyo9ANthUgbhVA="},
+            {"2001:db8::2", "2001:db8::1", "80", "1234", "6", "1:r0kqPLw6hSIAasyo9ANthUgbhVA="},
+            // UDP
+            {"192.168.1.52", "8.8.8.8", "54585", "53", "UDP", "1:d/FP5EW3wiY1vCndhwleRRKHowQ="},
+            {"8.8.8.8", "192.168.1.52", "53", "54585", "UDP", "1:d/FP5EW3wiY1vCndhwleRRKHowQ="},
+            {"2001:db8::1", "2001:db8::2", "5353", "53", "17", "1:sEzqFsMvqwEs2PgSeOAwGpzkZJo="},
+            // ICMP echo request and reply, also as nfdump writes them (type * 256 + code).
+            {"192.168.0.89", "192.168.0.1", "8", "0", "ICMP", "1:X0snYXpgwiv9TZtqg64sgzUn6Dk="},
+            {"192.168.0.1", "192.168.0.89", "0", "0", "ICMP", "1:X0snYXpgwiv9TZtqg64sgzUn6Dk="},
+            {"192.168.0.89", "192.168.0.1", "0", "2048", "ICMP", "1:X0snYXpgwiv9TZtqg64sgzUn6Dk="},
+            {"192.168.0.1", "192.168.0.89", "0", "0", "1", "1:X0snYXpgwiv9TZtqg64sgzUn6Dk="},
+            // ICMP one-way message: directions are not ordered.
+            {"192.168.0.89", "192.168.0.1", "20", "0", "ICMP", "1:3o2RFccXzUgjl7zDpqmY7yJi8rI="},
+            {"192.168.0.1", "192.168.0.89", "20", "0", "ICMP", "1:xka8imJTHE0ZCHTDqMsnK5QKoh8="},
+            // ICMPv6 neighbor solicitation and advertisement.
+            {"fe80::200:86ff:fe05:80da", "fe80::260:97ff:fe07:69ea", "135", "0", "ICMP6",
+                    "1:dGHyGvjMfljg6Bppwm3bg0LO8TY="},
+            {"fe80::260:97ff:fe07:69ea", "fe80::200:86ff:fe05:80da", "136", "0", "58",
+                    "1:dGHyGvjMfljg6Bppwm3bg0LO8TY="},
+            // ICMPv6 one-way message (time exceeded).
+            {"3ffe:507:0:1:260:97ff:fe07:69ea", "3ffe:507:0:1:200:86ff:fe05:80da", "3", "0", "ICMP6",
+                    "1:NdobDX8PQNJbAyfkWxhtL2Pqp5w="},
+            {"3ffe:507:0:1:200:86ff:fe05:80da", "3ffe:507:0:1:260:97ff:fe07:69ea", "3", "0", "ICMP6",
+                    "1:/OGBt9BN1ofenrmSPWYicpij2Vc="},
+            // SCTP
+            {"192.168.170.8", "192.168.170.56", "7", "80", "SCTP", "1:jQgCxbku+pNGw8WPbEc/TS/uTpQ="},
+            {"192.168.170.56", "192.168.170.8", "80", "7", "132", "1:jQgCxbku+pNGw8WPbEc/TS/uTpQ="},
+            // Other protocols hash only the addresses.
+            {"10.0.0.1", "10.0.0.2", "0", "0", "GRE", "1:+KlEHDT0vJgzs/eNmzHq0aSpRYw="},
+            {"10.0.0.2", "10.0.0.1", "1234", "80", "47", "1:+KlEHDT0vJgzs/eNmzHq0aSpRYw="},
+            {"10.0.0.1", "10.0.0.2", "0", "0", "ESP", "1:dX+1pd7Z9Y9hJE/IuQlfvK7bxuA="},
+            {"2001:db8::1", "2001:db8::2", "0", "0", "GRE", "1:RgLHDf67jKnjcEaiCVvPAVCpfSc="},
+            // Invalid flows.
+            {"10.0.0.1", "2001:db8::2", "1234", "80", "TCP", null},
+            {"10.0.0.1", "10.0.0.2", "1234", "80", "NOTAPROTO", null},
+            {"10.0.0.256", "10.0.0.2", "1234", "80", "TCP", null},
+    };
+
+    private CommunityIdCheck() {
+    }
+
+    /**
+     * Checks all vectors, and a seed other than 0, and prints the result of each one.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        int failed = 0;
+        for (String[] vector : VECTORS) {
+            String id = CommunityId.communityId(vector[0], vector[1], Integer.parseInt(vector[2]),
+                    Integer.parseInt(vector[3]), vector[4]);
+            failed += check(String.join(" ", vector[0], vector[1], vector[2], vector[3], vector[4]), id, vector[5]);
+        }
+
+        String seeded = CommunityId.communityId(1, new byte[]{(byte) 128, (byte) 232, 110, 120},
+                new byte[]{66, 35, (byte) 250, (byte) 204}, 34855, 80, CommunityId.TCP);
+        failed += check("seed 1: 128.232.110.120 66.35.250.204 34855 80 TCP", seeded, "1:3V71V58M3Ksw/yuFALMcW0LAHvc=");
+
+        System.out.println(failed == 0
+                ? "All " + (VECTORS.length + 1) + " Community ID vectors match."
+                : failed + " of " + (VECTORS.length + 1) + " Community ID vectors do not match.");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int check(String flow, String actual, String expected) {
+        boolean ok = expected == null ? actual == null : expected.equals(actual);
+        System.out.println((ok ? "OK   " : "FAIL ") + flow + " -> " + actual + (ok ? "" : " (expected " + expected + ")"));
+        return ok ? 0 : 1;
+    }
+}
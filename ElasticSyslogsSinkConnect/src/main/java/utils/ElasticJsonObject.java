@@ -1,9 +1,6 @@
 package utils;
 
-import com.rapid7.communityid.CommunityIdGenerator;
-import com.rapid7.communityid.Protocol;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.net.util.SubnetUtils;
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -54,9 +51,9 @@ public class ElasticJsonObject {
     private JSONObject mappingJson = null;
 
     /**
-     * An Arraylist, that contains which IPs will be labeled as internals and externals.
+     * A trie, that contains the subnets, whose IPs will be labeled as internals.
      */
-    private ArrayList<String> internalIps = null;
+    private SubnetTrie internalSubnets = null;
 
     /**
      * Hostname of the computer that converts the csv records to Elastic JSON objects
@@ -92,11 +89,6 @@ public class ElasticJsonObject {
      */
     private JSONObject agentJson = null;
 
-    /**
-     * A generator, which generates a community ID of each flow, based on its properties.
-     */
-    private CommunityIdGenerator networkCommunityIdGenerator = null;
-
     /**
      * Constructor
      *
@@ -117,10 +109,9 @@ public class ElasticJsonObject {
         this.rawNetflowMappingFile = raw;
         // Load Mapping file
         this.mappingJson = loadMappingFile(this.rawNetflowMappingFile);
-        this.internalIps = loadInternalSubnets();
+        this.internalSubnets = loadInternalSubnets();
 
         this.ianaProtocolNumbers = new IanaProtocolNumbers();
-        this.networkCommunityIdGenerator = new CommunityIdGenerator();
 
         logger.info("Raw Netflows: " + raw);
         logger.info(mappingJson);
@@ -371,15 +362,15 @@ public class ElasticJsonObject {
 
     /**
      * Checks if a given IP address is internal or external. The checking is taking place using a file
-     * with all internal IP addresses. If the given IP is found in this list, then it is considered as
+     * with all internal subnets. If the given IP belongs to one of these subnets, then it is considered as
      * internal IP. Otherwise, it is considered as external IP address.
      *
      * @param ipAddr String The IP address to check if it is internal or not.
-     * @return String Returns "internal" if the given IP is found in list with internal IP addresses
+     * @return String Returns "internal" if the given IP belongs to an internal subnet
      * and "external" otherwise.
      */
     private String checkIpLocality(String ipAddr) {
-        if (internalIps.contains(ipAddr)) {
+        if (internalSubnets.contains(ipAddr)) {
             return "internal";
         }
         return "external";
@@ -646,54 +637,43 @@ public class ElasticJsonObject {
      * Creates and returns the network community ID of the syslog. The
      * community ID is an identifier for a syslog, which is produced using
      * some syslog fields. More specifically it uses source IP address,
-     * destination IP address, source and destination ports and the syslog
-     * protocol (UDP, TCP). The flow community ID is generated using the open-source
-     * community-id-java library (https://github.com/rapid7/community-id-java).
+     * destination IP address, source and destination ports (or ICMP type and
+     * code) and the syslog protocol. The flow community ID is generated with
+     * CommunityId, which implements version 1 of the Community ID spec.
      *
      * @param srcIp    String Source IP address.
      * @param dstIp    String Destination IP address.
      * @param srcPort  Int Source port.
      * @param dstPort  Int Destination port.
-     * @param protocol String Protocol of the syslog (TCP, UDP).
+     * @param protocol String Protocol of the syslog (e.g. TCP, UDP, ICMP), or its IANA number.
      * @return String A syslog hash, which follows the open Community ID
      * (https://github.com/corelight/community-id-spec) syslog hashing standard.
      */
     private String getNetworkCommunityId(String srcIp, String dstIp, int srcPort, int dstPort, String protocol) {
-        Protocol pr = Protocol.UDP;
-        if (protocol.toUpperCase().trim().equals("TCP")) {
-            pr = Protocol.TCP;
-        }
-
-        try {
-            return this.networkCommunityIdGenerator.generateCommunityId(
-                    pr,
-                    InetAddress.getByName(srcIp),
-                    srcPort,
-                    InetAddress.getByName(dstIp),
-                    dstPort
-            );
-        } catch (UnknownHostException e) {
-            logger.error("UnknownHostException. Cannot create network community ID. Returning default 1:unknown.");
-            logger.error(e.getCause());
-            logger.error(e.getMessage());
+        String communityId = CommunityId.communityId(srcIp, dstIp, srcPort, dstPort, protocol);
+        if (communityId == null) {
+            logger.error("Cannot create network community ID for syslog " + srcIp + ":" + srcPort + " -> " + dstIp + ":"
+                    + dstPort + " (" + protocol + "). Returning default 1:unknown.");
 
             return "1:unknown";
         }
+        return communityId;
     }
 
     /**
      * Loads all subnets, that their IPs must be defined as internal IPs. The list
      * of these subnets must be written in a txt file, in the following format: IP/Mask.
-     * (For example: 192.168.2.0/24). All IPs of these subnets will be a loaded in a
-     * list and used for defining if an IP is internal (belonging in one of these subnets)
+     * (For example: 192.168.2.0/24). These subnets will be loaded in a trie and
+     * used for defining if an IP is internal (belonging in one of these subnets)
      * or external. If the file with the subnets cannot be loaded, some default subnets will
      * be returned. These default subnets are the following: 10.10.5.0/24, 10.10.11.0/24,
-     * 192.168.1.0/24, 192.168.2.0/24.
+     * 192.168.1.0/24, 192.168.2.0/24. Empty lines, lines starting with '#' and invalid
+     * subnets are ignored.
      *
-     * @return ArrayList(String) A list which contains all IPs that will be marked as internals.
+     * @return SubnetTrie A trie which contains all subnets, whose IPs will be marked as internals.
      */
-    private ArrayList<String> loadInternalSubnets() {
-        ArrayList<String> internalAddresses = new ArrayList<String>();
+    private SubnetTrie loadInternalSubnets() {
+        SubnetTrie internalTrie = new SubnetTrie();
         ArrayList<String> subnets = new ArrayList<String>();
         String subnetsFile = "subnets.txt";
 
@@ -727,11 +707,17 @@ public class ElasticJsonObject {
             subnets.add("192.168.2.0/24");
         }
 
-        subnets.forEach(subnet -> {
-            SubnetUtils subnetUtils = new SubnetUtils(subnet.trim());
-            internalAddresses.addAll(Arrays.asList(subnetUtils.getInfo().getAllAddresses()));
-        });
+        for (String subnet : subnets) {
+            if (subnet.isEmpty() || subnet.startsWith("#")) {
+                continue;
+            }
+            try {
+                internalTrie.add(subnet);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignoring invalid subnet " + subnet + " in file " + subnetsFile + ".");
+            }
+        }
 
-        return internalAddresses;
+        return internalTrie;
     }
 }
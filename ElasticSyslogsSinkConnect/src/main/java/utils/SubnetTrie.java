@@ -0,0 +1,325 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * SubnetTrie is a binary radix trie of IPv4 and IPv6 subnets in CIDR notation
+ * (e.g. 192.168.2.0/24, fd00::/8), that checks if an address belongs to any of
+ * them. Addresses are handled as 128-bit numbers (IPv4 addresses in the upper
+ * 32 bits), so a lookup walks at most one node per prefix bit, i.e. 32 for
+ * IPv4 and 128 for IPv6, no matter how many subnets or addresses they contain.
+ * Nodes are kept in int arrays, so a subnet of any size, e.g. a /8, costs at
+ * most one node per bit of its prefix. IPv4-mapped IPv6 addresses
+ * (::ffff:a.b.c.d) are looked up as IPv4 addresses. Addresses are parsed
+ * without name resolution. The trie must be filled before it is shared;
+ * lookups are thread safe, as long as no subnets are added.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class SubnetTrie {
+    /**
+     * Node of the IPv4 root.
+     */
+    private static final int ROOT_V4 = 0;
+    /**
+     * Node of the IPv6 root.
+     */
+    private static final int ROOT_V6 = 1;
+
+    /**
+     * Children of node i: children[2 * i] for bit 0, children[2 * i + 1] for bit 1.
+     * 0 for no child, as roots are never children.
+     */
+    private int[] children = new int[64];
+    /**
+     * True for nodes, where a subnet prefix ends.
+     */
+    private boolean[] terminal = new boolean[32];
+    /**
+     * Number of nodes.
+     */
+    private int nodeCount = 2;
+    /**
+     * Number of added subnets.
+     */
+    private int subnetCount = 0;
+
+    /**
+     * Adds a subnet. An address without prefix length is added as a single address.
+     *
+     * @param cidr String Subnet in CIDR notation, e.g. 10.10.5.0/24.
+     * @throws IllegalArgumentException If the subnet is not valid.
+     */
+    public void add(String cidr) throws IllegalArgumentException {
+        String subnet = cidr.trim();
+        int slash = subnet.indexOf('/');
+        String address = slash < 0 ? subnet : subnet.substring(0, slash);
+
+        long[] bits = new long[2];
+        boolean v6 = address.indexOf(':') >= 0;
+        if (v6 ? !parseIPv6(address, 0, address.length(), bits) : !parseIPv4(address, 0, address.length(), bits)) {
+            throw new IllegalArgumentException("Invalid subnet address: " + cidr);
+        }
+        int maxLength = v6 ? 128 : 32;
+
+        int length = maxLength;
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(subnet.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid subnet prefix length: " + cidr);
+            }
+            if (length < 0 || length > maxLength) {
+                throw new IllegalArgumentException("Invalid subnet prefix length: " + cidr);
+            }
+        }
+
+        int node = v6 ? ROOT_V6 : ROOT_V4;
+        for (int i = 0; i < length && !terminal[node]; i++) {
+            int slot = 2 * node + bit(bits[0], bits[1], i);
+            if (children[slot] == 0) {
+                // newNode() may replace the array, so it is called before the assignment.
+                int child = newNode();
+                children[slot] = child;
+            }
+            node = children[slot];
+        }
+        terminal[node] = true;
+        subnetCount++;
+    }
+
+    /**
+     * Checks if an address belongs to any of the added subnets.
+     *
+     * @param ipAddr String IPv4 or IPv6 address.
+     * @return boolean True if it belongs to a subnet, false otherwise or if the address is not valid.
+     */
+    public boolean contains(String ipAddr) {
+        if (ipAddr == null) {
+            return false;
+        }
+        int end = ipAddr.length();
+        if (ipAddr.indexOf(':') < 0) {
+            long v4 = parseIPv4(ipAddr, 0, end);
+            return v4 >= 0 && lookup(ROOT_V4, v4 << 32, 0, 32);
+        }
+
+        long[] bits = new long[2];
+        if (!parseIPv6(ipAddr, 0, end, bits)) {
+            return false;
+        }
+        if (bits[0] == 0 && (bits[1] >>> 32) == 0xffffL) {
+            return lookup(ROOT_V4, bits[1] << 32, 0, 32);
+        }
+        return lookup(ROOT_V6, bits[0], bits[1], 128);
+    }
+
+    /**
+     * Returns the number of added subnets.
+     *
+     * @return int Number of subnets.
+     */
+    public int size() {
+        return subnetCount;
+    }
+
+    /**
+     * Walks the trie from a root, along the bits of an address.
+     */
+    private boolean lookup(int root, long hi, long lo, int maxLength) {
+        int node = root;
+        for (int i = 0; i < maxLength; i++) {
+            if (terminal[node]) {
+                return true;
+            }
+            node = children[2 * node + bit(hi, lo, i)];
+            if (node == 0) {
+                return false;
+            }
+        }
+        return terminal[node];
+    }
+
+    /**
+     * Returns bit i (0 for the most significant) of a 128-bit number.
+     */
+    private static int bit(long hi, long lo, int i) {
+        return (int) (i < 64 ? (hi >>> (63 - i)) & 1 : (lo >>> (127 - i)) & 1);
+    }
+
+    private int newNode() {
+        if (nodeCount == terminal.length) {
+            terminal = Arrays.copyOf(terminal, nodeCount * 2);
+            children = Arrays.copyOf(children, nodeCount * 4);
+        }
+        return nodeCount++;
+    }
+
+    /**
+     * Parses an IPv4 address in dotted decimal notation into the upper 32 bits of bits[0].
+     *
+     * @return boolean True if the address is valid.
+     */
+    private static boolean parseIPv4(String s, int from, int to, long[] bits) {
+        long v4 = parseIPv4(s, from, to);
+        if (v4 < 0) {
+            return false;
+        }
+        bits[0] = v4 << 32;
+        bits[1] = 0;
+        return true;
+    }
+
+    /**
+     * Parses an IPv4 address in dotted decimal notation.
+     *
+     * @param s    String The text, that contains the address.
+     * @param from int Index of the first character of the address.
+     * @param to   int Index after the last character of the address.
+     * @return long The address as an unsigned 32-bit number, or -1 if it is not valid.
+     */
+    static long parseIPv4(String s, int from, int to) {
+        long address = 0;
+        int octets = 0;
+        int i = from;
+        while (octets < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && digits < 3) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || value > 255) {
+                return -1;
+            }
+            address = (address << 8) | value;
+            octets++;
+
+            if (octets < 4) {
+                if (i >= to || s.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return i == to ? address : -1;
+    }
+
+    /**
+     * Parses an IPv6 address, with optional "::" compression, trailing dotted
+     * IPv4 part and zone index (%eth0), into two 64-bit numbers.
+     *
+     * @param s    String The text, that contains the address.
+     * @param from int Index of the first character of the address.
+     * @param to   int Index after the last character of the address.
+     * @param bits long[] Receives the upper (bits[0]) and lower (bits[1]) 64 bits.
+     * @return boolean True if the address is valid.
+     */
+    static boolean parseIPv6(String s, int from, int to, long[] bits) {
+        int zone = s.indexOf('%', from);
+        if (zone >= 0 && zone < to) {
+            to = zone;
+        }
+
+        // Groups before "::" (head) and after it (tail), as 128-bit numbers.
+        long headHi = 0;
+        long headLo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int groups = 0;
+        int gap = -1;
+        int i = from;
+        if (to - i >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+            gap = 0;
+            i += 2;
+        } else if (i < to && s.charAt(i) == ':') {
+            return false;
+        }
+
+        while (i < to) {
+            int j = i;
+            long value = 0;
+            boolean dotted = false;
+            while (j < to && s.charAt(j) != ':') {
+                char c = s.charAt(j);
+                int digit = Character.digit(c, 16);
+                if (c == '.') {
+                    dotted = true;
+                } else if (digit < 0) {
+                    return false;
+                }
+                value = (value << 4) | Math.max(digit, 0);
+                j++;
+            }
+
+            int width = 16;
+            if (dotted) {
+                // Trailing IPv4 part, e.g. ::ffff:10.10.5.1, counts as two groups.
+                value = j == to && groups <= 6 ? parseIPv4(s, i, j) : -1;
+                if (value < 0) {
+                    return false;
+                }
+                width = 32;
+            } else if (j == i || j - i > 4 || groups == 8) {
+                return false;
+            }
+            if (gap < 0) {
+                headHi = (headHi << width) | (headLo >>> (64 - width));
+                headLo = (headLo << width) | value;
+            } else {
+                tailHi = (tailHi << width) | (tailLo >>> (64 - width));
+                tailLo = (tailLo << width) | value;
+            }
+            groups += width / 16;
+
+            if (j == to) {
+                break;
+            }
+            if (j + 1 < to && s.charAt(j + 1) == ':') {
+                if (gap >= 0) {
+                    return false;
+                }
+                gap = groups;
+                i = j + 2;
+            } else {
+                i = j + 1;
+                if (i == to) {
+                    return false;
+                }
+            }
+        }
+
+        if (gap < 0 ? groups != 8 : groups > 7) {
+            return false;
+        }
+        long hi = headHi;
+        long lo = headLo;
+        if (gap >= 0) {
+            // Shift the head to the top, leaving zeros for the groups of "::".
+            int shift = 16 * (8 - gap);
+            if (shift >= 128) {
+                hi = 0;
+                lo = 0;
+            } else if (shift >= 64) {
+                hi = lo << (shift - 64);
+                lo = 0;
+            } else {
+                hi = (hi << shift) | (lo >>> (64 - shift));
+                lo = lo << shift;
+            }
+            hi |= tailHi;
+            lo |= tailLo;
+        }
+
+        bits[0] = hi;
+        bits[1] = lo;
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package benchmark;
+
+import netflow.FlowAggregator;
+import netflow.NetflowCsvReader;
+import netflow.NetflowStruct;
+import netflow.NetflowUtils;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadNetflowCsvBenchmark class. Measures NetflowUtils.loadNetflowCsv, i.e.
+ * reading, key generation and SourceRecord construction, over a whole netflow
+ * file, in batches of max.batch.records like poll, with records sent one by
+ * one or merged by FlowAggregator. Records/sec (read) and bytes/sec
+ * are reported as "records" and "bytes" secondary results. Run with "-prof gc"
+ * for allocation rates.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoadNetflowCsvBenchmark {
+    /**
+     * Records of each batch, the default of max.batch.records.
+     */
+    private static final int MAX_BATCH_RECORDS = 2000;
+    /**
+     * Window of merged records, the default of aggregation.window.s.
+     */
+    private static final long AGGREGATION_WINDOW_MS = 60000;
+    /**
+     * Maximum merged records in memory, the default of aggregation.max.keys.
+     */
+    private static final int AGGREGATION_MAX_KEYS = 65536;
+
+    /**
+     * Format of record values, like record.format: csv or struct.
+     */
+    @Param({"csv", "struct"})
+    public String recordFormat;
+
+    /**
+     * Key of merged records, like aggregation.key: none, 5tuple or pair.
+     */
+    @Param({"none", "5tuple"})
+    public String aggregation;
+
+    /**
+     * Size of the netflow file.
+     */
+    @Param({"SMALL", "MEDIUM"})
+    public NetflowCsvFixture.Size size;
+
+    /**
+     * True for a file with empty and "No matched flows" lines.
+     */
+    @Param({"false", "true"})
+    public boolean noisy;
+
+    /**
+     * Filename of the netflow file.
+     */
+    private String csvFile;
+
+    /**
+     * Source partition of the netflow file.
+     */
+    private Map<String, String> partition;
+
+    /**
+     * Converter of records to Structs. Null in csv format.
+     */
+    private NetflowStruct structs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csvFile = NetflowCsvFixture.generate(size, noisy, false);
+        partition = NetflowUtils.sourcePartition("nfcapd.benchmark.csv");
+        structs = "struct".equals(recordFormat) ? new NetflowStruct() : null;
+    }
+
+    /**
+     * Converts all records of the file to SourceRecords, in batches.
+     *
+     * @param counters RecordCounters Counters of records and bytes.
+     * @param bh       Blackhole Consumes the SourceRecords.
+     * @throws IOException If the file cannot be opened.
+     */
+    @Benchmark
+    public void loadFile(RecordCounters counters, Blackhole bh) throws IOException {
+        NetflowCsvReader reader = new NetflowCsvReader(csvFile);
+        FlowAggregator aggregator = "none".equals(aggregation)
+                ? null
+                : new FlowAggregator(aggregation, AGGREGATION_WINDOW_MS, AGGREGATION_MAX_KEYS, 0, 0);
+        while (!reader.isFinished() || (aggregator != null && aggregator.hasPending())) {
+            ArrayList<SourceRecord> records = aggregator == null
+                    ? NetflowUtils.loadNetflowCsv(
+                            reader, partition, "netflow-raw", "0_0_nfcapd_benchmark_csv_", MAX_BATCH_RECORDS, structs)
+                    : NetflowUtils.loadNetflowCsv(
+                            reader, partition, "netflow-raw", "0_0_nfcapd_benchmark_csv_", MAX_BATCH_RECORDS, structs,
+                            aggregator);
+            bh.consume(records);
+        }
+        counters.records += reader.getRecordsRead();
+        counters.bytes += reader.getPosition();
+    }
+}
@@ -0,0 +1,190 @@
+package benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * NetflowCsvFixture class. Generates netflow files (.csv) with realistic records
+ * in the layout of "nfdump -o csv -q", for benchmarks. Records are generated
+ * from a fixed seed, so each file has the same content in every run. Generated
+ * files are kept in a directory and reused by next runs.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowCsvFixture {
+    /**
+     * Size of a generated file, in netflow records.
+     */
+    public enum Size {
+        SMALL(1000),
+        MEDIUM(100000),
+        HUGE(1000000);
+
+        /**
+         * Number of netflow records.
+         */
+        private final int records;
+
+        Size(int records) {
+            this.records = records;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+    }
+
+    /**
+     * Directory of generated files. Default: netflow-fixtures in the temporary directory.
+     */
+    private static final File FIXTURE_DIR = new File(System.getProperty("netflow.fixture.dir",
+            System.getProperty("java.io.tmpdir") + File.separator + "netflow-fixtures"));
+
+    /**
+     * In noisy files, an empty line is written every this many records.
+     */
+    private static final int EMPTY_LINE_INTERVAL = 37;
+    /**
+     * In noisy files, a "No matched flows" line is written every this many records.
+     */
+    private static final int NO_MATCHED_FLOWS_INTERVAL = 101;
+
+    private static final String[] PROTOCOLS = {"TCP  ", "TCP  ", "TCP  ", "UDP  ", "UDP  ", "ICMP "};
+    private static final String[] TCP_FLAGS = {".AP.SF", ".A..S.", "...R..", ".AP...", "....S.", ".A...F"};
+    private static final int[] SERVICE_PORTS = {80, 443, 53, 22, 123, 8080, 3389, 25};
+
+    /**
+     * Returns a netflow file, generating it if it does not exist.
+     *
+     * @param size       Size Number of records of the file.
+     * @param noisy      boolean True to add empty and "No matched flows" lines.
+     * @param compressed boolean True for a gzip compressed file (.csv.gz).
+     * @return String Filename of the netflow file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static String generate(Size size, boolean noisy, boolean compressed) throws IOException {
+        String name = "nfcapd." + size.name().toLowerCase() + (noisy ? "-noisy" : "") + ".csv" + (compressed ? ".gz" : "");
+        File file = new File(FIXTURE_DIR, name);
+        if (file.isFile()) {
+            return file.getPath();
+        }
+
+        if (!FIXTURE_DIR.isDirectory() && !FIXTURE_DIR.mkdirs()) {
+            throw new IOException("Cannot create directory " + FIXTURE_DIR);
+        }
+        // Write to a temporary file first, so that an interrupted run does not leave a partial file.
+        File tmpFile = new File(FIXTURE_DIR, name + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16);
+        if (compressed) {
+            out = new GZIPOutputStream(out, 1 << 16);
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)) {
+            write(writer, size.getRecords(), noisy);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot rename " + tmpFile + " to " + file);
+        }
+        return file.getPath();
+    }
+
+    /**
+     * Writes netflow records, one per line.
+     *
+     * @param writer  Writer Where records are written.
+     * @param records int Number of records.
+     * @param noisy   boolean True to add empty and "No matched flows" lines.
+     * @throws IOException If any error occurs writing.
+     */
+    private static void write(Writer writer, int records, boolean noisy) throws IOException {
+        Random random = new Random(42);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long start = 1625097600000L;
+        for (int i = 0; i < records; i++) {
+            if (noisy && i % EMPTY_LINE_INTERVAL == 0) {
+                writer.write("\n");
+            }
+            if (noisy && i % NO_MATCHED_FLOWS_INTERVAL == 0) {
+                writer.write("No matched flows\n");
+            }
+            writer.write(record(random, dateFormat, start + i * 3L));
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Generates a netflow record. Like nfdump, each record has 48 columns,
+     * with mostly empty extensions.
+     *
+     * @param random     Random Source of field values.
+     * @param dateFormat SimpleDateFormat Date format of nfdump.
+     * @param first      long Start time of the flow, in milliseconds since epoch.
+     * @return String The csv line.
+     */
+    public static String record(Random random, SimpleDateFormat dateFormat, long first) {
+        long durationMs = random.nextInt(120000);
+        long last = first + durationMs;
+        boolean client = random.nextBoolean();
+        int servicePort = SERVICE_PORTS[random.nextInt(SERVICE_PORTS.length)];
+        int ephemeralPort = 1024 + random.nextInt(64511);
+        long packets = 1 + random.nextInt(2000);
+        String protocol = PROTOCOLS[random.nextInt(PROTOCOLS.length)];
+
+        StringBuilder sb = new StringBuilder(320);
+        sb.append(dateFormat.format(new Date(first))).append(',');
+        sb.append(dateFormat.format(new Date(last))).append(',');
+        sb.append(durationMs / 1000).append('.').append(String.format("%03d", durationMs % 1000)).append(',');
+        sb.append("10.").append(random.nextInt(256)).append('.').append(random.nextInt(256)).append('.')
+                .append(1 + random.nextInt(254)).append(',');
+        sb.append(random.nextInt(224)).append('.').append(random.nextInt(256)).append('.')
+                .append(random.nextInt(256)).append('.').append(1 + random.nextInt(254)).append(',');
+        sb.append(client ? ephemeralPort : servicePort).append(',');
+        sb.append(client ? servicePort : ephemeralPort).append(',');
+        sb.append(protocol).append(',');
+        sb.append(protocol.startsWith("TCP") ? TCP_FLAGS[random.nextInt(TCP_FLAGS.length)] : "......").append(',');
+        sb.append("0,0,");
+        sb.append(packets).append(',').append(packets * (40 + random.nextInt(1400))).append(',');
+        sb.append("0,0,");
+        sb.append(random.nextInt(8)).append(',').append(random.nextInt(8)).append(',');
+        sb.append("0,0,0,0,0,0,");
+        sb.append("0.0.0.0,0.0.0.0,0,0,");
+        sb.append("00:00:00:00:00:00,00:00:00:00:00:00,00:00:00:00:00:00,00:00:00:00:00:00,");
+        for (int m = 0; m < 10; m++) {
+            sb.append("0-0-0,");
+        }
+        sb.append("    0.000,    0.000,    0.000,");
+        sb.append("192.168.1.1,0/0,1,");
+        sb.append(dateFormat.format(new Date(last + 1000))).append('.')
+                .append(String.format("%03d", random.nextInt(1000)));
+        return sb.toString();
+    }
+
+    /**
+     * Generates all fixture files in advance, so that benchmark runs do not
+     * include their generation. Directory can be set with -Dnetflow.fixture.dir.
+     *
+     * @param args Not used.
+     * @throws IOException If a file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        for (Size size : Size.values()) {
+            for (boolean noisy : new boolean[]{false, true}) {
+                for (boolean compressed : new boolean[]{false, true}) {
+                    System.out.println(generate(size, noisy, compressed));
+                }
+            }
+        }
+    }
+}
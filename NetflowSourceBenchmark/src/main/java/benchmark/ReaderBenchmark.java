@@ -0,0 +1,136 @@
+package benchmark;
+
+import netflow.ChunkedNetflowReader;
+import netflow.MappedNetflowReader;
+import netflow.NetflowCsvReader;
+import netflow.NetflowReader;
+import netflow.NetflowUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReaderBenchmark class. Measures how fast each reader of the source connector
+ * reads a whole netflow file, record by record, as poll does with parser.threads
+ * and parser.mmap settings. Records/sec and bytes/sec are reported as "records"
+ * and "bytes" secondary results. Run with "-prof gc" for allocation rates.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReaderBenchmark {
+    /**
+     * Number of parser threads of the chunked strategy.
+     */
+    private static final int PARSER_THREADS = 4;
+    /**
+     * Size of chunks of the chunked strategy, the default of parser.chunk.bytes.
+     */
+    private static final long PARSER_CHUNK_BYTES = 1048576;
+
+    /**
+     * Reader of netflow files: sequential (NetflowCsvReader), mmap (MappedNetflowReader),
+     * chunked (ChunkedNetflowReader) or gzip (NetflowCsvReader of a .csv.gz file).
+     */
+    @Param({"sequential", "mmap", "chunked", "gzip"})
+    public String strategy;
+
+    /**
+     * Size of the netflow file.
+     */
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public NetflowCsvFixture.Size size;
+
+    /**
+     * True for a file with empty and "No matched flows" lines.
+     */
+    @Param({"false", "true"})
+    public boolean noisy;
+
+    /**
+     * Filename of the netflow file.
+     */
+    private String csvFile;
+
+    /**
+     * Pool of parser threads of the chunked strategy.
+     */
+    private ExecutorService parserPool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csvFile = NetflowCsvFixture.generate(size, noisy, "gzip".equals(strategy));
+        if ("chunked".equals(strategy)) {
+            parserPool = Executors.newFixedThreadPool(PARSER_THREADS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (parserPool != null) {
+            parserPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads all records of the file, with padding appended, like poll does.
+     *
+     * @param counters RecordCounters Counters of records and bytes.
+     * @param bh       Blackhole Consumes the records.
+     * @throws IOException If any error occurs reading the file.
+     */
+    @Benchmark
+    public void readFile(RecordCounters counters, Blackhole bh) throws IOException {
+        NetflowReader reader = open();
+        try {
+            String record;
+            while ((record = reader.readRecord(NetflowUtils.RECORD_PADDING)) != null) {
+                bh.consume(record);
+            }
+            counters.records += reader.getRecordsRead();
+            counters.bytes += reader.getPosition();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Opens the file with the reader of the strategy.
+     *
+     * @return NetflowReader The reader.
+     * @throws IOException If the file cannot be opened.
+     */
+    private NetflowReader open() throws IOException {
+        switch (strategy) {
+            case "mmap":
+                return new MappedNetflowReader(csvFile);
+            case "chunked":
+                return new ChunkedNetflowReader(csvFile, 0, 0, parserPool, PARSER_CHUNK_BYTES, PARSER_THREADS, false);
+            default:
+                return new NetflowCsvReader(csvFile);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package benchmark;
+
+import netflow.NetflowStruct;
+import netflow.NetflowUtils;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecordBenchmark class. Measures the per-record steps of the source connector
+ * in isolation: key generation, source offset creation, SourceRecord
+ * construction and conversion of a csv line to a Struct. Run with "-prof gc"
+ * for allocations per record.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordBenchmark {
+    /**
+     * Prefix of record keys, as poll creates it for a file.
+     */
+    private static final String KEY_PREFIX = "0_0_nfcapd_20210701000000_csv_";
+
+    /**
+     * A netflow record, without padding.
+     */
+    private String line;
+
+    /**
+     * A netflow record, with padding.
+     */
+    private String paddedLine;
+
+    /**
+     * Source partition of the netflow file.
+     */
+    private Map<String, String> partition;
+
+    /**
+     * Converter of records to Structs.
+     */
+    private NetflowStruct structs = new NetflowStruct();
+
+    /**
+     * Counter of keys, like the number of records read from a file.
+     */
+    private long counter = 0;
+
+    @Setup
+    public void setUp() {
+        line = NetflowCsvFixture.record(new Random(42), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"),
+                1625097600000L);
+        paddedLine = line + NetflowUtils.RECORD_PADDING;
+        partition = NetflowUtils.sourcePartition("nfcapd.20210701000000.csv");
+    }
+
+    @Benchmark
+    public String key() {
+        return KEY_PREFIX + counter++;
+    }
+
+    @Benchmark
+    public Map<String, Long> sourceOffset() {
+        counter++;
+        return NetflowUtils.sourceOffset(counter * 300, counter);
+    }
+
+    @Benchmark
+    public String padding() {
+        return line + NetflowUtils.RECORD_PADDING;
+    }
+
+    /**
+     * Creates a SourceRecord with a csv value, including key and offset, as
+     * loadNetflowCsv does for each record.
+     *
+     * @return SourceRecord The record.
+     */
+    @Benchmark
+    public SourceRecord csvSourceRecord() {
+        counter++;
+        return NetflowUtils.createSourceRecord(partition, NetflowUtils.sourceOffset(counter * 300, counter),
+                "netflow-raw", KEY_PREFIX + counter, paddedLine, null);
+    }
+
+    /**
+     * Creates a SourceRecord with a Struct value, including key and offset, as
+     * loadNetflowCsv does for each record in struct format.
+     *
+     * @return SourceRecord The record.
+     */
+    @Benchmark
+    public SourceRecord structSourceRecord() {
+        counter++;
+        return NetflowUtils.createSourceRecord(partition, NetflowUtils.sourceOffset(counter * 300, counter),
+                "netflow-raw", KEY_PREFIX + counter, line, structs);
+    }
+
+    @Benchmark
+    public Struct structFromCsv() {
+        return structs.fromCsv(line);
+    }
+}
@@ -0,0 +1,39 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RecordCounters class. Counts the netflow records and bytes processed by a
+ * benchmark, so that JMH reports records/sec and bytes/sec, besides the rate
+ * of benchmark invocations (files/sec).
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RecordCounters {
+    /**
+     * Number of processed netflow records.
+     */
+    public long records;
+
+    /**
+     * Number of processed bytes, uncompressed.
+     */
+    public long bytes;
+
+    /**
+     * Resets counters before each iteration.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        records = 0;
+        bytes = 0;
+    }
+}
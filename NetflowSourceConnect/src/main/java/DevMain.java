@@ -8,6 +8,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import netflow.NetflowLoadGenerator;
 import netflow.NetflowUtils;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.log4j.Logger;
@@ -15,14 +16,25 @@ import org.apache.log4j.PropertyConfigurator;
 
 import utils.FileWatcher;
 import utils.Helpers;
+import utils.NetflowReplayer;
 
 /**
  * DevMain A test class with main method to test FileWatcher service
- * and FilesListener interface.
+ * and FilesListener interface, and to generate netflow load.
  * Main function starts FileWatcher service for a specific directory,
  * registers a listener to FileWatcher events and prints how many new
  * files are retrieved in each new event and their names, if there
- * are any new files. It also creates an ArrayList with Kafka SourceRecords.
+ * are any new files. It also creates an ArrayList with Kafka SourceRecords,
+ * and reports the throughput of parsing them.
+ * <p>
+ * Usage:
+ * DevMain [properties file]: watches filewatcher.dir.observe. If the properties
+ * cannot be loaded, it watches the directory of system property netflow.demo.dir
+ * (Default: [java.io.tmpdir]/palantir-demo).
+ * DevMain generate [loadgen.property=value ...]: writes synthetic nfdump csv
+ * files at a target rate (see NetflowLoadGenerator).
+ * DevMain replay [source dir] [output dir] [speed] [flat|date]: replays recorded
+ * files at N times their original speed (see NetflowReplayer).
  *
  * @author Space Hellas S.A.
  * @version 0.1-SNAPSHOT
@@ -31,6 +43,19 @@ import utils.Helpers;
 public class DevMain implements FilesListener {
     static Logger logger = Logger.getLogger(DevMain.class);
 
+    /**
+     * Directory, where FileWatcher service observes new files.
+     */
+    private String observeDir;
+
+    // Statistics of parsed files.
+    private long recordsParsed = 0;
+    private long parseTimeMs = 0;
+
+    public DevMain(String observeDir) {
+        this.observeDir = observeDir;
+    }
+
     public static void main(String[] args) throws InterruptedException {
         // Load logger properties. If anything goes wrong, use some default logger values.
         try {
@@ -42,6 +67,15 @@ public class DevMain implements FilesListener {
             logger.error("Could not load logger properties. Some logger features will be disabled.");
         }
 
+        if (args.length > 0 && "generate".equals(args[0])) {
+            generate(args);
+            return;
+        }
+        if (args.length > 0 && "replay".equals(args[0])) {
+            replay(args);
+            return;
+        }
+
         // Load properties file for application. If anything goes wrong, set default values.
         String appPropertiesFile = null;
         Properties appProps = new Properties();
@@ -71,15 +105,10 @@ public class DevMain implements FilesListener {
             // If any exception occurs, load some default values for app properties.
             // Set Id for this collector with random value in range [100,500)
             appProps.setProperty("collector.id", Integer.toString(new Random().nextInt(400) + 100));
-            appProps.setProperty("collector.id", "");
             appProps.setProperty("data.dir.file.prefix", "netflow-cache-");
-            if (Helpers.onWindows()) {
-                appProps.setProperty("data.dir.observer", "C:\\palantir-demo\\");
-            } else if (Helpers.onLinux()) {
-                appProps.setProperty("data.dir.observer", "/home/palantir-demo/");
-            } else {
-                appProps.setProperty("data.dir.observer", "./");
-            }
+            // Observed directory: system property netflow.demo.dir, or palantir-demo in the temp directory.
+            appProps.setProperty("filewatcher.dir.observe", System.getProperty("netflow.demo.dir",
+                    new File(System.getProperty("java.io.tmpdir"), "palantir-demo").getPath()));
             appProps.setProperty("filewatcher.interval.s", "5");
         }
 
@@ -94,7 +123,7 @@ public class DevMain implements FilesListener {
         );
 
         // Register DevMain class to FileWatcher events
-        DevMain dev = new DevMain();
+        DevMain dev = new DevMain(appProps.getProperty("filewatcher.dir.observe"));
         fileWatcher.addListener(dev);
 
         // Schedule this service to run in background.
@@ -113,14 +142,63 @@ public class DevMain implements FilesListener {
             logger.debug("======================================");
             logger.debug("Retrieved an event with " + files.size() + " new files.");
             for (String f : files) {
+                long start = System.currentTimeMillis();
                 ArrayList<SourceRecord> csvRecords = NetflowUtils.loadNetflowCsv(
-                        "C:\\palantir-demo\\" + "/" + f,
+                        observeDir + "/" + f,
                         "",
-                        "0_" + f.replaceAll("\\.", "_") + "_",
-                        "");
+                        "0_" + f.replaceAll("[./]", "_") + "_");
+                parseTimeMs += System.currentTimeMillis() - start;
+                recordsParsed += csvRecords.size();
                 logger.debug("[" + f + "]: " + csvRecords.size() + " netflow records.");
             }
+            logger.debug("Parsed " + recordsParsed + " netflow records in " + parseTimeMs + " ms ("
+                    + recordsParsed * 1000 / Math.max(1, parseTimeMs) + " records/s).");
             logger.debug("======================================");
         }
     }
+
+    /**
+     * Generates synthetic netflow files. Arguments after "generate" are
+     * loadgen.* properties, as property=value.
+     *
+     * @param args String[] Command line arguments.
+     */
+    private static void generate(String[] args) throws InterruptedException {
+        Properties props = new Properties();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq > 0) {
+                props.setProperty(args[i].substring(0, eq), args[i].substring(eq + 1));
+            }
+        }
+        try {
+            new NetflowLoadGenerator(props).run();
+        } catch (IOException e) {
+            logger.error("IOException. Load generation stopped.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Replays recorded netflow files. Arguments after "replay" are the source
+     * directory, the output directory, the speed factor (Default: 1, 0 for as
+     * fast as possible) and the layout (Default: flat).
+     *
+     * @param args String[] Command line arguments.
+     */
+    private static void replay(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            logger.error("Usage: DevMain replay [source dir] [output dir] [speed] [flat|date]");
+            return;
+        }
+        try {
+            new NetflowReplayer(args[1], args[2], args.length > 3 ? Double.parseDouble(args[3]) : 1,
+                    args.length > 4 ? args[4] : "flat").run();
+        } catch (IOException e) {
+            logger.error("IOException. Replay stopped.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,336 @@
+package netflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * ChunkedNetflowReader class. Reads a netflow file (.csv) using a pool of
+ * parser threads. The file is split in byte ranges (chunks) of a configured
+ * size, and each chunk is read by a parser thread. A chunk contains all lines
+ * that start inside its byte range, so chunk boundaries are aligned to line
+ * delimiters and each line is read exactly once. Parsed chunks are returned
+ * strictly in file order, so records, their counters and their byte positions
+ * are the same as the ones returned by NetflowCsvReader. Only a limited number
+ * of chunks is parsed ahead of the returned records, to bound memory usage.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class ChunkedNetflowReader implements NetflowReader {
+    /**
+     * Filename of .csv to be read.
+     */
+    private String csvFile;
+
+    /**
+     * Pool of parser threads, shared among readers.
+     */
+    private ExecutorService parserPool;
+
+    /**
+     * Size of each chunk in bytes.
+     */
+    private long chunkBytes;
+    /**
+     * Maximum number of chunks submitted to parser pool and not returned yet.
+     */
+    private int maxChunksInFlight;
+    /**
+     * True if chunks are read through a memory mapping of the file.
+     */
+    private boolean memoryMapped;
+
+    /**
+     * Size of file, when it was opened. Bytes appended later are not read.
+     */
+    private long fileLength;
+    /**
+     * Byte position in file, where reading started.
+     */
+    private long startPosition;
+    /**
+     * Start of the byte range of the next chunk to be submitted.
+     */
+    private long nextChunkStart;
+
+    /**
+     * Chunks submitted to parser pool, in file order.
+     */
+    private Deque<Future<Chunk>> pendingChunks = new ArrayDeque<Future<Chunk>>();
+    /**
+     * Chunk, whose lines are currently returned.
+     */
+    private Chunk currentChunk = null;
+    /**
+     * Index of next line to be returned from current chunk.
+     */
+    private int currentLine = 0;
+
+    /**
+     * Byte position in file after the last returned line.
+     */
+    private long position;
+    /**
+     * Number of netflow records (lines) returned so far.
+     */
+    private long recordsRead;
+    /**
+     * True if end of file has been reached or reader has been closed.
+     */
+    private boolean finished = false;
+
+    /**
+     * Constructor. Opens a netflow file for reading from a given byte position
+     * and submits its first chunks to parser pool.
+     *
+     * @param csvFile           String Filename of .csv to be read.
+     * @param position          long Byte position in file to start reading from. It
+     *                          must be the start of a line.
+     * @param recordsRead       long Number of netflow records (lines) before this position.
+     * @param parserPool        ExecutorService Pool of parser threads.
+     * @param chunkBytes        long Size of each chunk in bytes.
+     * @param maxChunksInFlight int Maximum number of chunks parsed ahead of returned records.
+     * @param memoryMapped      boolean True to read chunks with MappedNetflowReader.
+     * @throws IOException If file cannot be opened.
+     */
+    public ChunkedNetflowReader(String csvFile, long position, long recordsRead, ExecutorService parserPool,
+                                long chunkBytes, int maxChunksInFlight, boolean memoryMapped) throws IOException {
+        File file = new File(csvFile);
+        if (!file.isFile() || !file.canRead()) {
+            throw new IOException("Cannot read file " + csvFile);
+        }
+
+        this.csvFile = csvFile;
+        this.parserPool = parserPool;
+        this.chunkBytes = Math.max(1, chunkBytes);
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+        this.memoryMapped = memoryMapped;
+        this.fileLength = file.length();
+        this.startPosition = position;
+        this.nextChunkStart = position;
+        this.position = position;
+        this.recordsRead = recordsRead;
+
+        submitChunks();
+    }
+
+    /**
+     * Reads next netflow record from file, ignoring "No matched flows" & empty lines.
+     * Waits for the parser thread, if the next chunk has not been parsed yet.
+     *
+     * @return String The next netflow record, without line delimiters. Returns null
+     * if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    @Override
+    public String readLine() throws IOException {
+        while (!finished) {
+            if (currentChunk != null && currentLine < currentChunk.lines.size()) {
+                String line = currentChunk.lines.get(currentLine);
+                position = currentChunk.positions[currentLine];
+                currentLine++;
+                recordsRead++;
+                return line;
+            }
+
+            Future<Chunk> next = pendingChunks.pollFirst();
+            if (next == null) {
+                finished = true;
+                break;
+            }
+            currentChunk = waitForChunk(next);
+            currentLine = 0;
+            submitChunks();
+        }
+        return null;
+    }
+
+    /**
+     * Submits chunks to parser pool, until maximum chunks in flight or end of file is reached.
+     */
+    private void submitChunks() {
+        while (pendingChunks.size() < maxChunksInFlight && nextChunkStart < fileLength) {
+            long start = nextChunkStart;
+            long end = Math.min(fileLength, start + chunkBytes);
+            // First chunk starts at a line start. All the others may start in the middle of a line.
+            pendingChunks.addLast(parserPool.submit(new ChunkParser(csvFile, start, end, start == startPosition, memoryMapped)));
+            nextChunkStart = end;
+        }
+    }
+
+    /**
+     * Waits for a chunk to be parsed.
+     *
+     * @param future Future(Chunk) The submitted chunk.
+     * @return Chunk The parsed chunk.
+     * @throws IOException If chunk could not be read, or waiting has been interrupted.
+     */
+    private Chunk waitForChunk(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for chunk of file " + csvFile, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot parse chunk of file " + csvFile, e.getCause());
+        }
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Closes reader and cancels chunks, that have not been returned yet.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        for (Future<Chunk> future : pendingChunks) {
+            future.cancel(false);
+        }
+        pendingChunks.clear();
+        currentChunk = null;
+    }
+
+    /**
+     * Netflow records (lines) of a chunk, with the byte position in file after each of them.
+     */
+    private static class Chunk {
+        /**
+         * Netflow records of the chunk.
+         */
+        private ArrayList<String> lines = new ArrayList<String>();
+        /**
+         * Byte position in file after each netflow record.
+         */
+        private long[] positions = new long[64];
+
+        /**
+         * Adds a netflow record to chunk.
+         *
+         * @param line     String Netflow record.
+         * @param position long Byte position in file after the record.
+         */
+        private void add(String line, long position) {
+            if (lines.size() == positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[lines.size()] = position;
+            lines.add(line);
+        }
+    }
+
+    /**
+     * Task of parser pool, that reads all lines starting in a byte range of the file.
+     */
+    private static class ChunkParser implements Callable<Chunk> {
+        /**
+         * Filename of .csv to be read.
+         */
+        private String csvFile;
+        /**
+         * Start of byte range (inclusive).
+         */
+        private long start;
+        /**
+         * End of byte range (exclusive).
+         */
+        private long end;
+        /**
+         * True if start of range is known to be the start of a line.
+         */
+        private boolean aligned;
+        /**
+         * True if chunk is read through a memory mapping of the file.
+         */
+        private boolean memoryMapped;
+
+        /**
+         * Constructor
+         *
+         * @param csvFile      String Filename of .csv to be read.
+         * @param start        long Start of byte range (inclusive).
+         * @param end          long End of byte range (exclusive).
+         * @param aligned      boolean True if start of range is the start of a line.
+         * @param memoryMapped boolean True to read chunk with MappedNetflowReader.
+         */
+        private ChunkParser(String csvFile, long start, long end, boolean aligned, boolean memoryMapped) {
+            this.csvFile = csvFile;
+            this.start = start;
+            this.end = end;
+            this.aligned = aligned;
+            this.memoryMapped = memoryMapped;
+        }
+
+        /**
+         * Reads the lines of the chunk. If the chunk starts in the middle of a line,
+         * this line belongs to the previous chunk and is skipped. The last line may
+         * end after the end of the range.
+         *
+         * @return Chunk The parsed chunk.
+         * @throws IOException If any error occurs reading the file.
+         */
+        @Override
+        public Chunk call() throws IOException {
+            Chunk chunk = new Chunk();
+            // If range does not start at a line start, start from the previous byte
+            // and move to the first line starting at or after start of range.
+            long from = aligned ? start : start - 1;
+
+            if (memoryMapped) {
+                // Map only the chunk, with some space for its last line.
+                MappedNetflowReader reader = new MappedNetflowReader(csvFile, from, 0, end - from + 64 * 1024);
+                try {
+                    if (!aligned) {
+                        reader.skipLine();
+                    }
+                    String line;
+                    while ((line = reader.readLine()) != null && reader.getLineStart() < end) {
+                        chunk.add(line, reader.getPosition());
+                    }
+                } finally {
+                    reader.close();
+                }
+            } else {
+                NetflowCsvReader reader = new NetflowCsvReader(csvFile, from, 0);
+                try {
+                    if (!aligned) {
+                        reader.skipLine();
+                    }
+                    String line;
+                    while ((line = reader.readLine()) != null && reader.getLineStart() < end) {
+                        chunk.add(line, reader.getPosition());
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+
+            return chunk;
+        }
+    }
+}
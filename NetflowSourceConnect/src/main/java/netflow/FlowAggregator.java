@@ -0,0 +1,574 @@
+package netflow;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * FlowAggregator merges the netflow records of a file, that share a key, over
+ * a tumbling window of their start time, before they are sent to Kafka. The
+ * key is either the 5-tuple (addresses, ports and protocol) or the address
+ * pair and protocol. Merged records sum packets and bytes, take the earliest
+ * start and the latest end, and OR the TCP flags. The other columns are taken
+ * from the first record of each key. Merged records are nfdump csv lines, so
+ * that the rest of the pipeline is not affected.
+ * <p>
+ * Keys and counters are kept in parallel primitive arrays of an open
+ * addressing hash table, so that a record is merged without allocations
+ * (except for IPv6 addresses). The table is flushed at the end of the file,
+ * or when it holds the maximum number of keys. Each flush keeps the file's
+ * position and number of records, so that the last merged record of a flush
+ * carries the source offset after all the records it merged. An instance
+ * belongs to one open file and is not thread safe.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class FlowAggregator {
+    /**
+     * Key of addresses, ports and protocol.
+     */
+    public static final String KEY_5TUPLE = "5tuple";
+    /**
+     * Key of addresses and protocol. Ports of merged records are 0.
+     */
+    public static final String KEY_PAIR = "pair";
+
+    /**
+     * Initial capacity of the hash table.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * If true, ports are part of the key.
+     */
+    private final boolean withPorts;
+
+    /**
+     * Length (milliseconds) of tumbling windows of start time.
+     */
+    private final long windowMs;
+
+    /**
+     * Maximum number of keys, before the table is flushed.
+     */
+    private final int maxKeys;
+
+    // Hash table. A slot is used if its template is not null.
+    private long[] srcHi;
+    private long[] srcLo;
+    private long[] dstHi;
+    private long[] dstLo;
+    private long[] protocols;
+    private long[] portsAndWindow;
+    private long[] starts;
+    private long[] ends;
+    private long[] inPackets;
+    private long[] inBytes;
+    private long[] outPackets;
+    private long[] outBytes;
+    private int[] tcpFlags;
+    private boolean[] routedFlows;
+    /**
+     * First record of each key, whose other columns are kept in the merged record.
+     */
+    private String[] templates;
+    /**
+     * Used slots, in the order their keys were first seen.
+     */
+    private int[] order;
+    /**
+     * Number of used slots.
+     */
+    private int size = 0;
+
+    /**
+     * Columns of the current record.
+     */
+    private final NetflowColumns columns = new NetflowColumns();
+
+    /**
+     * Merged records of the last flush, waiting to be sent.
+     */
+    private Deque<String> pending = new ArrayDeque<String>();
+    /**
+     * Number of merged records of the last flush.
+     */
+    private int flushedCount = 0;
+    /**
+     * Routed flags of the merged records of the last flush, by their number in the flush.
+     */
+    private boolean[] flushedRouted = new boolean[0];
+    /**
+     * Position in file and number of records read, at the last flush.
+     */
+    private long flushPosition;
+    private long flushRecords;
+    /**
+     * Position in file and number of records read, at the flush before the
+     * last one, i.e. where the records merged by the last flush start.
+     */
+    private long previousPosition;
+    private long previousRecords;
+
+    /**
+     * Records, that could not be parsed and were skipped.
+     */
+    private long recordsSkipped = 0;
+
+    /**
+     * Buffer, where a merged record is formatted.
+     */
+    private StringBuilder sb = new StringBuilder(512);
+    /**
+     * Second of the last formatted date, and its formatted date, "yyyy-MM-dd HH:mm:ss".
+     * Records of a file start in a few minutes, so most dates are formatted once.
+     */
+    private long lastSecond = Long.MIN_VALUE;
+    private String lastDate = null;
+
+    /**
+     * Constructor
+     *
+     * @param key         String Key of merged records: "5tuple" or "pair".
+     * @param windowMs    long Length (milliseconds) of tumbling windows of start time.
+     * @param maxKeys     int Maximum number of keys, before the table is flushed.
+     * @param position    long Position in file, where reading starts.
+     * @param recordsRead long Number of records of the file before this position.
+     */
+    public FlowAggregator(String key, long windowMs, int maxKeys, long position, long recordsRead) {
+        this.withPorts = !KEY_PAIR.equals(key);
+        this.windowMs = windowMs;
+        this.maxKeys = maxKeys;
+        this.flushPosition = this.previousPosition = position;
+        this.flushRecords = this.previousRecords = recordsRead;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Merges a netflow record in the table.
+     *
+     * @param line String A nfdump csv line, without padding.
+     * @return boolean True if it has been merged, false if it cannot be parsed and has been skipped.
+     */
+    public boolean add(String line) {
+        if (!columns.parse(line)) {
+            recordsSkipped++;
+            return false;
+        }
+        return add(columns, false);
+    }
+
+    /**
+     * Merges a parsed netflow record in the table. Routed records, i.e. records
+     * that match the flow filter and go to its topic, are merged only with other
+     * routed records.
+     *
+     * @param record NetflowColumns Columns of a nfdump csv line, without padding.
+     * @param routed boolean True if the record is routed to the filter's topic.
+     * @return boolean True if it has been merged, false if it cannot be parsed and has been skipped.
+     */
+    public boolean add(NetflowColumns record, boolean routed) {
+        long start = record.time(NetflowColumns.TIME_START);
+        long end = record.time(NetflowColumns.TIME_END);
+        long ipkt = record.counter(NetflowColumns.IN_PACKETS);
+        long ibyt = record.counter(NetflowColumns.IN_BYTES);
+        long opkt = record.counter(NetflowColumns.OUT_PACKETS);
+        long obyt = record.counter(NetflowColumns.OUT_BYTES);
+        long protocol = record.packedProtocol();
+        int flags = record.tcpFlags();
+        long ports = withPorts
+                ? record.counter(NetflowColumns.SRC_PORT) << 16 | record.counter(NetflowColumns.DST_PORT)
+                : 0;
+        if (start < 0 || end < 0 || ipkt < 0 || ibyt < 0 || opkt < 0 || obyt < 0 || ports < 0 || flags < 0
+                || !record.address(NetflowColumns.SRC_ADDR)) {
+            recordsSkipped++;
+            return false;
+        }
+        long sHi = record.getAddressHigh();
+        long sLo = record.getAddressLow();
+        if (!record.address(NetflowColumns.DST_ADDR)) {
+            recordsSkipped++;
+            return false;
+        }
+        long dHi = record.getAddressHigh();
+        long dLo = record.getAddressLow();
+        long portsWindow = ports << 32 | (Math.floorDiv(start, windowMs) & 0xFFFFFFFFL);
+        String line = record.getLine();
+
+        int mask = templates.length - 1;
+        int slot = hash(sHi, sLo, dHi, dLo, protocol, portsWindow, routed) & mask;
+        while (templates[slot] != null) {
+            if (srcLo[slot] == sLo && dstLo[slot] == dLo && portsAndWindow[slot] == portsWindow
+                    && srcHi[slot] == sHi && dstHi[slot] == dHi && protocols[slot] == protocol
+                    && routedFlows[slot] == routed) {
+                starts[slot] = Math.min(starts[slot], start);
+                ends[slot] = Math.max(ends[slot], end);
+                inPackets[slot] += ipkt;
+                inBytes[slot] += ibyt;
+                outPackets[slot] += opkt;
+                outBytes[slot] += obyt;
+                tcpFlags[slot] |= flags;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        srcHi[slot] = sHi;
+        srcLo[slot] = sLo;
+        dstHi[slot] = dHi;
+        dstLo[slot] = dLo;
+        protocols[slot] = protocol;
+        portsAndWindow[slot] = portsWindow;
+        starts[slot] = start;
+        ends[slot] = end;
+        inPackets[slot] = ipkt;
+        inBytes[slot] = ibyt;
+        outPackets[slot] = opkt;
+        outBytes[slot] = obyt;
+        tcpFlags[slot] = flags;
+        routedFlows[slot] = routed;
+        templates[slot] = line;
+        order[size++] = slot;
+
+        // Keep the table at most half full.
+        if (size * 2 > templates.length) {
+            allocate(templates.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the table holds the maximum number of keys and must be flushed.
+     *
+     * @return boolean True if the table is full.
+     */
+    public boolean isFull() {
+        return size >= maxKeys;
+    }
+
+    /**
+     * Formats all merged records of the table, in the order their keys were first
+     * seen, as pending records, and empties the table.
+     *
+     * @param position    long Position in file after the last merged record.
+     * @param recordsRead long Number of records of the file up to the last merged record.
+     */
+    public void flush(long position, long recordsRead) {
+        if (flushedRouted.length < size) {
+            flushedRouted = new boolean[order.length];
+        }
+        for (int i = 0; i < size; i++) {
+            int slot = order[i];
+            pending.addLast(format(slot));
+            flushedRouted[i] = routedFlows[slot];
+            templates[slot] = null;
+        }
+        flushedCount = size;
+        size = 0;
+        previousPosition = flushPosition;
+        previousRecords = flushRecords;
+        flushPosition = position;
+        flushRecords = recordsRead;
+    }
+
+    /**
+     * Checks if merged records of the last flush wait to be sent.
+     *
+     * @return boolean True if there are pending records.
+     */
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Returns the number of the next pending record among the records of the last flush.
+     *
+     * @return int Number of the record, starting from 0.
+     */
+    public int nextPendingIndex() {
+        return flushedCount - pending.size();
+    }
+
+    /**
+     * Removes and returns the next pending record.
+     *
+     * @return String The merged record, without padding. Null if there are no pending records.
+     */
+    public String pollPending() {
+        return pending.pollFirst();
+    }
+
+    /**
+     * Checks if the next pending record is routed to the flow filter's topic.
+     *
+     * @return boolean True if the next pending record merged routed records.
+     */
+    public boolean isNextPendingRouted() {
+        return hasPending() && flushedRouted[nextPendingIndex()];
+    }
+
+    /**
+     * Returns the position in file, that is the source offset of a pending record.
+     * It is the position after all merged records for the last record of a flush,
+     * and the position before them for the others, so that a restart reads them
+     * all again, until the last one has been stored.
+     *
+     * @param last boolean True for the last record of the flush.
+     * @return long Position in file.
+     */
+    public long offsetPosition(boolean last) {
+        return last ? flushPosition : previousPosition;
+    }
+
+    /**
+     * Returns the number of records read, that is the source offset of a pending record.
+     *
+     * @param last boolean True for the last record of the flush.
+     * @return long Number of records of the file.
+     */
+    public long offsetRecords(boolean last) {
+        return last ? flushRecords : previousRecords;
+    }
+
+    /**
+     * Returns the number of records read at the last flush. Together with
+     * the number of a pending record, it makes the record's key unique.
+     *
+     * @return long Number of records of the file.
+     */
+    public long getFlushRecords() {
+        return flushRecords;
+    }
+
+    public long getRecordsSkipped() {
+        return recordsSkipped;
+    }
+
+    /**
+     * Allocates the arrays of the table with a new capacity, and inserts the
+     * used slots of the old arrays again, in the order they were first seen.
+     *
+     * @param capacity int The new capacity, a power of 2.
+     */
+    private void allocate(int capacity) {
+        long[] oSrcHi = srcHi, oSrcLo = srcLo, oDstHi = dstHi, oDstLo = dstLo, oProtocols = protocols;
+        long[] oPortsAndWindow = portsAndWindow, oStarts = starts, oEnds = ends;
+        long[] oInPackets = inPackets, oInBytes = inBytes, oOutPackets = outPackets, oOutBytes = outBytes;
+        int[] oTcpFlags = tcpFlags, oOrder = order;
+        boolean[] oRoutedFlows = routedFlows;
+        String[] oTemplates = templates;
+
+        srcHi = new long[capacity];
+        srcLo = new long[capacity];
+        dstHi = new long[capacity];
+        dstLo = new long[capacity];
+        protocols = new long[capacity];
+        portsAndWindow = new long[capacity];
+        starts = new long[capacity];
+        ends = new long[capacity];
+        inPackets = new long[capacity];
+        inBytes = new long[capacity];
+        outPackets = new long[capacity];
+        outBytes = new long[capacity];
+        tcpFlags = new int[capacity];
+        routedFlows = new boolean[capacity];
+        templates = new String[capacity];
+        order = new int[capacity / 2 + 1];
+
+        if (oTemplates == null) {
+            return;
+        }
+
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int o = oOrder[i];
+            int slot = hash(oSrcHi[o], oSrcLo[o], oDstHi[o], oDstLo[o], oProtocols[o], oPortsAndWindow[o],
+                    oRoutedFlows[o]) & mask;
+            while (templates[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            srcHi[slot] = oSrcHi[o];
+            srcLo[slot] = oSrcLo[o];
+            dstHi[slot] = oDstHi[o];
+            dstLo[slot] = oDstLo[o];
+            protocols[slot] = oProtocols[o];
+            portsAndWindow[slot] = oPortsAndWindow[o];
+            starts[slot] = oStarts[o];
+            ends[slot] = oEnds[o];
+            inPackets[slot] = oInPackets[o];
+            inBytes[slot] = oInBytes[o];
+            outPackets[slot] = oOutPackets[o];
+            outBytes[slot] = oOutBytes[o];
+            tcpFlags[slot] = oTcpFlags[o];
+            routedFlows[slot] = oRoutedFlows[o];
+            templates[slot] = oTemplates[o];
+            order[i] = slot;
+        }
+    }
+
+    /**
+     * Hashes a key, mixing all its parts.
+     *
+     * @return int The hash.
+     */
+    private static int hash(long sHi, long sLo, long dHi, long dLo, long protocol, long portsWindow,
+                            boolean routed) {
+        long h = (routed ? ~sLo : sLo) * 0x9E3779B97F4A7C15L;
+        h = (h ^ dLo) * 0x9E3779B97F4A7C15L;
+        h = (h ^ portsWindow) * 0x9E3779B97F4A7C15L;
+        h = (h ^ sHi ^ (dHi << 1) ^ protocol) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Formats the merged record of a slot: the first record of its key, with
+     * merged times, duration, counters and flags, and ports 0 in "pair" key.
+     *
+     * @param slot int The slot.
+     * @return String The csv line.
+     */
+    private String format(int slot) {
+        String template = templates[slot];
+        if (!columns.parse(template)) {
+            return template;
+        }
+
+        sb.setLength(0);
+        boolean millis = columns.end(NetflowColumns.TIME_START) - columns.start(NetflowColumns.TIME_START) >= 23;
+        appendTime(starts[slot], millis);
+        sb.append(',');
+        appendTime(ends[slot], millis);
+        sb.append(',');
+        long duration = ends[slot] - starts[slot];
+        sb.append(duration / 1000).append('.');
+        appendPadded(duration % 1000, 3);
+        sb.append(',');
+        appendChars(template, columns.start(NetflowColumns.SRC_ADDR), columns.end(NetflowColumns.DST_ADDR));
+        sb.append(',');
+        if (withPorts) {
+            appendChars(template, columns.start(NetflowColumns.SRC_PORT), columns.end(NetflowColumns.DST_PORT));
+        } else {
+            sb.append("0,0");
+        }
+        sb.append(',');
+        appendChars(template, columns.start(NetflowColumns.PROTOCOL), columns.end(NetflowColumns.PROTOCOL));
+        sb.append(',');
+        appendTcpFlags(tcpFlags[slot]);
+        sb.append(',');
+        appendChars(template, columns.end(NetflowColumns.TCP_FLAGS) + 1, columns.end(NetflowColumns.SRC_TOS));
+        sb.append(',').append(inPackets[slot]);
+        sb.append(',').append(inBytes[slot]);
+        sb.append(',').append(outPackets[slot]);
+        sb.append(',').append(outBytes[slot]);
+        appendChars(template, columns.end(NetflowColumns.OUT_BYTES), template.length());
+        return sb.toString();
+    }
+
+    /**
+     * Appends characters of a string. Long parts are copied through a substring,
+     * which is copied in bulk, while StringBuilder.append(CharSequence, int, int)
+     * copies them one by one.
+     *
+     * @param value String The string.
+     * @param from  int Index of the first character.
+     * @param to    int Index after the last character.
+     */
+    private void appendChars(String value, int from, int to) {
+        if (to - from > 32) {
+            sb.append(value.substring(from, to));
+        } else {
+            sb.append(value, from, to);
+        }
+    }
+
+    /**
+     * Appends a time as a nfdump date.
+     *
+     * @param time   long Milliseconds since 1970-01-01 00:00:00, in the date's own time zone.
+     * @param millis boolean If true, milliseconds are appended, like ".SSS".
+     */
+    private void appendTime(long time, boolean millis) {
+        long second = Math.floorDiv(time, 1000L);
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastDate = formatDate(second);
+        }
+        sb.append(lastDate);
+        if (millis) {
+            sb.append('.');
+            appendPadded(Math.floorMod(time, 1000L), 3);
+        }
+    }
+
+    /**
+     * Formats a second as a nfdump date, "yyyy-MM-dd HH:mm:ss".
+     *
+     * @param second long Seconds since 1970-01-01 00:00:00, in the date's own time zone.
+     * @return String The formatted date.
+     */
+    private static String formatDate(long second) {
+        long days = Math.floorDiv(second, 86400L);
+        long secondOfDay = Math.floorMod(second, 86400L);
+        // Civil date from days since 1970-01-01 (H. Hinnant's algorithm).
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] date = "0000-00-00 00:00:00".toCharArray();
+        putDigits(date, 0, 4, year);
+        putDigits(date, 5, 2, month);
+        putDigits(date, 8, 2, day);
+        putDigits(date, 11, 2, secondOfDay / 3600);
+        putDigits(date, 14, 2, secondOfDay / 60 % 60);
+        putDigits(date, 17, 2, secondOfDay % 60);
+        return new String(date);
+    }
+
+    /**
+     * Writes the last digits of a number in a fixed number of characters.
+     */
+    private static void putDigits(char[] chars, int from, int count, long value) {
+        for (int i = from + count - 1; i >= from; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Appends a non negative number, padded with zeros to a minimum number of digits.
+     */
+    private void appendPadded(long value, int digits) {
+        for (long limit = 10, i = 1; i < digits; i++, limit *= 10) {
+            if (value < limit) {
+                sb.append('0');
+            }
+        }
+        sb.append(value);
+    }
+
+    /**
+     * Appends TCP flags like nfdump, i.e. "UAPRSF" with '.' for flags not set,
+     * or as a hex number if unusual flags are set.
+     *
+     * @param flags int TCP flags.
+     */
+    private void appendTcpFlags(int flags) {
+        if (flags > 63) {
+            sb.append("  0x").append(Integer.toHexString(flags & 0xFF));
+            return;
+        }
+        sb.append((flags & 32) != 0 ? 'U' : '.');
+        sb.append((flags & 16) != 0 ? 'A' : '.');
+        sb.append((flags & 8) != 0 ? 'P' : '.');
+        sb.append((flags & 4) != 0 ? 'R' : '.');
+        sb.append((flags & 2) != 0 ? 'S' : '.');
+        sb.append((flags & 1) != 0 ? 'F' : '.');
+    }
+}
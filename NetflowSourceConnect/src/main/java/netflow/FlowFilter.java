@@ -0,0 +1,675 @@
+package netflow;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FlowFilter is a compiled flow filter expression, e.g.
+ * "proto == UDP &amp;&amp; dport == 53 &amp;&amp; dst in 10.0.0.0/8". Netflow
+ * records, that match it, are either dropped or routed to another Kafka topic,
+ * before they are sent. An expression is compiled once into a tree of
+ * predicates, that test the parsed columns of a record in place, without
+ * allocations (except for IPv6 addresses).
+ * <p>
+ * Expressions combine conditions with "&amp;&amp;" (and), "||" (or), "!" (not)
+ * and parentheses. Conditions are:
+ * <ul>
+ * <li>src, dst, host (either): == or != an address or a CIDR network, or
+ * [not] in a network or a list of them, e.g. "host in [10.0.0.0/8, ::1]".</li>
+ * <li>sport, dport, port (either), pkts, bytes, duration (seconds): ==, !=, &lt;,
+ * &lt;=, &gt;, &gt;= a number, or [not] in a list of numbers.</li>
+ * <li>proto: == or != a protocol name or number, or [not] in a list of them.</li>
+ * <li>flags has TCP flags, e.g. "flags has SA".</li>
+ * </ul>
+ * Records, whose columns cannot be parsed, match neither a condition nor its
+ * negation with != or not in. Only "!" negates the result for them too. A
+ * compiled filter is immutable and can be shared between threads.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class FlowFilter {
+    /**
+     * Matching records are dropped.
+     */
+    public static final String ACTION_DROP = "drop";
+    /**
+     * Matching records are sent to the filter's topic.
+     */
+    public static final String ACTION_ROUTE = "route";
+
+    // Numeric fields.
+    private static final int FIELD_SRC_PORT = 0;
+    private static final int FIELD_DST_PORT = 1;
+    private static final int FIELD_PORT = 2;
+    private static final int FIELD_PACKETS = 3;
+    private static final int FIELD_BYTES = 4;
+    private static final int FIELD_DURATION = 5;
+
+    // Comparison operators.
+    private static final int OP_EQ = 0;
+    private static final int OP_LT = 1;
+    private static final int OP_LE = 2;
+    private static final int OP_GT = 3;
+    private static final int OP_GE = 4;
+
+    /**
+     * The expression, as configured.
+     */
+    private final String expression;
+
+    /**
+     * Root of the predicate tree.
+     */
+    private final Predicate predicate;
+
+    /**
+     * Topic of matching records. Null if they are dropped.
+     */
+    private final String routeTopic;
+
+    /**
+     * Constructor
+     */
+    private FlowFilter(String expression, Predicate predicate, String routeTopic) {
+        this.expression = expression;
+        this.predicate = predicate;
+        this.routeTopic = routeTopic;
+    }
+
+    /**
+     * Compiles a flow filter expression.
+     *
+     * @param expression String The expression.
+     * @param routeTopic String Topic of matching records. Null or empty if they are dropped.
+     * @return FlowFilter The compiled filter.
+     * @throws IllegalArgumentException If the expression is invalid.
+     */
+    public static FlowFilter compile(String expression, String routeTopic) {
+        Parser parser = new Parser(expression);
+        Predicate predicate = parser.parseOr();
+        if (!parser.atEnd()) {
+            throw parser.error("unexpected '" + parser.peek() + "'");
+        }
+        return new FlowFilter(expression, predicate, routeTopic == null || routeTopic.isEmpty() ? null : routeTopic);
+    }
+
+    /**
+     * Checks if a parsed netflow record matches the filter.
+     *
+     * @param record NetflowColumns Columns of the record, already parsed.
+     * @return boolean True if the record matches.
+     */
+    public boolean matches(NetflowColumns record) {
+        return predicate.test(record);
+    }
+
+    /**
+     * Checks if matching records are routed to another topic, instead of being dropped.
+     *
+     * @return boolean True if matching records are routed.
+     */
+    public boolean isRouted() {
+        return routeTopic != null;
+    }
+
+    public String getRouteTopic() {
+        return routeTopic;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * A compiled condition.
+     */
+    private interface Predicate {
+        boolean test(NetflowColumns record);
+    }
+
+    private static final class And implements Predicate {
+        private final Predicate left;
+        private final Predicate right;
+
+        And(Predicate left, Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            return left.test(record) && right.test(record);
+        }
+    }
+
+    private static final class Or implements Predicate {
+        private final Predicate left;
+        private final Predicate right;
+
+        Or(Predicate left, Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            return left.test(record) || right.test(record);
+        }
+    }
+
+    private static final class Not implements Predicate {
+        private final Predicate operand;
+
+        Not(Predicate operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            return !operand.test(record);
+        }
+    }
+
+    /**
+     * Address columns in any of a list of networks, or, if negated, in none of
+     * them. Networks are 128 bits, with IPv4 networks mapped, like the parsed
+     * addresses. Invalid addresses are ignored, and if all of them are invalid,
+     * the predicate does not match, even if negated.
+     */
+    private static final class AddressIn implements Predicate {
+        private final int[] columns;
+        private final long[] networkHigh;
+        private final long[] networkLow;
+        private final long[] maskHigh;
+        private final long[] maskLow;
+        private final boolean negated;
+
+        AddressIn(int[] columns, long[] networkHigh, long[] networkLow, long[] maskHigh, long[] maskLow,
+                  boolean negated) {
+            this.columns = columns;
+            this.networkHigh = networkHigh;
+            this.networkLow = networkLow;
+            this.maskHigh = maskHigh;
+            this.maskLow = maskLow;
+            this.negated = negated;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            boolean valid = false;
+            for (int column : columns) {
+                if (!record.address(column)) {
+                    continue;
+                }
+                valid = true;
+                long high = record.getAddressHigh();
+                long low = record.getAddressLow();
+                for (int i = 0; i < networkLow.length; i++) {
+                    if ((low & maskLow[i]) == networkLow[i] && (high & maskHigh[i]) == networkHigh[i]) {
+                        return !negated;
+                    }
+                }
+            }
+            return valid && negated;
+        }
+    }
+
+    /**
+     * Numeric field, that matches a condition, or, if negated, does not. The
+     * "port" field matches if either port does. Invalid values are ignored, and
+     * if all of them are invalid, the predicate does not match, even if negated.
+     */
+    private abstract static class FieldPredicate implements Predicate {
+        private final int field;
+        private final boolean negated;
+
+        FieldPredicate(int field, boolean negated) {
+            this.field = field;
+            this.negated = negated;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            long first = fieldValue(record, field == FIELD_PORT ? FIELD_SRC_PORT : field);
+            long second = field == FIELD_PORT ? fieldValue(record, FIELD_DST_PORT) : -1;
+            if (first < 0 && second < 0) {
+                return false;
+            }
+            boolean matched = (first >= 0 && matches(first)) || (second >= 0 && matches(second));
+            return matched != negated;
+        }
+
+        /**
+         * Checks if a valid value matches the condition.
+         */
+        abstract boolean matches(long actual);
+    }
+
+    /**
+     * Numeric field compared to a value.
+     */
+    private static final class Compare extends FieldPredicate {
+        private final int operator;
+        private final long value;
+
+        Compare(int field, int operator, long value, boolean negated) {
+            super(field, negated);
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(long actual) {
+            switch (operator) {
+                case OP_EQ: return actual == value;
+                case OP_LT: return actual < value;
+                case OP_LE: return actual <= value;
+                case OP_GT: return actual > value;
+                default: return actual >= value;
+            }
+        }
+    }
+
+    /**
+     * Numeric field in a list of values.
+     */
+    private static final class NumberIn extends FieldPredicate {
+        private final long[] values;
+
+        NumberIn(int field, long[] values, boolean negated) {
+            super(field, negated);
+            this.values = values;
+        }
+
+        @Override
+        boolean matches(long actual) {
+            for (long value : values) {
+                if (actual == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Protocol in a list of protocols, or, if negated, not in it. nfdump writes
+     * known protocols by name and others by number, so each protocol is kept
+     * with both. An empty protocol does not match, even if negated.
+     */
+    private static final class ProtocolIn implements Predicate {
+        private final String[] protocols;
+        private final boolean negated;
+
+        ProtocolIn(String[] protocols, boolean negated) {
+            this.protocols = protocols;
+            this.negated = negated;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            if (!record.hasProtocol()) {
+                return false;
+            }
+            for (String protocol : protocols) {
+                if (record.isProtocol(protocol)) {
+                    return !negated;
+                }
+            }
+            return negated;
+        }
+    }
+
+    /**
+     * TCP flags, that are all set.
+     */
+    private static final class FlagsHas implements Predicate {
+        private final int flags;
+
+        FlagsHas(int flags) {
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean test(NetflowColumns record) {
+            int actual = record.tcpFlags();
+            return actual >= 0 && (actual & flags) == flags;
+        }
+    }
+
+    /**
+     * Returns the value of a numeric field of a record.
+     *
+     * @return long The value, or -1 if invalid.
+     */
+    private static long fieldValue(NetflowColumns record, int field) {
+        switch (field) {
+            case FIELD_SRC_PORT:
+                return record.counter(NetflowColumns.SRC_PORT);
+            case FIELD_DST_PORT:
+                return record.counter(NetflowColumns.DST_PORT);
+            case FIELD_PACKETS:
+                return sum(record.counter(NetflowColumns.IN_PACKETS), record.counter(NetflowColumns.OUT_PACKETS));
+            case FIELD_BYTES:
+                return sum(record.counter(NetflowColumns.IN_BYTES), record.counter(NetflowColumns.OUT_BYTES));
+            default:
+                return record.thousandths(NetflowColumns.DURATION);
+        }
+    }
+
+    private static long sum(long in, long out) {
+        return in < 0 || out < 0 ? -1 : in + out;
+    }
+
+    /**
+     * Recursive descent parser of expressions, that builds the predicate tree.
+     */
+    private static final class Parser {
+        private final String expression;
+        private final List<String> tokens = new ArrayList<String>();
+        private final List<Integer> positions = new ArrayList<Integer>();
+        private int next = 0;
+
+        Parser(String expression) {
+            this.expression = expression;
+            tokenize();
+        }
+
+        /**
+         * Splits the expression into words, e.g. fields, numbers and addresses, and operators.
+         */
+        private void tokenize() {
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                if (Character.isLetterOrDigit(c) || c == '.' || c == ':' || c == '/' || c == '_') {
+                    while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i))
+                            || ".:/_".indexOf(expression.charAt(i)) >= 0)) {
+                        i++;
+                    }
+                } else if (i + 1 < expression.length() && (expression.startsWith("&&", i) || expression.startsWith("||", i)
+                        || expression.charAt(i + 1) == '=' && "=!<>".indexOf(c) >= 0)) {
+                    i += 2;
+                } else if ("!<>=()[],".indexOf(c) >= 0) {
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Invalid flow filter at position " + i + ": unexpected '" + c + "'");
+                }
+                tokens.add(expression.substring(start, i));
+                positions.add(start);
+            }
+        }
+
+        boolean atEnd() {
+            return next >= tokens.size();
+        }
+
+        String peek() {
+            return atEnd() ? "" : tokens.get(next);
+        }
+
+        /**
+         * Consumes the next token, if it is one of the given ones, case insensitive.
+         */
+        private boolean accept(String... options) {
+            for (String option : options) {
+                if (option.equalsIgnoreCase(peek())) {
+                    next++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private String word(String what) {
+            if (atEnd() || !Character.isLetterOrDigit(peek().charAt(0)) && ".:".indexOf(peek().charAt(0)) < 0) {
+                throw error("expected " + what);
+            }
+            return tokens.get(next++);
+        }
+
+        IllegalArgumentException error(String message) {
+            int position = atEnd() ? expression.length() : positions.get(next);
+            return new IllegalArgumentException("Invalid flow filter at position " + position + ": " + message);
+        }
+
+        Predicate parseOr() {
+            Predicate left = parseAnd();
+            while (accept("||", "or")) {
+                left = new Or(left, parseAnd());
+            }
+            return left;
+        }
+
+        private Predicate parseAnd() {
+            Predicate left = parseUnary();
+            while (accept("&&", "and")) {
+                left = new And(left, parseUnary());
+            }
+            return left;
+        }
+
+        private Predicate parseUnary() {
+            if (accept("!", "not")) {
+                return new Not(parseUnary());
+            }
+            if (accept("(")) {
+                Predicate inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            return parseCondition();
+        }
+
+        private Predicate parseCondition() {
+            String field = word("a field").toLowerCase();
+            switch (field) {
+                case "src":
+                    return parseAddress(new int[]{NetflowColumns.SRC_ADDR});
+                case "dst":
+                    return parseAddress(new int[]{NetflowColumns.DST_ADDR});
+                case "host":
+                    return parseAddress(new int[]{NetflowColumns.SRC_ADDR, NetflowColumns.DST_ADDR});
+                case "sport":
+                    return parseNumber(FIELD_SRC_PORT);
+                case "dport":
+                    return parseNumber(FIELD_DST_PORT);
+                case "port":
+                    return parseNumber(FIELD_PORT);
+                case "pkts":
+                case "packets":
+                    return parseNumber(FIELD_PACKETS);
+                case "bytes":
+                    return parseNumber(FIELD_BYTES);
+                case "duration":
+                    return parseNumber(FIELD_DURATION);
+                case "proto":
+                    return parseProtocol();
+                case "flags":
+                    if (!accept("has")) {
+                        throw error("expected 'has'");
+                    }
+                    return new FlagsHas(tcpFlags(word("TCP flags")));
+                default:
+                    next--;
+                    throw error("unknown field '" + field + "'");
+            }
+        }
+
+        /**
+         * Parses ==, != or [not] in, with one value or a list of values. Returns
+         * the predicate of the given values, negated for != and not in.
+         */
+        private boolean parseMembership(List<String> values) {
+            boolean negated;
+            if (accept("==", "=")) {
+                negated = false;
+            } else if (accept("!=")) {
+                negated = true;
+            } else {
+                negated = accept("not");
+                if (!accept("in")) {
+                    throw error("expected '==', '!=' or 'in'");
+                }
+            }
+
+            if (accept("[")) {
+                do {
+                    values.add(word("a value"));
+                } while (accept(","));
+                expect("]");
+            } else {
+                values.add(word("a value"));
+            }
+            return negated;
+        }
+
+        private Predicate parseAddress(int[] columns) {
+            List<String> values = new ArrayList<String>();
+            int position = next;
+            boolean negated = parseMembership(values);
+            long[] networkHigh = new long[values.size()];
+            long[] networkLow = new long[values.size()];
+            long[] maskHigh = new long[values.size()];
+            long[] maskLow = new long[values.size()];
+            NetflowColumns parsed = new NetflowColumns();
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                int slash = value.indexOf('/');
+                String address = slash < 0 ? value : value.substring(0, slash);
+                if (!parsed.parseAddress(address, 0, address.length())) {
+                    next = position;
+                    throw error("invalid address '" + value + "'");
+                }
+                boolean ipv4 = address.indexOf(':') < 0;
+                int prefix = 128;
+                if (slash >= 0) {
+                    try {
+                        prefix = Integer.parseInt(value.substring(slash + 1)) + (ipv4 ? 96 : 0);
+                    } catch (NumberFormatException e) {
+                        prefix = -1;
+                    }
+                    if (prefix < (ipv4 ? 96 : 0) || prefix > 128) {
+                        next = position;
+                        throw error("invalid network '" + value + "'");
+                    }
+                }
+                maskHigh[i] = prefix >= 64 ? -1L : prefix == 0 ? 0 : -1L << (64 - prefix);
+                maskLow[i] = prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+                networkHigh[i] = parsed.getAddressHigh() & maskHigh[i];
+                networkLow[i] = parsed.getAddressLow() & maskLow[i];
+            }
+            return new AddressIn(columns, networkHigh, networkLow, maskHigh, maskLow, negated);
+        }
+
+        private Predicate parseNumber(int field) {
+            int operator;
+            if (accept("<")) {
+                operator = OP_LT;
+            } else if (accept("<=")) {
+                operator = OP_LE;
+            } else if (accept(">")) {
+                operator = OP_GT;
+            } else if (accept(">=")) {
+                operator = OP_GE;
+            } else {
+                List<String> values = new ArrayList<String>();
+                boolean negated = parseMembership(values);
+                long[] numbers = new long[values.size()];
+                for (int i = 0; i < numbers.length; i++) {
+                    numbers[i] = number(values.get(i), field);
+                }
+                return numbers.length == 1
+                        ? new Compare(field, OP_EQ, numbers[0], negated)
+                        : new NumberIn(field, numbers, negated);
+            }
+            return new Compare(field, operator, number(word("a number"), field), false);
+        }
+
+        /**
+         * Parses a number. Durations are seconds with up to 3 decimals, and are
+         * compared as thousandths, like NetflowColumns parses them.
+         */
+        private long number(String value, int field) {
+            try {
+                if (field == FIELD_DURATION) {
+                    return new BigDecimal(value).movePointRight(3).longValueExact();
+                }
+                long number = Long.parseLong(value);
+                if (number >= 0) {
+                    return number;
+                }
+            } catch (NumberFormatException | ArithmeticException e) {
+                // Invalid number.
+            }
+            next--;
+            throw error("invalid number '" + value + "'");
+        }
+
+        private Predicate parseProtocol() {
+            List<String> values = new ArrayList<String>();
+            boolean negated = parseMembership(values);
+            List<String> protocols = new ArrayList<String>();
+            for (String value : values) {
+                int number = protocolNumber(value);
+                if (number < 0) {
+                    next--;
+                    throw error("unknown protocol '" + value + "'");
+                }
+                protocols.add(Integer.toString(number));
+                String name = NfdumpCsvFormatter.protocolName(number).trim();
+                if (!protocols.contains(name)) {
+                    protocols.add(name);
+                }
+            }
+            return new ProtocolIn(protocols.toArray(new String[0]), negated);
+        }
+
+        /**
+         * Returns the number of a protocol, given by name or number.
+         *
+         * @return int The number, or -1 if unknown.
+         */
+        private static int protocolNumber(String value) {
+            try {
+                int number = Integer.parseInt(value);
+                return number >= 0 && number <= 255 ? number : -1;
+            } catch (NumberFormatException e) {
+                for (int number = 0; number <= 255; number++) {
+                    if (NfdumpCsvFormatter.protocolName(number).trim().equalsIgnoreCase(value)) {
+                        return number;
+                    }
+                }
+                return -1;
+            }
+        }
+
+        private int tcpFlags(String letters) {
+            int flags = 0;
+            for (int i = 0; i < letters.length(); i++) {
+                int flag = NetflowColumns.tcpFlag(Character.toUpperCase(letters.charAt(i)));
+                if (flag == 0) {
+                    next--;
+                    throw error("invalid TCP flags '" + letters + "'");
+                }
+                flags |= flag;
+            }
+            return flags;
+        }
+    }
+}
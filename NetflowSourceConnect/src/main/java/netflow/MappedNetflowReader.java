@@ -0,0 +1,330 @@
+package netflow;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * MappedNetflowReader class. Reads a netflow file (.csv) through a memory
+ * mapping of the file, instead of reading it in a buffer. Line delimiters are
+ * searched directly in the mapped bytes, and empty and "No matched flows" lines
+ * are skipped without decoding them. The bytes of each returned record are
+ * copied once from the mapping and decoded once, together with any suffix
+ * appended to the record. Files are mapped in windows of limited size, so files
+ * of any size can be read. Mappings are released by the garbage collector.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class MappedNetflowReader implements NetflowReader {
+    /**
+     * Default size of each mapped window of the file in bytes.
+     */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Bytes of the line, that nfdump writes when no flow has been matched.
+     */
+    private static final byte[] NO_MATCHED_FLOWS = "No matched flows".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Channel of the netflow file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Size of file, when it was opened. Bytes appended later are not read.
+     */
+    private long fileLength;
+
+    /**
+     * Size of each mapped window of the file in bytes.
+     */
+    private long windowSize;
+
+    /**
+     * Mapped window of the file.
+     */
+    private MappedByteBuffer window = null;
+    /**
+     * Byte position in file, where mapped window starts.
+     */
+    private long windowStart = 0;
+
+    /**
+     * Buffer, where the bytes of a record and its suffix are copied before decoding.
+     */
+    private byte[] recordBuffer = new byte[1024];
+
+    /**
+     * Last suffix appended to a record.
+     */
+    private String suffix = null;
+    /**
+     * Encoded bytes of last suffix.
+     */
+    private byte[] suffixBytes = new byte[0];
+
+    /**
+     * Byte position in file after the last returned line.
+     */
+    private long position = 0;
+    /**
+     * Byte position in file, where the last returned line starts.
+     */
+    private long lineStart = 0;
+    /**
+     * Number of netflow records (lines) returned so far.
+     */
+    private long recordsRead = 0;
+    /**
+     * True if end of file has been reached or reader has been closed.
+     */
+    private boolean finished = false;
+
+    /**
+     * Constructor. Opens a netflow file for reading from its start.
+     *
+     * @param csvFile String Filename of .csv to be read.
+     * @throws IOException If file cannot be opened.
+     */
+    public MappedNetflowReader(String csvFile) throws IOException {
+        this(csvFile, 0, 0);
+    }
+
+    /**
+     * Constructor. Opens a netflow file for reading from a given byte position.
+     * Used to continue reading a file, that has been partially processed.
+     *
+     * @param csvFile     String Filename of .csv to be read.
+     * @param position    long Byte position in file to start reading from. It must
+     *                    be the start of a line.
+     * @param recordsRead long Number of netflow records (lines) before this position.
+     * @throws IOException If file cannot be opened.
+     */
+    public MappedNetflowReader(String csvFile, long position, long recordsRead) throws IOException {
+        this(csvFile, position, recordsRead, WINDOW_SIZE);
+    }
+
+    /**
+     * Constructor. Opens a netflow file for reading from a given byte position,
+     * mapping windows of a given size. Used to read only a part of a file.
+     *
+     * @param csvFile     String Filename of .csv to be read.
+     * @param position    long Byte position in file to start reading from. It must
+     *                    be the start of a line.
+     * @param recordsRead long Number of netflow records (lines) before this position.
+     * @param windowSize  long Size of each mapped window in bytes.
+     * @throws IOException If file cannot be opened.
+     */
+    public MappedNetflowReader(String csvFile, long position, long recordsRead, long windowSize) throws IOException {
+        this.windowSize = Math.max(1, windowSize);
+        this.channel = FileChannel.open(Paths.get(csvFile), StandardOpenOption.READ);
+        this.fileLength = channel.size();
+        this.position = position;
+        this.recordsRead = recordsRead;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return readRecord(null);
+    }
+
+    /**
+     * Reads next netflow record from file, ignoring "No matched flows" & empty lines,
+     * and appends a suffix to it. Record and suffix are decoded in a single String.
+     *
+     * @param suffix String Suffix appended to the record. Ignored if null.
+     * @return String The next netflow record with the suffix, without line delimiters.
+     * Returns null if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    @Override
+    public String readRecord(String suffix) throws IOException {
+        while (!finished) {
+            if (position >= fileLength) {
+                finished = true;
+                break;
+            }
+
+            long end = findLineEnd(position);
+            int start = (int) (position - windowStart);
+            int length = (int) (end - position);
+            lineStart = position;
+            position = end < fileLength ? end + 1 : end;
+
+            // Ignore line delimiters and trailing carriage return.
+            if (length > 0 && window.get(start + length - 1) == '\r') {
+                length--;
+            }
+
+            if (isRecord(start, length)) {
+                recordsRead++;
+                return decodeRecord(start, length, suffix);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips the rest of the current line, up to and including the next line delimiter.
+     * Used to move to the start of a line, from a position in the middle of a line.
+     *
+     * @throws IOException If any error occurs reading the file.
+     */
+    public void skipLine() throws IOException {
+        if (position >= fileLength) {
+            finished = true;
+            return;
+        }
+        long end = findLineEnd(position);
+        position = end < fileLength ? end + 1 : end;
+    }
+
+    /**
+     * Finds the end of the line starting at a byte position. The mapped window is
+     * moved or grown, so that it contains the whole line.
+     *
+     * @param from long Byte position in file, where the line starts.
+     * @return long Byte position of the line delimiter, or file size if the last
+     * line has no line delimiter.
+     * @throws IOException If file cannot be mapped.
+     */
+    private long findLineEnd(long from) throws IOException {
+        long windowSize = this.windowSize;
+        while (true) {
+            if (window == null || from < windowStart || from >= windowStart + window.limit()) {
+                map(from, windowSize);
+            }
+
+            int limit = window.limit();
+            for (int i = (int) (from - windowStart); i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    return windowStart + i;
+                }
+            }
+
+            long windowEnd = windowStart + limit;
+            if (windowEnd >= fileLength) {
+                return fileLength;
+            }
+
+            // Line continues after the mapped window. Map again starting at the line.
+            if (windowStart == from) {
+                windowSize = Math.min(Integer.MAX_VALUE, windowSize * 2);
+            }
+            map(from, windowSize);
+        }
+    }
+
+    /**
+     * Maps a window of the file.
+     *
+     * @param start long Byte position in file, where window starts.
+     * @param size  long Maximum size of window in bytes.
+     * @throws IOException If file cannot be mapped.
+     */
+    private void map(long start, long size) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size, fileLength - start));
+    }
+
+    /**
+     * Checks if a line is a netflow record, i.e. it is not empty and it is not
+     * "No matched flows", ignoring leading and trailing white spaces.
+     *
+     * @param start  int Index of the line in mapped window.
+     * @param length int Number of bytes of the line.
+     * @return boolean True if line is a netflow record.
+     */
+    private boolean isRecord(int start, int length) {
+        int first = start;
+        int last = start + length;
+        while (first < last && (window.get(first) & 0xff) <= ' ') {
+            first++;
+        }
+        while (last > first && (window.get(last - 1) & 0xff) <= ' ') {
+            last--;
+        }
+
+        if (last - first != NO_MATCHED_FLOWS.length) {
+            return last > first;
+        }
+        for (int i = 0; i < NO_MATCHED_FLOWS.length; i++) {
+            if (window.get(first + i) != NO_MATCHED_FLOWS[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the bytes of a record from the mapped window and decodes them,
+     * together with a suffix.
+     *
+     * @param start  int Index of the record in mapped window.
+     * @param length int Number of bytes of the record.
+     * @param suffix String Suffix appended to the record. Ignored if null.
+     * @return String The decoded record.
+     */
+    private String decodeRecord(int start, int length, String suffix) {
+        if (suffix == null) {
+            suffix = "";
+        }
+        if (!suffix.equals(this.suffix)) {
+            this.suffix = suffix;
+            this.suffixBytes = suffix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int total = length + suffixBytes.length;
+        if (total > recordBuffer.length) {
+            recordBuffer = Arrays.copyOf(recordBuffer, Math.max(recordBuffer.length * 2, total));
+        }
+
+        window.position(start);
+        window.get(recordBuffer, 0, length);
+        System.arraycopy(suffixBytes, 0, recordBuffer, length, suffixBytes.length);
+        return new String(recordBuffer, 0, total, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the byte position in file, where the last returned line starts.
+     *
+     * @return long Byte position in file.
+     */
+    public long getLineStart() {
+        return lineStart;
+    }
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Closes file channel. The mapped window is released by the garbage collector.
+     *
+     * @throws IOException If any error occurs closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,416 @@
+package netflow;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * NetflowColumns is a reusable view of the leading columns of a nfdump csv
+ * line: times, addresses, ports, protocol, TCP flags and counters. It finds
+ * the bounds of the columns once, and parses each column in place, when it
+ * is asked for, without allocations (except for IPv6 addresses). It is used
+ * by FlowAggregator and FlowFilter. An instance is not thread safe.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowColumns {
+    // Columns of nfdump csv, that are parsed.
+    public static final int TIME_START = 0;
+    public static final int TIME_END = 1;
+    public static final int DURATION = 2;
+    public static final int SRC_ADDR = 3;
+    public static final int DST_ADDR = 4;
+    public static final int SRC_PORT = 5;
+    public static final int DST_PORT = 6;
+    public static final int PROTOCOL = 7;
+    public static final int TCP_FLAGS = 8;
+    public static final int SRC_TOS = 10;
+    public static final int IN_PACKETS = 11;
+    public static final int IN_BYTES = 12;
+    public static final int OUT_PACKETS = 13;
+    public static final int OUT_BYTES = 14;
+    /**
+     * Number of leading columns, whose bounds are found in each record.
+     */
+    public static final int COLUMNS = OUT_BYTES + 1;
+
+    /**
+     * The csv line.
+     */
+    private String line;
+
+    /**
+     * Bounds of the columns: column i is [columnStart[i], columnEnd[i]).
+     */
+    private final int[] columnStart = new int[COLUMNS];
+    private final int[] columnEnd = new int[COLUMNS];
+
+    /**
+     * Last parsed address, high and low 64 bits.
+     */
+    private long addressHigh;
+    private long addressLow;
+
+    /**
+     * Finds the bounds of the leading columns of a record.
+     *
+     * @param line String The csv line, with or without padding.
+     * @return boolean False if the record has less columns.
+     */
+    public boolean parse(String line) {
+        this.line = line;
+        int start = 0;
+        for (int i = 0; i < COLUMNS; i++) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                // The last parsed column may be the last one of the line.
+                if (i < COLUMNS - 1) {
+                    return false;
+                }
+                end = line.length();
+            }
+            columnStart[i] = start;
+            columnEnd[i] = end;
+            start = end + 1;
+        }
+        return true;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the index of the first character of a column.
+     *
+     * @param column int The column.
+     * @return int The index in the line.
+     */
+    public int start(int column) {
+        return columnStart[column];
+    }
+
+    /**
+     * Returns the index after the last character of a column.
+     *
+     * @param column int The column.
+     * @return int The index in the line.
+     */
+    public int end(int column) {
+        return columnEnd[column];
+    }
+
+    /**
+     * Parses a nfdump date, "yyyy-MM-dd HH:mm:ss" with optional ".SSS", without
+     * time zone conversion. The result is only compared and formatted again.
+     *
+     * @param column int The column of the date.
+     * @return long Milliseconds since 1970-01-01 00:00:00 in the date's own time zone, or -1 if invalid.
+     */
+    public long time(int column) {
+        int p = skipSpaces(column);
+        int end = columnEnd[column];
+        if (end - p < 19 || line.charAt(p + 4) != '-' || line.charAt(p + 7) != '-' || line.charAt(p + 13) != ':'
+                || line.charAt(p + 16) != ':') {
+            return -1;
+        }
+        int year = digits(p, 4);
+        int month = digits(p + 5, 2);
+        int day = digits(p + 8, 2);
+        int hour = digits(p + 11, 2);
+        int minute = digits(p + 14, 2);
+        int second = digits(p + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        int millis = 0;
+        if (end - p >= 23 && line.charAt(p + 19) == '.') {
+            millis = Math.max(0, digits(p + 20, 3));
+        }
+        return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * Parses a non negative integer column.
+     *
+     * @param column int The column.
+     * @return long The number, or -1 if invalid.
+     */
+    public long counter(int column) {
+        int p = skipSpaces(column);
+        int end = columnEnd[column];
+        if (p == end || end - p > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int d = line.charAt(p) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a non negative decimal column with 3 decimals, e.g. a duration in
+     * seconds, as thousandths.
+     *
+     * @param column int The column.
+     * @return long The number of thousandths, or -1 if invalid.
+     */
+    public long thousandths(int column) {
+        int p = skipSpaces(column);
+        int end = columnEnd[column];
+        long value = 0;
+        int decimals = -1;
+        for (; p < end && decimals < 3; p++) {
+            char c = line.charAt(p);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                return -1;
+            }
+        }
+        for (decimals = Math.max(decimals, 0); decimals < 3; decimals++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    /**
+     * Packs the protocol column, e.g. "TCP" or "17", in a long: up to 8
+     * characters exactly, longer names hashed.
+     *
+     * @return long The packed protocol.
+     */
+    public long packedProtocol() {
+        long packed = 0;
+        int start = columnStart[PROTOCOL];
+        int end = columnEnd[PROTOCOL];
+        if (end - start <= 8) {
+            for (int i = start; i < end; i++) {
+                packed = packed << 8 | (line.charAt(i) & 0xFF);
+            }
+            return packed;
+        }
+        packed = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++) {
+            packed = (packed ^ line.charAt(i)) * 0x100000001B3L;
+        }
+        return packed;
+    }
+
+    /**
+     * Checks if the protocol column has a value, besides padding.
+     *
+     * @return boolean False if the protocol column is empty.
+     */
+    public boolean hasProtocol() {
+        return skipSpaces(PROTOCOL) < columnEnd[PROTOCOL];
+    }
+
+    /**
+     * Checks if the protocol column, without padding, is a protocol name or number.
+     *
+     * @param protocol String The protocol name, e.g. "UDP", or number, case insensitive.
+     * @return boolean True if the protocol is the given one.
+     */
+    public boolean isProtocol(String protocol) {
+        int start = skipSpaces(PROTOCOL);
+        int end = columnEnd[PROTOCOL];
+        while (end > start && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end - start == protocol.length() && line.regionMatches(true, start, protocol, 0, protocol.length());
+    }
+
+    /**
+     * Parses TCP flags like nfdump writes them: letters of set flags, e.g.
+     * "...AP.S.", or a hex number, e.g. "0xc2".
+     *
+     * @return int The flags, or -1 if invalid.
+     */
+    public int tcpFlags() {
+        int p = skipSpaces(TCP_FLAGS);
+        int end = columnEnd[TCP_FLAGS];
+        if (end - p > 2 && line.charAt(p) == '0' && line.charAt(p + 1) == 'x') {
+            int flags = 0;
+            for (p += 2; p < end; p++) {
+                int d = Character.digit(line.charAt(p), 16);
+                if (d < 0) {
+                    return -1;
+                }
+                flags = (flags << 4 | d) & 0xFF;
+            }
+            return flags;
+        }
+
+        int flags = 0;
+        for (; p < end; p++) {
+            flags |= tcpFlag(line.charAt(p));
+        }
+        return flags;
+    }
+
+    /**
+     * Returns the bit of a TCP flag letter, like nfdump writes it.
+     *
+     * @param letter char The letter: C, E, U, A, P, R, S or F.
+     * @return int The bit, or 0 for other characters.
+     */
+    public static int tcpFlag(char letter) {
+        switch (letter) {
+            case 'C': return 128;
+            case 'E': return 64;
+            case 'U': return 32;
+            case 'A': return 16;
+            case 'P': return 8;
+            case 'R': return 4;
+            case 'S': return 2;
+            case 'F': return 1;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Parses an address column. The address is returned by getAddressHigh and
+     * getAddressLow.
+     *
+     * @param column int The column of the address.
+     * @return boolean False if the address is invalid.
+     */
+    public boolean address(int column) {
+        int start = skipSpaces(column);
+        int end = columnEnd[column];
+        while (end > start && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return parseAddress(line, start, end);
+    }
+
+    public long getAddressHigh() {
+        return addressHigh;
+    }
+
+    public long getAddressLow() {
+        return addressLow;
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address as 128 bits. IPv4 addresses are parsed in
+     * place, as IPv4-mapped IPv6 addresses. IPv6 addresses are parsed by
+     * InetAddress, which does not look up literal addresses.
+     *
+     * @param text  String Text, that contains the address.
+     * @param start int Index of the first character of the address.
+     * @param end   int Index after the last character of the address.
+     * @return boolean False if the address is invalid.
+     */
+    public boolean parseAddress(String text, int start, int end) {
+        int colon = text.indexOf(':', start);
+        if (colon < 0 || colon >= end) {
+            long ipv4 = 0;
+            int octet = 0;
+            int digits = 0;
+            int dots = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '.') {
+                    if (digits == 0 || octet > 255 || ++dots > 3) {
+                        return false;
+                    }
+                    ipv4 = ipv4 << 8 | octet;
+                    octet = 0;
+                    digits = 0;
+                } else if (c >= '0' && c <= '9' && digits < 3) {
+                    octet = octet * 10 + (c - '0');
+                    digits++;
+                } else {
+                    return false;
+                }
+            }
+            if (dots != 3 || digits == 0 || octet > 255) {
+                return false;
+            }
+            addressHigh = 0;
+            addressLow = 0xFFFF00000000L | ipv4 << 8 | octet;
+            return true;
+        }
+
+        try {
+            byte[] bytes = InetAddress.getByName(text.substring(start, end)).getAddress();
+            if (bytes.length == 4) {
+                addressHigh = 0;
+                addressLow = 0xFFFF00000000L | toLong(bytes, 0, 4);
+            } else {
+                addressHigh = toLong(bytes, 0, 8);
+                addressLow = toLong(bytes, 8, 8);
+            }
+            return true;
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 of a civil date (H. Hinnant's algorithm).
+     *
+     * @return long Number of days.
+     */
+    public static long daysFromCivil(long year, long month, long day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Returns the index of the first character of a column, that is not a space.
+     */
+    private int skipSpaces(int column) {
+        int p = columnStart[column];
+        int end = columnEnd[column];
+        while (p < end && line.charAt(p) == ' ') {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Parses a number of fixed digits.
+     *
+     * @return int The number, or -1 if a character is not a digit.
+     */
+    private int digits(int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int d = line.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Converts big endian bytes to a long.
+     */
+    private static long toLong(byte[] bytes, int from, int count) {
+        long value = 0;
+        for (int i = from; i < from + count; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,325 @@
+package netflow;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * NetflowCsvReader class. Reads a netflow file (.csv) incrementally, one
+ * netflow record (line) at a time, so that a file of any size can be
+ * processed without loading it in memory. Empty and "No matched flows"
+ * lines are skipped. It keeps the byte position in the file after the
+ * last returned line and the number of returned lines, so that reading
+ * can be continued across calls.
+ * <p>
+ * Files compressed with gzip (.csv.gz), zstd (.csv.zst) or lz4 frame format
+ * (.csv.lz4) are decompressed as a stream, without temporary files. For
+ * them, byte positions are positions in the decompressed data.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowCsvReader implements NetflowReader {
+    /**
+     * Size of the read buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Extensions of compressed netflow files.
+     */
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final String ZSTD_EXTENSION = ".zst";
+    private static final String LZ4_EXTENSION = ".lz4";
+
+    /**
+     * Stream of the netflow file.
+     */
+    private InputStream inputStream;
+
+    /**
+     * Buffer with bytes read from file.
+     */
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * Index of next unread byte in buffer.
+     */
+    private int bufferPos = 0;
+    /**
+     * Number of valid bytes in buffer.
+     */
+    private int bufferLimit = 0;
+
+    /**
+     * Bytes of a line, that continues in the next buffer.
+     */
+    private byte[] lineBuffer = new byte[1024];
+    /**
+     * Number of valid bytes in lineBuffer.
+     */
+    private int lineLength = 0;
+
+    /**
+     * Byte position in file after the last returned line.
+     */
+    private long position = 0;
+    /**
+     * Byte position in file, where the last returned line starts.
+     */
+    private long lineStart = 0;
+    /**
+     * Number of netflow records (lines) returned so far.
+     */
+    private long recordsRead = 0;
+    /**
+     * True if end of file has been reached or reader has been closed.
+     */
+    private boolean finished = false;
+
+    /**
+     * Constructor. Opens a netflow file for reading from its start.
+     *
+     * @param csvFile String Filename of .csv to be read.
+     * @throws IOException If file cannot be opened.
+     */
+    public NetflowCsvReader(String csvFile) throws IOException {
+        this(csvFile, 0, 0);
+    }
+
+    /**
+     * Constructor. Opens a netflow file for reading from a given byte position.
+     * Used to continue reading a file, that has been partially processed.
+     *
+     * @param csvFile     String Filename of .csv to be read.
+     * @param position    long Byte position in file to start reading from. It must
+     *                    be the start of a line. For compressed files, it is a
+     *                    position in the decompressed data, so data before it is
+     *                    decompressed and skipped.
+     * @param recordsRead long Number of netflow records (lines) before this position.
+     * @throws IOException If file cannot be opened.
+     */
+    public NetflowCsvReader(String csvFile, long position, long recordsRead) throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(csvFile);
+        if (isCompressed(csvFile)) {
+            try {
+                this.inputStream = decompress(csvFile, fileInputStream);
+                skipFully(inputStream, position);
+            } catch (IOException e) {
+                fileInputStream.close();
+                throw e;
+            }
+        } else {
+            if (position > 0) {
+                fileInputStream.getChannel().position(position);
+            }
+            this.inputStream = fileInputStream;
+        }
+        this.position = position;
+        this.recordsRead = recordsRead;
+    }
+
+    /**
+     * Checks if a netflow file is compressed, using its extension.
+     *
+     * @param csvFile String Filename of the netflow file.
+     * @return boolean True if it is a .gz, .zst or .lz4 file.
+     */
+    public static boolean isCompressed(String csvFile) {
+        return csvFile.endsWith(GZIP_EXTENSION) || csvFile.endsWith(ZSTD_EXTENSION) || csvFile.endsWith(LZ4_EXTENSION);
+    }
+
+    /**
+     * Wraps the stream of a compressed file in a decompressing stream, depending
+     * on its extension.
+     *
+     * @param csvFile String Filename of the netflow file.
+     * @param in      InputStream Stream of the compressed file.
+     * @return InputStream Stream of the decompressed data.
+     * @throws IOException If the header of the compressed file is invalid.
+     */
+    private static InputStream decompress(String csvFile, InputStream in) throws IOException {
+        if (csvFile.endsWith(GZIP_EXTENSION)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        // Zstd and lz4 streams read their input in small blocks.
+        InputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        if (csvFile.endsWith(ZSTD_EXTENSION)) {
+            return new ZstdInputStream(buffered);
+        }
+        return new LZ4FrameInputStream(buffered);
+    }
+
+    /**
+     * Skips a number of bytes of a stream.
+     *
+     * @param in    InputStream The stream.
+     * @param count long Number of bytes to be skipped.
+     * @throws IOException If stream ends before the bytes are skipped.
+     */
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Netflow file ends before position " + count + " bytes further.");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Reads next netflow record from file, ignoring "No matched flows" & empty lines.
+     *
+     * @return String The next netflow record, without line delimiters. Returns null
+     * if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    public String readLine() throws IOException {
+        while (!finished) {
+            lineStart = position;
+            String line = nextLine();
+            if (line == null) {
+                finished = true;
+                break;
+            }
+
+            String trimmed = line.trim();
+            if (!trimmed.equals("") && !trimmed.equals("No matched flows")) {
+                recordsRead++;
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips the rest of the current line, up to and including the next line delimiter.
+     * Used to move to the start of a line, from a position in the middle of a line.
+     *
+     * @throws IOException If any error occurs reading the file.
+     */
+    public void skipLine() throws IOException {
+        if (nextLine() == null) {
+            finished = true;
+        }
+    }
+
+    /**
+     * Reads next line from file, updating the byte position.
+     *
+     * @return String Next line, or null if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    private String nextLine() throws IOException {
+        lineLength = 0;
+
+        while (true) {
+            if (bufferPos >= bufferLimit) {
+                bufferLimit = inputStream.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferLimit <= 0) {
+                    bufferLimit = 0;
+                    // Last line of file without line delimiter.
+                    return lineLength > 0 ? decodeLine(lineBuffer, 0, lineLength) : null;
+                }
+            }
+
+            int start = bufferPos;
+            while (bufferPos < bufferLimit && buffer[bufferPos] != '\n') {
+                bufferPos++;
+            }
+
+            if (bufferPos < bufferLimit) {
+                // Line delimiter found. Skip it.
+                int end = bufferPos;
+                bufferPos++;
+                position += end - start + 1;
+
+                if (lineLength == 0) {
+                    return decodeLine(buffer, start, end - start);
+                }
+                appendToLine(start, end - start);
+                return decodeLine(lineBuffer, 0, lineLength);
+            }
+
+            // Line continues in next buffer.
+            position += bufferPos - start;
+            appendToLine(start, bufferPos - start);
+        }
+    }
+
+    /**
+     * Copies bytes of current buffer to lineBuffer, growing it if needed.
+     *
+     * @param start  Index of first byte in buffer.
+     * @param length Number of bytes to be copied.
+     */
+    private void appendToLine(int start, int length) {
+        if (lineLength + length > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, start, lineBuffer, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * Decodes a line, removing a trailing carriage return.
+     *
+     * @param bytes  Array with line bytes.
+     * @param start  Index of first byte.
+     * @param length Number of bytes.
+     * @return String The decoded line.
+     */
+    private static String decodeLine(byte[] bytes, int start, int length) {
+        if (length > 0 && bytes[start + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the byte position in file, where the last returned line starts.
+     *
+     * @return long Byte position in file.
+     */
+    public long getLineStart() {
+        return lineStart;
+    }
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Closes file stream.
+     *
+     * @throws IOException If any error occurs closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        inputStream.close();
+    }
+}
@@ -0,0 +1,97 @@
+package netflow;
+
+/**
+ * NetflowFlow class. Keeps all fields of a decoded netflow record, like the
+ * master record of nfdump. Fields of extensions missing from a record are 0,
+ * as in nfdump. Addresses are kept in network byte order, 4 bytes for IPv4
+ * and 16 bytes for IPv6. Times are milliseconds since epoch.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowFlow {
+    /**
+     * Empty IPv4 address, used for missing addresses.
+     */
+    static final byte[] NO_ADDRESS = new byte[4];
+
+    // Common fields
+    long first;
+    long last;
+    long received;
+    byte[] srcAddr = NO_ADDRESS;
+    byte[] dstAddr = NO_ADDRESS;
+    int srcPort;
+    int dstPort;
+    int proto;
+    int tcpFlags;
+    int fwdStatus;
+    int tos;
+    int exporterSysId;
+
+    // Counters
+    long inPackets;
+    long inBytes;
+    long outPackets;
+    long outBytes;
+    long aggrFlows;
+
+    // Interfaces, AS numbers, masks, direction
+    long input;
+    long output;
+    long srcAs;
+    long dstAs;
+    int srcMask;
+    int dstMask;
+    int dstTos;
+    int dir;
+
+    // Next hops, router, VLANs
+    byte[] nextHop = NO_ADDRESS;
+    byte[] bgpNextHop = NO_ADDRESS;
+    byte[] routerIp = NO_ADDRESS;
+    int engineType;
+    int engineId;
+    long srcVlan;
+    long dstVlan;
+
+    // MAC addresses, as 48 bit numbers
+    long inSrcMac;
+    long outDstMac;
+    long inDstMac;
+    long outSrcMac;
+
+    // MPLS labels
+    long[] mplsLabels = new long[10];
+
+    // Latency (microseconds)
+    long clientNwDelay;
+    long serverNwDelay;
+    long applLatency;
+
+    /**
+     * Swaps source and destination of the flow, together with their counters,
+     * like nfdump does for flows, whose direction has been guessed.
+     */
+    void swap() {
+        byte[] addr = srcAddr;
+        srcAddr = dstAddr;
+        dstAddr = addr;
+
+        int port = srcPort;
+        srcPort = dstPort;
+        dstPort = port;
+
+        long counter = inPackets;
+        inPackets = outPackets;
+        outPackets = counter;
+        counter = inBytes;
+        inBytes = outBytes;
+        outBytes = counter;
+
+        long as = srcAs;
+        srcAs = dstAs;
+        dstAs = as;
+    }
+}
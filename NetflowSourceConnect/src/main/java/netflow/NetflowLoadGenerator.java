@@ -0,0 +1,417 @@
+package netflow;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * NetflowLoadGenerator writes synthetic nfdump csv files, like nfdump writes
+ * them after each nfcapd rotation, at a target rate of flows per second, so
+ * that connectors and sinks can be capacity planned without production
+ * traffic. Flows are formatted by NfdumpCsvFormatter. Source and destination
+ * addresses are drawn from configured IPv4 networks and destination ports from
+ * a configured list, with a Zipf distribution, so that a few hosts and
+ * services have most of the flows, like in real traffic. Each tenant has its
+ * own collector directory ([output]/[tenant id]) and exporter address. Files
+ * are written with a temporary name and renamed when they are rotated, so
+ * that FileWatcher service never reads a partial file.
+ * <p>
+ * Properties (all optional):
+ * loadgen.output.dir (Default: ./loadgen), loadgen.flows.per.second (Default: 10000),
+ * loadgen.duration.s (Default: 60), loadgen.rotation.s (Default: 60),
+ * loadgen.tenants (Default: 1), loadgen.layout flat or date (Default: flat),
+ * loadgen.src.network (Default: 10.0.0.0/16), loadgen.dst.network (Default: 192.168.0.0/16),
+ * loadgen.dst.ports (Default: 443,80,53,123,22,25,3389,8080), loadgen.zipf.exponent
+ * (Default: 1.0), loadgen.tcp.ratio (Default: 0.7), loadgen.icmp.ratio (Default: 0.05),
+ * loadgen.seed (Default: random).
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowLoadGenerator {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(NetflowLoadGenerator.class);
+
+    /**
+     * Maximum number of hosts drawn from a network.
+     */
+    private static final int MAX_HOSTS = 65536;
+
+    /**
+     * Flows are written in ticks of this length (milliseconds), so that the rate is smooth.
+     */
+    private static final long TICK_MS = 100;
+
+    /**
+     * Interval (milliseconds) between progress reports.
+     */
+    private static final long REPORT_INTERVAL_MS = 10000;
+
+    /**
+     * Shape of the Pareto distribution of packet counts. Below 2, the variance
+     * is infinite, i.e. a few flows have most of the packets, while about half
+     * of the flows have a single packet.
+     */
+    private static final double PACKETS_PARETO_SHAPE = 1.1;
+    /**
+     * Maximum packet count of a flow, so that bytes do not overflow.
+     */
+    private static final long MAX_PACKETS = 100000000L;
+
+    private File outputDir;
+    private long flowsPerSecond;
+    private long durationMs;
+    private long rotationMs;
+    private int tenants;
+    private boolean dateLayout;
+    private double tcpRatio;
+    private double icmpRatio;
+
+    /**
+     * First address and cumulative Zipf distribution of the source and destination hosts.
+     */
+    private int srcBase;
+    private double[] srcCdf;
+    private int dstBase;
+    private double[] dstCdf;
+
+    /**
+     * Destination ports and their cumulative Zipf distribution.
+     */
+    private int[] dstPorts;
+    private double[] dstPortCdf;
+
+    private Random random;
+
+    private NfdumpCsvFormatter formatter = new NfdumpCsvFormatter();
+
+    /**
+     * Open file of each tenant.
+     */
+    private Writer[] writers;
+    private File[] tmpFiles;
+
+    // Statistics
+    private long flowsWritten = 0;
+    private long bytesWritten = 0;
+    private int filesWritten = 0;
+
+    /**
+     * Constructor
+     *
+     * @param props Properties The loadgen.* properties.
+     * @throws IllegalArgumentException If a property is invalid.
+     */
+    public NetflowLoadGenerator(Properties props) {
+        outputDir = new File(props.getProperty("loadgen.output.dir", "./loadgen"));
+        flowsPerSecond = Long.parseLong(props.getProperty("loadgen.flows.per.second", "10000"));
+        durationMs = Long.parseLong(props.getProperty("loadgen.duration.s", "60")) * 1000;
+        rotationMs = Long.parseLong(props.getProperty("loadgen.rotation.s", "60")) * 1000;
+        tenants = Integer.parseInt(props.getProperty("loadgen.tenants", "1"));
+        dateLayout = "date".equals(props.getProperty("loadgen.layout", "flat"));
+        tcpRatio = Double.parseDouble(props.getProperty("loadgen.tcp.ratio", "0.7"));
+        icmpRatio = Double.parseDouble(props.getProperty("loadgen.icmp.ratio", "0.05"));
+        double exponent = Double.parseDouble(props.getProperty("loadgen.zipf.exponent", "1.0"));
+        if (flowsPerSecond < 1 || durationMs < 1000 || rotationMs < 1000 || tenants < 1
+                || tcpRatio < 0 || icmpRatio < 0 || tcpRatio + icmpRatio > 1) {
+            throw new IllegalArgumentException("Invalid load generator properties: " + props);
+        }
+
+        String seed = props.getProperty("loadgen.seed");
+        random = seed != null ? new Random(Long.parseLong(seed)) : new Random();
+
+        int[] network = parseNetwork(props.getProperty("loadgen.src.network", "10.0.0.0/16"));
+        srcBase = network[0];
+        srcCdf = zipfCdf(network[1], exponent);
+        network = parseNetwork(props.getProperty("loadgen.dst.network", "192.168.0.0/16"));
+        dstBase = network[0];
+        dstCdf = zipfCdf(network[1], exponent);
+
+        String[] ports = props.getProperty("loadgen.dst.ports", "443,80,53,123,22,25,3389,8080").split(",");
+        dstPorts = new int[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            dstPorts[i] = Integer.parseInt(ports[i].trim());
+        }
+        dstPortCdf = zipfCdf(dstPorts.length, exponent);
+
+        writers = new Writer[tenants];
+        tmpFiles = new File[tenants];
+    }
+
+    /**
+     * Writes flows at the target rate for the configured duration, and reports
+     * the achieved throughput. Files are rotated every rotation interval, and
+     * the last files are rotated at the end.
+     *
+     * @throws IOException If a file cannot be written.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        logger.info("Generating " + flowsPerSecond + " flows/s for " + durationMs / 1000 + " s, in " + tenants
+                + " tenant directories under " + outputDir + ".");
+
+        long start = System.currentTimeMillis();
+        long fileStart = start;
+        long nextReport = start + REPORT_INTERVAL_MS;
+        long lastReportFlows = 0;
+        long ticks = 0;
+        openFiles();
+        try {
+            while (true) {
+                long tickStart = start + ticks * TICK_MS;
+                if (tickStart >= start + durationMs) {
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                if (tickStart > now) {
+                    Thread.sleep(tickStart - now);
+                }
+
+                // Flows of this tick, so that the total matches the rate exactly.
+                long target = flowsPerSecond * (ticks + 1) * TICK_MS / 1000;
+                long flowTime = Math.max(tickStart, System.currentTimeMillis());
+                while (flowsWritten < target) {
+                    writeFlow(flowTime);
+                }
+                ticks++;
+
+                now = System.currentTimeMillis();
+                if (now - fileStart >= rotationMs) {
+                    rotateFiles(fileStart);
+                    fileStart = now;
+                    openFiles();
+                }
+                if (now >= nextReport) {
+                    logger.info("Generated " + flowsWritten + " flows, " + filesWritten + " files ("
+                            + (flowsWritten - lastReportFlows) * 1000 / (now - nextReport + REPORT_INTERVAL_MS)
+                            + " flows/s).");
+                    lastReportFlows = flowsWritten;
+                    nextReport = now + REPORT_INTERVAL_MS;
+                }
+            }
+            rotateFiles(fileStart);
+        } finally {
+            closeFiles();
+        }
+
+        // The flows of the last tick are written at its start.
+        long elapsed = Math.max(ticks * TICK_MS, System.currentTimeMillis() - start);
+        logger.info("Load generation finished: " + flowsWritten + " flows, " + bytesWritten + " bytes, "
+                + filesWritten + " files in " + elapsed + " ms. Achieved " + flowsWritten * 1000 / elapsed
+                + " flows/s (target " + flowsPerSecond + " flows/s), " + bytesWritten * 1000 / elapsed / 1024
+                + " KiB/s.");
+    }
+
+    public long getFlowsWritten() {
+        return flowsWritten;
+    }
+
+    public int getFilesWritten() {
+        return filesWritten;
+    }
+
+    /**
+     * Synthesizes a flow and writes it to the file of a random tenant.
+     *
+     * @param now long Current time (milliseconds), when the flow has been received.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeFlow(long now) throws IOException {
+        int tenant = tenants == 1 ? 0 : random.nextInt(tenants);
+        NetflowFlow flow = new NetflowFlow();
+
+        double p = random.nextDouble();
+        if (p < icmpRatio) {
+            flow.proto = 1;
+            flow.dstPort = 8 * 256;
+        } else {
+            flow.proto = p < icmpRatio + tcpRatio ? 6 : 17;
+            flow.srcPort = 32768 + random.nextInt(28232);
+            flow.dstPort = dstPorts[sample(dstPortCdf)];
+        }
+        flow.srcAddr = ipv4(srcBase + sample(srcCdf));
+        flow.dstAddr = ipv4(dstBase + sample(dstCdf));
+        if (flow.proto == 6) {
+            // Most connections complete (ACK, PSH, SYN, FIN). Some are only SYN.
+            flow.tcpFlags = random.nextInt(10) == 0 ? 0x02 : 0x1B;
+        }
+
+        // Heavy tailed (Pareto) packet counts, with average packet sizes between 64 and 1500 bytes.
+        flow.inPackets = paretoPackets();
+        flow.inBytes = flow.inPackets * (64 + random.nextInt(1437));
+        long duration = flow.inPackets == 1 ? 0 : (long) random.nextInt(60000);
+        flow.last = now - random.nextInt(1000);
+        flow.first = flow.last - duration;
+        flow.received = now;
+        flow.input = 1;
+        flow.output = 2;
+        flow.srcMask = 24;
+        flow.dstMask = 24;
+        flow.routerIp = ipv4(0xAC100001 + tenant);
+
+        String line = formatter.format(flow);
+        writers[tenant].write(line);
+        writers[tenant].write('\n');
+        flowsWritten++;
+        bytesWritten += line.length() + 1;
+    }
+
+    /**
+     * Opens a temporary file for each tenant. The name starts with '.', so that
+     * FileWatcher service does not detect it.
+     *
+     * @throws IOException If a file cannot be created.
+     */
+    private void openFiles() throws IOException {
+        for (int i = 0; i < tenants; i++) {
+            File dir = new File(outputDir, Integer.toString(i + 1));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory " + dir);
+            }
+            tmpFiles[i] = new File(dir, ".nfcapd.loadgen.tmp");
+            writers[i] = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmpFiles[i].toPath()),
+                    StandardCharsets.UTF_8), 256 * 1024);
+        }
+    }
+
+    /**
+     * Closes the files of all tenants and renames them to nfcapd.YYYYMMDDhhmm.csv,
+     * or nfcapd.YYYYMMDDhhmmss.csv if rotation is not in whole minutes, like
+     * nfdump names converted files. In date layout, files are moved to YYYY/MM/DD
+     * subdirectories.
+     *
+     * @param fileStart long Time (milliseconds) when the files were opened.
+     * @throws IOException If a file cannot be renamed.
+     */
+    private void rotateFiles(long fileStart) throws IOException {
+        Date date = new Date(fileStart);
+        String name = "nfcapd." + new SimpleDateFormat(rotationMs % 60000 == 0 ? "yyyyMMddHHmm" : "yyyyMMddHHmmss")
+                .format(date) + ".csv";
+        String subdir = dateLayout ? new SimpleDateFormat("yyyy/MM/dd").format(date) : "";
+
+        closeFiles();
+        for (int i = 0; i < tenants; i++) {
+            Path target = Paths.get(tmpFiles[i].getParent(), subdir, name);
+            Files.createDirectories(target.getParent());
+            Files.move(tmpFiles[i].toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            filesWritten++;
+        }
+    }
+
+    /**
+     * Closes the open files of all tenants.
+     *
+     * @throws IOException If a file cannot be flushed.
+     */
+    private void closeFiles() throws IOException {
+        for (int i = 0; i < tenants; i++) {
+            if (writers[i] != null) {
+                writers[i].close();
+                writers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Draws a packet count from a Pareto distribution with minimum 1, by inverse
+     * transform sampling.
+     *
+     * @return long The packet count, at least 1.
+     */
+    private long paretoPackets() {
+        double packets = Math.pow(1 - random.nextDouble(), -1 / PACKETS_PARETO_SHAPE);
+        return Math.min(MAX_PACKETS, (long) packets);
+    }
+
+    /**
+     * Draws an index from a cumulative distribution.
+     *
+     * @param cdf double[] Cumulative distribution, ending with 1.
+     * @return int The index.
+     */
+    private int sample(double[] cdf) {
+        double p = random.nextDouble();
+        int low = 0;
+        int high = cdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cdf[mid] < p) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the cumulative Zipf distribution of n ranks: rank k has weight 1/k^s.
+     *
+     * @param n        int Number of ranks.
+     * @param exponent double Exponent s. 0 for a uniform distribution.
+     * @return double[] The cumulative distribution.
+     */
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= sum;
+        }
+        cdf[n - 1] = 1;
+        return cdf;
+    }
+
+    /**
+     * Parses an IPv4 network, e.g. "10.0.0.0/16".
+     *
+     * @param cidr String The network.
+     * @return int[] First host address and number of hosts (at most 65536).
+     * @throws IllegalArgumentException If the network is invalid.
+     */
+    private static int[] parseNetwork(String cidr) {
+        String[] parts = cidr.trim().split("/");
+        String[] octets = parts[0].split("\\.");
+        if (octets.length != 4) {
+            throw new IllegalArgumentException("Invalid IPv4 network: " + cidr);
+        }
+        int address = 0;
+        for (String octet : octets) {
+            address = address << 8 | Integer.parseInt(octet) & 0xFF;
+        }
+        int prefix = parts.length > 1 ? Integer.parseInt(parts[1]) : 32;
+        if (prefix < 0 || prefix > 32) {
+            throw new IllegalArgumentException("Invalid IPv4 network: " + cidr);
+        }
+        long size = 1L << (32 - prefix);
+        int hosts = (int) Math.min(Math.max(size - 2, 1), MAX_HOSTS);
+        int first = (int) ((address & (prefix == 0 ? 0 : -1 << (32 - prefix))) + (size > 2 ? 1 : 0));
+        return new int[]{first, hosts};
+    }
+
+    /**
+     * Converts an IPv4 address to bytes in network byte order.
+     */
+    private static byte[] ipv4(int address) {
+        return new byte[]{(byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address};
+    }
+}
@@ -0,0 +1,660 @@
+package netflow;
+
+import org.apache.log4j.Logger;
+
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NetflowPacketDecoder class. Decodes NetFlow v5, NetFlow v9 and IPFIX packets,
+ * as exporters send them over UDP, into netflow records. Templates of NetFlow v9
+ * and IPFIX are cached per exporter and source id / observation domain, so data
+ * of a template can be decoded in any later packet of the same exporter. Data of
+ * unknown templates and of options templates is skipped. An instance is not
+ * thread safe.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowPacketDecoder {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(NetflowPacketDecoder.class);
+
+    // Packet versions
+    private static final int NETFLOW_V5 = 5;
+    private static final int NETFLOW_V9 = 9;
+    private static final int IPFIX = 10;
+
+    // Header and record sizes
+    private static final int V5_HEADER_SIZE = 24;
+    private static final int V5_RECORD_SIZE = 48;
+    private static final int V9_HEADER_SIZE = 20;
+    private static final int IPFIX_HEADER_SIZE = 16;
+
+    // Flowset / set ids
+    private static final int V9_TEMPLATE_FLOWSET = 0;
+    private static final int V9_OPTIONS_TEMPLATE_FLOWSET = 1;
+    private static final int IPFIX_TEMPLATE_SET = 2;
+    private static final int IPFIX_OPTIONS_TEMPLATE_SET = 3;
+    private static final int MIN_DATA_SET_ID = 256;
+
+    /**
+     * Length of IPFIX fields with variable length.
+     */
+    private static final int VARIABLE_LENGTH = 65535;
+
+    // Information elements (NetFlow v9 field types and IPFIX element ids)
+    private static final int IN_BYTES = 1;
+    private static final int IN_PKTS = 2;
+    private static final int FLOWS = 3;
+    private static final int PROTOCOL = 4;
+    private static final int SRC_TOS = 5;
+    private static final int TCP_FLAGS = 6;
+    private static final int L4_SRC_PORT = 7;
+    private static final int IPV4_SRC_ADDR = 8;
+    private static final int SRC_MASK = 9;
+    private static final int INPUT_SNMP = 10;
+    private static final int L4_DST_PORT = 11;
+    private static final int IPV4_DST_ADDR = 12;
+    private static final int DST_MASK = 13;
+    private static final int OUTPUT_SNMP = 14;
+    private static final int IPV4_NEXT_HOP = 15;
+    private static final int SRC_AS = 16;
+    private static final int DST_AS = 17;
+    private static final int BGP_IPV4_NEXT_HOP = 18;
+    private static final int LAST_SWITCHED = 21;
+    private static final int FIRST_SWITCHED = 22;
+    private static final int OUT_BYTES = 23;
+    private static final int OUT_PKTS = 24;
+    private static final int IPV6_SRC_ADDR = 27;
+    private static final int IPV6_DST_ADDR = 28;
+    private static final int IPV6_SRC_MASK = 29;
+    private static final int IPV6_DST_MASK = 30;
+    private static final int ICMP_TYPE = 32;
+    private static final int DST_TOS = 55;
+    private static final int IN_SRC_MAC = 56;
+    private static final int OUT_DST_MAC = 57;
+    private static final int SRC_VLAN = 58;
+    private static final int DST_VLAN = 59;
+    private static final int DIRECTION = 61;
+    private static final int IPV6_NEXT_HOP = 62;
+    private static final int BGP_IPV6_NEXT_HOP = 63;
+    private static final int MPLS_LABEL_1 = 70;
+    private static final int MPLS_LABEL_10 = 79;
+    private static final int IN_DST_MAC = 80;
+    private static final int OUT_SRC_MAC = 81;
+    private static final int OCTET_TOTAL_COUNT = 85;
+    private static final int PACKET_TOTAL_COUNT = 86;
+    private static final int FORWARDING_STATUS = 89;
+    private static final int ICMP_TYPE_CODE_IPV4 = 139;
+    private static final int FLOW_START_SECONDS = 150;
+    private static final int FLOW_END_SECONDS = 151;
+    private static final int FLOW_START_MILLISECONDS = 152;
+    private static final int FLOW_END_MILLISECONDS = 153;
+    private static final int SYSTEM_INIT_TIME_MILLISECONDS = 160;
+
+    /**
+     * Cached templates, by exporter and source id / observation domain, and by template id.
+     */
+    private Map<String, Map<Integer, Template>> templates = new HashMap<String, Map<Integer, Template>>();
+
+    /**
+     * Ids of exporters, in the order they were first seen, like nfdump's exporter sysid.
+     */
+    private Map<InetAddress, Integer> exporterIds = new HashMap<InetAddress, Integer>();
+
+    /**
+     * Decodes a packet, received from an exporter.
+     *
+     * @param packet   ByteBuffer The packet, from its position to its limit.
+     * @param exporter InetAddress Address of the exporter.
+     * @return List(NetflowFlow) The decoded netflow records. Empty if the packet
+     * is corrupted, of unknown version, or contains only templates.
+     */
+    public List<NetflowFlow> decode(ByteBuffer packet, InetAddress exporter) {
+        List<NetflowFlow> flows = new ArrayList<NetflowFlow>();
+        ByteBuffer buffer = packet.slice().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < 2) {
+            return flows;
+        }
+
+        try {
+            int version = buffer.getShort(0) & 0xFFFF;
+            switch (version) {
+                case NETFLOW_V5:
+                    decodeV5(buffer, exporter, flows);
+                    break;
+                case NETFLOW_V9:
+                    decodeV9(buffer, exporter, flows);
+                    break;
+                case IPFIX:
+                    decodeIpfix(buffer, exporter, flows);
+                    break;
+                default:
+                    logger.warn("Ignoring packet of unknown version " + version + " from " + exporter.getHostAddress() + ".");
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            logger.warn("Ignoring rest of corrupted packet from " + exporter.getHostAddress() + ".");
+        }
+        return flows;
+    }
+
+    /**
+     * Decodes a NetFlow v5 packet.
+     */
+    private void decodeV5(ByteBuffer buffer, InetAddress exporter, List<NetflowFlow> flows) {
+        int count = buffer.getShort(2) & 0xFFFF;
+        long sysUptime = buffer.getInt(4) & 0xFFFFFFFFL;
+        long unixSecs = buffer.getInt(8) & 0xFFFFFFFFL;
+        long unixNsecs = buffer.getInt(12) & 0xFFFFFFFFL;
+        int engineType = buffer.get(20) & 0xFF;
+        int engineId = buffer.get(21) & 0xFF;
+        long bootTime = unixSecs * 1000L + unixNsecs / 1000000L - sysUptime;
+        long received = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            int p = V5_HEADER_SIZE + i * V5_RECORD_SIZE;
+            if (p + V5_RECORD_SIZE > buffer.limit()) {
+                break;
+            }
+            NetflowFlow flow = newFlow(exporter, received);
+            flow.engineType = engineType;
+            flow.engineId = engineId;
+            flow.srcAddr = bytes(buffer, p, 4);
+            flow.dstAddr = bytes(buffer, p + 4, 4);
+            flow.nextHop = bytes(buffer, p + 8, 4);
+            flow.input = buffer.getShort(p + 12) & 0xFFFF;
+            flow.output = buffer.getShort(p + 14) & 0xFFFF;
+            flow.inPackets = buffer.getInt(p + 16) & 0xFFFFFFFFL;
+            flow.inBytes = buffer.getInt(p + 20) & 0xFFFFFFFFL;
+            flow.first = bootTime + (buffer.getInt(p + 24) & 0xFFFFFFFFL);
+            flow.last = bootTime + (buffer.getInt(p + 28) & 0xFFFFFFFFL);
+            flow.srcPort = buffer.getShort(p + 32) & 0xFFFF;
+            flow.dstPort = buffer.getShort(p + 34) & 0xFFFF;
+            flow.tcpFlags = buffer.get(p + 37) & 0xFF;
+            flow.proto = buffer.get(p + 38) & 0xFF;
+            flow.tos = buffer.get(p + 39) & 0xFF;
+            flow.srcAs = buffer.getShort(p + 40) & 0xFFFF;
+            flow.dstAs = buffer.getShort(p + 42) & 0xFFFF;
+            flow.srcMask = buffer.get(p + 44) & 0xFF;
+            flow.dstMask = buffer.get(p + 45) & 0xFF;
+            flows.add(flow);
+        }
+    }
+
+    /**
+     * Decodes a NetFlow v9 packet.
+     */
+    private void decodeV9(ByteBuffer buffer, InetAddress exporter, List<NetflowFlow> flows) {
+        long sysUptime = buffer.getInt(4) & 0xFFFFFFFFL;
+        long unixSecs = buffer.getInt(8) & 0xFFFFFFFFL;
+        long sourceId = buffer.getInt(16) & 0xFFFFFFFFL;
+        PacketContext context = new PacketContext(exporter, sourceId, unixSecs * 1000L - sysUptime, unixSecs);
+        Map<Integer, Template> cache = templateCache(exporter, sourceId);
+
+        int p = V9_HEADER_SIZE;
+        while (p + 4 <= buffer.limit()) {
+            int id = buffer.getShort(p) & 0xFFFF;
+            int length = buffer.getShort(p + 2) & 0xFFFF;
+            if (length < 4 || p + length > buffer.limit()) {
+                break;
+            }
+            if (id == V9_TEMPLATE_FLOWSET) {
+                readTemplates(buffer, p + 4, p + length, cache, false, false);
+            } else if (id == V9_OPTIONS_TEMPLATE_FLOWSET) {
+                readV9OptionsTemplates(buffer, p + 4, p + length, cache);
+            } else if (id >= MIN_DATA_SET_ID) {
+                readData(buffer, p + 4, p + length, cache.get(id), context, flows);
+            }
+            p += length;
+        }
+    }
+
+    /**
+     * Decodes an IPFIX packet.
+     */
+    private void decodeIpfix(ByteBuffer buffer, InetAddress exporter, List<NetflowFlow> flows) {
+        int packetLength = Math.min(buffer.getShort(2) & 0xFFFF, buffer.limit());
+        long exportTime = buffer.getInt(4) & 0xFFFFFFFFL;
+        long domain = buffer.getInt(12) & 0xFFFFFFFFL;
+        PacketContext context = new PacketContext(exporter, domain, -1, exportTime);
+        Map<Integer, Template> cache = templateCache(exporter, domain);
+
+        int p = IPFIX_HEADER_SIZE;
+        while (p + 4 <= packetLength) {
+            int id = buffer.getShort(p) & 0xFFFF;
+            int length = buffer.getShort(p + 2) & 0xFFFF;
+            if (length < 4 || p + length > packetLength) {
+                break;
+            }
+            if (id == IPFIX_TEMPLATE_SET) {
+                readTemplates(buffer, p + 4, p + length, cache, true, false);
+            } else if (id == IPFIX_OPTIONS_TEMPLATE_SET) {
+                readTemplates(buffer, p + 4, p + length, cache, true, true);
+            } else if (id >= MIN_DATA_SET_ID) {
+                readData(buffer, p + 4, p + length, cache.get(id), context, flows);
+            }
+            p += length;
+        }
+    }
+
+    /**
+     * Returns the template cache of an exporter and source id / observation domain.
+     */
+    private Map<Integer, Template> templateCache(InetAddress exporter, long domain) {
+        String key = exporter.getHostAddress() + "/" + domain;
+        Map<Integer, Template> cache = templates.get(key);
+        if (cache == null) {
+            cache = new HashMap<Integer, Template>();
+            templates.put(key, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Reads the templates of a NetFlow v9 template flowset, or an IPFIX template
+     * or options template set, and caches them. A template without fields
+     * withdraws a cached template.
+     *
+     * @param buffer  ByteBuffer The packet.
+     * @param p       int Index of first template in packet.
+     * @param end     int Index of the end of the set in packet.
+     * @param cache   Map(Integer, Template) Templates of the exporter.
+     * @param ipfix   boolean True for IPFIX sets, that may contain enterprise fields.
+     * @param options boolean True for options template sets, with a scope field count.
+     */
+    private void readTemplates(ByteBuffer buffer, int p, int end, Map<Integer, Template> cache,
+                               boolean ipfix, boolean options) {
+        int headerSize = options ? 6 : 4;
+        while (p + headerSize <= end) {
+            int templateId = buffer.getShort(p) & 0xFFFF;
+            int fieldCount = buffer.getShort(p + 2) & 0xFFFF;
+            p += headerSize;
+            if (templateId < MIN_DATA_SET_ID) {
+                // Padding at the end of the set.
+                break;
+            }
+            if (fieldCount == 0) {
+                cache.remove(templateId);
+                continue;
+            }
+
+            int[] types = new int[fieldCount];
+            int[] lengths = new int[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                int type = buffer.getShort(p) & 0xFFFF;
+                lengths[i] = buffer.getShort(p + 2) & 0xFFFF;
+                p += 4;
+                if (ipfix && (type & 0x8000) != 0) {
+                    // Enterprise specific element. Its data are skipped.
+                    p += 4;
+                    type = -1;
+                }
+                types[i] = type;
+            }
+            if (p > end) {
+                break;
+            }
+            cache.put(templateId, new Template(types, lengths, options));
+        }
+    }
+
+    /**
+     * Reads the templates of a NetFlow v9 options template flowset and caches them,
+     * so that their data can be skipped.
+     */
+    private void readV9OptionsTemplates(ByteBuffer buffer, int p, int end, Map<Integer, Template> cache) {
+        while (p + 6 <= end) {
+            int templateId = buffer.getShort(p) & 0xFFFF;
+            int scopeLength = buffer.getShort(p + 2) & 0xFFFF;
+            int optionLength = buffer.getShort(p + 4) & 0xFFFF;
+            p += 6;
+            if (templateId < MIN_DATA_SET_ID || p + scopeLength + optionLength > end) {
+                break;
+            }
+
+            int fieldCount = (scopeLength + optionLength) / 4;
+            int[] types = new int[fieldCount];
+            int[] lengths = new int[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                types[i] = buffer.getShort(p) & 0xFFFF;
+                lengths[i] = buffer.getShort(p + 2) & 0xFFFF;
+                p += 4;
+            }
+            cache.put(templateId, new Template(types, lengths, true));
+        }
+    }
+
+    /**
+     * Decodes the records of a data set, using its template.
+     *
+     * @param buffer   ByteBuffer The packet.
+     * @param p        int Index of first record in packet.
+     * @param end      int Index of the end of the set in packet.
+     * @param template Template Template of the set. Null if it is unknown.
+     * @param context  PacketContext Fields of the packet, that are common for all records.
+     * @param flows    List(NetflowFlow) List, where decoded records are added.
+     */
+    private void readData(ByteBuffer buffer, int p, int end, Template template, PacketContext context,
+                          List<NetflowFlow> flows) {
+        if (template == null) {
+            logger.debug("Skipping data set of unknown template from " + context.exporter.getHostAddress() + ".");
+            return;
+        }
+
+        long received = System.currentTimeMillis();
+        while (p + template.minLength <= end && template.minLength > 0) {
+            NetflowFlow flow = template.options ? null : newFlow(context.exporter, received);
+            if (flow != null) {
+                flow.engineType = (int) (context.domain >>> 8) & 0xFF;
+                flow.engineId = (int) context.domain & 0xFF;
+            }
+            RecordTimes times = new RecordTimes();
+
+            for (int i = 0; i < template.types.length; i++) {
+                int length = template.lengths[i];
+                if (length == VARIABLE_LENGTH) {
+                    length = buffer.get(p++) & 0xFF;
+                    if (length == 255) {
+                        length = buffer.getShort(p) & 0xFFFF;
+                        p += 2;
+                    }
+                }
+                if (p + length > end) {
+                    return;
+                }
+                if (flow != null) {
+                    decodeField(buffer, p, template.types[i], length, flow, times);
+                }
+                p += length;
+            }
+
+            if (flow != null) {
+                setTimes(flow, times, context);
+                flows.add(flow);
+            }
+        }
+    }
+
+    /**
+     * Decodes a field of a data record.
+     */
+    private void decodeField(ByteBuffer buffer, int p, int type, int length, NetflowFlow flow, RecordTimes times) {
+        switch (type) {
+            case IN_BYTES:
+            case OCTET_TOTAL_COUNT:
+                flow.inBytes = unsigned(buffer, p, length);
+                break;
+            case IN_PKTS:
+            case PACKET_TOTAL_COUNT:
+                flow.inPackets = unsigned(buffer, p, length);
+                break;
+            case FLOWS:
+                flow.aggrFlows = unsigned(buffer, p, length);
+                break;
+            case PROTOCOL:
+                flow.proto = (int) unsigned(buffer, p, length);
+                break;
+            case SRC_TOS:
+                flow.tos = (int) unsigned(buffer, p, length);
+                break;
+            case TCP_FLAGS:
+                flow.tcpFlags = (int) unsigned(buffer, p, length) & 0xFF;
+                break;
+            case L4_SRC_PORT:
+                flow.srcPort = (int) unsigned(buffer, p, length);
+                break;
+            case L4_DST_PORT:
+                flow.dstPort = (int) unsigned(buffer, p, length);
+                break;
+            case ICMP_TYPE:
+            case ICMP_TYPE_CODE_IPV4:
+                // nfdump keeps ICMP type and code in the destination port.
+                flow.dstPort = (int) unsigned(buffer, p, length);
+                break;
+            case IPV4_SRC_ADDR:
+            case IPV6_SRC_ADDR:
+                flow.srcAddr = address(buffer, p, length, flow.srcAddr);
+                break;
+            case IPV4_DST_ADDR:
+            case IPV6_DST_ADDR:
+                flow.dstAddr = address(buffer, p, length, flow.dstAddr);
+                break;
+            case SRC_MASK:
+            case IPV6_SRC_MASK:
+                flow.srcMask = (int) unsigned(buffer, p, length);
+                break;
+            case DST_MASK:
+            case IPV6_DST_MASK:
+                flow.dstMask = (int) unsigned(buffer, p, length);
+                break;
+            case INPUT_SNMP:
+                flow.input = unsigned(buffer, p, length);
+                break;
+            case OUTPUT_SNMP:
+                flow.output = unsigned(buffer, p, length);
+                break;
+            case IPV4_NEXT_HOP:
+            case IPV6_NEXT_HOP:
+                flow.nextHop = address(buffer, p, length, flow.nextHop);
+                break;
+            case BGP_IPV4_NEXT_HOP:
+            case BGP_IPV6_NEXT_HOP:
+                flow.bgpNextHop = address(buffer, p, length, flow.bgpNextHop);
+                break;
+            case SRC_AS:
+                flow.srcAs = unsigned(buffer, p, length);
+                break;
+            case DST_AS:
+                flow.dstAs = unsigned(buffer, p, length);
+                break;
+            case OUT_BYTES:
+                flow.outBytes = unsigned(buffer, p, length);
+                break;
+            case OUT_PKTS:
+                flow.outPackets = unsigned(buffer, p, length);
+                break;
+            case DST_TOS:
+                flow.dstTos = (int) unsigned(buffer, p, length);
+                break;
+            case IN_SRC_MAC:
+                flow.inSrcMac = unsigned(buffer, p, length);
+                break;
+            case OUT_DST_MAC:
+                flow.outDstMac = unsigned(buffer, p, length);
+                break;
+            case IN_DST_MAC:
+                flow.inDstMac = unsigned(buffer, p, length);
+                break;
+            case OUT_SRC_MAC:
+                flow.outSrcMac = unsigned(buffer, p, length);
+                break;
+            case SRC_VLAN:
+                flow.srcVlan = unsigned(buffer, p, length);
+                break;
+            case DST_VLAN:
+                flow.dstVlan = unsigned(buffer, p, length);
+                break;
+            case DIRECTION:
+                flow.dir = (int) unsigned(buffer, p, length);
+                break;
+            case FORWARDING_STATUS:
+                flow.fwdStatus = (int) unsigned(buffer, p, length);
+                break;
+            case FIRST_SWITCHED:
+                times.firstSwitched = unsigned(buffer, p, length);
+                break;
+            case LAST_SWITCHED:
+                times.lastSwitched = unsigned(buffer, p, length);
+                break;
+            case FLOW_START_SECONDS:
+                times.start = unsigned(buffer, p, length) * 1000L;
+                break;
+            case FLOW_END_SECONDS:
+                times.end = unsigned(buffer, p, length) * 1000L;
+                break;
+            case FLOW_START_MILLISECONDS:
+                times.start = unsigned(buffer, p, length);
+                break;
+            case FLOW_END_MILLISECONDS:
+                times.end = unsigned(buffer, p, length);
+                break;
+            case SYSTEM_INIT_TIME_MILLISECONDS:
+                times.systemInit = unsigned(buffer, p, length);
+                break;
+            default:
+                if (type >= MPLS_LABEL_1 && type <= MPLS_LABEL_10) {
+                    flow.mplsLabels[type - MPLS_LABEL_1] = unsigned(buffer, p, length);
+                }
+                // Other fields are not included in csv.
+                break;
+        }
+    }
+
+    /**
+     * Sets start and end times of a record, from absolute times if the record has
+     * them, or from times relative to the exporter's boot time.
+     */
+    private static void setTimes(NetflowFlow flow, RecordTimes times, PacketContext context) {
+        long bootTime = context.bootTime;
+        if (bootTime < 0) {
+            // IPFIX without absolute times: relative to system init time, or to export time.
+            bootTime = times.systemInit >= 0 ? times.systemInit
+                    : context.exportSecs * 1000L - Math.max(times.lastSwitched, 0);
+        }
+
+        if (times.start >= 0) {
+            flow.first = times.start;
+        } else if (times.firstSwitched >= 0) {
+            flow.first = bootTime + times.firstSwitched;
+        } else {
+            flow.first = context.exportSecs * 1000L;
+        }
+        if (times.end >= 0) {
+            flow.last = times.end;
+        } else if (times.lastSwitched >= 0) {
+            flow.last = bootTime + times.lastSwitched;
+        } else {
+            flow.last = flow.first;
+        }
+    }
+
+    /**
+     * Creates a new flow, received from an exporter.
+     */
+    private NetflowFlow newFlow(InetAddress exporter, long received) {
+        NetflowFlow flow = new NetflowFlow();
+        flow.received = received;
+        flow.routerIp = exporter.getAddress();
+        flow.exporterSysId = exporterId(exporter);
+        return flow;
+    }
+
+    /**
+     * Returns the id of an exporter. Exporters are numbered from 1, in the order they are first seen.
+     */
+    private int exporterId(InetAddress exporter) {
+        Integer id = exporterIds.get(exporter);
+        if (id == null) {
+            id = exporterIds.size() + 1;
+            exporterIds.put(exporter, id);
+        }
+        return id;
+    }
+
+    /**
+     * Reads an unsigned big endian number of 1 to 8 bytes. Longer fields are truncated.
+     */
+    private static long unsigned(ByteBuffer buffer, int p, int length) {
+        long value = 0;
+        for (int i = Math.max(0, length - 8); i < length; i++) {
+            value = (value << 8) | (buffer.get(p + i) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Reads an IPv4 or IPv6 address. Fields of other lengths are ignored.
+     */
+    private static byte[] address(ByteBuffer buffer, int p, int length, byte[] current) {
+        if (length != 4 && length != 16) {
+            return current;
+        }
+        return bytes(buffer, p, length);
+    }
+
+    /**
+     * Copies bytes from the packet.
+     */
+    private static byte[] bytes(ByteBuffer buffer, int p, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(p + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Template of NetFlow v9 or IPFIX data records.
+     */
+    private static final class Template {
+        private final int[] types;
+        private final int[] lengths;
+        private final boolean options;
+        /**
+         * Minimum length of a record, counting 1 byte for variable length fields.
+         */
+        private final int minLength;
+
+        Template(int[] types, int[] lengths, boolean options) {
+            this.types = types;
+            this.lengths = lengths;
+            this.options = options;
+            int length = 0;
+            for (int l : lengths) {
+                length += l == VARIABLE_LENGTH ? 1 : l;
+            }
+            this.minLength = length;
+        }
+    }
+
+    /**
+     * Fields of a packet header, that are common for all its records.
+     */
+    private static final class PacketContext {
+        private final InetAddress exporter;
+        private final long domain;
+        /**
+         * Boot time of the exporter (milliseconds), or -1 if the packet does not define it.
+         */
+        private final long bootTime;
+        private final long exportSecs;
+
+        PacketContext(InetAddress exporter, long domain, long bootTime, long exportSecs) {
+            this.exporter = exporter;
+            this.domain = domain;
+            this.bootTime = bootTime;
+            this.exportSecs = exportSecs;
+        }
+    }
+
+    /**
+     * Time fields of a record. Missing fields are -1.
+     */
+    private static final class RecordTimes {
+        private long firstSwitched = -1;
+        private long lastSwitched = -1;
+        private long start = -1;
+        private long end = -1;
+        private long systemInit = -1;
+    }
+}
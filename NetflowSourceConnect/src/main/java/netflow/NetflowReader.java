@@ -0,0 +1,60 @@
+package netflow;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * NetflowReader interface for readers of netflow files. A reader returns
+ * the netflow records (lines) of a file in order, one at a time, and keeps
+ * the byte position in the file after the last returned record and the
+ * number of returned records, that are used as Kafka source offsets.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public interface NetflowReader extends Closeable {
+    /**
+     * Reads next netflow record from file, ignoring "No matched flows" & empty lines.
+     *
+     * @return String The next netflow record, without line delimiters. Returns null
+     * if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    String readLine() throws IOException;
+
+    /**
+     * Reads next netflow record from file, ignoring "No matched flows" & empty lines,
+     * and appends a suffix to it. Readers may override it, to avoid copying the record.
+     *
+     * @param suffix String Suffix appended to the record.
+     * @return String The next netflow record with the suffix, without line delimiters.
+     * Returns null if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    default String readRecord(String suffix) throws IOException {
+        String line = readLine();
+        return line == null ? null : line + suffix;
+    }
+
+    /**
+     * Returns the byte position in file after the last returned record.
+     *
+     * @return long Byte position in file.
+     */
+    long getPosition();
+
+    /**
+     * Returns how many netflow records (lines) of the file have been returned so far.
+     *
+     * @return long Number of returned records.
+     */
+    long getRecordsRead();
+
+    /**
+     * Checks if there are no more records to be read.
+     *
+     * @return boolean True if end of file has been reached or reader is closed.
+     */
+    boolean isFinished();
+}
@@ -0,0 +1,249 @@
+package netflow;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * NetflowStruct class. Defines the Kafka Connect schema of a netflow record and
+ * converts nfdump csv lines to Structs of this schema. Fields are named after
+ * the columns of "nfdump -o csv" and are in the same order. Counters are int64,
+ * ports, masks and other small numbers are int32, times are Timestamps and
+ * durations and latencies are float64 seconds / milliseconds, like in csv.
+ * Fields padded for SDA compatibility are not included. Dates are parsed in
+ * a given time zone, which must be the time zone nfdump writes them in, and
+ * start and end times keep their milliseconds, if nfdump writes them. An
+ * instance is not thread safe.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowStruct {
+    // Field names
+    public static final String TIME_START = "ts";
+    public static final String TIME_END = "te";
+    public static final String DURATION = "td";
+    public static final String SRC_ADDR = "sa";
+    public static final String DST_ADDR = "da";
+    public static final String SRC_PORT = "sp";
+    public static final String DST_PORT = "dp";
+    public static final String PROTOCOL = "pr";
+    public static final String TCP_FLAGS = "flg";
+    public static final String FWD_STATUS = "fwd";
+    public static final String SRC_TOS = "stos";
+    public static final String IN_PACKETS = "ipkt";
+    public static final String IN_BYTES = "ibyt";
+    public static final String OUT_PACKETS = "opkt";
+    public static final String OUT_BYTES = "obyt";
+    public static final String INPUT = "in";
+    public static final String OUTPUT = "out";
+    public static final String SRC_AS = "sas";
+    public static final String DST_AS = "das";
+    public static final String SRC_MASK = "smk";
+    public static final String DST_MASK = "dmk";
+    public static final String DST_TOS = "dtos";
+    public static final String DIRECTION = "dir";
+    public static final String NEXT_HOP = "nh";
+    public static final String BGP_NEXT_HOP = "nhb";
+    public static final String SRC_VLAN = "svln";
+    public static final String DST_VLAN = "dvln";
+    public static final String IN_SRC_MAC = "ismc";
+    public static final String OUT_DST_MAC = "odmc";
+    public static final String IN_DST_MAC = "idmc";
+    public static final String OUT_SRC_MAC = "osmc";
+    public static final String MPLS_PREFIX = "mpls";
+    public static final String CLIENT_LATENCY = "cl";
+    public static final String SERVER_LATENCY = "sl";
+    public static final String APPLICATION_LATENCY = "al";
+    public static final String ROUTER_IP = "ra";
+    public static final String ENGINE = "eng";
+    public static final String EXPORTER_ID = "exid";
+    public static final String TIME_RECEIVED = "tr";
+
+    /**
+     * Number of csv columns of a netflow record, without padding.
+     */
+    public static final int COLUMNS = 48;
+
+    /**
+     * Schema of netflow records.
+     */
+    public static final Schema SCHEMA = buildSchema();
+
+    /**
+     * Date format of nfdump, for start and end times.
+     */
+    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    /**
+     * Date format of nfdump, for received time, and for start and end times with milliseconds.
+     */
+    private SimpleDateFormat receivedFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    /**
+     * Constructor, for dates in UTC.
+     */
+    public NetflowStruct() {
+        this(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeZone TimeZone Time zone of the dates of csv lines.
+     */
+    public NetflowStruct(TimeZone timeZone) {
+        dateFormat.setTimeZone(timeZone);
+        receivedFormat.setTimeZone(timeZone);
+    }
+
+    /**
+     * Builds the schema of netflow records.
+     *
+     * @return Schema The schema.
+     */
+    private static Schema buildSchema() {
+        SchemaBuilder builder = SchemaBuilder.struct().name("eu.palantir.netflow.Flow").version(1)
+                .field(TIME_START, Timestamp.SCHEMA)
+                .field(TIME_END, Timestamp.SCHEMA)
+                .field(DURATION, Schema.FLOAT64_SCHEMA)
+                .field(SRC_ADDR, Schema.STRING_SCHEMA)
+                .field(DST_ADDR, Schema.STRING_SCHEMA)
+                .field(SRC_PORT, Schema.INT32_SCHEMA)
+                .field(DST_PORT, Schema.INT32_SCHEMA)
+                .field(PROTOCOL, Schema.STRING_SCHEMA)
+                .field(TCP_FLAGS, Schema.STRING_SCHEMA)
+                .field(FWD_STATUS, Schema.INT32_SCHEMA)
+                .field(SRC_TOS, Schema.INT32_SCHEMA)
+                .field(IN_PACKETS, Schema.INT64_SCHEMA)
+                .field(IN_BYTES, Schema.INT64_SCHEMA)
+                .field(OUT_PACKETS, Schema.INT64_SCHEMA)
+                .field(OUT_BYTES, Schema.INT64_SCHEMA)
+                .field(INPUT, Schema.INT64_SCHEMA)
+                .field(OUTPUT, Schema.INT64_SCHEMA)
+                .field(SRC_AS, Schema.INT64_SCHEMA)
+                .field(DST_AS, Schema.INT64_SCHEMA)
+                .field(SRC_MASK, Schema.INT32_SCHEMA)
+                .field(DST_MASK, Schema.INT32_SCHEMA)
+                .field(DST_TOS, Schema.INT32_SCHEMA)
+                .field(DIRECTION, Schema.INT32_SCHEMA)
+                .field(NEXT_HOP, Schema.STRING_SCHEMA)
+                .field(BGP_NEXT_HOP, Schema.STRING_SCHEMA)
+                .field(SRC_VLAN, Schema.INT32_SCHEMA)
+                .field(DST_VLAN, Schema.INT32_SCHEMA)
+                .field(IN_SRC_MAC, Schema.STRING_SCHEMA)
+                .field(OUT_DST_MAC, Schema.STRING_SCHEMA)
+                .field(IN_DST_MAC, Schema.STRING_SCHEMA)
+                .field(OUT_SRC_MAC, Schema.STRING_SCHEMA);
+        for (int i = 1; i <= 10; i++) {
+            builder.field(MPLS_PREFIX + i, Schema.STRING_SCHEMA);
+        }
+        return builder
+                .field(CLIENT_LATENCY, Schema.FLOAT64_SCHEMA)
+                .field(SERVER_LATENCY, Schema.FLOAT64_SCHEMA)
+                .field(APPLICATION_LATENCY, Schema.FLOAT64_SCHEMA)
+                .field(ROUTER_IP, Schema.STRING_SCHEMA)
+                .field(ENGINE, Schema.STRING_SCHEMA)
+                .field(EXPORTER_ID, Schema.INT32_SCHEMA)
+                .field(TIME_RECEIVED, Timestamp.SCHEMA)
+                .build();
+    }
+
+    /**
+     * Converts a csv line of nfdump to a Struct. Columns after the 48 columns of
+     * nfdump, i.e. padding, are ignored.
+     *
+     * @param line String The csv line.
+     * @return Struct The netflow record.
+     * @throws DataException If the line has less columns, or a column cannot be parsed.
+     */
+    public Struct fromCsv(String line) {
+        String[] columns = line.split(",", COLUMNS + 1);
+        if (columns.length < COLUMNS) {
+            throw new DataException("Netflow record has " + columns.length + " columns instead of " + COLUMNS);
+        }
+
+        try {
+            Struct struct = new Struct(SCHEMA);
+            int i = 0;
+            struct.put(TIME_START, parseTime(columns[i++]));
+            struct.put(TIME_END, parseTime(columns[i++]));
+            struct.put(DURATION, Double.parseDouble(columns[i++].trim()));
+            struct.put(SRC_ADDR, columns[i++].trim());
+            struct.put(DST_ADDR, columns[i++].trim());
+            struct.put(SRC_PORT, Integer.parseInt(columns[i++].trim()));
+            struct.put(DST_PORT, Integer.parseInt(columns[i++].trim()));
+            struct.put(PROTOCOL, columns[i++].trim());
+            struct.put(TCP_FLAGS, columns[i++].trim());
+            struct.put(FWD_STATUS, Integer.parseInt(columns[i++].trim()));
+            struct.put(SRC_TOS, Integer.parseInt(columns[i++].trim()));
+            struct.put(IN_PACKETS, Long.parseLong(columns[i++].trim()));
+            struct.put(IN_BYTES, Long.parseLong(columns[i++].trim()));
+            struct.put(OUT_PACKETS, Long.parseLong(columns[i++].trim()));
+            struct.put(OUT_BYTES, Long.parseLong(columns[i++].trim()));
+            struct.put(INPUT, Long.parseLong(columns[i++].trim()));
+            struct.put(OUTPUT, Long.parseLong(columns[i++].trim()));
+            struct.put(SRC_AS, Long.parseLong(columns[i++].trim()));
+            struct.put(DST_AS, Long.parseLong(columns[i++].trim()));
+            struct.put(SRC_MASK, Integer.parseInt(columns[i++].trim()));
+            struct.put(DST_MASK, Integer.parseInt(columns[i++].trim()));
+            struct.put(DST_TOS, Integer.parseInt(columns[i++].trim()));
+            struct.put(DIRECTION, Integer.parseInt(columns[i++].trim()));
+            struct.put(NEXT_HOP, columns[i++].trim());
+            struct.put(BGP_NEXT_HOP, columns[i++].trim());
+            struct.put(SRC_VLAN, Integer.parseInt(columns[i++].trim()));
+            struct.put(DST_VLAN, Integer.parseInt(columns[i++].trim()));
+            struct.put(IN_SRC_MAC, columns[i++].trim());
+            struct.put(OUT_DST_MAC, columns[i++].trim());
+            struct.put(IN_DST_MAC, columns[i++].trim());
+            struct.put(OUT_SRC_MAC, columns[i++].trim());
+            for (int m = 1; m <= 10; m++) {
+                struct.put(MPLS_PREFIX + m, columns[i++].trim());
+            }
+            struct.put(CLIENT_LATENCY, Double.parseDouble(columns[i++].trim()));
+            struct.put(SERVER_LATENCY, Double.parseDouble(columns[i++].trim()));
+            struct.put(APPLICATION_LATENCY, Double.parseDouble(columns[i++].trim()));
+            struct.put(ROUTER_IP, columns[i++].trim());
+            struct.put(ENGINE, columns[i++].trim());
+            struct.put(EXPORTER_ID, Integer.parseInt(columns[i++].trim()));
+            struct.put(TIME_RECEIVED, parseDate(receivedFormat, columns[i].trim()));
+            return struct;
+        } catch (NumberFormatException e) {
+            throw new DataException("Cannot parse netflow record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses a start or end time of nfdump, with or without milliseconds.
+     *
+     * @param value String The date.
+     * @return Date The parsed date.
+     * @throws DataException If the date cannot be parsed.
+     */
+    private Date parseTime(String value) {
+        return parseDate(value.indexOf('.') >= 0 ? receivedFormat : dateFormat, value);
+    }
+
+    /**
+     * Parses a date of nfdump, in the time zone of the format.
+     *
+     * @param format SimpleDateFormat Format of the date.
+     * @param value  String The date.
+     * @return Date The parsed date.
+     * @throws DataException If the date cannot be parsed.
+     */
+    private static Date parseDate(SimpleDateFormat format, String value) {
+        try {
+            return format.parse(value.trim());
+        } catch (ParseException e) {
+            throw new DataException("Cannot parse netflow date: " + value, e);
+        }
+    }
+}
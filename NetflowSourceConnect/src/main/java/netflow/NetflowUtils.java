@@ -1,15 +1,17 @@
 package netflow;
 
 import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.DataException;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.log4j.Logger;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 
 /**
@@ -26,6 +28,38 @@ public class NetflowUtils {
      */
     private static Logger logger = Logger.getLogger(utils.Helpers.class);
 
+    /**
+     * Key of source partition, with the name of the netflow file.
+     */
+    public static final String PARTITION_FILENAME = "filename";
+    /**
+     * Key of source partition, with the address of the exporter of records
+     * received over UDP.
+     */
+    public static final String PARTITION_EXPORTER = "exporter";
+    /**
+     * Key of source offset, with the byte position in file after the record.
+     */
+    public static final String OFFSET_POSITION = "position";
+    /**
+     * Key of source offset, with the number of records in file up to this record.
+     */
+    public static final String OFFSET_RECORDS = "records";
+
+    /**
+     * Suffix appended to each netflow record. Adds 8 new fields in data collected
+     * from nfcapd, for integration with SDA platform.
+     */
+    public static final String RECORD_PADDING = ",0.0,0.0,0.0,0.0,0.0,0.0,0.0,0.0";
+
+    /**
+     * Maximum number of rows read from a file in each call, including rows
+     * dropped by the flow filter or merged by the aggregator, so that a file,
+     * whose rows do not become records, does not block the task until its end.
+     * The rest of the file is read in the next calls.
+     */
+    public static final int MAX_ROWS_PER_CALL = 100000;
+
     /**
      * Create a Kafka SourceRecord for each record in a .csv file. Returns an
      * Arraylist with these SourceRecords.
@@ -35,78 +69,385 @@ public class NetflowUtils {
      * @param keyPrefix      String A prefix for each record's key. Keys are prefix
      *                       plus a counter. prefix is
      *                       [collectorId]_[filename]_[counter].
-     * @param benchmark_mode String Variable that says if the code runs in benchmarking mode.
      * @return ArrayList(SourceRecord) A list, which contains all created
      *         SourceRecords.
      */
-    public static ArrayList<SourceRecord> loadNetflowCsv(String csvFile, String KAFKA_TOPIC, String keyPrefix, String benchmark_mode) {
+    public static ArrayList<SourceRecord> loadNetflowCsv(String csvFile, String KAFKA_TOPIC, String keyPrefix) {
+        try {
+            // Open given file.
+            NetflowCsvReader reader = new NetflowCsvReader(csvFile);
+
+            return loadNetflowCsv(reader, sourcePartition(new File(csvFile).getName()), KAFKA_TOPIC, keyPrefix,
+                    Integer.MAX_VALUE);
+        } catch (FileNotFoundException e) {
+            logger.error("FileNotFoundException. Returning empty arraylist.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        } catch (IOException e) {
+            logger.error("IOException. Returning empty arraylist.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        }
+
+        return new ArrayList<SourceRecord>();
+    }
+
+    /**
+     * Create a Kafka SourceRecord for each of the next records of an open .csv
+     * file, up to a maximum number of records. Returns an Arraylist with these
+     * SourceRecords. The reader keeps its position, so the next call continues
+     * from the next record. When end of file is reached, or if any error occurs,
+     * the reader is closed.
+     *
+     * @param reader          NetflowReader Reader of the .csv to be parsed.
+     * @param sourcePartition Map(String, String) Source partition of the .csv file.
+     * @param KAFKA_TOPIC    String Kafka topic that SourceRecord will be sent.
+     * @param keyPrefix      String A prefix for each record's key. Keys are prefix
+     *                       plus a counter. prefix is
+     *                       [collectorId]_[filename]_[counter].
+     * @param maxRecords     int Maximum number of SourceRecords to be created.
+     * @return ArrayList(SourceRecord) A list, which contains all created
+     *         SourceRecords.
+     */
+    public static ArrayList<SourceRecord> loadNetflowCsv(NetflowReader reader, Map<String, String> sourcePartition,
+                                                         String KAFKA_TOPIC, String keyPrefix, int maxRecords) {
+        return loadNetflowCsv(reader, sourcePartition, KAFKA_TOPIC, keyPrefix, maxRecords, null);
+    }
+
+    /**
+     * Create a Kafka SourceRecord for each of the next records of an open .csv
+     * file, up to a maximum number of records, with either padded csv strings or
+     * typed Structs as values. Records, that cannot be converted to Structs, are
+     * skipped.
+     *
+     * @param reader          NetflowReader Reader of the .csv to be parsed.
+     * @param sourcePartition Map(String, String) Source partition of the .csv file.
+     * @param KAFKA_TOPIC    String Kafka topic that SourceRecord will be sent.
+     * @param keyPrefix      String A prefix for each record's key. Keys are prefix
+     *                       plus a counter. prefix is
+     *                       [collectorId]_[filename]_[counter].
+     * @param maxRecords     int Maximum number of SourceRecords to be created.
+     * @param structs        NetflowStruct Converter of records to Structs. If null,
+     *                       values are padded csv strings.
+     * @return ArrayList(SourceRecord) A list, which contains all created
+     *         SourceRecords.
+     */
+    public static ArrayList<SourceRecord> loadNetflowCsv(NetflowReader reader, Map<String, String> sourcePartition,
+                                                         String KAFKA_TOPIC, String keyPrefix, int maxRecords,
+                                                         NetflowStruct structs) {
+        return loadNetflowCsv(reader, sourcePartition, KAFKA_TOPIC, keyPrefix, maxRecords, structs, (FlowFilter) null);
+    }
+
+    /**
+     * Create a Kafka SourceRecord for each of the next records of an open .csv
+     * file, that pass a flow filter, up to a maximum number of records. Records,
+     * that match the filter, are dropped or sent to the filter's topic. Records,
+     * that cannot be converted to Structs, are skipped. At most MAX_ROWS_PER_CALL
+     * rows are read, so fewer records are returned, before end of file, if many
+     * rows are dropped.
+     *
+     * @param reader          NetflowReader Reader of the .csv to be parsed.
+     * @param sourcePartition Map(String, String) Source partition of the .csv file.
+     * @param KAFKA_TOPIC    String Kafka topic that SourceRecord will be sent.
+     * @param keyPrefix      String A prefix for each record's key. Keys are prefix
+     *                       plus a counter. prefix is
+     *                       [collectorId]_[filename]_[counter].
+     * @param maxRecords     int Maximum number of SourceRecords to be created.
+     * @param structs        NetflowStruct Converter of records to Structs. If null,
+     *                       values are padded csv strings.
+     * @param filter         FlowFilter Filter of records. If null, all records are sent.
+     * @return ArrayList(SourceRecord) A list, which contains all created
+     *         SourceRecords.
+     */
+    public static ArrayList<SourceRecord> loadNetflowCsv(NetflowReader reader, Map<String, String> sourcePartition,
+                                                         String KAFKA_TOPIC, String keyPrefix, int maxRecords,
+                                                         NetflowStruct structs, FlowFilter filter) {
         // Store all created records for Kafka.
         ArrayList<SourceRecord> netflowRecords = new ArrayList<SourceRecord>();
+        NetflowColumns columns = filter == null ? null : new NetflowColumns();
+        long dropped = 0;
+        int rowsRead = 0;
 
         try {
-            // Open given file.
-            BufferedReader bufferedReader = new BufferedReader(
-                    new FileReader(
-                            new File(csvFile)
-                    )
-            );
-
-            int counter = 0;
-            String line = null;
-            while ((line = bufferedReader.readLine()) != null) {
-                // Ignore "No matched flows" & empty lines
-                if(!(line.trim().equals("")) && !(line.trim().equals("No matched flows")))  {
-                    // Create a new Source Record.
-                    // Add 8 new fields in data collected from nfcapd. Integration with SDA platform
+            String record = null;
+            while (netflowRecords.size() < maxRecords && rowsRead++ < MAX_ROWS_PER_CALL
+                    && (record = structs == null ? reader.readRecord(RECORD_PADDING) : reader.readLine()) != null) {
+                // Key counter starts from 0.
+                long counter = reader.getRecordsRead() - 1;
+
+                // Drop or route records, that match the filter.
+                String topic = KAFKA_TOPIC;
+                if (filter != null && columns.parse(record) && filter.matches(columns)) {
+                    if (!filter.isRouted()) {
+                        dropped++;
+                        continue;
+                    }
+                    topic = filter.getRouteTopic();
+                }
+
+                // Create a new Source Record.
+                try {
                     netflowRecords.add(createSourceRecord(
-                            KAFKA_TOPIC,
+                            sourcePartition,
+                            sourceOffset(reader.getPosition(), reader.getRecordsRead()),
+                            topic,
                             keyPrefix + counter,
-                            line + ",0.0,0.0,0.0,0.0,0.0,0.0,0.0,0.0"
+                            record,
+                            structs
                     ));
-
-                    if (benchmark_mode.equals("true")) {
-                        try {
-                            FileWriter fw = new FileWriter("benchmarking.log", true);
-                            fw.write(keyPrefix + counter + " add-netflow " + System.currentTimeMillis() + "\n");
-                            fw.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    // Increase key counter.
-                    counter++;
+                } catch (DataException e) {
+                    logger.error("DataException. Skipping netflow record " + keyPrefix + counter + ".");
+                    logger.error(e.getMessage());
                 }
             }
 
             // Close file stream.
-            bufferedReader.close();
-        } catch (FileNotFoundException e) {
-            logger.error("FileNotFoundException. Returning arraylist with successfully processed source records so far.");
-            logger.error(e.getCause());
-            logger.error(e.getMessage());
+            if (reader.isFinished()) {
+                reader.close();
+            }
         } catch (IOException e) {
             logger.error("IOException. Returning arraylist with successfully processed source records so far.");
             logger.error(e.getCause());
             logger.error(e.getMessage());
+
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Reader is marked as finished anyway.
+            }
+        }
+
+        if (dropped > 0) {
+            logger.debug("Dropped " + dropped + " netflow records, that match the flow filter.");
+        }
+        return netflowRecords;
+    }
+
+    /**
+     * Create Kafka SourceRecords with merged netflow records of an open .csv file,
+     * up to a maximum number of records. Records are read and merged by the
+     * aggregator until end of file, or until it holds its maximum number of keys.
+     * Then the merged records are sent, in this and the next calls. Each merged
+     * record's key is the prefix plus the number of records read at the flush and
+     * its number in the flush, so that the same keys are created if the file is
+     * read again after a restart. Records, that cannot be parsed, are skipped.
+     *
+     * @param reader          NetflowReader Reader of the .csv to be parsed.
+     * @param sourcePartition Map(String, String) Source partition of the .csv file.
+     * @param KAFKA_TOPIC     String Kafka topic that SourceRecord will be sent.
+     * @param keyPrefix       String A prefix for each record's key.
+     * @param maxRecords      int Maximum number of SourceRecords to be created.
+     * @param structs         NetflowStruct Converter of records to Structs. If null,
+     *                        values are padded csv strings.
+     * @param aggregator      FlowAggregator Aggregator of the file's records.
+     * @return ArrayList(SourceRecord) A list, which contains all created
+     *         SourceRecords.
+     */
+    public static ArrayList<SourceRecord> loadNetflowCsv(NetflowReader reader, Map<String, String> sourcePartition,
+                                                         String KAFKA_TOPIC, String keyPrefix, int maxRecords,
+                                                         NetflowStruct structs, FlowAggregator aggregator) {
+        return loadNetflowCsv(reader, sourcePartition, KAFKA_TOPIC, keyPrefix, maxRecords, structs, aggregator, null);
+    }
+
+    /**
+     * Create Kafka SourceRecords with merged netflow records of an open .csv file,
+     * that pass a flow filter. Records, that match the filter, are dropped before
+     * they are merged, or merged separately and sent to the filter's topic. At
+     * most MAX_ROWS_PER_CALL rows are read, so no records are returned, before
+     * end of file, if the aggregator has not been filled yet.
+     *
+     * @param reader          NetflowReader Reader of the .csv to be parsed.
+     * @param sourcePartition Map(String, String) Source partition of the .csv file.
+     * @param KAFKA_TOPIC     String Kafka topic that SourceRecord will be sent.
+     * @param keyPrefix       String A prefix for each record's key.
+     * @param maxRecords      int Maximum number of SourceRecords to be created.
+     * @param structs         NetflowStruct Converter of records to Structs. If null,
+     *                        values are padded csv strings.
+     * @param aggregator      FlowAggregator Aggregator of the file's records.
+     * @param filter          FlowFilter Filter of records. If null, all records are merged.
+     * @return ArrayList(SourceRecord) A list, which contains all created
+     *         SourceRecords.
+     */
+    public static ArrayList<SourceRecord> loadNetflowCsv(NetflowReader reader, Map<String, String> sourcePartition,
+                                                         String KAFKA_TOPIC, String keyPrefix, int maxRecords,
+                                                         NetflowStruct structs, FlowAggregator aggregator,
+                                                         FlowFilter filter) {
+        ArrayList<SourceRecord> netflowRecords = new ArrayList<SourceRecord>();
+
+        while (netflowRecords.size() < maxRecords) {
+            if (!aggregator.hasPending()) {
+                if (reader.isFinished()) {
+                    break;
+                }
+                if (!readIntoAggregator(reader, aggregator, filter)) {
+                    // Rows budget is exhausted, before the aggregator is full.
+                    break;
+                }
+                continue;
+            }
+
+            String key = keyPrefix + aggregator.getFlushRecords() + "_" + aggregator.nextPendingIndex();
+            String topic = aggregator.isNextPendingRouted() ? filter.getRouteTopic() : KAFKA_TOPIC;
+            String record = aggregator.pollPending();
+            boolean last = !aggregator.hasPending();
+            try {
+                netflowRecords.add(createSourceRecord(
+                        sourcePartition,
+                        sourceOffset(aggregator.offsetPosition(last), aggregator.offsetRecords(last)),
+                        topic,
+                        key,
+                        structs == null ? record + RECORD_PADDING : record,
+                        structs
+                ));
+            } catch (DataException e) {
+                logger.error("DataException. Skipping netflow record " + key + ".");
+                logger.error(e.getMessage());
+            }
         }
 
         return netflowRecords;
     }
 
+    /**
+     * Reads records of an open .csv file into an aggregator, until end of file or
+     * until the aggregator is full, and flushes it. When end of file is reached,
+     * or if any error occurs, the reader is closed. If MAX_ROWS_PER_CALL rows are
+     * read before, the aggregator is not flushed, and keeps merging in the next call.
+     *
+     * @param reader     NetflowReader Reader of the .csv to be parsed.
+     * @param aggregator FlowAggregator Aggregator of the file's records.
+     * @param filter     FlowFilter Filter of records, or null.
+     * @return boolean True if the aggregator has been flushed, false if the rows
+     * budget has been exhausted.
+     */
+    private static boolean readIntoAggregator(NetflowReader reader, FlowAggregator aggregator, FlowFilter filter) {
+        long skipped = aggregator.getRecordsSkipped();
+        NetflowColumns columns = filter == null ? null : new NetflowColumns();
+        long dropped = 0;
+        int rowsRead = 0;
+        try {
+            String record;
+            while (!aggregator.isFull() && rowsRead++ < MAX_ROWS_PER_CALL && (record = reader.readLine()) != null) {
+                if (filter == null || !columns.parse(record)) {
+                    aggregator.add(record);
+                } else if (!filter.matches(columns)) {
+                    aggregator.add(columns, false);
+                } else if (filter.isRouted()) {
+                    aggregator.add(columns, true);
+                } else {
+                    dropped++;
+                }
+            }
+
+            if (reader.isFinished()) {
+                reader.close();
+            }
+        } catch (IOException e) {
+            logger.error("IOException. Sending the netflow records merged so far.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Reader is marked as finished anyway.
+            }
+        }
+
+        if (aggregator.getRecordsSkipped() > skipped) {
+            logger.error("Skipped " + (aggregator.getRecordsSkipped() - skipped) + " netflow records, that cannot be merged.");
+        }
+        if (dropped > 0) {
+            logger.debug("Dropped " + dropped + " netflow records, that match the flow filter.");
+        }
+        if (!aggregator.isFull() && !reader.isFinished()) {
+            return false;
+        }
+        aggregator.flush(reader.getPosition(), reader.getRecordsRead());
+        return true;
+    }
+
+    /**
+     * Creates the source partition of a netflow file. Each file is a separate
+     * partition, so that its progress can be stored by Kafka Connect.
+     *
+     * @param filename String Name of the netflow file.
+     * @return Map(String, String) The source partition.
+     */
+    public static Map<String, String> sourcePartition(String filename) {
+        return Collections.singletonMap(PARTITION_FILENAME, filename);
+    }
+
+    /**
+     * Creates the source partition of an exporter, that sends netflow packets over
+     * UDP. Records received over UDP cannot be read again, so their offsets are
+     * only informative.
+     *
+     * @param exporter String Address of the exporter.
+     * @return Map(String, String) The source partition.
+     */
+    public static Map<String, String> exporterPartition(String exporter) {
+        return Collections.singletonMap(PARTITION_EXPORTER, exporter);
+    }
+
+    /**
+     * Creates the source offset of a netflow record. The offset is the byte
+     * position in file after the record and the number of records up to it.
+     *
+     * @param position    long Byte position in file after the record.
+     * @param recordsRead long Number of records in file up to this record.
+     * @return Map(String, Long) The source offset.
+     */
+    public static Map<String, Long> sourceOffset(long position, long recordsRead) {
+        Map<String, Long> offset = new HashMap<String, Long>(4);
+        offset.put(OFFSET_POSITION, position);
+        offset.put(OFFSET_RECORDS, recordsRead);
+        return offset;
+    }
+
     /**
      * Create a SourceRecord from a .csv line. Set STRING_SCHEMA for
      * both key and value serializers and deserializers.
      *
-     * @param KAFKA_TOPIC String Kafka topic to be sent.
-     * @param key         String Key for this record in Kafka.
-     * @param value       String Value of this record in Kafka.
+     * @param sourcePartition Map(String, ?) Source partition (netflow file) of the record.
+     * @param sourceOffset    Map(String, ?) Source offset (position in file) of the record.
+     * @param KAFKA_TOPIC     String Kafka topic to be sent.
+     * @param key             String Key for this record in Kafka.
+     * @param value           String Value of this record in Kafka.
      * @return SourceRecord A SourceRecord object to be sent in Kafka.
      */
-    private static SourceRecord createSourceRecord(String KAFKA_TOPIC, String key, String value) {
+    public static SourceRecord createSourceRecord(Map<String, ?> sourcePartition, Map<String, ?> sourceOffset,
+                                                   String KAFKA_TOPIC, String key, String value) {
         return new SourceRecord(
-                Collections.singletonMap("", ""), Collections.singletonMap("", ""),
+                sourcePartition, sourceOffset,
                 KAFKA_TOPIC,
                 Schema.STRING_SCHEMA, key,
                 Schema.STRING_SCHEMA, value);
     }
+
+    /**
+     * Create a SourceRecord from a .csv line, without padding. If a converter is
+     * given, the value is a Struct with the netflow schema. Otherwise it is the
+     * padded .csv line.
+     *
+     * @param sourcePartition Map(String, ?) Source partition of the record.
+     * @param sourceOffset    Map(String, ?) Source offset of the record.
+     * @param KAFKA_TOPIC     String Kafka topic to be sent.
+     * @param key             String Key for this record in Kafka.
+     * @param line            String The .csv line. Padded already, if no converter is given.
+     * @param structs         NetflowStruct Converter of records to Structs, or null.
+     * @return SourceRecord A SourceRecord object to be sent in Kafka.
+     * @throws DataException If the line cannot be converted to a Struct.
+     */
+    public static SourceRecord createSourceRecord(Map<String, ?> sourcePartition, Map<String, ?> sourceOffset,
+                                                  String KAFKA_TOPIC, String key, String line, NetflowStruct structs) {
+        if (structs == null) {
+            return createSourceRecord(sourcePartition, sourceOffset, KAFKA_TOPIC, key, line);
+        }
+        return new SourceRecord(
+                sourcePartition, sourceOffset,
+                KAFKA_TOPIC,
+                Schema.STRING_SCHEMA, key,
+                NetflowStruct.SCHEMA, structs.fromCsv(line));
+    }
 }
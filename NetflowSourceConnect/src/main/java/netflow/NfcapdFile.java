@@ -0,0 +1,900 @@
+package netflow;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+import utils.Lzo1xDecompressor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * NfcapdFile class. Decodes the netflow records of a binary nfcapd file, as
+ * written by nfcapd, without converting it with nfdump. Both file layouts are
+ * supported: layout version 1 (nfdump 1.6.x), with extension maps and common
+ * records, and layout version 2 (nfdump 1.7.x), with V3 records made of
+ * elements. Data blocks may be uncompressed, or compressed with LZO, BZ2, LZ4
+ * or ZSTD (layout version 2 only). Data blocks are read one at a time, so
+ * files of any size can be decoded.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NfcapdFile implements Closeable {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(NfcapdFile.class);
+
+    // File header
+    private static final int MAGIC = 0xA50C;
+    private static final int LAYOUT_VERSION_1 = 1;
+    private static final int LAYOUT_VERSION_2 = 2;
+    private static final int IDENT_SIZE = 128;
+    private static final int STAT_RECORD_SIZE = 136;
+    private static final int FILE_HEADER_V2_SIZE = 40;
+
+    // Compression flags of layout version 1
+    private static final int FLAG_LZO_COMPRESSED = 0x1;
+    private static final int FLAG_BZ2_COMPRESSED = 0x8;
+    private static final int FLAG_LZ4_COMPRESSED = 0x10;
+
+    // Compression types of layout version 2
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_LZO = 1;
+    private static final int COMPRESSION_BZ2 = 2;
+    private static final int COMPRESSION_LZ4 = 3;
+    private static final int COMPRESSION_ZSTD = 4;
+
+    // Data blocks
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int DATA_BLOCK_TYPE_2 = 2;
+    private static final int DATA_BLOCK_TYPE_3 = 3;
+    /**
+     * Maximum size of an uncompressed data block.
+     */
+    private static final int BUFFSIZE = 5 * 1048576;
+
+    // Record types
+    private static final int EXTENSION_MAP_TYPE = 2;
+    private static final int COMMON_RECORD_TYPE = 10;
+    private static final int V3_RECORD_TYPE = 11;
+    /**
+     * Size of the header of an extension map (type, size, map id, extension size).
+     */
+    private static final int EXTENSION_MAP_HEADER_SIZE = 8;
+    /**
+     * Size of the fixed fields of a common record, before its required extensions.
+     */
+    private static final int COMMON_RECORD_HEADER_SIZE = 32;
+
+    // Flags of common records
+    private static final int FLAG_IPV6_ADDR = 1;
+    private static final int FLAG_PKG_64 = 2;
+    private static final int FLAG_BYTES_64 = 4;
+    private static final int FLAG_IPV6_NH = 8;
+    private static final int FLAG_IPV6_NHB = 16;
+    private static final int FLAG_IPV6_EXP = 32;
+
+    /**
+     * Size of each extension of common records, by extension id. Sizes of the
+     * 4 required extensions depend on record flags. Unknown extensions are -1.
+     */
+    private static final int[] EXTENSION_SIZES = {
+            0, 0, 0, 0,                 // 0-3: required extensions
+            4, 8, 4, 8, 4,              // 4-8: io snmp, as, multiple
+            4, 16, 4, 16, 4,            // 9-13: next hop, bgp next hop, vlan
+            4, 8, 4, 8, 4, 8,           // 14-19: out packets, out bytes, aggregated flows
+            16, 16, 40, 4, 16, 4,       // 20-25: mac, mpls, router ip, router id
+            8, 8,                       // 26-27: bgp adjacent, received
+            -1, -1, -1, -1, -1, -1, -1, -1, -1,   // 28-36: reserved
+            20, 4, 8, 32, 24, 24, 72,   // 37-43: nsel
+            -1,                         // 44: reserved
+            24,                         // 45: latency
+            12, 0, 8                    // 46-48: nel
+    };
+
+    // Extension ids of common records
+    private static final int EX_IO_SNMP_2 = 4;
+    private static final int EX_IO_SNMP_4 = 5;
+    private static final int EX_AS_2 = 6;
+    private static final int EX_AS_4 = 7;
+    private static final int EX_MULIPLE = 8;
+    private static final int EX_NEXT_HOP_V4 = 9;
+    private static final int EX_NEXT_HOP_V6 = 10;
+    private static final int EX_NEXT_HOP_BGP_V4 = 11;
+    private static final int EX_NEXT_HOP_BGP_V6 = 12;
+    private static final int EX_VLAN = 13;
+    private static final int EX_OUT_PKG_4 = 14;
+    private static final int EX_OUT_PKG_8 = 15;
+    private static final int EX_OUT_BYTES_4 = 16;
+    private static final int EX_OUT_BYTES_8 = 17;
+    private static final int EX_AGGR_FLOWS_4 = 18;
+    private static final int EX_AGGR_FLOWS_8 = 19;
+    private static final int EX_MAC_1 = 20;
+    private static final int EX_MAC_2 = 21;
+    private static final int EX_MPLS = 22;
+    private static final int EX_ROUTER_IP_V4 = 23;
+    private static final int EX_ROUTER_IP_V6 = 24;
+    private static final int EX_ROUTER_ID = 25;
+    private static final int EX_RECEIVED = 27;
+    private static final int EX_LATENCY = 45;
+
+    // Element ids of V3 records
+    private static final int EX_GENERIC_FLOW = 1;
+    private static final int EX_IPV4_FLOW = 2;
+    private static final int EX_IPV6_FLOW = 3;
+    private static final int EX_FLOW_MISC = 4;
+    private static final int EX_CNT_FLOW = 5;
+    private static final int EX_VLAN_V3 = 6;
+    private static final int EX_AS_ROUTING = 7;
+    private static final int EX_BGP_NEXT_HOP_V4 = 8;
+    private static final int EX_BGP_NEXT_HOP_V6 = 9;
+    private static final int EX_IP_NEXT_HOP_V4 = 10;
+    private static final int EX_IP_NEXT_HOP_V6 = 11;
+    private static final int EX_IP_RECEIVED_V4 = 12;
+    private static final int EX_IP_RECEIVED_V6 = 13;
+    private static final int EX_MPLS_LABEL = 14;
+    private static final int EX_MAC_ADDR = 15;
+    private static final int EX_LATENCY_V3 = 17;
+    private static final int V3_HEADER_SIZE = 12;
+
+    /**
+     * Stream of the nfcapd file.
+     */
+    private DataInputStream inputStream;
+
+    /**
+     * Name of the nfcapd file.
+     */
+    private String filename;
+
+    /**
+     * Byte order of the file, i.e. of the host that wrote it.
+     */
+    private ByteOrder byteOrder;
+
+    /**
+     * Layout version of the file.
+     */
+    private int layoutVersion;
+
+    /**
+     * Compression of data blocks, as layout version 2 compression type.
+     */
+    private int compression;
+
+    /**
+     * Number of data blocks in file, or 0 if unknown.
+     */
+    private long numBlocks;
+    /**
+     * Number of data blocks read so far.
+     */
+    private long blocksRead = 0;
+
+    /**
+     * Extension maps of layout version 1 records, by map id.
+     */
+    private Map<Integer, int[]> extensionMaps = new HashMap<Integer, int[]>();
+
+    /**
+     * Buffer with the compressed data of current block.
+     */
+    private byte[] compressedBuffer = new byte[0];
+    /**
+     * Buffer with the uncompressed data of current block.
+     */
+    private byte[] blockBuffer = new byte[BUFFSIZE];
+    /**
+     * Uncompressed data of current block. Null if no block has been read.
+     */
+    private ByteBuffer block = null;
+    /**
+     * Type of current block.
+     */
+    private int blockType;
+
+    /**
+     * Constructor. Opens a nfcapd file and reads its header.
+     *
+     * @param filename String Filename of nfcapd file to be read.
+     * @throws IOException If file cannot be opened, or it is not a nfcapd file.
+     */
+    public NfcapdFile(String filename) throws IOException {
+        this.filename = filename;
+        this.inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 65536));
+
+        try {
+            readFileHeader();
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the file header. Detects byte order, layout version and compression
+     * and skips identification and statistics, that are not needed.
+     *
+     * @throws IOException If file is not a supported nfcapd file.
+     */
+    private void readFileHeader() throws IOException {
+        byte[] start = new byte[4];
+        inputStream.readFully(start);
+        ByteBuffer buffer = ByteBuffer.wrap(start).order(ByteOrder.LITTLE_ENDIAN);
+        if ((buffer.getShort(0) & 0xFFFF) == MAGIC) {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if ((buffer.order(ByteOrder.BIG_ENDIAN).getShort(0) & 0xFFFF) == MAGIC) {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Not a nfcapd file: " + filename);
+        }
+        buffer.order(byteOrder);
+        layoutVersion = buffer.getShort(2) & 0xFFFF;
+
+        if (layoutVersion == LAYOUT_VERSION_1) {
+            // flags, NumBlocks, ident
+            ByteBuffer header = readBuffer(8 + IDENT_SIZE);
+            int flags = header.getInt(0);
+            numBlocks = header.getInt(4) & 0xFFFFFFFFL;
+            if ((flags & FLAG_LZO_COMPRESSED) != 0) {
+                compression = COMPRESSION_LZO;
+            } else if ((flags & FLAG_BZ2_COMPRESSED) != 0) {
+                compression = COMPRESSION_BZ2;
+            } else if ((flags & FLAG_LZ4_COMPRESSED) != 0) {
+                compression = COMPRESSION_LZ4;
+            } else {
+                compression = COMPRESSION_NONE;
+            }
+            // Statistics record
+            inputStream.readFully(new byte[STAT_RECORD_SIZE]);
+        } else if (layoutVersion == LAYOUT_VERSION_2) {
+            ByteBuffer header = readBuffer(FILE_HEADER_V2_SIZE - 4);
+            // nfversion(4), created(8), compression(1), encryption(1), appendixBlocks(2),
+            // creator(4), offAppendix(8), BlockSize(4), NumBlocks(4)
+            compression = header.get(12) & 0xFF;
+            int encryption = header.get(13) & 0xFF;
+            int blockSize = header.getInt(28);
+            numBlocks = header.getInt(32) & 0xFFFFFFFFL;
+            if (encryption != 0) {
+                throw new IOException("Encrypted nfcapd files are not supported: " + filename);
+            }
+            if (blockSize > blockBuffer.length) {
+                blockBuffer = new byte[blockSize];
+            }
+        } else {
+            throw new IOException("Unsupported nfcapd layout version " + layoutVersion + ": " + filename);
+        }
+
+        logger.debug("Opened nfcapd file " + filename + " (layout version " + layoutVersion
+                + ", compression " + compression + ", " + numBlocks + " blocks).");
+    }
+
+    /**
+     * Reads bytes from file in a buffer with the byte order of the file.
+     *
+     * @param length int Number of bytes.
+     * @return ByteBuffer The read bytes.
+     * @throws IOException If end of file is reached.
+     */
+    private ByteBuffer readBuffer(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(byteOrder);
+    }
+
+    /**
+     * Decodes next netflow record of the file.
+     *
+     * @param flow NetflowFlow Flow, where the decoded record is written. All its
+     *             fields are overwritten.
+     * @return boolean True if a record has been decoded, false if end of file has been reached.
+     * @throws IOException If any error occurs reading the file, or the file is corrupted.
+     */
+    public boolean nextFlow(NetflowFlow flow) throws IOException {
+        while (true) {
+            if (block == null || block.remaining() < 4) {
+                if (!readBlock()) {
+                    return false;
+                }
+                continue;
+            }
+
+            int recordStart = block.position();
+            int type = block.getShort(recordStart) & 0xFFFF;
+            int size = block.getShort(recordStart + 2) & 0xFFFF;
+            if (size < 4 || size > block.remaining()) {
+                logger.warn("Corrupted record in nfcapd file " + filename + ". Skipping rest of block.");
+                block = null;
+                continue;
+            }
+            block.position(recordStart + size);
+
+            if (blockType == DATA_BLOCK_TYPE_2) {
+                if (type == EXTENSION_MAP_TYPE) {
+                    readExtensionMap(recordStart, size);
+                } else if (type == COMMON_RECORD_TYPE && decodeCommonRecord(recordStart, size, flow)) {
+                    return true;
+                }
+            } else if (blockType == DATA_BLOCK_TYPE_3 && type == V3_RECORD_TYPE
+                    && decodeV3Record(recordStart, size, flow)) {
+                return true;
+            }
+            // Other records (exporter, sampler, statistics etc.) are ignored.
+        }
+    }
+
+    /**
+     * Reads next data block of the file and decompresses it.
+     *
+     * @return boolean True if a block has been read, false if end of file has been reached.
+     * @throws IOException If any error occurs reading the file, or the block is corrupted.
+     */
+    private boolean readBlock() throws IOException {
+        block = null;
+        if (numBlocks > 0 && blocksRead >= numBlocks) {
+            return false;
+        }
+
+        byte[] headerBytes = new byte[BLOCK_HEADER_SIZE];
+        try {
+            inputStream.readFully(headerBytes);
+        } catch (EOFException e) {
+            // nfcapd files, that were not closed properly, may have no number of blocks.
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(byteOrder);
+        int size = header.getInt(4);
+        blockType = header.getShort(8) & 0xFFFF;
+        blocksRead++;
+
+        if (size < 0 || size > Math.max(BUFFSIZE, blockBuffer.length)) {
+            throw new IOException("Corrupted data block in nfcapd file " + filename);
+        }
+        if (compressedBuffer.length < size) {
+            compressedBuffer = new byte[size];
+        }
+        inputStream.readFully(compressedBuffer, 0, size);
+
+        if (blockType != DATA_BLOCK_TYPE_2 && blockType != DATA_BLOCK_TYPE_3) {
+            // Not a data block (i.e. a catalog or an appendix).
+            return true;
+        }
+
+        int length = decompress(compressedBuffer, size);
+        block = ByteBuffer.wrap(blockBuffer, 0, length).order(byteOrder);
+        return true;
+    }
+
+    /**
+     * Decompresses the data of a block in block buffer.
+     *
+     * @param data byte[] Compressed data.
+     * @param size int Length of compressed data.
+     * @return int Length of uncompressed data.
+     * @throws IOException If data are corrupted.
+     */
+    private int decompress(byte[] data, int size) throws IOException {
+        switch (compression) {
+            case COMPRESSION_NONE:
+                System.arraycopy(data, 0, blockBuffer, 0, size);
+                return size;
+            case COMPRESSION_LZO:
+                return Lzo1xDecompressor.decompress(data, 0, size, blockBuffer, 0, blockBuffer.length);
+            case COMPRESSION_LZ4:
+                try {
+                    return lz4Decompressor().decompress(data, 0, size, blockBuffer, 0, blockBuffer.length);
+                } catch (LZ4Exception e) {
+                    throw new IOException("Corrupted LZ4 block in nfcapd file " + filename + ": " + e.getMessage());
+                }
+            case COMPRESSION_BZ2:
+                return decompressBz2(data, size);
+            case COMPRESSION_ZSTD:
+                long length = Zstd.decompressByteArray(blockBuffer, 0, blockBuffer.length, data, 0, size);
+                if (Zstd.isError(length)) {
+                    throw new IOException("Corrupted ZSTD block in nfcapd file " + filename + ": "
+                            + Zstd.getErrorName(length));
+                }
+                return (int) length;
+            default:
+                throw new IOException("Unsupported compression " + compression + " of nfcapd file " + filename);
+        }
+    }
+
+    /**
+     * Returns a LZ4 decompressor. Created only when needed, as it loads native libraries.
+     *
+     * @return LZ4SafeDecompressor The decompressor.
+     */
+    private static LZ4SafeDecompressor lz4Decompressor() {
+        return LZ4Factory.fastestInstance().safeDecompressor();
+    }
+
+    /**
+     * Decompresses a BZ2 compressed block in block buffer. Each block is a separate BZ2 stream.
+     *
+     * @param data byte[] Compressed data.
+     * @param size int Length of compressed data.
+     * @return int Length of uncompressed data.
+     * @throws IOException If data are corrupted.
+     */
+    private int decompressBz2(byte[] data, int size) throws IOException {
+        int length = 0;
+        try (InputStream bz2 = new BZip2CompressorInputStream(new ByteArrayInputStream(data, 0, size))) {
+            int n;
+            while (length < blockBuffer.length && (n = bz2.read(blockBuffer, length, blockBuffer.length - length)) > 0) {
+                length += n;
+            }
+            if (length == blockBuffer.length && bz2.read() != -1) {
+                throw new IOException("BZ2 block too large in nfcapd file " + filename);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads an extension map record of layout version 1.
+     *
+     * @param start int Index of the record in block.
+     * @param size  int Size of the record.
+     */
+    private void readExtensionMap(int start, int size) {
+        if (size < EXTENSION_MAP_HEADER_SIZE) {
+            logger.warn("Extension map record of " + size + " bytes in nfcapd file " + filename + ". Skipping it.");
+            return;
+        }
+        int mapId = block.getShort(start + 4) & 0xFFFF;
+        int[] ids = new int[(size - 8) / 2];
+        int count = 0;
+        for (int offset = start + EXTENSION_MAP_HEADER_SIZE; offset + 2 <= start + size; offset += 2) {
+            int id = block.getShort(offset) & 0xFFFF;
+            if (id == 0) {
+                break;
+            }
+            ids[count++] = id;
+        }
+        extensionMaps.put(mapId, Arrays.copyOf(ids, count));
+    }
+
+    /**
+     * Decodes a common record of layout version 1.
+     *
+     * @param start int Index of the record in block.
+     * @param size  int Size of the record.
+     * @param flow  NetflowFlow Flow, where the decoded record is written.
+     * @return boolean True if record has been decoded, false if its extension map is unknown
+     * or it is shorter than its required extensions.
+     */
+    private boolean decodeCommonRecord(int start, int size, NetflowFlow flow) {
+        if (size < COMMON_RECORD_HEADER_SIZE) {
+            logger.warn("Common record of " + size + " bytes in nfcapd file " + filename + ". Skipping it.");
+            return false;
+        }
+        int flags = block.getShort(start + 4) & 0xFFFF;
+        int mapId = block.getShort(start + 6) & 0xFFFF;
+        int[] extensions = extensionMaps.get(mapId);
+        if (extensions == null) {
+            logger.warn("Record with unknown extension map " + mapId + " in nfcapd file " + filename + ". Skipping it.");
+            return false;
+        }
+        int required = COMMON_RECORD_HEADER_SIZE
+                + ((flags & FLAG_IPV6_ADDR) != 0 ? 32 : 8)
+                + ((flags & FLAG_PKG_64) != 0 ? 8 : 4)
+                + ((flags & FLAG_BYTES_64) != 0 ? 8 : 4);
+        if (size < required) {
+            logger.warn("Common record of " + size + " bytes, shorter than its " + required
+                    + " bytes of required extensions, in nfcapd file " + filename + ". Skipping it.");
+            return false;
+        }
+
+        reset(flow);
+        int msecFirst = block.getShort(start + 8) & 0xFFFF;
+        int msecLast = block.getShort(start + 10) & 0xFFFF;
+        flow.first = (block.getInt(start + 12) & 0xFFFFFFFFL) * 1000L + msecFirst;
+        flow.last = (block.getInt(start + 16) & 0xFFFFFFFFL) * 1000L + msecLast;
+        flow.fwdStatus = block.get(start + 20) & 0xFF;
+        flow.tcpFlags = block.get(start + 21) & 0xFF;
+        flow.proto = block.get(start + 22) & 0xFF;
+        flow.tos = block.get(start + 23) & 0xFF;
+        flow.srcPort = block.getShort(start + 24) & 0xFFFF;
+        flow.dstPort = block.getShort(start + 26) & 0xFFFF;
+        flow.exporterSysId = block.getShort(start + 28) & 0xFFFF;
+
+        int p = start + COMMON_RECORD_HEADER_SIZE;
+        int end = start + size;
+
+        // Required extensions: addresses, packets and bytes.
+        if ((flags & FLAG_IPV6_ADDR) != 0) {
+            flow.srcAddr = ipv6(p);
+            flow.dstAddr = ipv6(p + 16);
+            p += 32;
+        } else {
+            flow.srcAddr = ipv4(p);
+            flow.dstAddr = ipv4(p + 4);
+            p += 8;
+        }
+        if ((flags & FLAG_PKG_64) != 0) {
+            flow.inPackets = block.getLong(p);
+            p += 8;
+        } else {
+            flow.inPackets = block.getInt(p) & 0xFFFFFFFFL;
+            p += 4;
+        }
+        if ((flags & FLAG_BYTES_64) != 0) {
+            flow.inBytes = block.getLong(p);
+            p += 8;
+        } else {
+            flow.inBytes = block.getInt(p) & 0xFFFFFFFFL;
+            p += 4;
+        }
+
+        // Optional extensions, in the order of the extension map.
+        for (int id : extensions) {
+            int extSize = id < EXTENSION_SIZES.length ? EXTENSION_SIZES[id] : -1;
+            if (extSize < 0 || p + extSize > end) {
+                // Offsets of next extensions cannot be known.
+                break;
+            }
+            decodeExtension(id, p, flags, flow);
+            p += extSize;
+        }
+
+        return true;
+    }
+
+    /**
+     * Decodes an optional extension of a common record of layout version 1.
+     *
+     * @param id    int Extension id.
+     * @param p     int Index of the extension in block.
+     * @param flags int Flags of the record.
+     * @param flow  NetflowFlow Flow, where the decoded extension is written.
+     */
+    private void decodeExtension(int id, int p, int flags, NetflowFlow flow) {
+        switch (id) {
+            case EX_IO_SNMP_2:
+                flow.input = block.getShort(p) & 0xFFFF;
+                flow.output = block.getShort(p + 2) & 0xFFFF;
+                break;
+            case EX_IO_SNMP_4:
+                flow.input = block.getInt(p) & 0xFFFFFFFFL;
+                flow.output = block.getInt(p + 4) & 0xFFFFFFFFL;
+                break;
+            case EX_AS_2:
+                flow.srcAs = block.getShort(p) & 0xFFFF;
+                flow.dstAs = block.getShort(p + 2) & 0xFFFF;
+                break;
+            case EX_AS_4:
+                flow.srcAs = block.getInt(p) & 0xFFFFFFFFL;
+                flow.dstAs = block.getInt(p + 4) & 0xFFFFFFFFL;
+                break;
+            case EX_MULIPLE:
+                flow.dstTos = block.get(p) & 0xFF;
+                flow.dir = block.get(p + 1) & 0xFF;
+                flow.srcMask = block.get(p + 2) & 0xFF;
+                flow.dstMask = block.get(p + 3) & 0xFF;
+                break;
+            case EX_NEXT_HOP_V4:
+                flow.nextHop = ipv4(p);
+                break;
+            case EX_NEXT_HOP_V6:
+                flow.nextHop = ipv6(p);
+                break;
+            case EX_NEXT_HOP_BGP_V4:
+                flow.bgpNextHop = ipv4(p);
+                break;
+            case EX_NEXT_HOP_BGP_V6:
+                flow.bgpNextHop = ipv6(p);
+                break;
+            case EX_VLAN:
+                flow.srcVlan = block.getShort(p) & 0xFFFF;
+                flow.dstVlan = block.getShort(p + 2) & 0xFFFF;
+                break;
+            case EX_OUT_PKG_4:
+                flow.outPackets = block.getInt(p) & 0xFFFFFFFFL;
+                break;
+            case EX_OUT_PKG_8:
+                flow.outPackets = block.getLong(p);
+                break;
+            case EX_OUT_BYTES_4:
+                flow.outBytes = block.getInt(p) & 0xFFFFFFFFL;
+                break;
+            case EX_OUT_BYTES_8:
+                flow.outBytes = block.getLong(p);
+                break;
+            case EX_AGGR_FLOWS_4:
+                flow.aggrFlows = block.getInt(p) & 0xFFFFFFFFL;
+                break;
+            case EX_AGGR_FLOWS_8:
+                flow.aggrFlows = block.getLong(p);
+                break;
+            case EX_MAC_1:
+                flow.inSrcMac = block.getLong(p);
+                flow.outDstMac = block.getLong(p + 8);
+                break;
+            case EX_MAC_2:
+                flow.inDstMac = block.getLong(p);
+                flow.outSrcMac = block.getLong(p + 8);
+                break;
+            case EX_MPLS:
+                for (int i = 0; i < 10; i++) {
+                    flow.mplsLabels[i] = block.getInt(p + 4 * i) & 0xFFFFFFFFL;
+                }
+                break;
+            case EX_ROUTER_IP_V4:
+                flow.routerIp = ipv4(p);
+                break;
+            case EX_ROUTER_IP_V6:
+                flow.routerIp = ipv6(p);
+                break;
+            case EX_ROUTER_ID:
+                flow.engineType = block.get(p + 2) & 0xFF;
+                flow.engineId = block.get(p + 3) & 0xFF;
+                break;
+            case EX_RECEIVED:
+                flow.received = block.getLong(p);
+                break;
+            case EX_LATENCY:
+                flow.clientNwDelay = block.getLong(p);
+                flow.serverNwDelay = block.getLong(p + 8);
+                flow.applLatency = block.getLong(p + 16);
+                break;
+            default:
+                // Extension not included in csv.
+                break;
+        }
+    }
+
+    /**
+     * Decodes a V3 record of layout version 2.
+     *
+     * @param start int Index of the record in block.
+     * @param size  int Size of the record.
+     * @param flow  NetflowFlow Flow, where the decoded record is written.
+     * @return boolean True if record has been decoded, false if it is shorter than its header.
+     */
+    private boolean decodeV3Record(int start, int size, NetflowFlow flow) {
+        if (size < V3_HEADER_SIZE) {
+            logger.warn("V3 record of " + size + " bytes in nfcapd file " + filename + ". Skipping it.");
+            return false;
+        }
+        reset(flow);
+        int numElements = block.get(start + 4) & 0xFF;
+        flow.engineType = block.get(start + 5) & 0xFF;
+        flow.engineId = block.get(start + 6) & 0xFF;
+        flow.exporterSysId = block.get(start + 7) & 0xFF;
+
+        int p = start + V3_HEADER_SIZE;
+        int end = start + size;
+        for (int i = 0; i < numElements && p + 4 <= end; i++) {
+            int type = block.getShort(p) & 0xFFFF;
+            int length = block.getShort(p + 2) & 0xFFFF;
+            if (length < 4 || p + length > end) {
+                break;
+            }
+            decodeElement(type, p + 4, length - 4, flow);
+            p += length;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes an element of a V3 record.
+     *
+     * @param type   int Element type.
+     * @param p      int Index of element data in block.
+     * @param length int Length of element data.
+     * @param flow   NetflowFlow Flow, where the decoded element is written.
+     */
+    private void decodeElement(int type, int p, int length, NetflowFlow flow) {
+        switch (type) {
+            case EX_GENERIC_FLOW:
+                if (length >= 48) {
+                    flow.first = block.getLong(p);
+                    flow.last = block.getLong(p + 8);
+                    flow.received = block.getLong(p + 16);
+                    flow.inPackets = block.getLong(p + 24);
+                    flow.inBytes = block.getLong(p + 32);
+                    flow.srcPort = block.getShort(p + 40) & 0xFFFF;
+                    flow.dstPort = block.getShort(p + 42) & 0xFFFF;
+                    flow.proto = block.get(p + 44) & 0xFF;
+                    flow.tcpFlags = block.get(p + 45) & 0xFF;
+                    flow.fwdStatus = block.get(p + 46) & 0xFF;
+                    flow.tos = block.get(p + 47) & 0xFF;
+                }
+                break;
+            case EX_IPV4_FLOW:
+                if (length >= 8) {
+                    flow.srcAddr = ipv4(p);
+                    flow.dstAddr = ipv4(p + 4);
+                }
+                break;
+            case EX_IPV6_FLOW:
+                if (length >= 32) {
+                    flow.srcAddr = ipv6(p);
+                    flow.dstAddr = ipv6(p + 16);
+                }
+                break;
+            case EX_FLOW_MISC:
+                if (length >= 12) {
+                    flow.input = block.getInt(p) & 0xFFFFFFFFL;
+                    flow.output = block.getInt(p + 4) & 0xFFFFFFFFL;
+                    flow.srcMask = block.get(p + 8) & 0xFF;
+                    flow.dstMask = block.get(p + 9) & 0xFF;
+                    flow.dir = block.get(p + 10) & 0xFF;
+                    flow.dstTos = block.get(p + 11) & 0xFF;
+                }
+                break;
+            case EX_CNT_FLOW:
+                if (length >= 24) {
+                    flow.aggrFlows = block.getLong(p);
+                    flow.outPackets = block.getLong(p + 8);
+                    flow.outBytes = block.getLong(p + 16);
+                }
+                break;
+            case EX_VLAN_V3:
+                if (length >= 8) {
+                    flow.srcVlan = block.getInt(p) & 0xFFFFFFFFL;
+                    flow.dstVlan = block.getInt(p + 4) & 0xFFFFFFFFL;
+                }
+                break;
+            case EX_AS_ROUTING:
+                if (length >= 8) {
+                    flow.srcAs = block.getInt(p) & 0xFFFFFFFFL;
+                    flow.dstAs = block.getInt(p + 4) & 0xFFFFFFFFL;
+                }
+                break;
+            case EX_BGP_NEXT_HOP_V4:
+                if (length >= 4) {
+                    flow.bgpNextHop = ipv4(p);
+                }
+                break;
+            case EX_BGP_NEXT_HOP_V6:
+                if (length >= 16) {
+                    flow.bgpNextHop = ipv6(p);
+                }
+                break;
+            case EX_IP_NEXT_HOP_V4:
+                if (length >= 4) {
+                    flow.nextHop = ipv4(p);
+                }
+                break;
+            case EX_IP_NEXT_HOP_V6:
+                if (length >= 16) {
+                    flow.nextHop = ipv6(p);
+                }
+                break;
+            case EX_IP_RECEIVED_V4:
+                if (length >= 4) {
+                    flow.routerIp = ipv4(p);
+                }
+                break;
+            case EX_IP_RECEIVED_V6:
+                if (length >= 16) {
+                    flow.routerIp = ipv6(p);
+                }
+                break;
+            case EX_MPLS_LABEL:
+                for (int i = 0; i < 10 && 4 * i + 4 <= length; i++) {
+                    flow.mplsLabels[i] = block.getInt(p + 4 * i) & 0xFFFFFFFFL;
+                }
+                break;
+            case EX_MAC_ADDR:
+                if (length >= 32) {
+                    flow.inSrcMac = block.getLong(p);
+                    flow.outDstMac = block.getLong(p + 8);
+                    flow.inDstMac = block.getLong(p + 16);
+                    flow.outSrcMac = block.getLong(p + 24);
+                }
+                break;
+            case EX_LATENCY_V3:
+                if (length >= 24) {
+                    flow.clientNwDelay = block.getLong(p);
+                    flow.serverNwDelay = block.getLong(p + 8);
+                    flow.applLatency = block.getLong(p + 16);
+                }
+                break;
+            default:
+                // Element not included in csv.
+                break;
+        }
+    }
+
+    /**
+     * Reads an IPv4 address, stored as a 32 bit number, in network byte order.
+     *
+     * @param p int Index of the address in block.
+     * @return byte[] The address.
+     */
+    private byte[] ipv4(int p) {
+        int v = block.getInt(p);
+        return new byte[]{(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+    }
+
+    /**
+     * Reads an IPv6 address, stored as two 64 bit numbers, in network byte order.
+     *
+     * @param p int Index of the address in block.
+     * @return byte[] The address.
+     */
+    private byte[] ipv6(int p) {
+        byte[] addr = new byte[16];
+        ByteBuffer.wrap(addr).putLong(block.getLong(p)).putLong(block.getLong(p + 8));
+        return addr;
+    }
+
+    /**
+     * Resets all fields of a flow to 0, for fields of missing extensions.
+     *
+     * @param flow NetflowFlow The flow.
+     */
+    private static void reset(NetflowFlow flow) {
+        flow.first = 0;
+        flow.last = 0;
+        flow.received = 0;
+        flow.srcAddr = NetflowFlow.NO_ADDRESS;
+        flow.dstAddr = NetflowFlow.NO_ADDRESS;
+        flow.srcPort = 0;
+        flow.dstPort = 0;
+        flow.proto = 0;
+        flow.tcpFlags = 0;
+        flow.fwdStatus = 0;
+        flow.tos = 0;
+        flow.exporterSysId = 0;
+        flow.inPackets = 0;
+        flow.inBytes = 0;
+        flow.outPackets = 0;
+        flow.outBytes = 0;
+        flow.aggrFlows = 0;
+        flow.input = 0;
+        flow.output = 0;
+        flow.srcAs = 0;
+        flow.dstAs = 0;
+        flow.srcMask = 0;
+        flow.dstMask = 0;
+        flow.dstTos = 0;
+        flow.dir = 0;
+        flow.nextHop = NetflowFlow.NO_ADDRESS;
+        flow.bgpNextHop = NetflowFlow.NO_ADDRESS;
+        flow.routerIp = NetflowFlow.NO_ADDRESS;
+        flow.engineType = 0;
+        flow.engineId = 0;
+        flow.srcVlan = 0;
+        flow.dstVlan = 0;
+        flow.inSrcMac = 0;
+        flow.outDstMac = 0;
+        flow.inDstMac = 0;
+        flow.outSrcMac = 0;
+        flow.mplsLabels = new long[10];
+        flow.clientNwDelay = 0;
+        flow.serverNwDelay = 0;
+        flow.applLatency = 0;
+    }
+
+    /**
+     * Closes file stream.
+     *
+     * @throws IOException If any error occurs closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        block = null;
+        inputStream.close();
+    }
+}
@@ -0,0 +1,267 @@
+package netflow;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * NfcapdReader class. Reads a binary nfcapd file and returns its netflow records
+ * as csv lines, in the same layout as "nfdump -B -o csv -q", so that files do not
+ * have to be converted with nfdump first. If bidirectional aggregation is enabled,
+ * the whole file is decoded on first read and flows of both directions of a
+ * connection are aggregated, like "nfdump -B" does. Otherwise records are decoded
+ * one at a time. Since records are decoded from compressed blocks, the position
+ * of a reader is the number of returned records, not a byte position.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NfcapdReader implements NetflowReader {
+    /**
+     * The nfcapd file.
+     */
+    private NfcapdFile nfcapdFile;
+
+    /**
+     * Formatter of records to csv lines.
+     */
+    private NfdumpCsvFormatter formatter;
+
+    /**
+     * If true, flows of both directions of a connection are aggregated.
+     */
+    private boolean bidirectional;
+
+    /**
+     * Aggregated flows, in the order they were first seen. Null until first read.
+     */
+    private Iterator<NetflowFlow> aggregatedFlows = null;
+
+    /**
+     * Flow, where records are decoded, when they are not aggregated.
+     */
+    private NetflowFlow flow = new NetflowFlow();
+
+    /**
+     * Number of records to skip, as they have been returned before.
+     */
+    private long recordsToSkip;
+    /**
+     * Number of netflow records returned so far.
+     */
+    private long recordsRead = 0;
+    /**
+     * True if end of file has been reached or reader has been closed.
+     */
+    private boolean finished = false;
+
+    /**
+     * Constructor. Opens a nfcapd file for reading after a given number of records.
+     * Used to continue reading a file, that has been partially processed.
+     *
+     * @param nfcapdFile    String Filename of nfcapd file to be read.
+     * @param recordsRead   long Number of netflow records, that have already been read.
+     * @param bidirectional boolean If true, flows of both directions are aggregated.
+     * @param timeZone      TimeZone Time zone of the dates of csv records.
+     * @throws IOException If file cannot be opened, or it is not a nfcapd file.
+     */
+    public NfcapdReader(String nfcapdFile, long recordsRead, boolean bidirectional, TimeZone timeZone)
+            throws IOException {
+        this.nfcapdFile = new NfcapdFile(nfcapdFile);
+        this.formatter = new NfdumpCsvFormatter(timeZone);
+        this.recordsToSkip = recordsRead;
+        this.bidirectional = bidirectional;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        while (!finished) {
+            NetflowFlow next = nextFlow();
+            if (next == null) {
+                finished = true;
+                break;
+            }
+
+            recordsRead++;
+            if (recordsRead > recordsToSkip) {
+                return formatter.format(next);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns next flow of the file, aggregated if needed.
+     *
+     * @return NetflowFlow The next flow, or null if end of file has been reached.
+     * @throws IOException If any error occurs reading the file.
+     */
+    private NetflowFlow nextFlow() throws IOException {
+        if (!bidirectional) {
+            return nfcapdFile.nextFlow(flow) ? flow : null;
+        }
+
+        if (aggregatedFlows == null) {
+            aggregatedFlows = aggregate().values().iterator();
+        }
+        return aggregatedFlows.hasNext() ? aggregatedFlows.next() : null;
+    }
+
+    /**
+     * Decodes all records of the file and aggregates flows of both directions of
+     * each connection, i.e. with same protocol and swapped addresses and ports.
+     * Counters of the reverse direction are added as out counters. Afterwards,
+     * the direction of TCP and UDP flows is guessed from their ports, so that the
+     * client is the source, like nfdump does.
+     *
+     * @return Map(FlowKey, NetflowFlow) The aggregated flows.
+     * @throws IOException If any error occurs reading the file.
+     */
+    private Map<FlowKey, NetflowFlow> aggregate() throws IOException {
+        Map<FlowKey, NetflowFlow> flows = new LinkedHashMap<FlowKey, NetflowFlow>();
+
+        NetflowFlow record = new NetflowFlow();
+        while (nfcapdFile.nextFlow(record)) {
+            NetflowFlow aggregated = flows.get(new FlowKey(record.proto, record.srcAddr, record.dstAddr,
+                    record.srcPort, record.dstPort));
+            if (aggregated != null) {
+                add(aggregated, record, false);
+                continue;
+            }
+            aggregated = flows.get(new FlowKey(record.proto, record.dstAddr, record.srcAddr,
+                    record.dstPort, record.srcPort));
+            if (aggregated != null) {
+                add(aggregated, record, true);
+                continue;
+            }
+
+            if (record.aggrFlows == 0) {
+                record.aggrFlows = 1;
+            }
+            flows.put(new FlowKey(record.proto, record.srcAddr, record.dstAddr, record.srcPort, record.dstPort),
+                    record);
+            record = new NetflowFlow();
+        }
+
+        for (NetflowFlow f : flows.values()) {
+            if (isReversed(f)) {
+                f.swap();
+            }
+        }
+        return flows;
+    }
+
+    /**
+     * Adds a record to an aggregated flow.
+     *
+     * @param aggregated NetflowFlow The aggregated flow.
+     * @param record     NetflowFlow The record.
+     * @param reverse    boolean True if record is of the reverse direction.
+     */
+    private static void add(NetflowFlow aggregated, NetflowFlow record, boolean reverse) {
+        if (reverse) {
+            aggregated.inPackets += record.outPackets;
+            aggregated.inBytes += record.outBytes;
+            aggregated.outPackets += record.inPackets;
+            aggregated.outBytes += record.inBytes;
+        } else {
+            aggregated.inPackets += record.inPackets;
+            aggregated.inBytes += record.inBytes;
+            aggregated.outPackets += record.outPackets;
+            aggregated.outBytes += record.outBytes;
+        }
+        aggregated.aggrFlows += record.aggrFlows == 0 ? 1 : record.aggrFlows;
+        aggregated.tcpFlags |= record.tcpFlags;
+        aggregated.first = Math.min(aggregated.first, record.first);
+        aggregated.last = Math.max(aggregated.last, record.last);
+    }
+
+    /**
+     * Guesses if a TCP or UDP flow goes from server to client, i.e. its source
+     * port is a well known or registered port and its destination port is not.
+     *
+     * @param f NetflowFlow The flow.
+     * @return boolean True if source and destination should be swapped.
+     */
+    private static boolean isReversed(NetflowFlow f) {
+        if (f.proto != 6 && f.proto != 17) {
+            return false;
+        }
+        return (f.srcPort < 1024 && f.dstPort >= 1024)
+                || (f.srcPort < 32768 && f.dstPort >= 32768)
+                || (f.srcPort < 49152 && f.dstPort >= 49152);
+    }
+
+    /**
+     * Returns the number of returned records, as records have no byte position.
+     *
+     * @return long Number of returned records.
+     */
+    @Override
+    public long getPosition() {
+        return recordsRead;
+    }
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Closes nfcapd file.
+     *
+     * @throws IOException If any error occurs closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        aggregatedFlows = null;
+        nfcapdFile.close();
+    }
+
+    /**
+     * Key of aggregated flows: protocol, addresses and ports.
+     */
+    private static final class FlowKey {
+        private final int proto;
+        private final byte[] srcAddr;
+        private final byte[] dstAddr;
+        private final int srcPort;
+        private final int dstPort;
+        private final int hash;
+
+        FlowKey(int proto, byte[] srcAddr, byte[] dstAddr, int srcPort, int dstPort) {
+            this.proto = proto;
+            this.srcAddr = srcAddr;
+            this.dstAddr = dstAddr;
+            this.srcPort = srcPort;
+            this.dstPort = dstPort;
+            this.hash = ((proto * 31 + Arrays.hashCode(srcAddr)) * 31 + Arrays.hashCode(dstAddr)) * 31
+                    + (srcPort << 16 | dstPort);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlowKey)) {
+                return false;
+            }
+            FlowKey k = (FlowKey) o;
+            return proto == k.proto && srcPort == k.srcPort && dstPort == k.dstPort
+                    && Arrays.equals(srcAddr, k.srcAddr) && Arrays.equals(dstAddr, k.dstAddr);
+        }
+    }
+}
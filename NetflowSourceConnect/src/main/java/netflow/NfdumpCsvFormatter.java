@@ -0,0 +1,341 @@
+package netflow;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * NfdumpCsvFormatter class. Formats a decoded netflow record in the same
+ * csv layout, that "nfdump -o csv -q" writes and the rest of the pipeline
+ * expects: ts,te,td,sa,da,sp,dp,pr,flg,fwd,stos,ipkt,ibyt,opkt,obyt,in,out,
+ * sas,das,smk,dmk,dtos,dir,nh,nhb,svln,dvln,ismc,odmc,idmc,osmc,mpls1-10,
+ * cl,sl,al,ra,eng,exid,tr. Times are formatted in a given time zone, UTC by
+ * default, like nfdump does in its time zone. An instance is not thread safe.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NfdumpCsvFormatter {
+    /**
+     * Protocol names, padded to 5 characters, like nfdump prints them.
+     * Protocols without a name are printed as numbers.
+     */
+    private static final Map<Integer, String> PROTOCOL_NAMES = new HashMap<Integer, String>();
+
+    static {
+        PROTOCOL_NAMES.put(1, "ICMP ");
+        PROTOCOL_NAMES.put(2, "IGMP ");
+        PROTOCOL_NAMES.put(4, "IPIP ");
+        PROTOCOL_NAMES.put(6, "TCP  ");
+        PROTOCOL_NAMES.put(17, "UDP  ");
+        PROTOCOL_NAMES.put(41, "IPv6 ");
+        PROTOCOL_NAMES.put(46, "RSVP ");
+        PROTOCOL_NAMES.put(47, "GRE  ");
+        PROTOCOL_NAMES.put(50, "ESP  ");
+        PROTOCOL_NAMES.put(51, "AH   ");
+        PROTOCOL_NAMES.put(58, "ICMP6");
+        PROTOCOL_NAMES.put(88, "EIGRP");
+        PROTOCOL_NAMES.put(89, "OSPF ");
+        PROTOCOL_NAMES.put(103, "PIM  ");
+        PROTOCOL_NAMES.put(112, "VRRP ");
+        PROTOCOL_NAMES.put(115, "L2TP ");
+        PROTOCOL_NAMES.put(132, "SCTP ");
+    }
+
+    /**
+     * Date format of nfdump.
+     */
+    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Last formatted second. Flows of a file usually start and end in the
+     * same seconds, so formatted dates are reused.
+     */
+    private long lastSecond = Long.MIN_VALUE;
+    /**
+     * Formatted date of last formatted second.
+     */
+    private String lastDate = null;
+
+    /**
+     * Constructor, for dates in UTC.
+     */
+    public NfdumpCsvFormatter() {
+        this(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeZone TimeZone Time zone of the formatted dates.
+     */
+    public NfdumpCsvFormatter(TimeZone timeZone) {
+        dateFormat.setTimeZone(timeZone);
+    }
+
+    /**
+     * Buffer, where a record is formatted.
+     */
+    private StringBuilder sb = new StringBuilder(512);
+
+    /**
+     * Formats a netflow record as a csv line, without line delimiter.
+     *
+     * @param flow NetflowFlow The netflow record.
+     * @return String The csv line.
+     */
+    public String format(NetflowFlow flow) {
+        sb.setLength(0);
+
+        sb.append(formatDate(flow.first)).append(',');
+        sb.append(formatDate(flow.last)).append(',');
+        appendMillis(flow.last - flow.first, 0);
+        sb.append(',');
+        appendAddress(flow.srcAddr);
+        sb.append(',');
+        appendAddress(flow.dstAddr);
+        sb.append(',').append(flow.srcPort);
+        sb.append(',').append(flow.dstPort);
+        sb.append(',').append(protocolName(flow.proto));
+        sb.append(',');
+        appendTcpFlags(flow.tcpFlags);
+        sb.append(',').append(flow.fwdStatus);
+        sb.append(',').append(flow.tos);
+        sb.append(',').append(flow.inPackets);
+        sb.append(',').append(flow.inBytes);
+        sb.append(',').append(flow.outPackets);
+        sb.append(',').append(flow.outBytes);
+        sb.append(',').append(flow.input);
+        sb.append(',').append(flow.output);
+        sb.append(',').append(flow.srcAs);
+        sb.append(',').append(flow.dstAs);
+        sb.append(',').append(flow.srcMask);
+        sb.append(',').append(flow.dstMask);
+        sb.append(',').append(flow.dstTos);
+        sb.append(',').append(flow.dir);
+        sb.append(',');
+        appendAddress(flow.nextHop);
+        sb.append(',');
+        appendAddress(flow.bgpNextHop);
+        sb.append(',').append(flow.srcVlan);
+        sb.append(',').append(flow.dstVlan);
+        sb.append(',');
+        appendMac(flow.inSrcMac);
+        sb.append(',');
+        appendMac(flow.outDstMac);
+        sb.append(',');
+        appendMac(flow.inDstMac);
+        sb.append(',');
+        appendMac(flow.outSrcMac);
+        for (long label : flow.mplsLabels) {
+            sb.append(',').append(label >>> 4).append('-').append((label & 0xF) >>> 1).append('-').append(label & 1);
+        }
+        sb.append(',');
+        appendMillis(flow.clientNwDelay, 9);
+        sb.append(',');
+        appendMillis(flow.serverNwDelay, 9);
+        sb.append(',');
+        appendMillis(flow.applLatency, 9);
+        sb.append(',');
+        appendAddress(flow.routerIp);
+        sb.append(',').append(flow.engineType).append('/').append(flow.engineId);
+        sb.append(',').append(flow.exporterSysId);
+        sb.append(',').append(formatDate(flow.received)).append('.');
+        appendPadded(Math.floorMod(flow.received, 1000L), 3, '0');
+
+        return sb.toString();
+    }
+
+    /**
+     * Formats the second of a time, in nfdump date format.
+     *
+     * @param millis long Time in milliseconds since epoch.
+     * @return String The formatted date.
+     */
+    private String formatDate(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastDate = dateFormat.format(new Date(second * 1000L));
+        }
+        return lastDate;
+    }
+
+    /**
+     * Appends a number of thousandths as a decimal with 3 digits, i.e.
+     * milliseconds as seconds or microseconds as milliseconds, like "%.3f".
+     *
+     * @param thousandths long The number of thousandths.
+     * @param width       int Minimum width, padded with spaces, like "%9.3f".
+     */
+    private void appendMillis(long thousandths, int width) {
+        int start = sb.length();
+        if (thousandths < 0) {
+            sb.append('-');
+            thousandths = -thousandths;
+        }
+        sb.append(thousandths / 1000).append('.');
+        appendPadded(thousandths % 1000, 3, '0');
+
+        while (sb.length() - start < width) {
+            sb.insert(start, ' ');
+        }
+    }
+
+    /**
+     * Appends a number padded to a minimum number of digits.
+     *
+     * @param value  long The number.
+     * @param digits int Minimum number of digits.
+     * @param pad    char Padding character.
+     */
+    private void appendPadded(long value, int digits, char pad) {
+        String s = Long.toString(value);
+        for (int i = s.length(); i < digits; i++) {
+            sb.append(pad);
+        }
+        sb.append(s);
+    }
+
+    /**
+     * Appends TCP flags like nfdump, i.e. "UAPRSF" with '.' for flags not set,
+     * or as a hex number if unusual flags are set.
+     *
+     * @param flags int TCP flags.
+     */
+    private void appendTcpFlags(int flags) {
+        if (flags > 63) {
+            sb.append("  0x").append(Integer.toHexString(flags & 0xFF));
+            return;
+        }
+        sb.append((flags & 32) != 0 ? 'U' : '.');
+        sb.append((flags & 16) != 0 ? 'A' : '.');
+        sb.append((flags & 8) != 0 ? 'P' : '.');
+        sb.append((flags & 4) != 0 ? 'R' : '.');
+        sb.append((flags & 2) != 0 ? 'S' : '.');
+        sb.append((flags & 1) != 0 ? 'F' : '.');
+    }
+
+    /**
+     * Appends a MAC address, stored as a 48 bit number, as xx:xx:xx:xx:xx:xx.
+     *
+     * @param mac long The MAC address.
+     */
+    private void appendMac(long mac) {
+        for (int i = 5; i >= 0; i--) {
+            int b = (int) (mac >>> (i * 8)) & 0xFF;
+            sb.append(Character.forDigit(b >>> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+            if (i > 0) {
+                sb.append(':');
+            }
+        }
+    }
+
+    /**
+     * Appends an IPv4 or IPv6 address, like inet_ntop formats it.
+     *
+     * @param addr byte[] The address in network byte order.
+     */
+    private void appendAddress(byte[] addr) {
+        if (addr.length == 4) {
+            appendIpv4(addr, 0);
+        } else {
+            appendIpv6(addr);
+        }
+    }
+
+    /**
+     * Appends an IPv4 address in dotted decimal format.
+     *
+     * @param addr   byte[] Array with the address.
+     * @param offset int Index of the address in array.
+     */
+    private void appendIpv4(byte[] addr, int offset) {
+        sb.append(addr[offset] & 0xFF).append('.')
+                .append(addr[offset + 1] & 0xFF).append('.')
+                .append(addr[offset + 2] & 0xFF).append('.')
+                .append(addr[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Appends an IPv6 address. The longest run of at least two zero groups is
+     * replaced with "::", and IPv4 mapped or compatible addresses end with the
+     * IPv4 address, like inet_ntop does.
+     *
+     * @param addr byte[] The address in network byte order.
+     */
+    private void appendIpv6(byte[] addr) {
+        int[] words = new int[8];
+        for (int i = 0; i < 8; i++) {
+            words[i] = ((addr[2 * i] & 0xFF) << 8) | (addr[2 * i + 1] & 0xFF);
+        }
+
+        // Find longest run of zero words.
+        int bestBase = -1;
+        int bestLen = 0;
+        int curBase = -1;
+        int curLen = 0;
+        for (int i = 0; i < 8; i++) {
+            if (words[i] == 0) {
+                if (curBase == -1) {
+                    curBase = i;
+                    curLen = 1;
+                } else {
+                    curLen++;
+                }
+                if (curLen > bestLen) {
+                    bestBase = curBase;
+                    bestLen = curLen;
+                }
+            } else {
+                curBase = -1;
+            }
+        }
+        if (bestLen < 2) {
+            bestBase = -1;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            if (bestBase != -1 && i >= bestBase && i < bestBase + bestLen) {
+                if (i == bestBase) {
+                    sb.append(':');
+                }
+                continue;
+            }
+            if (i != 0) {
+                sb.append(':');
+            }
+            // Encapsulated IPv4 address.
+            if (i == 6 && bestBase == 0 && (bestLen == 6 || (bestLen == 5 && words[5] == 0xFFFF))) {
+                appendIpv4(addr, 12);
+                return;
+            }
+            sb.append(Integer.toHexString(words[i]));
+        }
+        if (bestBase != -1 && bestBase + bestLen == 8) {
+            sb.append(':');
+        }
+    }
+
+    /**
+     * Returns the name of a protocol, like nfdump prints it.
+     *
+     * @param proto int Protocol number.
+     * @return String Protocol name.
+     */
+    static String protocolName(int proto) {
+        String name = PROTOCOL_NAMES.get(proto);
+        if (name != null) {
+            return name;
+        }
+        // Like "%-5i"
+        StringBuilder number = new StringBuilder(Integer.toString(proto));
+        while (number.length() < 5) {
+            number.append(' ');
+        }
+        return number.toString();
+    }
+}
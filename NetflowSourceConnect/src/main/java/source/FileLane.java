@@ -0,0 +1,120 @@
+package source;
+
+import utils.RecordRateLimiter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * FileLane keeps the netflow files of one lane of the catch-up scheduler:
+ * "live" for recent files and "backfill" for files left behind by an outage.
+ * Each lane has its own queue of files waiting to be opened, its own open
+ * files, up to its parallelism, and optionally its own limit of records sent
+ * to Kafka per second. It is used only by the task's thread.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class FileLane {
+    /**
+     * Name of the lane, for logging.
+     */
+    private String name;
+
+    /**
+     * Files waiting to be opened, in the order they were detected.
+     */
+    private Deque<String> pendingFiles = new ArrayDeque<String>();
+
+    /**
+     * Files opened for processing, in the order they were opened. The first
+     * one is the file under processing, and the others are parsed ahead.
+     */
+    private Deque<OpenNetflowFile> openFiles = new ArrayDeque<OpenNetflowFile>();
+
+    /**
+     * Maximum number of open files.
+     */
+    private int parallelism;
+
+    /**
+     * Limit of records sent per second. Null if records are not limited.
+     */
+    private RecordRateLimiter rateLimiter = null;
+
+    /**
+     * Constructor
+     *
+     * @param name             String Name of the lane.
+     * @param parallelism      int Maximum number of open files.
+     * @param recordsPerSecond long Maximum number of records sent per second, 0 for no limit.
+     */
+    public FileLane(String name, int parallelism, long recordsPerSecond) {
+        this.name = name;
+        this.parallelism = parallelism;
+        if (recordsPerSecond > 0) {
+            this.rateLimiter = new RecordRateLimiter(recordsPerSecond);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Deque<String> getPendingFiles() {
+        return pendingFiles;
+    }
+
+    public Deque<OpenNetflowFile> getOpenFiles() {
+        return openFiles;
+    }
+
+    /**
+     * Checks if another file may be opened in this lane.
+     *
+     * @return boolean True if there are pending files and less open files than parallelism.
+     */
+    public boolean canOpenFile() {
+        return !pendingFiles.isEmpty() && openFiles.size() < parallelism;
+    }
+
+    /**
+     * Checks if the lane has files, that are open or waiting to be opened.
+     *
+     * @return boolean True if there are no files in the lane.
+     */
+    public boolean isIdle() {
+        return pendingFiles.isEmpty() && openFiles.isEmpty();
+    }
+
+    /**
+     * Returns how many records this lane may send now.
+     *
+     * @param max long Maximum number of records, that fit in the batch.
+     * @return long Number of records, between 0 and max.
+     */
+    public long availableRecords(long max) {
+        return rateLimiter == null ? max : rateLimiter.available(max);
+    }
+
+    /**
+     * Registers records of this lane, that will be sent to Kafka.
+     *
+     * @param count long Number of records.
+     */
+    public void recordsSent(long count) {
+        if (rateLimiter != null) {
+            rateLimiter.consume(count);
+        }
+    }
+
+    /**
+     * Returns the time until this lane may send records again.
+     *
+     * @return long Time (milliseconds), 0 if the lane is not throttled.
+     */
+    public long millisUntilAvailable() {
+        return rateLimiter == null ? 0 : rateLimiter.millisUntilAvailable();
+    }
+}
@@ -0,0 +1,196 @@
+package source;
+
+import netflow.NetflowCsvReader;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * FileLifecycleManager applies a policy to netflow files, whose records have all
+ * been acknowledged by Kafka, so that the observed directory does not grow
+ * forever: "keep" leaves them in place, "delete" deletes them, "archive" moves
+ * them to an archive directory and "compress" writes them gzip compressed
+ * (.gz) to the archive directory and deletes them. Files are handled in a
+ * background thread, in the order they are processed, so that acknowledgements
+ * are not delayed by file operations.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class FileLifecycleManager implements Closeable {
+    /**
+     * Logger Instance.
+     */
+    private Logger logger = Logger.getLogger(FileLifecycleManager.class);
+
+    public static final String POLICY_KEEP = "keep";
+    public static final String POLICY_DELETE = "delete";
+    public static final String POLICY_ARCHIVE = "archive";
+    public static final String POLICY_COMPRESS = "compress";
+
+    /**
+     * Suffix of the archive directory, when none is set. It is created next
+     * to the observed directory, so that archived files are not detected again.
+     */
+    private static final String DEFAULT_ARCHIVE_SUFFIX = "-archive";
+
+    /**
+     * Time (seconds) that close waits for pending files.
+     */
+    private static final long CLOSE_TIMEOUT_S = 10;
+
+    /**
+     * Policy for processed files.
+     */
+    private String policy;
+
+    /**
+     * Directory, where netflow files are observed.
+     */
+    private Path observeDir;
+
+    /**
+     * Directory, where processed files are archived. Null if not needed by policy.
+     */
+    private Path archiveDir = null;
+
+    /**
+     * Thread, where files are handled. Null in "keep" policy.
+     */
+    private ExecutorService executor = null;
+
+    /**
+     * Constructor. Creates the archive directory, if needed by policy.
+     *
+     * @param policy     String Policy for processed files: keep, delete, archive or compress.
+     * @param observeDir String Directory, where netflow files are observed.
+     * @param archiveDir String Directory, where processed files are archived. If empty,
+     *                   the observed directory's name with "-archive" suffix, next to it.
+     * @throws IOException If the archive directory cannot be created.
+     * @throws IllegalArgumentException If the archive directory is the observed directory, or
+     *                                  inside it, where archived files would be detected again.
+     */
+    public FileLifecycleManager(String policy, String observeDir, String archiveDir) throws IOException {
+        this.policy = policy;
+        this.observeDir = Paths.get(observeDir).toAbsolutePath().normalize();
+
+        if (POLICY_KEEP.equals(policy)) {
+            return;
+        }
+
+        if (POLICY_ARCHIVE.equals(policy) || POLICY_COMPRESS.equals(policy)) {
+            this.archiveDir = archiveDir == null || archiveDir.isEmpty()
+                    ? this.observeDir.resolveSibling(this.observeDir.getFileName() + DEFAULT_ARCHIVE_SUFFIX)
+                    : Paths.get(archiveDir).toAbsolutePath().normalize();
+            if (this.archiveDir.startsWith(this.observeDir)) {
+                throw new IllegalArgumentException("Archive directory " + this.archiveDir
+                        + " must not be the observed directory " + this.observeDir + ", or inside it.");
+            }
+            Files.createDirectories(this.archiveDir);
+            logger.info("Processed netflow files will be moved to " + this.archiveDir + " (" + policy + " policy).");
+        } else {
+            logger.info("Processed netflow files will be deleted.");
+        }
+
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "netflow-file-lifecycle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Applies the policy to a file, whose records have all been acknowledged by Kafka.
+     * Returns immediately. The file is handled in background.
+     *
+     * @param filename String Name of the processed file, relative to the observed directory.
+     */
+    public void fileProcessed(String filename) {
+        if (executor != null) {
+            executor.execute(() -> apply(filename));
+        }
+    }
+
+    /**
+     * Deletes, archives or compresses a processed file. Errors are logged, and the
+     * file is left in the observed directory.
+     *
+     * @param filename String Name of the processed file.
+     */
+    private void apply(String filename) {
+        Path file = observeDir.resolve(filename);
+        try {
+            if (POLICY_DELETE.equals(policy)) {
+                Files.deleteIfExists(file);
+            } else {
+                // Files in date subdirectories are archived in the same subdirectories.
+                Path target = archiveDir.resolve(filename);
+                Files.createDirectories(target.getParent());
+                if (POLICY_ARCHIVE.equals(policy) || NetflowCsvReader.isCompressed(filename)) {
+                    // Compressed files are archived as they are.
+                    Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    compress(file, target.resolveSibling(target.getFileName() + ".gz"));
+                    Files.delete(file);
+                }
+            }
+            logger.debug("Processed file " + filename + " handled (" + policy + " policy).");
+        } catch (IOException e) {
+            logger.error("IOException. Cannot " + policy + " processed file " + filename + ". Keeping it.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a gzip compressed copy of a file. The copy is written to a temporary
+     * file first, so that a partial copy never has the final name.
+     *
+     * @param source Path File to be compressed.
+     * @param target Path Compressed file.
+     * @throws IOException If any error occurs reading or writing.
+     */
+    private static void compress(Path source, Path target) throws IOException {
+        Path tmpTarget = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmpTarget), 64 * 1024)) {
+            Files.copy(source, out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpTarget);
+            throw e;
+        }
+        Files.move(tmpTarget, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Stops the background thread, waiting for a while for pending files. Files
+     * not handled in time are left in the observed directory.
+     */
+    @Override
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_S, TimeUnit.SECONDS)) {
+                logger.warn("Processed files not handled in time. They are left in " + observeDir + ".");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package source;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FileProgressTracker keeps, for each netflow file under processing, how many
+ * of its records have been sent to Kafka and not acknowledged yet, and if all
+ * its records have been read. A file is completed, when all its records have
+ * been read and acknowledged by Kafka, no matter if older files, e.g. of the
+ * backfill lane, are still being processed, as the state of the file watcher
+ * keeps each completed file. Records are sent from the task's thread and
+ * acknowledged from the producer's thread, so all methods are synchronized.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class FileProgressTracker {
+    /**
+     * Number of records sent and not acknowledged yet, for each file.
+     */
+    private Map<String, Long> outstandingRecords = new HashMap<String, Long>();
+
+    /**
+     * Files that have been completely read, but have records not acknowledged yet.
+     */
+    private Set<String> finishedFiles = new HashSet<String>();
+
+    /**
+     * Registers records of a file, that will be sent to Kafka.
+     *
+     * @param filename String Name of the file.
+     * @param count    long Number of records.
+     */
+    public synchronized void recordsSent(String filename, long count) {
+        if (count > 0) {
+            Long outstanding = outstandingRecords.get(filename);
+            outstandingRecords.put(filename, (outstanding == null ? 0 : outstanding) + count);
+        }
+    }
+
+    /**
+     * Marks a file as completely read.
+     *
+     * @param filename String Name of the file.
+     * @return boolean True if the file has been completed by this call, i.e. all
+     * its records have already been acknowledged.
+     */
+    public synchronized boolean fileFinished(String filename) {
+        if (outstandingRecords.containsKey(filename)) {
+            finishedFiles.add(filename);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers that a record of a file has been acknowledged by Kafka.
+     *
+     * @param filename String Name of the file.
+     * @return boolean True if the file has been completed by this call, i.e. it
+     * has been completely read and this was its last record not acknowledged.
+     */
+    public synchronized boolean recordAcknowledged(String filename) {
+        Long outstanding = outstandingRecords.get(filename);
+        if (outstanding == null) {
+            return false;
+        }
+
+        if (outstanding > 1) {
+            outstandingRecords.put(filename, outstanding - 1);
+            return false;
+        }
+
+        outstandingRecords.remove(filename);
+        return finishedFiles.remove(filename);
+    }
+}
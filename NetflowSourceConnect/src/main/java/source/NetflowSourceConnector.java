@@ -1,9 +1,13 @@
 package source;
 
 import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.*;
 
+import netflow.FlowFilter;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.source.SourceConnector;
@@ -28,6 +32,13 @@ public class NetflowSourceConnector extends SourceConnector {
      */
     public static final String COLLECTOR_ID = "collector.id";
 
+    /**
+     * How netflow records are collected. "files" reads netflow files, that appear
+     * in filewatcher.dir.observe. "udp" receives NetFlow v5, NetFlow v9 and IPFIX
+     * packets directly from exporters. Default: files.
+     */
+    public static final String SOURCE_MODE = "source.mode";
+
     // Config params
     /**
      * Prefix for file, that will store the last seen netflow file.
@@ -44,17 +55,187 @@ public class NetflowSourceConnector extends SourceConnector {
      * Default: 5 seconds.
      */
     public static final String FILEWATCHER_INTERVAL_S = "filewatcher.interval.s";
+    /**
+     * How FileWatcher service detects new files. "poll" scans the directory every
+     * filewatcher.interval.s seconds. "watch" reacts to file system events (inotify).
+     * Default: poll.
+     */
+    public static final String FILEWATCHER_MODE = "filewatcher.mode";
+    /**
+     * Time (milliseconds) without any file system event for a file, before FileWatcher
+     * service considers it completely written. Used only in "watch" mode.
+     * Default: 1000 milliseconds.
+     */
+    public static final String FILEWATCHER_SETTLE_MS = "filewatcher.settle.ms";
+    /**
+     * Maximum number of detected files waiting for processing. When it is reached,
+     * FileWatcher service waits until files are processed. Default: 10000.
+     */
+    public static final String FILEWATCHER_QUEUE_CAPACITY = "filewatcher.queue.capacity";
+
+    /**
+     * Policy for netflow files, whose records have all been stored in Kafka: "keep"
+     * them, "delete" them, "archive" them (move to archive directory) or "compress"
+     * them (gzip to archive directory). Default: keep.
+     */
+    public static final String PROCESSED_FILE_POLICY = "processed.file.policy";
+
+    /**
+     * Archive directory for processed files in "archive" and "compress" policies.
+     * Default: empty, i.e. the observed directory with "-archive" suffix.
+     */
+    public static final String PROCESSED_FILE_ARCHIVE_DIR = "processed.file.archive.dir";
+
+    /**
+     * Time interval (seconds) between checkpoints of FileWatcher state, i.e. of
+     * the files in-flight and completed. Default: 10 seconds.
+     */
+    public static final String FILEWATCHER_CHECKPOINT_INTERVAL_S = "filewatcher.checkpoint.interval.s";
+    /**
+     * Layout of the observed directory. "flat" for files directly in it. "date" for
+     * files also in YYYY/MM/DD subdirectories, like nfcapd -S 1 writes them. Only
+     * the recent day directories are scanned. Default: flat.
+     */
+    public static final String FILEWATCHER_LAYOUT = "filewatcher.layout";
     /**
      * Kafka topic, where collected netflows will be sent. Can support multiple
      * topics, comma separated. Default: source-connector.
      */
     public static final String KAFKA_SOURCE_TOPIC = "kafka.topic.source";
+    /**
+     * Time (seconds) after a file's creation, during which it is processed in
+     * the live lane. Older files are processed in the backfill lane.
+     */
+    public static final String CATCHUP_LIVE_WINDOW_S = "catchup.live.window.s";
+    /**
+     * Key of merged netflow records: none, 5tuple or pair.
+     */
+    public static final String AGGREGATION_KEY = "aggregation.key";
+    /**
+     * Length (seconds) of tumbling windows of flow start time, in which records are merged.
+     */
+    public static final String AGGREGATION_WINDOW_S = "aggregation.window.s";
+    /**
+     * Maximum number of merged records kept in memory for a file, before they are sent.
+     */
+    public static final String AGGREGATION_MAX_KEYS = "aggregation.max.keys";
+    /**
+     * Flow filter expression, e.g. "proto == UDP && dport == 53". Empty for no filter.
+     */
+    public static final String FILTER_EXPRESSION = "filter.expression";
+    /**
+     * Action for records, that match the flow filter: drop or route.
+     */
+    public static final String FILTER_ACTION = "filter.action";
+    /**
+     * Kafka topic, where records matching the flow filter are routed.
+     */
+    public static final String FILTER_TOPIC = "filter.topic";
+    /**
+     * Number of files of the live lane, that are open at the same time.
+     */
+    public static final String CATCHUP_LIVE_PARALLELISM = "catchup.live.parallelism";
+    /**
+     * Maximum number of records of the live lane, sent per second.
+     */
+    public static final String CATCHUP_LIVE_MAX_RECORDS_PER_S = "catchup.live.max.records.per.s";
+    /**
+     * Number of files of the backfill lane, that are open at the same time.
+     */
+    public static final String CATCHUP_BACKFILL_PARALLELISM = "catchup.backfill.parallelism";
+    /**
+     * Maximum number of records of the backfill lane, sent per second.
+     */
+    public static final String CATCHUP_BACKFILL_MAX_RECORDS_PER_S = "catchup.backfill.max.records.per.s";
+    /**
+     * Format of the values of records sent to Kafka. "csv" sends each netflow record
+     * as a csv string, padded for SDA compatibility. "struct" sends a typed Struct
+     * with the netflow schema, for converters like Avro or Protobuf. Default: csv.
+     */
+    public static final String RECORD_FORMAT = "record.format";
+    /**
+     * Time zone of the dates of netflow records, i.e. of the csv files nfdump
+     * exports, and of the dates formatted from nfcapd files and UDP packets.
+     * Struct records are parsed in it, so the Elastic netflows sink must use
+     * the same time zone. Default: UTC.
+     */
+    public static final String TIME_ZONE = "netflow.time.zone";
+    /**
+     * Maximum number of records returned to Kafka in each poll. Big netflow files
+     * are processed in several polls. Default: 2000.
+     */
+    public static final String MAX_BATCH_RECORDS = "max.batch.records";
+    /**
+     * Time (milliseconds) that each poll waits for new files, when there is nothing to
+     * send to Kafka. Default: 1000.
+     */
+    public static final String POLL_TIMEOUT_MS = "poll.timeout.ms";
+
+    /**
+     * Number of threads, that parse netflow files. With 1 thread files are read
+     * sequentially. With more threads, big files are split in chunks parsed in
+     * parallel, and next files are parsed ahead. Default: 1.
+     */
+    public static final String PARSER_THREADS = "parser.threads";
+    /**
+     * Size (bytes) of the chunks, that netflow files are split in, when parsed in
+     * parallel. Default: 1048576 (1MB).
+     */
+    public static final String PARSER_CHUNK_BYTES = "parser.chunk.bytes";
+    /**
+     * If true, netflow files are read through memory mappings of the files, which
+     * avoids copying and decoding skipped lines. Default: false.
+     */
+    public static final String PARSER_MMAP = "parser.mmap";
+    /**
+     * Format of netflow files. "csv" reads .csv files converted from nfcapd files
+     * with "nfdump -B -o csv -q". "nfcapd" reads binary nfcapd files directly,
+     * without converting them. Default: csv.
+     */
+    public static final String NETFLOW_FILE_FORMAT = "netflow.file.format";
+    /**
+     * If true, flows of both directions of a connection in binary nfcapd files are
+     * aggregated and their direction is guessed, like "nfdump -B". Used only in
+     * "nfcapd" format. Default: true.
+     */
+    public static final String NFCAPD_BIDIRECTIONAL = "nfcapd.bidirectional";
+
+    /**
+     * Address, where netflow packets are received in "udp" mode. Default: 0.0.0.0.
+     */
+    public static final String UDP_BIND_ADDRESS = "udp.bind.address";
+    /**
+     * UDP port, where netflow packets are received in "udp" mode. Default: 2055.
+     */
+    public static final String UDP_PORT = "udp.port";
+    /**
+     * Size (bytes) of the socket receive buffer in "udp" mode. Bigger buffers lose
+     * fewer packets in bursts. Default: 4194304 (4MB).
+     */
+    public static final String UDP_RECEIVE_BUFFER_BYTES = "udp.receive.buffer.bytes";
 
     /**
      * A variable that says if the code runs in benchmark mode.
      */
     public static final String BENCHMARK_MODE = "benchmark_mode";
 
+    /**
+     * Time interval (seconds), that latency percentiles are written to
+     * benchmarking.log in benchmark mode. Default: 10.
+     */
+    public static final String BENCHMARK_FLUSH_INTERVAL_S = "benchmark.flush.interval.s";
+
+    /**
+     * Index of the shard of netflow files, that a task is responsible for.
+     * Set by the connector for each task. Not configurable.
+     */
+    public static final String TASK_SHARD_INDEX = "task.shard.index";
+    /**
+     * Number of shards, that netflow files are shared among. Equal to the
+     * number of tasks. Set by the connector for each task. Not configurable.
+     */
+    public static final String TASK_SHARD_COUNT = "task.shard.count";
+
     /**
      * Tenant Id, for supporting multiple tenants. This must be unique among tenants.
      * If not provided, -1 will be used by default
@@ -83,6 +264,31 @@ public class NetflowSourceConnector extends SourceConnector {
      */
     private static final String KAFKA_PARAM_GROUP = "Kafka Properties";
 
+    /**
+     * Parser params group.
+     */
+    private static final String PARSER_PARAM_GROUP = "Parser Properties";
+
+    /**
+     * Catch-up scheduler params group.
+     */
+    private static final String CATCHUP_PARAM_GROUP = "Catch-up Properties";
+
+    /**
+     * Aggregation params group.
+     */
+    private static final String AGGREGATION_PARAM_GROUP = "Aggregation Properties";
+
+    /**
+     * Flow filter params group.
+     */
+    private static final String FILTER_PARAM_GROUP = "Filter Properties";
+
+    /**
+     * UDP collector params group.
+     */
+    private static final String UDP_PARAM_GROUP = "UDP Collector Properties";
+
     /**
      * Other params.
      */
@@ -101,6 +307,9 @@ public class NetflowSourceConnector extends SourceConnector {
             .define(COLLECTOR_ID, ConfigDef.Type.INT, new Random().nextInt(400) + 100,
                     ConfigDef.Importance.HIGH, "Collector Id", COLLECTOR_PARAM_GROUP, 0,
                     ConfigDef.Width.SHORT, "Collector Id (required)")
+            .define(SOURCE_MODE, ConfigDef.Type.STRING, "files", ConfigDef.ValidString.in("files", "udp"),
+                    ConfigDef.Importance.MEDIUM, "How netflow records are collected: files or udp (Default: files)",
+                    COLLECTOR_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Source mode (optional).")
             .define(DATA_DIR_FILE_PREFIX, ConfigDef.Type.STRING, "netflow-cache-", ConfigDef.Importance.HIGH,
                     "Prefix for files, storing last seen netflow file", DATA_PARAM_GROUP, 0,
                     ConfigDef.Width.SHORT, "Prefix for files, storing last seen netflow file (required)")
@@ -110,12 +319,107 @@ public class NetflowSourceConnector extends SourceConnector {
             .define(FILEWATCHER_INTERVAL_S, ConfigDef.Type.INT, 60, ConfigDef.Importance.HIGH,
                     "Time interval (seconds) to look for new files", FILEWATCHER_PARAM_GROUP, 1,
                     ConfigDef.Width.SHORT, "Time interval (seconds) to look for new files (required).")
+            .define(FILEWATCHER_MODE, ConfigDef.Type.STRING, "poll", ConfigDef.ValidString.in("poll", "watch"),
+                    ConfigDef.Importance.MEDIUM, "How new files are detected: poll or watch (Default: poll)",
+                    FILEWATCHER_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "FileWatcher mode (optional).")
+            .define(FILEWATCHER_SETTLE_MS, ConfigDef.Type.INT, 1000, ConfigDef.Importance.LOW,
+                    "Time (milliseconds) without events before a file is considered complete (Default: 1000)",
+                    FILEWATCHER_PARAM_GROUP, 3, ConfigDef.Width.SHORT, "FileWatcher settle time (optional).")
+            .define(FILEWATCHER_QUEUE_CAPACITY, ConfigDef.Type.INT, 10000, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Maximum number of detected files waiting for processing (Default: 10000)",
+                    FILEWATCHER_PARAM_GROUP, 4, ConfigDef.Width.SHORT, "FileWatcher queue capacity (optional).")
+            .define(PROCESSED_FILE_POLICY, ConfigDef.Type.STRING, "keep",
+                    ConfigDef.ValidString.in("keep", "delete", "archive", "compress"), ConfigDef.Importance.MEDIUM,
+                    "Policy for files stored in Kafka: keep, delete, archive or compress (Default: keep)",
+                    FILEWATCHER_PARAM_GROUP, 5, ConfigDef.Width.SHORT, "Processed file policy (optional).")
+            .define(PROCESSED_FILE_ARCHIVE_DIR, ConfigDef.Type.STRING, "", ConfigDef.Importance.LOW,
+                    "Archive directory for processed files (Default: observed directory with -archive suffix)",
+                    FILEWATCHER_PARAM_GROUP, 6, ConfigDef.Width.LONG, "Processed file archive directory (optional).")
+            .define(FILEWATCHER_CHECKPOINT_INTERVAL_S, ConfigDef.Type.INT, 10, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Time interval (seconds) between checkpoints of FileWatcher state (Default: 10)",
+                    FILEWATCHER_PARAM_GROUP, 7, ConfigDef.Width.SHORT, "FileWatcher checkpoint interval (optional).")
+            .define(FILEWATCHER_LAYOUT, ConfigDef.Type.STRING, "flat", ConfigDef.ValidString.in("flat", "date"),
+                    ConfigDef.Importance.LOW, "Layout of the observed directory: flat or date (Default: flat)",
+                    FILEWATCHER_PARAM_GROUP, 8, ConfigDef.Width.SHORT, "FileWatcher directory layout (optional).")
             .define(KAFKA_SOURCE_TOPIC, ConfigDef.Type.STRING, "source-connector", ConfigDef.Importance.HIGH,
                     "Kafka topics for streaming results (comma separated)", KAFKA_PARAM_GROUP,
                     0, ConfigDef.Width.SHORT, "Kafka topic for streaming results (required).")
+            .define(MAX_BATCH_RECORDS, ConfigDef.Type.INT, 2000, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.MEDIUM, "Maximum number of records returned in each poll (Default: 2000)",
+                    KAFKA_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Maximum records per poll (optional).")
+            .define(POLL_TIMEOUT_MS, ConfigDef.Type.INT, 1000, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Time (milliseconds) poll waits for new files (Default: 1000)",
+                    KAFKA_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "Poll timeout (optional).")
+            .define(RECORD_FORMAT, ConfigDef.Type.STRING, "csv", ConfigDef.ValidString.in("csv", "struct"),
+                    ConfigDef.Importance.MEDIUM, "Format of record values: csv or struct (Default: csv)",
+                    KAFKA_PARAM_GROUP, 3, ConfigDef.Width.SHORT, "Record format (optional).")
+            .define(TIME_ZONE, ConfigDef.Type.STRING, "UTC", NetflowSourceConnector::validateTimeZone,
+                    ConfigDef.Importance.MEDIUM, "Time zone of the dates of netflow records (Default: UTC)",
+                    KAFKA_PARAM_GROUP, 4, ConfigDef.Width.SHORT, "Netflow time zone (optional).")
+            .define(PARSER_THREADS, ConfigDef.Type.INT, 1, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.MEDIUM, "Number of threads parsing netflow files (Default: 1)",
+                    PARSER_PARAM_GROUP, 0, ConfigDef.Width.SHORT, "Parser threads (optional).")
+            .define(PARSER_CHUNK_BYTES, ConfigDef.Type.INT, 1048576, ConfigDef.Range.atLeast(4096),
+                    ConfigDef.Importance.LOW, "Size (bytes) of chunks parsed in parallel (Default: 1048576)",
+                    PARSER_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Parser chunk size (optional).")
+            .define(PARSER_MMAP, ConfigDef.Type.BOOLEAN, false, ConfigDef.Importance.LOW,
+                    "Read netflow files through memory mappings (Default: false)",
+                    PARSER_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "Memory mapped parser (optional).")
+            .define(NETFLOW_FILE_FORMAT, ConfigDef.Type.STRING, "csv", ConfigDef.ValidString.in("csv", "nfcapd"),
+                    ConfigDef.Importance.MEDIUM, "Format of netflow files: csv or nfcapd (Default: csv)",
+                    PARSER_PARAM_GROUP, 3, ConfigDef.Width.SHORT, "Netflow file format (optional).")
+            .define(NFCAPD_BIDIRECTIONAL, ConfigDef.Type.BOOLEAN, true, ConfigDef.Importance.LOW,
+                    "Aggregate both directions of flows in nfcapd files, like nfdump -B (Default: true)",
+                    PARSER_PARAM_GROUP, 4, ConfigDef.Width.SHORT, "Bidirectional nfcapd flows (optional).")
+            .define(CATCHUP_LIVE_WINDOW_S, ConfigDef.Type.INT, 900, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.MEDIUM, "Age (seconds) of files processed first, in the live lane. 0 disables it (Default: 900)",
+                    CATCHUP_PARAM_GROUP, 0, ConfigDef.Width.SHORT, "Live window (optional).")
+            .define(CATCHUP_LIVE_PARALLELISM, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Open files of the live lane. 0 for parser.threads (Default: 0)",
+                    CATCHUP_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Live parallelism (optional).")
+            .define(CATCHUP_LIVE_MAX_RECORDS_PER_S, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Records per second of the live lane. 0 for no limit (Default: 0)",
+                    CATCHUP_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "Live rate limit (optional).")
+            .define(CATCHUP_BACKFILL_PARALLELISM, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Open files of the backfill lane. 0 for parser.threads (Default: 0)",
+                    CATCHUP_PARAM_GROUP, 3, ConfigDef.Width.SHORT, "Backfill parallelism (optional).")
+            .define(CATCHUP_BACKFILL_MAX_RECORDS_PER_S, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.MEDIUM, "Records per second of the backfill lane. 0 for no limit (Default: 0)",
+                    CATCHUP_PARAM_GROUP, 4, ConfigDef.Width.SHORT, "Backfill rate limit (optional).")
+            .define(AGGREGATION_KEY, ConfigDef.Type.STRING, "none", ConfigDef.ValidString.in("none", "5tuple", "pair"),
+                    ConfigDef.Importance.MEDIUM, "Key of merged netflow records: none, 5tuple or pair (Default: none)",
+                    AGGREGATION_PARAM_GROUP, 0, ConfigDef.Width.SHORT, "Aggregation key (optional).")
+            .define(AGGREGATION_WINDOW_S, ConfigDef.Type.INT, 60, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Length (seconds) of windows of flow start time, in which records are merged (Default: 60)",
+                    AGGREGATION_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Aggregation window (optional).")
+            .define(AGGREGATION_MAX_KEYS, ConfigDef.Type.INT, 65536, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Maximum merged records kept in memory per file (Default: 65536)",
+                    AGGREGATION_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "Aggregation max keys (optional).")
+            .define(FILTER_EXPRESSION, ConfigDef.Type.STRING, "", NetflowSourceConnector::validateFilter,
+                    ConfigDef.Importance.MEDIUM, "Flow filter expression. Empty for no filter (Default: empty)",
+                    FILTER_PARAM_GROUP, 0, ConfigDef.Width.LONG, "Flow filter (optional).")
+            .define(FILTER_ACTION, ConfigDef.Type.STRING, FlowFilter.ACTION_DROP,
+                    ConfigDef.ValidString.in(FlowFilter.ACTION_DROP, FlowFilter.ACTION_ROUTE), ConfigDef.Importance.MEDIUM,
+                    "Action for records, that match the flow filter: drop or route (Default: drop)",
+                    FILTER_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Flow filter action (optional).")
+            .define(FILTER_TOPIC, ConfigDef.Type.STRING, "", ConfigDef.Importance.MEDIUM,
+                    "Kafka topic of records, that match the flow filter, in route action (Default: empty)",
+                    FILTER_PARAM_GROUP, 2, ConfigDef.Width.MEDIUM, "Flow filter topic (optional).")
+            .define(UDP_BIND_ADDRESS, ConfigDef.Type.STRING, "0.0.0.0", ConfigDef.Importance.MEDIUM,
+                    "Address, where netflow packets are received (Default: 0.0.0.0)",
+                    UDP_PARAM_GROUP, 0, ConfigDef.Width.SHORT, "UDP bind address (optional).")
+            .define(UDP_PORT, ConfigDef.Type.INT, 2055, ConfigDef.Range.between(1, 65535),
+                    ConfigDef.Importance.MEDIUM, "UDP port, where netflow packets are received (Default: 2055)",
+                    UDP_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "UDP port (optional).")
+            .define(UDP_RECEIVE_BUFFER_BYTES, ConfigDef.Type.INT, 4194304, ConfigDef.Range.atLeast(65536),
+                    ConfigDef.Importance.LOW, "Size (bytes) of socket receive buffer (Default: 4194304)",
+                    UDP_PARAM_GROUP, 2, ConfigDef.Width.SHORT, "UDP receive buffer (optional).")
             .define(BENCHMARK_MODE, ConfigDef.Type.STRING, "false", ConfigDef.Importance.HIGH,
                     "Run Kafka Source Connector in benchmark mode (Default: false)", OTHER_PARAM_GROUP, 
                     0, ConfigDef.Width.SHORT, "Run Kafka Source Connector in benchmark mode (optional).")
+            .define(BENCHMARK_FLUSH_INTERVAL_S, ConfigDef.Type.INT, 10, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Interval (seconds) of writing latency percentiles in benchmark mode (Default: 10)",
+                    OTHER_PARAM_GROUP, 1, ConfigDef.Width.SHORT, "Benchmark flush interval (optional).")
             .define(TENANT_ID, ConfigDef.Type.INT, -1,ConfigDef.Importance.HIGH, "Tenant Id", TENANT_PARAM_GROUP, 
                     0, ConfigDef.Width.SHORT, "Tenant Id (required)");
     /**
@@ -151,6 +455,9 @@ public class NetflowSourceConnector extends SourceConnector {
         for (Map.Entry<String, Object> entry : configParsed.entrySet()) {
             this.config.put(entry.getKey(), entry.getValue().toString());
         }
+        if (FlowFilter.ACTION_ROUTE.equals(this.config.get(FILTER_ACTION)) && this.config.get(FILTER_TOPIC).isEmpty()) {
+            throw new ConfigException(FILTER_TOPIC, "", "Required by filter.action=route");
+        }
 
         // Initialize required folders.
         logger.info("Initializing required directories.");
@@ -160,7 +467,45 @@ public class NetflowSourceConnector extends SourceConnector {
     }
 
     /**
-     * Configure tasks for connector.
+     * Validates a flow filter expression, by compiling it.
+     *
+     * @param name  String Name of the configuration key.
+     * @param value Object The expression.
+     * @throws ConfigException If the expression is invalid.
+     */
+    private static void validateFilter(String name, Object value) {
+        if (value == null || value.toString().trim().isEmpty()) {
+            return;
+        }
+        try {
+            FlowFilter.compile(value.toString(), null);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigException(name, value, e.getMessage());
+        }
+    }
+
+    /**
+     * Validates a time zone ID, e.g. UTC or Europe/Athens.
+     *
+     * @param name  String Name of the configuration key.
+     * @param value Object The time zone ID.
+     * @throws ConfigException If the time zone is unknown.
+     */
+    private static void validateTimeZone(String name, Object value) {
+        try {
+            ZoneId.of(String.valueOf(value).trim());
+        } catch (DateTimeException e) {
+            throw new ConfigException(name, value, e.getMessage());
+        }
+    }
+
+    /**
+     * Configure tasks for connector. All tasks observe the same directory, but
+     * each task is responsible for a disjoint shard of the netflow files. Files
+     * are assigned to shards by hashing their names, so each task processes
+     * different files and the assignment does not change across rebalances.
+     * In udp mode, a single task is created, as only one socket can be bound
+     * to the collector's port.
      *
      * @param maxTasks Maximum number of tasks, that will run.
      * @return List(Map[String, String]) A list with all tasks.
@@ -169,8 +514,16 @@ public class NetflowSourceConnector extends SourceConnector {
     public List<Map<String, String>> taskConfigs(int maxTasks) {
         List<Map<String, String>> taskConfigs = new ArrayList<Map<String, String>>();
 
+        if ("udp".equals(this.config.get(SOURCE_MODE)) && maxTasks > 1) {
+            logger.warn("Source mode udp supports a single task. Ignoring tasks.max=" + maxTasks + ".");
+            maxTasks = 1;
+        }
+
         for (int i = 0; i < maxTasks; i++) {
-            taskConfigs.add(new HashMap<String, String>(this.config));
+            Map<String, String> taskConfig = new HashMap<String, String>(this.config);
+            taskConfig.put(TASK_SHARD_INDEX, Integer.toString(i));
+            taskConfig.put(TASK_SHARD_COUNT, Integer.toString(maxTasks));
+            taskConfigs.add(taskConfig);
         }
 
         return taskConfigs;
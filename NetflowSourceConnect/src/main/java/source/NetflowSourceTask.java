@@ -3,21 +3,37 @@ package source;
 import interfaces.FilesListener;
 
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import netflow.ChunkedNetflowReader;
+import netflow.FlowAggregator;
+import netflow.FlowFilter;
+import netflow.MappedNetflowReader;
+import netflow.NetflowCsvReader;
+import netflow.NetflowReader;
+import netflow.NetflowStruct;
+import netflow.NfcapdReader;
 import netflow.NetflowUtils;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.kafka.connect.source.SourceTask;
 import org.apache.log4j.Logger;
 
 import utils.FileWatcher;
+import utils.LatencyRecorder;
+import utils.WatchServiceFileWatcher;
 
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.time.ZoneId;
 
 /**
  * NetflowSourceTask is a Task that receives events with new netflow
@@ -44,9 +60,16 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
     private FileWatcher fileWatcher;
 
     /**
-     * ArrayList(String), where all new netflow filenames are kept.
+     * Bounded queue, where all new netflow filenames are kept. FileWatcher service
+     * adds filenames from its own thread and blocks while the queue is full. Poll
+     * retrieves them from the Kafka Connect thread.
      */
-    private ArrayList<String> netflowFiles = new ArrayList<String>();
+    private BlockingQueue<String> netflowFiles;
+
+    /**
+     * Time (milliseconds) that poll waits for a new file, when there is nothing to process.
+     */
+    private long POLL_TIMEOUT_MS = 1000;
 
     /**
      * String Kafka topic, where collected records will be sent.
@@ -58,6 +81,130 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
      */
     private String BENCHMARK_MODE = "false";
 
+    /**
+     * Maximum number of SourceRecords returned in each poll.
+     */
+    private int MAX_BATCH_RECORDS = 2000;
+
+    /**
+     * Number of parser threads. With 1 thread, files are read sequentially by the
+     * task's thread. With more threads, files are split in chunks, which are parsed
+     * in parallel, and the next files in queue are opened and parsed ahead.
+     */
+    private int PARSER_THREADS = 1;
+
+    /**
+     * Size (bytes) of each chunk, that files are split in, for parallel parsing.
+     */
+    private long PARSER_CHUNK_BYTES = 1048576;
+
+    /**
+     * If true, netflow files are read through memory mappings, instead of read buffers.
+     */
+    private boolean PARSER_MMAP = false;
+
+    /**
+     * Format of netflow files: "csv" for .csv files converted by nfdump, or
+     * "nfcapd" for binary nfcapd files, decoded without nfdump.
+     */
+    private String NETFLOW_FILE_FORMAT = "csv";
+
+    /**
+     * If true, flows of both directions of binary nfcapd files are aggregated, like "nfdump -B".
+     */
+    private boolean NFCAPD_BIDIRECTIONAL = true;
+
+    /**
+     * Time zone of the dates of netflow records.
+     */
+    private TimeZone TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Pool of parser threads. Null if files are read sequentially.
+     */
+    private ExecutorService parserPool = null;
+
+    /**
+     * Maximum number of detected files kept in lanes, waiting to be opened.
+     */
+    private int FILE_QUEUE_CAPACITY = 10000;
+
+    /**
+     * Time (milliseconds) after a file's creation, during which it is processed
+     * in the live lane. Older files are processed in the backfill lane. If 0,
+     * all files are processed in the backfill lane, in the order they were detected.
+     */
+    private long CATCHUP_LIVE_WINDOW_MS = 900000;
+
+    /**
+     * Lane of recent netflow files, which are processed first.
+     */
+    private FileLane liveLane;
+
+    /**
+     * Lane of netflow files left behind, e.g. by an outage, which are processed
+     * with the part of each batch, that the live lane leaves.
+     */
+    private FileLane backfillLane;
+
+    /**
+     * Key of merged netflow records: "5tuple", "pair", or "none" if records are sent one by one.
+     */
+    private String AGGREGATION_KEY = "none";
+
+    /**
+     * Length (milliseconds) of tumbling windows of flow start time, in which records are merged.
+     */
+    private long AGGREGATION_WINDOW_MS = 60000;
+
+    /**
+     * Maximum number of merged records kept in memory for a file, before they are sent.
+     */
+    private int AGGREGATION_MAX_KEYS = 65536;
+
+    /**
+     * Compiled flow filter. Matching records are dropped or routed to its topic.
+     * Null if all records are sent.
+     */
+    private FlowFilter filter = null;
+
+    /**
+     * Converter of records to typed Structs. Null if records are sent as csv strings.
+     */
+    private NetflowStruct structs = null;
+
+    /**
+     * Policy for files, whose records have all been stored in Kafka.
+     */
+    private FileLifecycleManager lifecycleManager = null;
+
+    /**
+     * Recorder of latencies in benchmark mode. Null if benchmark mode is disabled.
+     */
+    private LatencyRecorder latencyRecorder = null;
+    /**
+     * Latencies of parsing a batch of records in poll.
+     */
+    private LatencyRecorder.Stage batchLatency;
+    /**
+     * Latencies of processing a file, from opening it until its last record is parsed.
+     */
+    private LatencyRecorder.Stage fileLatency;
+    /**
+     * Latencies of records, from their creation in Kafka producer until they are acknowledged.
+     */
+    private LatencyRecorder.Stage ackLatency;
+
+    /**
+     * Collector of netflow packets over UDP. Null if netflow files are read.
+     */
+    private UdpFlowCollector udpCollector = null;
+
+    /**
+     * Tracks which records of each file have been acknowledged by Kafka.
+     */
+    private FileProgressTracker progressTracker = new FileProgressTracker();
+
     /**
      * HashMap(String, String) A hashmap contains all props passed in start() function.
      */
@@ -78,34 +225,152 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
         // Filewatcher properties
         String DATA_DIR_OBSERVE = props.get("filewatcher.dir.observe");
         int FILEWATCHER_INTERVAL_S = Integer.parseInt(props.get("filewatcher.interval.s"));
+        String FILEWATCHER_MODE = props.get("filewatcher.mode");
+        // Shard of netflow files, that this task is responsible for
+        int SHARD_INDEX = props.containsKey("task.shard.index") ? Integer.parseInt(props.get("task.shard.index")) : 0;
+        int SHARD_COUNT = props.containsKey("task.shard.count") ? Integer.parseInt(props.get("task.shard.count")) : 1;
 
         BENCHMARK_MODE = props.get("benchmark_mode");
+        MAX_BATCH_RECORDS = Integer.parseInt(props.get("max.batch.records"));
+        POLL_TIMEOUT_MS = Long.parseLong(props.get("poll.timeout.ms"));
+        PARSER_THREADS = Integer.parseInt(props.get("parser.threads"));
+        PARSER_CHUNK_BYTES = Long.parseLong(props.get("parser.chunk.bytes"));
+        PARSER_MMAP = Boolean.parseBoolean(props.get("parser.mmap"));
+        NETFLOW_FILE_FORMAT = props.get("netflow.file.format");
+        NFCAPD_BIDIRECTIONAL = Boolean.parseBoolean(props.get("nfcapd.bidirectional"));
+        TIME_ZONE = TimeZone.getTimeZone(ZoneId.of(props.get("netflow.time.zone").trim()));
+        FILE_QUEUE_CAPACITY = Integer.parseInt(props.get("filewatcher.queue.capacity"));
+        AGGREGATION_KEY = props.get("aggregation.key");
+        AGGREGATION_WINDOW_MS = Long.parseLong(props.get("aggregation.window.s")) * 1000;
+        AGGREGATION_MAX_KEYS = Integer.parseInt(props.get("aggregation.max.keys"));
+        CATCHUP_LIVE_WINDOW_MS = Long.parseLong(props.get("catchup.live.window.s")) * 1000;
+
+        // The expression has been validated by the connector.
+        String filterExpression = props.get("filter.expression");
+        if (filterExpression != null && !filterExpression.trim().isEmpty()) {
+            filter = FlowFilter.compile(filterExpression,
+                    FlowFilter.ACTION_ROUTE.equals(props.get("filter.action")) ? props.get("filter.topic") : null);
+            logger.info("Flow filter: " + filter + " (" + (filter.isRouted()
+                    ? "routed to " + filter.getRouteTopic() : "dropped") + ").");
+        }
+
+        if (PARSER_THREADS > 1) {
+            logger.info("Creating pool of " + PARSER_THREADS + " parser threads.");
+            parserPool = Executors.newFixedThreadPool(PARSER_THREADS);
+        }
+
+        netflowFiles = new LinkedBlockingQueue<String>(FILE_QUEUE_CAPACITY);
+
+        // Parallelism 0 means as many open files as parser threads.
+        int liveParallelism = Integer.parseInt(props.get("catchup.live.parallelism"));
+        int backfillParallelism = Integer.parseInt(props.get("catchup.backfill.parallelism"));
+        liveLane = new FileLane("live",
+                liveParallelism > 0 ? liveParallelism : PARSER_THREADS,
+                Long.parseLong(props.get("catchup.live.max.records.per.s")));
+        backfillLane = new FileLane("backfill",
+                backfillParallelism > 0 ? backfillParallelism : PARSER_THREADS,
+                Long.parseLong(props.get("catchup.backfill.max.records.per.s")));
 
         KAFKA_TOPIC = props.get("kafka.topic.source");
+        if ("struct".equals(props.get("record.format"))) {
+            structs = new NetflowStruct(TIME_ZONE);
+        }
 
         logger.info("BENCHMARK_MODE: " + BENCHMARK_MODE);
+        if ("true".equals(BENCHMARK_MODE)) {
+            latencyRecorder = new LatencyRecorder("source-" + SHARD_INDEX,
+                    Integer.parseInt(props.get("benchmark.flush.interval.s")));
+            batchLatency = latencyRecorder.stage("poll.batch");
+            fileLatency = latencyRecorder.stage("file.process");
+            ackLatency = latencyRecorder.stage("record.ack");
+        }
         logger.info(props.toString());
 
+        // In udp mode, netflow packets are received directly from exporters, and
+        // no files are watched.
+        if ("udp".equals(props.get("source.mode"))) {
+            logger.info("Creating UDP netflow collector.");
+            try {
+                udpCollector = new UdpFlowCollector(
+                        props.get("udp.bind.address"),
+                        Integer.parseInt(props.get("udp.port")),
+                        Integer.parseInt(props.get("udp.receive.buffer.bytes")),
+                        KAFKA_TOPIC,
+                        props.get("tenant.id") + "_" + COLLECTOR_ID + "_udp_",
+                        structs,
+                        filter,
+                        TIME_ZONE
+                );
+            } catch (IOException e) {
+                logger.error("IOException. Cannot bind UDP netflow collector.");
+                logger.error(e.getCause());
+                logger.error(e.getMessage());
+                throw new ConnectException("Cannot bind UDP netflow collector", e);
+            }
+            config.putAll(props);
+            return;
+        }
+
         // Create a new FileWatcher service.
-        logger.info("Creating FileWatcher service.");
-        fileWatcher = new FileWatcher(
-                COLLECTOR_ID,
-                DATA_DIR_FILE_PREFIX,
-                DATA_DIR_OBSERVE
-        );
+        logger.info("Creating FileWatcher service (mode: " + FILEWATCHER_MODE + ", shard " + SHARD_INDEX + "/" + SHARD_COUNT + ").");
+        if ("watch".equals(FILEWATCHER_MODE)) {
+            fileWatcher = new WatchServiceFileWatcher(
+                    COLLECTOR_ID,
+                    DATA_DIR_FILE_PREFIX,
+                    DATA_DIR_OBSERVE,
+                    SHARD_INDEX,
+                    SHARD_COUNT,
+                    Long.parseLong(props.get("filewatcher.settle.ms"))
+            );
+        } else {
+            fileWatcher = new FileWatcher(
+                    COLLECTOR_ID,
+                    DATA_DIR_FILE_PREFIX,
+                    DATA_DIR_OBSERVE,
+                    SHARD_INDEX,
+                    SHARD_COUNT
+            );
+        }
+
+        fileWatcher.setFileFormat(NETFLOW_FILE_FORMAT);
+        fileWatcher.setLayout(props.get("filewatcher.layout"));
+        fileWatcher.setTimeZone(TIME_ZONE);
+        fileWatcher.startCheckpoints(Long.parseLong(props.get("filewatcher.checkpoint.interval.s")) * 1000);
+
+        try {
+            lifecycleManager = new FileLifecycleManager(
+                    props.get("processed.file.policy"),
+                    DATA_DIR_OBSERVE,
+                    props.get("processed.file.archive.dir")
+            );
+        } catch (IOException e) {
+            logger.error("IOException. Cannot create archive directory for processed files.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            throw new ConnectException("Cannot create archive directory for processed files", e);
+        } catch (IllegalArgumentException e) {
+            logger.error("IllegalArgumentException. Invalid archive directory for processed files.");
+            logger.error(e.getMessage());
+            throw new ConnectException("Invalid archive directory for processed files", e);
+        }
 
         // Register DevMain class to FileWatcher events
         logger.info("Registering observer to FileWatcher events.");
         fileWatcher.addListener(this);
 
-        // Schedule this service to run in background.
+        // Schedule this service to run in background. In watch mode, the service
+        // runs once and waits for file system events, until it is interrupted.
         logger.info("Starting FileWatcher service.");
-        exec.scheduleAtFixedRate(
-                fileWatcher,
-                0,
-                FILEWATCHER_INTERVAL_S,
-                TimeUnit.SECONDS
-        );
+        if ("watch".equals(FILEWATCHER_MODE)) {
+            exec.submit(fileWatcher);
+        } else {
+            exec.scheduleAtFixedRate(
+                    fileWatcher,
+                    0,
+                    FILEWATCHER_INTERVAL_S,
+                    TimeUnit.SECONDS
+            );
+        }
 
         for(Map.Entry<String, String> entry : props.entrySet()) {
             logger.info(entry.getKey() + ":" + entry.getValue());
@@ -117,62 +382,276 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
 
     /**
      * Poll function of source task. It runs all time to create new SourceRecords
-     * and sends them to Kafka. It check the list with new detected filenames. If
-     * there are filenames, it retrieves the oldest one (and removes it from list),
-     * it extracts netflow records using NetflowUtils. Each netflow record is a new
-     * Kafka SourceRecord. All SourceRecords will be sent to Kafka for storage.
+     * and sends them to Kafka. New detected files are queued in two lanes: files
+     * created within catchup.live.window.s in the live lane, and older ones, e.g.
+     * left behind by an outage, in the backfill lane. Each lane opens its oldest
+     * files, up to its parallelism, and extracts netflow records from the first
+     * one using NetflowUtils. The live lane fills each batch first, and the
+     * backfill lane fills the rest of it, up to max.batch.records records, so that
+     * recent flows are not delayed by the backlog. Each lane sends at most its
+     * configured records per second. The rest records of the files are extracted
+     * in next polls. Each netflow record is a new Kafka SourceRecord. If there is
+     * nothing to process, it waits up to poll.timeout.ms for a new file. When
+     * parallel parsing is enabled, the next open files of each lane are parsed
+     * while records of the current one are sent.
      *
      * @return List(SourceRecord) A list containing all SourceRecords that will be
      * sent to Kafka for storage.
+     * @throws InterruptedException If the task is interrupted while waiting for new files.
      */
     @Override
-    public List<SourceRecord> poll() {
+    public List<SourceRecord> poll() throws InterruptedException {
         List<SourceRecord> records = new ArrayList<SourceRecord>();
 
-        if (netflowFiles.size() > 0) {
-            // Get oldest file for processing, and remove it from list.
-            String filename = netflowFiles.remove(0);
+        if (udpCollector != null) {
+            try {
+                udpCollector.receive(records, MAX_BATCH_RECORDS, POLL_TIMEOUT_MS);
+            } catch (IOException e) {
+                logger.error("IOException. Cannot receive netflow packets.");
+                logger.error(e.getCause());
+                logger.error(e.getMessage());
+            }
+            return records.isEmpty() ? null : records;
+        }
+
+        // Wait for a new file only if there is nothing to process.
+        queueNewFiles(liveLane.isIdle() && backfillLane.isIdle() ? POLL_TIMEOUT_MS : 0);
 
-            logger.info("Processing file " + filename + ".");
+        long batchStart = System.nanoTime();
+        readLane(liveLane, records);
+        readLane(backfillLane, records);
 
-            if (BENCHMARK_MODE.equals("true")) {
-                try {
-                    FileWriter fw = new FileWriter("benchmarking.log", true);
-                    fw.write(filename + " get-source " + System.currentTimeMillis() + "\n");
-                    fw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        //Stream their results through kafka-topic
+        if (records.size() > 0) {
+            if (latencyRecorder != null) {
+                batchLatency.recordSince(batchStart);
             }
+            return records;
+        }
+
+        // If lanes with files are throttled, wait until one of them may send records
+        // again, unless a new file arrives earlier. Idle lanes have already waited
+        // for a new file above.
+        long waitMs = 0;
+        for (FileLane lane : new FileLane[]{liveLane, backfillLane}) {
+            long laneWaitMs = lane.isIdle() ? 0 : lane.millisUntilAvailable();
+            if (laneWaitMs > 0) {
+                waitMs = waitMs == 0 ? laneWaitMs : Math.min(waitMs, laneWaitMs);
+            }
+        }
+        if (waitMs > 0) {
+            queueNewFiles(Math.min(waitMs, POLL_TIMEOUT_MS));
+        }
+
+        return null;
+    }
+
+    /**
+     * Moves new detected files from the queue of FileWatcher service to the
+     * pending files of their lane, in the order they were detected. Files stay
+     * in the queue, while the lanes have filewatcher.queue.capacity pending files.
+     *
+     * @param timeoutMs long Time (milliseconds) to wait for a new file, if there is none.
+     * @throws InterruptedException If interrupted while waiting for a new file.
+     */
+    private void queueNewFiles(long timeoutMs) throws InterruptedException {
+        while (liveLane.getPendingFiles().size() + backfillLane.getPendingFiles().size() < FILE_QUEUE_CAPACITY) {
+            String filename = netflowFiles.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (filename == null) {
+                return;
+            }
+            timeoutMs = 0;
+
+            FileLane lane = isLive(filename) ? liveLane : backfillLane;
+            logger.debug("Queueing file " + filename + " in " + lane.getName() + " lane.");
+            lane.getPendingFiles().addLast(filename);
+        }
+    }
 
-            // Convert csv records to Source Records. If list with Source Records
-            // is not empty, add them to the queue for Kafka.
-            ArrayList<SourceRecord> csvRecords = NetflowUtils.loadNetflowCsv(
-                    config.get("filewatcher.dir.observe") + "/" + filename,
-                    KAFKA_TOPIC,
-                    config.get("tenant.id") + "_" + config.get("collector.id") + "_" + filename.replaceAll("\\.", "_") + "_",
-                    BENCHMARK_MODE);
-            logger.debug("Received " + csvRecords.size() + " records from NetflowUtils");
-            if (csvRecords.size() > 0) {
-                records.addAll(csvRecords);
-                if (BENCHMARK_MODE.equals("true")) {
-                    try {
-                        FileWriter fw = new FileWriter("benchmarking.log", true);
-                        fw.write(filename + " send-source " + System.currentTimeMillis() + "\n");
-                        fw.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Checks if a file belongs to the live lane, i.e. it has been created within
+     * catchup.live.window.s. The creation time is the date in the file's name, or
+     * its last modification time, if its name has no date.
+     *
+     * @param filename String Name of the file.
+     * @return boolean True if the file is recent, false if it is left behind.
+     */
+    private boolean isLive(String filename) {
+        if (CATCHUP_LIVE_WINDOW_MS <= 0) {
+            return false;
+        }
+
+        long created = fileWatcher.fileTimestamp(filename);
+        if (created < 0) {
+            created = new File(config.get("filewatcher.dir.observe"), filename).lastModified();
+        }
+        return System.currentTimeMillis() - created <= CATCHUP_LIVE_WINDOW_MS;
+    }
+
+    /**
+     * Extracts netflow records from the files of a lane, until the batch is full,
+     * the lane has no more files, it has sent its records per second, or
+     * NetflowUtils.MAX_ROWS_PER_CALL rows of a file have been read without
+     * filling the batch.
+     *
+     * @param lane    FileLane The lane.
+     * @param records List(SourceRecord) The batch, where SourceRecords are added.
+     */
+    private void readLane(FileLane lane, List<SourceRecord> records) {
+        while (records.size() < MAX_BATCH_RECORDS) {
+            int maxRecords = (int) lane.availableRecords(MAX_BATCH_RECORDS - records.size());
+            if (maxRecords == 0) {
+                break;
+            }
+            // Open next files of the lane, so that they are parsed ahead.
+            while (lane.canOpenFile()) {
+                openNextFile(lane);
+            }
+
+            OpenNetflowFile current = lane.getOpenFiles().peekFirst();
+            if (current == null) {
+                break;
+            }
+
+            // Convert next csv records to Source Records, filtered and merged if
+            // enabled. If list with Source Records is not empty, add them to the queue for Kafka.
+            ArrayList<SourceRecord> csvRecords = current.getAggregator() == null
+                    ? NetflowUtils.loadNetflowCsv(
+                            current.getReader(),
+                            current.getPartition(),
+                            KAFKA_TOPIC,
+                            current.getKeyPrefix(),
+                            maxRecords,
+                            structs,
+                            filter)
+                    : NetflowUtils.loadNetflowCsv(
+                            current.getReader(),
+                            current.getPartition(),
+                            KAFKA_TOPIC,
+                            current.getKeyPrefix(),
+                            maxRecords,
+                            structs,
+                            current.getAggregator(),
+                            filter);
+            logger.debug("Received " + csvRecords.size() + " records from NetflowUtils (" + lane.getName() + " lane)");
+            records.addAll(csvRecords);
+            lane.recordsSent(csvRecords.size());
+            progressTracker.recordsSent(current.getFilename(), csvRecords.size());
+
+            if (current.isFinished()) {
+                logger.info("Finished processing file " + current.getFilename() + " (" + current.getReader().getRecordsRead() + " records).");
+                if (progressTracker.fileFinished(current.getFilename())) {
+                    markProcessed(current.getFilename());
                 }
+                if (latencyRecorder != null) {
+                    fileLatency.recordSince(current.getOpenedNanos());
+                }
+                lane.getOpenFiles().pollFirst();
+            } else if (csvRecords.size() < maxRecords) {
+                // Rows budget of the file is exhausted, e.g. its rows are dropped
+                // by the flow filter. It continues in the next poll.
+                break;
             }
         }
+    }
 
-        //Stream their results through kafka-topic
-        if (records.size() > 0) {
-            return records;
+    /**
+     * Retrieves the oldest pending file of a lane (and removes it from list) and
+     * opens it for processing. If Kafka Connect has stored an offset for this file,
+     * because it has been partially processed before a restart, processing continues
+     * right after the last record stored in Kafka. Files that cannot be opened are
+     * skipped, but they are not marked as processed, so they are detected again
+     * after a restart. Opened files are added at the end of the lane's open files.
+     *
+     * @param lane FileLane The lane.
+     * @return boolean True if a file has been opened, false if it has been skipped.
+     */
+    private boolean openNextFile(FileLane lane) {
+        String filename = lane.getPendingFiles().pollFirst();
+
+        logger.info("Processing file " + filename + " (" + lane.getName() + " lane).");
+
+        Map<String, String> partition = NetflowUtils.sourcePartition(filename);
+        long position = 0;
+        long recordsRead = 0;
+        Map<String, Object> offset = context.offsetStorageReader().offset(partition);
+        if (offset != null && offset.get(NetflowUtils.OFFSET_POSITION) != null) {
+            position = ((Number) offset.get(NetflowUtils.OFFSET_POSITION)).longValue();
+            recordsRead = ((Number) offset.get(NetflowUtils.OFFSET_RECORDS)).longValue();
+            logger.info("Resuming file " + filename + " from position " + position + " (" + recordsRead + " records).");
         }
 
-        return null;
+        try {
+            String csvFile = config.get("filewatcher.dir.observe") + "/" + filename;
+            NetflowReader reader;
+            if ("nfcapd".equals(NETFLOW_FILE_FORMAT)) {
+                reader = new NfcapdReader(csvFile, recordsRead, NFCAPD_BIDIRECTIONAL, TIME_ZONE);
+            } else if (NetflowCsvReader.isCompressed(csvFile)) {
+                // Compressed files can only be decompressed sequentially.
+                reader = new NetflowCsvReader(csvFile, position, recordsRead);
+            } else if (parserPool != null) {
+                reader = new ChunkedNetflowReader(csvFile, position, recordsRead, parserPool,
+                        PARSER_CHUNK_BYTES, PARSER_THREADS, PARSER_MMAP);
+            } else if (PARSER_MMAP) {
+                reader = new MappedNetflowReader(csvFile, position, recordsRead);
+            } else {
+                reader = new NetflowCsvReader(csvFile, position, recordsRead);
+            }
+            FlowAggregator aggregator = null;
+            if (!"none".equals(AGGREGATION_KEY)) {
+                aggregator = new FlowAggregator(AGGREGATION_KEY, AGGREGATION_WINDOW_MS, AGGREGATION_MAX_KEYS,
+                        position, recordsRead);
+            }
+            lane.getOpenFiles().addLast(new OpenNetflowFile(
+                    filename,
+                    reader,
+                    partition,
+                    config.get("tenant.id") + "_" + config.get("collector.id") + "_" + filename.replaceAll("[./]", "_") + "_",
+                    aggregator
+            ));
+            return true;
+        } catch (IOException e) {
+            logger.error("IOException. Cannot open file " + filename + ". Skipping it.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Called when a record has been acknowledged by Kafka. When all records of
+     * a completely read file have been acknowledged, the file is marked as
+     * processed in FileWatcher service.
+     *
+     * @param record   SourceRecord The acknowledged record.
+     * @param metadata RecordMetadata Metadata of the record in Kafka.
+     */
+    @Override
+    public void commitRecord(SourceRecord record, RecordMetadata metadata) {
+        // Metadata is null, if the record has been filtered out by a transformation.
+        if (latencyRecorder != null && metadata != null && metadata.hasTimestamp()) {
+            ackLatency.recordSinceMillis(metadata.timestamp());
+        }
+
+        String filename = (String) record.sourcePartition().get(NetflowUtils.PARTITION_FILENAME);
+        if (filename != null) {
+            if (progressTracker.recordAcknowledged(filename)) {
+                markProcessed(filename);
+            }
+        }
+    }
+
+    /**
+     * Marks a file, whose records have all been stored in Kafka, as processed
+     * in FileWatcher service, and applies the policy for processed files to it.
+     *
+     * @param filename String Name of the processed file.
+     */
+    private void markProcessed(String filename) {
+        logger.debug("All records of file " + filename + " stored in Kafka.");
+        fileWatcher.markProcessed(filename);
+        lifecycleManager.fileProcessed(filename);
     }
 
     /**
@@ -182,9 +661,54 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
     @Override
     public void stop() {
         logger.info("Unregistering observer from FileWatcher service.");
-        //fileWatcher.removeListener(this);
+        if (fileWatcher != null) {
+            fileWatcher.removeListener(this);
+        }
         logger.info("Stopping FileWatcher service.");
-        //exec.shutdownNow();
+        exec.shutdownNow();
+        if (fileWatcher != null) {
+            // Checkpoint files completed so far.
+            fileWatcher.close();
+        }
+
+        if (lifecycleManager != null) {
+            logger.info("Stopping handling of processed files.");
+            lifecycleManager.close();
+        }
+
+        for (FileLane lane : new FileLane[]{liveLane, backfillLane}) {
+            if (lane == null) {
+                continue;
+            }
+            for (OpenNetflowFile openFile : lane.getOpenFiles()) {
+                try {
+                    openFile.getReader().close();
+                } catch (IOException e) {
+                    logger.error("IOException. Cannot close file " + openFile.getFilename() + ".");
+                    logger.error(e.getMessage());
+                }
+            }
+            lane.getOpenFiles().clear();
+        }
+
+        if (parserPool != null) {
+            logger.info("Stopping parser threads.");
+            parserPool.shutdownNow();
+        }
+
+        if (udpCollector != null) {
+            logger.info("Stopping UDP netflow collector (" + udpCollector.getRecordsReceived() + " records).");
+            try {
+                udpCollector.close();
+            } catch (IOException e) {
+                logger.error("IOException. Cannot close UDP netflow collector.");
+                logger.error(e.getMessage());
+            }
+        }
+
+        if (latencyRecorder != null) {
+            latencyRecorder.close();
+        }
 
         logger.info("Stopping netflow source task.");
     }
@@ -202,6 +726,7 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
     /**
      * Observer, that retrieves events from FileWatcher. Each event
      * is an ArrayList with detected filenames, that needs processing.
+     * Filenames are added to the queue in the order they were detected.
      *
      * @param files An ArrayList(String) with all new filenames detected.
      */
@@ -209,7 +734,16 @@ public class NetflowSourceTask extends SourceTask implements FilesListener {
     public void getFilenames(ArrayList<String> files) {
         if (files.size() > 0) {
             logger.info("Received an event with " + files.size() + " new files.");
-            netflowFiles.addAll(files);
+            try {
+                for (String file : files) {
+                    // Blocks FileWatcher service while the queue is full.
+                    netflowFiles.put(file);
+                }
+            } catch (InterruptedException e) {
+                // Task is stopping. Files not queued will be detected again on restart,
+                // as they are not marked as processed.
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }
@@ -0,0 +1,112 @@
+package source;
+
+import java.util.Map;
+
+import netflow.FlowAggregator;
+import netflow.NetflowReader;
+
+/**
+ * OpenNetflowFile keeps the state of a netflow file, that has been opened
+ * for processing by a source task: its reader, its source partition and
+ * the prefix of its records' keys.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class OpenNetflowFile {
+    /**
+     * Name of the netflow file.
+     */
+    private String filename;
+
+    /**
+     * Reader of the netflow file.
+     */
+    private NetflowReader reader;
+
+    /**
+     * Source partition of the netflow file.
+     */
+    private Map<String, String> partition;
+
+    /**
+     * Prefix of the keys of the file's records.
+     */
+    private String keyPrefix;
+
+    /**
+     * Aggregator of the file's records. Null if records are sent one by one.
+     */
+    private FlowAggregator aggregator;
+
+    /**
+     * Time (System.nanoTime()), when the netflow file was opened.
+     */
+    private long openedNanos;
+
+    /**
+     * Constructor
+     *
+     * @param filename  String Name of the netflow file.
+     * @param reader    NetflowReader Reader of the netflow file.
+     * @param partition Map(String, String) Source partition of the netflow file.
+     * @param keyPrefix String Prefix of the keys of the file's records.
+     */
+    public OpenNetflowFile(String filename, NetflowReader reader, Map<String, String> partition, String keyPrefix) {
+        this(filename, reader, partition, keyPrefix, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param filename   String Name of the netflow file.
+     * @param reader     NetflowReader Reader of the netflow file.
+     * @param partition  Map(String, String) Source partition of the netflow file.
+     * @param keyPrefix  String Prefix of the keys of the file's records.
+     * @param aggregator FlowAggregator Aggregator of the file's records, or null.
+     */
+    public OpenNetflowFile(String filename, NetflowReader reader, Map<String, String> partition, String keyPrefix,
+                           FlowAggregator aggregator) {
+        this.filename = filename;
+        this.aggregator = aggregator;
+        this.reader = reader;
+        this.partition = partition;
+        this.keyPrefix = keyPrefix;
+        this.openedNanos = System.nanoTime();
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public NetflowReader getReader() {
+        return reader;
+    }
+
+    public Map<String, String> getPartition() {
+        return partition;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public FlowAggregator getAggregator() {
+        return aggregator;
+    }
+
+    public long getOpenedNanos() {
+        return openedNanos;
+    }
+
+    /**
+     * Checks if all records of the file have been sent, i.e. it has been read
+     * completely and no merged records wait to be sent.
+     *
+     * @return boolean True if the file has been processed.
+     */
+    public boolean isFinished() {
+        return reader.isFinished() && (aggregator == null || !aggregator.hasPending());
+    }
+}
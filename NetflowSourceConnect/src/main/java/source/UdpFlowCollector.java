@@ -0,0 +1,238 @@
+package source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import netflow.FlowFilter;
+import netflow.NetflowColumns;
+import netflow.NetflowFlow;
+import netflow.NetflowPacketDecoder;
+import netflow.NetflowStruct;
+import netflow.NetflowUtils;
+import netflow.NfdumpCsvFormatter;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.log4j.Logger;
+
+/**
+ * UdpFlowCollector receives NetFlow v5, NetFlow v9 and IPFIX packets directly
+ * from exporters over UDP, instead of reading files written by nfcapd, and
+ * converts their records to SourceRecords in the same csv layout as the files.
+ * Each exporter is a separate source partition. Records decoded from a packet,
+ * that do not fit in a poll, are kept for the next poll.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class UdpFlowCollector implements Closeable {
+    /**
+     * Logger Instance.
+     */
+    private Logger logger = Logger.getLogger(UdpFlowCollector.class);
+
+    /**
+     * Maximum size of a UDP packet.
+     */
+    private static final int MAX_PACKET_SIZE = 65535;
+
+    /**
+     * Channel, bound to the collector's address and port.
+     */
+    private DatagramChannel channel;
+
+    /**
+     * Selector, used to wait for packets.
+     */
+    private Selector selector;
+
+    /**
+     * Buffer, where each packet is received.
+     */
+    private ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+    /**
+     * Decoder of packets, which caches templates of exporters.
+     */
+    private NetflowPacketDecoder decoder = new NetflowPacketDecoder();
+
+    /**
+     * Formatter of records to csv lines.
+     */
+    private NfdumpCsvFormatter formatter;
+
+    /**
+     * Converter of records to Structs. If null, values are padded csv strings.
+     */
+    private NetflowStruct structs;
+
+    /**
+     * Filter of records, or null if all records are sent.
+     */
+    private FlowFilter filter;
+
+    /**
+     * Columns of the record, that is tested by the filter.
+     */
+    private NetflowColumns columns = new NetflowColumns();
+
+    /**
+     * Records decoded, but not returned yet.
+     */
+    private Deque<SourceRecord> pendingRecords = new ArrayDeque<SourceRecord>();
+
+    /**
+     * Kafka topic, where records are sent.
+     */
+    private String kafkaTopic;
+
+    /**
+     * Prefix of the keys of records. Keys are prefix, exporter and a counter.
+     */
+    private String keyPrefix;
+
+    /**
+     * Number of records received so far.
+     */
+    private long recordsReceived = 0;
+
+    /**
+     * Constructor. Binds a UDP channel for receiving netflow packets.
+     *
+     * @param bindAddress        String Address to bind to, e.g. 0.0.0.0 for all interfaces.
+     * @param port               int UDP port to bind to.
+     * @param receiveBufferBytes int Size (bytes) of the socket's receive buffer.
+     * @param kafkaTopic         String Kafka topic, where records are sent.
+     * @param keyPrefix          String Prefix of the keys of records.
+     * @param structs            NetflowStruct Converter of records to Structs, or null
+     *                           for padded csv strings.
+     * @param filter             FlowFilter Filter of records, or null.
+     * @param timeZone           TimeZone Time zone of the dates of csv records.
+     * @throws IOException If the channel cannot be bound.
+     */
+    public UdpFlowCollector(String bindAddress, int port, int receiveBufferBytes, String kafkaTopic, String keyPrefix,
+                            NetflowStruct structs, FlowFilter filter, TimeZone timeZone) throws IOException {
+        this.formatter = new NfdumpCsvFormatter(timeZone);
+        this.kafkaTopic = kafkaTopic;
+        this.structs = structs;
+        this.filter = filter;
+        // Keys must be unique across restarts, as counter starts from 0.
+        this.keyPrefix = keyPrefix + System.currentTimeMillis() + "_";
+
+        this.channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+            channel.bind(new InetSocketAddress(bindAddress, port));
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        logger.info("Receiving netflow packets on " + bindAddress + ":" + port + ".");
+    }
+
+    /**
+     * Receives netflow packets and converts their records to SourceRecords, up to
+     * a maximum number of records. Waits for packets only if no records are available.
+     *
+     * @param records    List(SourceRecord) List, where records are added.
+     * @param maxRecords int Maximum number of records to add.
+     * @param timeoutMs  long Time (milliseconds) to wait for packets, if there are no records.
+     * @throws IOException If any error occurs receiving packets.
+     */
+    public void receive(List<SourceRecord> records, int maxRecords, long timeoutMs) throws IOException {
+        boolean waited = false;
+        while (records.size() < maxRecords) {
+            if (!pendingRecords.isEmpty()) {
+                records.add(pendingRecords.pollFirst());
+                continue;
+            }
+
+            packet.clear();
+            InetSocketAddress sender = (InetSocketAddress) channel.receive(packet);
+            if (sender == null) {
+                if (!records.isEmpty() || waited || timeoutMs <= 0) {
+                    break;
+                }
+                selector.select(timeoutMs);
+                selector.selectedKeys().clear();
+                waited = true;
+                continue;
+            }
+
+            packet.flip();
+            decodePacket(sender.getAddress());
+        }
+    }
+
+    /**
+     * Decodes the received packet and adds its records to pending records.
+     *
+     * @param exporter InetAddress Address of the exporter, that sent the packet.
+     */
+    private void decodePacket(InetAddress exporter) {
+        List<NetflowFlow> flows = decoder.decode(packet, exporter);
+        if (flows.isEmpty()) {
+            return;
+        }
+
+        String exporterAddress = exporter.getHostAddress();
+        Map<String, String> partition = NetflowUtils.exporterPartition(exporterAddress);
+        String exporterKeyPrefix = keyPrefix + exporterAddress.replaceAll("[.:]", "_") + "_";
+        for (NetflowFlow flow : flows) {
+            long counter = recordsReceived++;
+            String line = formatter.format(flow);
+
+            // Drop or route records, that match the filter.
+            String topic = kafkaTopic;
+            if (filter != null && columns.parse(line) && filter.matches(columns)) {
+                if (!filter.isRouted()) {
+                    continue;
+                }
+                topic = filter.getRouteTopic();
+            }
+            pendingRecords.addLast(NetflowUtils.createSourceRecord(
+                    partition,
+                    NetflowUtils.sourceOffset(0, recordsReceived),
+                    topic,
+                    exporterKeyPrefix + counter,
+                    structs == null ? line + NetflowUtils.RECORD_PADDING : line,
+                    structs
+            ));
+        }
+    }
+
+    /**
+     * Returns how many records have been received so far.
+     *
+     * @return long Number of received records.
+     */
+    public long getRecordsReceived() {
+        return recordsReceived;
+    }
+
+    /**
+     * Closes the channel. Pending records are dropped.
+     *
+     * @throws IOException If any error occurs closing the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        pendingRecords.clear();
+        selector.close();
+        channel.close();
+    }
+}
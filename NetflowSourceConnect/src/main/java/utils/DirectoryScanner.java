@@ -0,0 +1,176 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DirectoryScanner streams the candidate netflow files of an observed
+ * directory, without listing all its entries at once. Files are streamed
+ * through a DirectoryStream with a glob filter, so only entries, whose names
+ * match it, are converted to Paths. In "flat" layout, files are directly in
+ * the observed directory. In "date" layout, files are also in YYYY/MM/DD
+ * subdirectories, like nfcapd -S 1 writes them. Day directories older than a
+ * floor are pruned without being opened, so that the cost of a scan depends
+ * on the recent days, not on the whole history. Files are reported by their
+ * path relative to the observed directory, with '/' separators.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class DirectoryScanner {
+    /**
+     * Files directly in the observed directory.
+     */
+    public static final String LAYOUT_FLAT = "flat";
+    /**
+     * Files also in YYYY/MM/DD subdirectories of the observed directory.
+     */
+    public static final String LAYOUT_DATE = "date";
+
+    // Globs of the date subdirectories.
+    private static final String YEAR_GLOB = "[0-9][0-9][0-9][0-9]";
+    private static final String MONTH_DAY_GLOB = "[0-9][0-9]";
+
+    /**
+     * Number of the newest day directories, that are always scanned. nfcapd
+     * writes the file of the last interval of a day after midnight, and nfdump
+     * converts it later, so the previous day is scanned too.
+     */
+    private static final int OPEN_DAYS = 2;
+
+    /**
+     * Receiver of scanned files.
+     */
+    public interface Visitor {
+        /**
+         * Called for each file, whose name matches the glob.
+         *
+         * @param relativePath String Path of the file, relative to the observed directory.
+         */
+        void visit(String relativePath);
+    }
+
+    /**
+     * The observed directory.
+     */
+    private Path root;
+
+    /**
+     * Glob of the names of candidate files, e.g. "nfcapd.*".
+     */
+    private String glob;
+
+    /**
+     * True in "date" layout.
+     */
+    private boolean dateLayout;
+
+    /**
+     * Constructor
+     *
+     * @param root   Path The observed directory.
+     * @param glob   String Glob of the names of candidate files.
+     * @param layout String Layout of the directory: "flat" or "date".
+     */
+    public DirectoryScanner(Path root, String glob, String layout) {
+        this.root = root;
+        this.glob = glob;
+        this.dateLayout = LAYOUT_DATE.equals(layout);
+    }
+
+    /**
+     * Scans the candidate files. In "date" layout, files in the observed directory
+     * are scanned first, and then the day directories from the floor on, oldest first.
+     *
+     * @param floor   String Oldest day directory to scan, "YYYY/MM/DD", or null for all.
+     * @param visitor Visitor Receiver of the files.
+     * @return String The new floor: the oldest of the newest day directories, that
+     * must be scanned again. The given floor, if there are not enough day directories.
+     * @throws IOException If the observed directory cannot be read.
+     */
+    public String scan(String floor, Visitor visitor) throws IOException {
+        scanFiles(root, "", visitor);
+        if (!dateLayout) {
+            return floor;
+        }
+
+        List<String> days = new ArrayList<String>();
+        for (String year : subdirectories(root, YEAR_GLOB)) {
+            if (floor != null && year.compareTo(floor.substring(0, 4)) < 0) {
+                continue;
+            }
+            Path yearDir = root.resolve(year);
+            for (String month : subdirectories(yearDir, MONTH_DAY_GLOB)) {
+                String yearMonth = year + "/" + month;
+                if (floor != null && yearMonth.compareTo(floor.substring(0, 7)) < 0) {
+                    continue;
+                }
+                Path monthDir = yearDir.resolve(month);
+                for (String day : subdirectories(monthDir, MONTH_DAY_GLOB)) {
+                    String date = yearMonth + "/" + day;
+                    if (floor == null || date.compareTo(floor) >= 0) {
+                        scanFiles(monthDir.resolve(day), date + "/", visitor);
+                        days.add(date);
+                    }
+                }
+            }
+        }
+
+        return days.size() >= OPEN_DAYS ? days.get(days.size() - OPEN_DAYS) : floor;
+    }
+
+    /**
+     * Streams the files of a directory, whose names match the glob.
+     *
+     * @param dir     Path The directory.
+     * @param prefix  String Path of the directory relative to the observed one, with a trailing '/'.
+     * @param visitor Visitor Receiver of the files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private void scanFiles(Path dir, String prefix, Visitor visitor) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path file : stream) {
+                visitor.visit(prefix + file.getFileName().toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the subdirectories of a directory, whose names match a glob, sorted.
+     * Date directories have a few entries, so they are listed at once.
+     *
+     * @param dir      Path The directory.
+     * @param dirGlob  String Glob of the names of subdirectories.
+     * @return List(String) Names of the subdirectories.
+     * @throws IOException If the directory cannot be read.
+     */
+    private static List<String> subdirectories(Path dir, String dirGlob) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, dirGlob)) {
+            for (Path subdir : stream) {
+                if (Files.isDirectory(subdir)) {
+                    names.add(subdir.getFileName().toString());
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Returns the day directory of a file, in "date" layout.
+     *
+     * @param relativePath String Path of the file, relative to the observed directory.
+     * @return String The day directory, "YYYY/MM/DD", or null if the file is not in one.
+     */
+    public static String dayOf(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        return slash == 10 ? relativePath.substring(0, 10) : null;
+    }
+}
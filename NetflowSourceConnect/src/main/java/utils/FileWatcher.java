@@ -3,40 +3,67 @@ package utils;
 import interfaces.FilesListener;
 
 import java.io.*;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
-import org.jetbrains.annotations.Nullable;
 
 /**
  * Filewatcher service. Watches a specific folder about new files.
- * Uses a file (netflow-watcher-[collectorId].out) to store last read file.
+ * Keeps in memory the files sent to the connector and not processed yet
+ * (in-flight), and the files completely processed, and checkpoints them
+ * periodically to a file (netflow-watcher-[collectorId].out).
  * In Windows under location %APPDATA%\Local\Temp\Palantir.
  * In Linux this file is saved under /var/tmp/Palantir.
- * Filters all files in the directory and keeps only these that have name
- * bigger compared with the stored one. This is based on the name of the
- * nfcapd files, which have same prefix and date in their names in the format
- * YYYYMMDD, so the new ones can be filtered. This will run in a separate
- * thread, scans the directory evey X (configured) seconds. When new files found
- * the file in application's path will be updated and an event must be sent to
- * Kafka source connector, with all new detected files.
+ * Streams the files in the directory, and in its recent YYYY/MM/DD
+ * subdirectories in "date" layout, and keeps only the netflow files, that are
+ * neither in-flight nor completed. This will run in a separate thread, scans
+ * the directory evey X (configured) seconds. When new files found
+ * an event must be sent to Kafka source connector, with all new detected files.
+ * The state will be updated, when the connector marks a file as completely
+ * processed.
  *
  * @author Space Hellas S.A.
  * @version 0.1-SNAPSHOT
  * @since 0.1-SNAPSHOT
  */
-public class FileWatcher implements Runnable {
+public class FileWatcher implements Runnable, Closeable {
     /**
      * Logger Instance.
      */
     private Logger logger = Logger.getLogger(FileWatcher.class);
 
+    /**
+     * Names of completed nfcapd files: nfcapd.YYYYMMDDhhmm, or nfcapd.YYYYMMDDhhmmss.
+     */
+    private static final Pattern NFCAPD_FILE_PATTERN = Pattern.compile("nfcapd\\.\\d{12}(\\d{2})?");
+
+    /**
+     * Suffix of .csv files converted from nfcapd files, plain or compressed.
+     */
+    private static final Pattern CSV_FILE_SUFFIX_PATTERN = Pattern.compile("\\.csv(\\.gz|\\.zst|\\.lz4)?$");
+
+    /**
+     * Date in names of nfcapd files and of .csv files converted from them: YYYYMMDDhhmm, optionally followed by ss.
+     */
+    private static final Pattern FILE_DATE_PATTERN = Pattern.compile("nfcapd\\.(\\d{12}(\\d{2})?)");
+
     /**
      * A list, with all listeners, that will receive transmitted events.
      */
-    private List<FilesListener> listeners = new ArrayList<FilesListener>();
+    private List<FilesListener> listeners = new CopyOnWriteArrayList<FilesListener>();
 
     /**
      * Id of the connector.
@@ -57,12 +84,58 @@ public class FileWatcher implements Runnable {
     /**
      * The path, which this file watcher will observer for new files.
      */
-    private String pathObserve;
+    protected String pathObserve;
     /**
-     * Filename, where the last processed netflow file will be saved.
+     * Filename, where the state of this file watcher is checkpointed.
      * Its absolute path is: [dataPath]/[dataFilePrefix]-[collectorId].out
+     * If files are shared among several tasks, each task has its own file:
+     * [dataPath]/[dataFilePrefix]-[collectorId]-[shardIndex].out
+     */
+    private String stateFilename;
+
+    /**
+     * Index of the shard of files, that this file watcher is responsible for.
+     */
+    private int shardIndex;
+    /**
+     * Number of shards, that files of the observed path are shared among.
+     */
+    private int shardCount;
+
+    /**
+     * Files sent to listeners and completely processed. Files are sent to
+     * listeners only once, and are completed only when listeners have
+     * completely processed them, so that files detected but not processed
+     * are detected again after a restart.
+     */
+    private WatcherState state;
+
+    /**
+     * Thread checkpointing the state periodically. Null until checkpoints are started.
+     */
+    private ScheduledExecutorService checkpointer = null;
+
+    /**
+     * Format of netflow files: "csv" for .csv files converted from nfcapd files,
+     * or "nfcapd" for binary nfcapd files, read without conversion.
+     */
+    private String fileFormat = "csv";
+
+    /**
+     * Layout of the observed directory: "flat" for files directly in it, or
+     * "date" for files also in YYYY/MM/DD subdirectories.
+     */
+    protected String layout = DirectoryScanner.LAYOUT_FLAT;
+
+    /**
+     * Time zone of the dates in the names of netflow files.
+     */
+    private TimeZone timeZone = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Scanner of the observed directory, in the configured layout.
      */
-    private String lastSeenFilename;
+    private DirectoryScanner scanner;
 
     /**
      * Constructor
@@ -72,142 +145,375 @@ public class FileWatcher implements Runnable {
      * @param pathToObserve Path to scan for new nfcapd files.
      */
     public FileWatcher(int collectorId, String prefix, String pathToObserve) {
+        this(collectorId, prefix, pathToObserve, 0, 1);
+    }
+
+    /**
+     * Constructor for a file watcher, that is responsible only for a shard of
+     * the files in observed path. Files are assigned to shards using rendezvous
+     * hashing of their names, so the same file is always assigned to the same
+     * shard for a given number of shards.
+     *
+     * @param collectorId   Id of this collector. Id must be unique.
+     * @param prefix        Prefix of file, where last seen nfcapd is stored.
+     * @param pathToObserve Path to scan for new nfcapd files.
+     * @param shardIndex    Index of the shard of this file watcher, in range [0, shardCount).
+     * @param shardCount    Number of shards, that files are shared among.
+     */
+    public FileWatcher(int collectorId, String prefix, String pathToObserve, int shardIndex, int shardCount) {
         this.collectorId = collectorId;
         this.dataPath = Helpers.getAppDataFolder();
         this.dataFilePrefix = prefix;
         this.pathObserve = pathToObserve;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
 
         // Check if path to observe exists. If not, create it.
         if (!Helpers.ifDirectory(pathToObserve)) {
             Helpers.createDirectory(pathToObserve);
         }
 
-        this.lastSeenFilename = dataPath + dataFilePrefix + collectorId + ".out";
+        if (shardCount > 1) {
+            this.stateFilename = dataPath + dataFilePrefix + collectorId + "-" + shardIndex + ".out";
+        } else {
+            this.stateFilename = dataPath + dataFilePrefix + collectorId + ".out";
+        }
+        this.state = readState();
+        this.scanner = new DirectoryScanner(Paths.get(pathToObserve), "nfcapd.*", DirectoryScanner.LAYOUT_FLAT);
     }
 
     /**
-     * Reads file, where the name of last processed nfcapd is saved.
-     * Returns filename of last processed nfcapd file.
+     * Sets the format of netflow files, that this file watcher detects.
      *
-     * @return String Last processed nfcapd file.
+     * @param fileFormat "csv" for .csv files converted from nfcapd files, or
+     *                   "nfcapd" for binary nfcapd files.
      */
-    @Nullable
-    private String getLastSeen() {
+    public void setFileFormat(String fileFormat) {
+        this.fileFormat = fileFormat;
+    }
+
+    /**
+     * Sets the time zone of the dates, that nfcapd writes in the names of netflow files.
+     *
+     * @param timeZone TimeZone Time zone of the collector (netflow.time.zone).
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Sets the layout of the observed directory.
+     *
+     * @param layout "flat" for files directly in the observed directory, or "date"
+     *               for files also in YYYY/MM/DD subdirectories (nfcapd -S 1).
+     */
+    public void setLayout(String layout) {
+        this.layout = layout;
+        this.scanner = new DirectoryScanner(Paths.get(pathObserve), "nfcapd.*", layout);
+        if (!DirectoryScanner.LAYOUT_DATE.equals(layout)) {
+            state.setFloor(null);
+        }
+    }
+
+    /**
+     * Reads the state of this file watcher from its checkpoint file. The number
+     * of tasks may have changed since the last run, e.g. from 1 to N, and some
+     * files may have moved to another shard. So the completed files of all
+     * checkpoint files of this collector, sharded or not, are added, and the
+     * oldest baseline and floor among them are kept, so that no file is missed
+     * and no processed file is sent again, even by a shard without a checkpoint
+     * of its own. Files, that were in-flight, are detected again, and continue
+     * from their offsets stored in Kafka.
+     *
+     * @return WatcherState The state. Empty if no shard of this collector has a checkpoint yet.
+     */
+    private WatcherState readState() {
+        WatcherState state = readState(new File(stateFilename));
+        if (!state.isEmpty()) {
+            logger.info("Loaded FileWatcher state from " + stateFilename + " (" + state.getInFlight().size()
+                    + " files in-flight).");
+        }
+
+        final Pattern shardFilePattern = Pattern.compile(Pattern.quote(dataFilePrefix + collectorId) + "(-\\d+)?\\.out");
+        File[] shardFiles = new File(dataPath).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return shardFilePattern.matcher(name).matches();
+            }
+        });
+        if (shardFiles != null) {
+            for (File shardFile : shardFiles) {
+                if (shardFile.getPath().equals(stateFilename)) {
+                    continue;
+                }
+                WatcherState shardState = readState(shardFile);
+                if (shardState.isEmpty()) {
+                    continue;
+                }
+                if (state.isEmpty()) {
+                    // Baseline and floor of the first state found are the starting point of the merge.
+                    logger.info("Starting FileWatcher state from " + shardFile + ".");
+                    state = shardState;
+                } else {
+                    logger.info("Merging FileWatcher state of " + shardFile + ".");
+                    state.mergeCompleted(shardState);
+                }
+            }
+        }
+
+        state.resetInFlight();
+        return state;
+    }
+
+    /**
+     * Reads a checkpoint file of a file watcher.
+     *
+     * @param file File The checkpoint file.
+     * @return WatcherState The state. Empty if the file cannot be read.
+     */
+    private WatcherState readState(File file) {
         try {
-            BufferedReader bufferedReader = new BufferedReader(
-                    new FileReader(
-                            new File(lastSeenFilename)
-                    )
-            );
-            String lastSeenFile = bufferedReader.readLine();
-            bufferedReader.close();
-
-            logger.debug("Last seen netflow file " + lastSeenFile);
-
-            return lastSeenFile;
-        } catch (FileNotFoundException e) {
-            logger.error("FileNotFoundException. Returning null.");
-            logger.error(e.getCause());
-            logger.error(e.getMessage());
+            return WatcherState.read(file);
         } catch (IOException e) {
-            logger.error("IOException. Returning null.");
+            logger.error("IOException. Cannot read FileWatcher state " + file + ". Returning empty state.");
             logger.error(e.getCause());
             logger.error(e.getMessage());
         }
-        return null;
+        return new WatcherState();
     }
 
     /**
-     * Updates file, where the name of last processed nfcapd is saved.
+     * Starts checkpointing the state of this file watcher periodically, in a
+     * background thread. The state is checkpointed only if it has changed.
      *
-     * @param lastFilename Last new nfcapd file scanned.
+     * @param intervalMs long Time interval (milliseconds) between checkpoints.
      */
-    private void updateLastSeen(String lastFilename) {
-        logger.debug("Updating last seen netflow file with record " + lastFilename);
+    public void startCheckpoints(long intervalMs) {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "netflow-watcher-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
 
+    /**
+     * Checkpoints the state of this file watcher to its file, if it has changed.
+     */
+    public synchronized void checkpoint() {
         try {
-            BufferedWriter bufferedWriter = new BufferedWriter(
-                    new FileWriter(
-                            new File(lastSeenFilename)
-                    )
-            );
-            bufferedWriter.write(lastFilename + "\n");
-            bufferedWriter.flush();
-            bufferedWriter.close();
+            if (state.checkpoint(new File(stateFilename))) {
+                logger.debug("FileWatcher state checkpointed to " + stateFilename + ".");
+            }
         } catch (IOException e) {
-            logger.error("IOException. Returning null.");
+            logger.error("IOException. Cannot checkpoint FileWatcher state. Retrying on next checkpoint.");
             logger.error(e.getCause());
             logger.error(e.getMessage());
         }
     }
 
     /**
-     * Scans a directory, for new created files. Retrieves all files in
-     * directory and compares their name with the saved one. If their
-     * names are bigger compared to the saved one, it considers them
-     * as new. The names of all new files will be returned in an Arraylist.
-     * It also updates the file, where the name of last processed is stored.
+     * Stops checkpointing, and checkpoints the state a last time.
+     */
+    @Override
+    public void close() {
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+        }
+        checkpoint();
+    }
+
+    /**
+     * Marks a file as completely processed. Called by listeners, when all
+     * records of a file have been stored. The state is checkpointed later.
+     *
+     * @param filename Name of the completely processed file.
+     */
+    public void markProcessed(String filename) {
+        state.fileCompleted(filename);
+    }
+
+    /**
+     * Forgets a file, that has been removed from the observed directory.
+     *
+     * @param filename Name of the removed file.
+     */
+    protected void fileRemoved(String filename) {
+        state.fileRemoved(filename);
+    }
+
+    /**
+     * Returns the oldest day directory, that is scanned for new files, in "date" layout.
+     *
+     * @return String The day directory, "YYYY/MM/DD", or null if all are scanned.
+     */
+    protected String getFloor() {
+        return state.getFloor();
+    }
+
+    /**
+     * Checks if a file has already been sent to listeners, or processed.
+     *
+     * @param filename Name of the file to be checked.
+     * @return boolean True if the file is not new.
+     */
+    protected boolean isDetected(String filename) {
+        return state.isKnown(filename);
+    }
+
+    /**
+     * Registers files, that are sent to listeners, so that they are not sent again.
+     *
+     * @param filenames List(String) Names of the files.
+     */
+    protected void filesDetected(List<String> filenames) {
+        for (String filename : filenames) {
+            state.fileDetected(filename);
+        }
+    }
+
+    /**
+     * Scans the observed directory, for new created files. Streams the files of
+     * the directory, and, in "date" layout, of its day directories from the floor
+     * on, and keeps the netflow files, that have been neither sent to listeners
+     * nor processed. Older day directories are not opened. If the state is empty,
+     * i.e. on the very first scan, all netflow files are new. Completed files,
+     * that were not found, are forgotten. The names of all new files, relative to
+     * the observed directory, will be returned in an Arraylist, sorted, so that
+     * files are sent in the order they were created.
      *
      * @return ArrayList(String) The names of new detected files.
      */
     public ArrayList<String> filterDirectory() {
-        ArrayList<String> addedFiles = new ArrayList<>();
-        File dir = new File(pathObserve);
-        // Get last processed filename.
-        String lastFilename = getLastSeen();
-
-        logger.debug("===============================================================================================");
-
-        // List all files in the directory.
-        String[] existingFiles = dir.list();
-        if (lastFilename != null && existingFiles != null) {
-            for (String f : existingFiles) {
-                logger.debug("Filtering files in directory " + pathObserve);
-
-                // Filter files. Every file with name bigger than last seen will be added
-                // in new files list. This will work in nfcapd files, as they have a standard
-                // prefix, and then a date follows. Also, filter .csv files converted from
-                // .nfcapd files, using prefix and postfix.
-                if (f.compareTo(lastFilename) > 0 && f.startsWith("nfcapd.") && f.endsWith(".csv")) {
-                    logger.debug("Adding file " + f);
-                    addedFiles.add(f);
-                } else {
-                    logger.debug("Ignoring file " + f);
-                }
-            }
-        } else if (existingFiles != null) {
-            // If last processed file cannot be defined, add all
-            // files in the directory in processing pipeline, that
-            // are converted csv from nfcapd files.
-            for (String f : existingFiles) {
-                if (f.startsWith("nfcapd") && f.endsWith("csv")) {
-                    logger.debug("Adding file " + f);
-                    addedFiles.add(f);
-                } else {
-                    logger.debug("Ignoring file " + f);
+        return scanDirectory(true);
+    }
+
+    /**
+     * Scans the observed directory, like filterDirectory(), but returns the new
+     * files without registering them as sent to listeners, e.g. so that they are
+     * sent only once they are completely written.
+     *
+     * @return ArrayList(String) The names of new found files, sorted.
+     */
+    protected ArrayList<String> scanNewFiles() {
+        return scanDirectory(false);
+    }
+
+    /**
+     * Scans the observed directory for new files.
+     *
+     * @param register boolean True to register the new files as sent to listeners.
+     * @return ArrayList(String) The names of new files, sorted.
+     */
+    private ArrayList<String> scanDirectory(boolean register) {
+        final ArrayList<String> addedFiles = new ArrayList<>();
+        final HashSet<String> foundFiles = new HashSet<>();
+
+        logger.debug("Filtering files in directory " + pathObserve);
+        try {
+            String floor = scanner.scan(state.getFloor(), new DirectoryScanner.Visitor() {
+                @Override
+                public void visit(String filename) {
+                    // Every netflow file of this shard, that is not in-flight
+                    // or completed, will be added in new files list.
+                    if (isNetflowFile(filename) && isAssigned(filename)) {
+                        foundFiles.add(filename);
+                        if (!isDetected(filename)) {
+                            addedFiles.add(filename);
+                        }
+                    }
                 }
+            });
+
+            // Sort new files, so that they are emitted in the order they were
+            // created and the last one is the newest.
+            Collections.sort(addedFiles);
+            if (register) {
+                filesDetected(addedFiles);
             }
-            logger.debug("New files for processing detected: " + addedFiles.size());
+            state.setFloor(floor);
+            state.retainCompleted(foundFiles);
+            logger.debug("New files for processing detected: " + addedFiles.size() + " (" + foundFiles.size()
+                    + " netflow files scanned).");
+        } catch (IOException e) {
+            logger.error("IOException. Cannot scan directory " + pathObserve + ". Retrying on next scan.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+            addedFiles.clear();
         }
 
-        // Update the file with the last retrieved file.
-        if (addedFiles.size() > 0) {
-            updateLastSeen(addedFiles.get(addedFiles.size() - 1));
+        return addedFiles;
+    }
+
+    /**
+     * Checks if a filename is a netflow file. In "csv" format, it must be a .csv
+     * file converted from a nfcapd file, optionally compressed with gzip (.csv.gz),
+     * zstd (.csv.zst) or lz4 (.csv.lz4). In "nfcapd" format, it must be a nfcapd
+     * file, that nfcapd has completed, i.e. nfcapd.YYYYMMDDhhmm. Files, that
+     * nfcapd is still writing (nfcapd.current.*), are ignored.
+     *
+     * @param filename Name of the file to be checked, optionally with its directory.
+     * @return boolean True if it is a netflow file, false otherwise.
+     */
+    protected boolean isNetflowFile(String filename) {
+        filename = filename.substring(filename.lastIndexOf('/') + 1);
+        if ("nfcapd".equals(fileFormat)) {
+            return NFCAPD_FILE_PATTERN.matcher(filename).matches();
         }
+        return filename.startsWith("nfcapd.") && CSV_FILE_SUFFIX_PATTERN.matcher(filename).find();
+    }
 
-        logger.debug("===============================================================================================");
+    /**
+     * Returns the time of a netflow file, from the date nfcapd has written in
+     * its name, in the time zone of this file watcher.
+     *
+     * @param filename Name of the netflow file.
+     * @return long Time (milliseconds since epoch), or -1 if the name has no date.
+     */
+    public long fileTimestamp(String filename) {
+        return fileTimestamp(filename, timeZone);
+    }
 
-        return addedFiles;
+    /**
+     * Returns the time of a netflow file, from the date nfcapd has written in
+     * its name (nfcapd.YYYYMMDDhhmm or nfcapd.YYYYMMDDhhmmss).
+     *
+     * @param filename Name of the netflow file.
+     * @param timeZone TimeZone Time zone of the date.
+     * @return long Time (milliseconds since epoch), or -1 if the name has no date.
+     */
+    public static long fileTimestamp(String filename, TimeZone timeZone) {
+        Matcher matcher = FILE_DATE_PATTERN.matcher(filename);
+        if (!matcher.find()) {
+            return -1;
+        }
+
+        String date = matcher.group(1);
+        SimpleDateFormat format = new SimpleDateFormat(date.length() == 12 ? "yyyyMMddHHmm" : "yyyyMMddHHmmss");
+        format.setTimeZone(timeZone);
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
     }
 
     /**
-     * Main method of service. It calls filterDirectory method every X seconds.
+     * Checks if a file is assigned to the shard of this file watcher.
+     *
+     * @param filename Name of the file to be checked.
+     * @return boolean True if this file watcher is responsible for the file.
      */
-    @Override
-    public void run() {
-        // Scan directory for new files.
-        ArrayList<String> detectedFiles = filterDirectory();
+    protected boolean isAssigned(String filename) {
+        return shardCount <= 1 || Helpers.rendezvousShard(filename, shardCount) == shardIndex;
+    }
 
+    /**
+     * Sends an event with the given filenames to all registered listeners.
+     *
+     * @param detectedFiles ArrayList(String) The names of new detected files.
+     */
+    protected void notifyListeners(ArrayList<String> detectedFiles) {
         if (detectedFiles.size() > 0) {
             logger.info("Notifying observers about " + detectedFiles.size() + " new files.");
 
@@ -218,6 +524,15 @@ public class FileWatcher implements Runnable {
         }
     }
 
+    /**
+     * Main method of service. It calls filterDirectory method every X seconds.
+     */
+    @Override
+    public void run() {
+        // Scan directory for new files.
+        notifyListeners(filterDirectory());
+    }
+
     /**
      * Register a new listener. Every class that implements FileListener
      * calling this function can be registered and receive new events.
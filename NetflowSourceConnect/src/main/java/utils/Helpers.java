@@ -116,6 +116,39 @@ public class Helpers {
         return f.mkdirs();
     }
 
+    /**
+     * Assigns a key to one of a number of shards, using rendezvous (highest random
+     * weight) hashing. The same key is always assigned to the same shard for a
+     * given number of shards, and when the number of shards changes, only the keys
+     * of added or removed shards move.
+     *
+     * @param key        The key to be assigned (i.e. a filename).
+     * @param shardCount Number of shards.
+     * @return int Index of the assigned shard, in range [0, shardCount).
+     */
+    public static int rendezvousShard(String key, int shardCount) {
+        int selected = 0;
+        long maxWeight = Long.MIN_VALUE;
+        long keyHash = key.hashCode();
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            // Mix key and shard with the finalizer of MurmurHash3.
+            long h = (keyHash << 32) ^ shard;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+
+            if (h > maxWeight) {
+                maxWeight = h;
+                selected = shard;
+            }
+        }
+
+        return selected;
+    }
+
     /**
      * Deletes a specific file.
      *
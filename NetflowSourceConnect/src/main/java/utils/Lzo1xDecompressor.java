@@ -0,0 +1,222 @@
+package utils;
+
+import java.io.IOException;
+
+/**
+ * Lzo1xDecompressor class. A safe decompressor of LZO1X compressed data, as
+ * compressed by lzo1x_1_compress, that nfdump uses for LZO compressed nfcapd
+ * files. All input and output bounds are checked, so corrupted data causes
+ * an IOException instead of reading or writing outside the given arrays.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class Lzo1xDecompressor {
+    /**
+     * Maximum offset of a M2 match.
+     */
+    private static final int M2_MAX_OFFSET = 0x0800;
+
+    /**
+     * Decompresses a LZO1X compressed block.
+     *
+     * @param in     byte[] Array with compressed data.
+     * @param inOff  int Index of compressed data in array.
+     * @param inLen  int Length of compressed data.
+     * @param out    byte[] Array, where decompressed data will be written.
+     * @param outOff int Index in output array, to write decompressed data.
+     * @param outLen int Maximum length of decompressed data.
+     * @return int Length of decompressed data.
+     * @throws IOException If compressed data are corrupted, or decompressed data
+     *                     do not fit in output array.
+     */
+    public static int decompress(byte[] in, int inOff, int inLen, byte[] out, int outOff, int outLen)
+            throws IOException {
+        int ip = inOff;
+        int ipEnd = inOff + inLen;
+        int op = outOff;
+        int opEnd = outOff + outLen;
+        int t;
+        int next;
+        int state = 0;
+        int mPos;
+
+        if (inLen < 3) {
+            throw new IOException("LZO input overrun");
+        }
+
+        t = in[ip] & 0xFF;
+        if (t > 17) {
+            ip++;
+            t -= 17;
+            if (t < 4) {
+                next = t;
+                state = next;
+                // Copy literals of the match.
+                needInput(ip, t + 3, ipEnd);
+                needOutput(op, t, opEnd);
+                while (t > 0) {
+                    out[op++] = in[ip++];
+                    t--;
+                }
+            } else {
+                needOutput(op, t, opEnd);
+                needInput(ip, t + 3, ipEnd);
+                System.arraycopy(in, ip, out, op, t);
+                op += t;
+                ip += t;
+                state = 4;
+            }
+        }
+
+        while (true) {
+            needInput(ip, 1, ipEnd);
+            t = in[ip++] & 0xFF;
+
+            if (t < 16) {
+                if (state == 0) {
+                    // Literal run.
+                    if (t == 0) {
+                        needInput(ip, 1, ipEnd);
+                        while (in[ip] == 0) {
+                            t += 255;
+                            ip++;
+                            needInput(ip, 1, ipEnd);
+                        }
+                        t += 15 + (in[ip++] & 0xFF);
+                    }
+                    t += 3;
+                    needOutput(op, t, opEnd);
+                    needInput(ip, t + 3, ipEnd);
+                    System.arraycopy(in, ip, out, op, t);
+                    op += t;
+                    ip += t;
+                    state = 4;
+                    continue;
+                } else if (state != 4) {
+                    // Match of 2 bytes, following a short literal run.
+                    next = t & 3;
+                    needInput(ip, 1, ipEnd);
+                    mPos = op - 1 - (t >> 2) - ((in[ip++] & 0xFF) << 2);
+                    checkLookBehind(mPos, outOff);
+                    needOutput(op, 2, opEnd);
+                    out[op++] = out[mPos++];
+                    out[op++] = out[mPos];
+
+                    state = next;
+                    t = next;
+                    needInput(ip, t + 3, ipEnd);
+                    needOutput(op, t, opEnd);
+                    while (t > 0) {
+                        out[op++] = in[ip++];
+                        t--;
+                    }
+                    continue;
+                } else {
+                    // Match of 3 bytes, following a long literal run.
+                    next = t & 3;
+                    needInput(ip, 1, ipEnd);
+                    mPos = op - (1 + M2_MAX_OFFSET) - (t >> 2) - ((in[ip++] & 0xFF) << 2);
+                    t = 3;
+                }
+            } else if (t >= 64) {
+                // M2 match.
+                next = t & 3;
+                needInput(ip, 1, ipEnd);
+                mPos = op - 1 - ((t >> 2) & 7) - ((in[ip++] & 0xFF) << 3);
+                t = (t >> 5) - 1 + (3 - 1);
+            } else if (t >= 32) {
+                // M3 match.
+                t = (t & 31) + (3 - 1);
+                if (t == 2) {
+                    needInput(ip, 1, ipEnd);
+                    while (in[ip] == 0) {
+                        t += 255;
+                        ip++;
+                        needInput(ip, 1, ipEnd);
+                    }
+                    t += 31 + (in[ip++] & 0xFF);
+                }
+                needInput(ip, 2, ipEnd);
+                next = (in[ip] & 0xFF) | ((in[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                mPos = op - 1 - (next >> 2);
+                next &= 3;
+            } else {
+                // M4 match, or end of stream.
+                mPos = op - ((t & 8) << 11);
+                t = (t & 7) + (3 - 1);
+                if (t == 2) {
+                    needInput(ip, 1, ipEnd);
+                    while (in[ip] == 0) {
+                        t += 255;
+                        ip++;
+                        needInput(ip, 1, ipEnd);
+                    }
+                    t += 7 + (in[ip++] & 0xFF);
+                }
+                needInput(ip, 2, ipEnd);
+                next = (in[ip] & 0xFF) | ((in[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                mPos -= next >> 2;
+                next &= 3;
+                if (mPos == op) {
+                    // End of stream.
+                    if (t != 3) {
+                        throw new IOException("LZO stream corrupted");
+                    }
+                    if (ip != ipEnd) {
+                        throw new IOException("LZO input not consumed");
+                    }
+                    return op - outOff;
+                }
+                mPos -= 0x4000;
+            }
+
+            // Copy match.
+            checkLookBehind(mPos, outOff);
+            needOutput(op, t, opEnd);
+            for (int i = 0; i < t; i++) {
+                out[op++] = out[mPos++];
+            }
+
+            // Copy literals following the match.
+            state = next;
+            t = next;
+            needInput(ip, t + 3, ipEnd);
+            needOutput(op, t, opEnd);
+            while (t > 0) {
+                out[op++] = in[ip++];
+                t--;
+            }
+        }
+    }
+
+    /**
+     * Checks that enough compressed data remain.
+     */
+    private static void needInput(int ip, int length, int ipEnd) throws IOException {
+        if (ipEnd - ip < length) {
+            throw new IOException("LZO input overrun");
+        }
+    }
+
+    /**
+     * Checks that enough space remains in output array.
+     */
+    private static void needOutput(int op, int length, int opEnd) throws IOException {
+        if (opEnd - op < length) {
+            throw new IOException("LZO output overrun");
+        }
+    }
+
+    /**
+     * Checks that a match does not start before the start of output.
+     */
+    private static void checkLookBehind(int mPos, int outOff) throws IOException {
+        if (mPos < outOff) {
+            throw new IOException("LZO lookbehind overrun");
+        }
+    }
+}
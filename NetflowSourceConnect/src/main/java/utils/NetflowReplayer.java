@@ -0,0 +1,165 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+
+/**
+ * NetflowReplayer replays the netflow files of an existing directory into an
+ * observed directory, at N times the speed they were originally written, so
+ * that connectors and sinks can be tested with recorded traffic. The time of
+ * each file is taken from the date nfcapd has written in its name, and the
+ * files are copied with the original intervals between them divided by the
+ * speed. Speed 0 copies them as fast as possible. Files are copied with a
+ * temporary name and renamed, so that FileWatcher service never reads a
+ * partial file. The achieved throughput (flows and bytes per second) is
+ * reported at the end.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class NetflowReplayer {
+    /**
+     * Logger Instance.
+     */
+    private static Logger logger = Logger.getLogger(NetflowReplayer.class);
+
+    /**
+     * Time zone of the dates in file names. Only intervals between files are
+     * used, so any zone without daylight saving time will do.
+     */
+    private static final TimeZone FILE_TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Directory with the recorded files.
+     */
+    private Path sourceDir;
+    /**
+     * Directory, where files are replayed.
+     */
+    private Path outputDir;
+    /**
+     * Speed factor. 0 for as fast as possible.
+     */
+    private double speed;
+    /**
+     * Layout of the source directory: "flat" or "date". The output keeps it.
+     */
+    private String layout;
+
+    // Statistics
+    private long flowsReplayed = 0;
+    private long bytesReplayed = 0;
+    private int filesReplayed = 0;
+
+    /**
+     * Constructor
+     *
+     * @param sourceDir String Directory with the recorded netflow files.
+     * @param outputDir String Directory, where files are replayed.
+     * @param speed     double Speed factor, e.g. 10 for 10x. 0 for as fast as possible.
+     * @param layout    String Layout of the source directory: "flat" or "date".
+     */
+    public NetflowReplayer(String sourceDir, String outputDir, double speed, String layout) {
+        this.sourceDir = Paths.get(sourceDir);
+        this.outputDir = Paths.get(outputDir);
+        this.speed = speed;
+        this.layout = layout;
+    }
+
+    /**
+     * Replays all files of the source directory, oldest first, and reports the achieved throughput.
+     *
+     * @throws IOException If a file cannot be read or written.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        final List<String> files = new ArrayList<String>();
+        new DirectoryScanner(sourceDir, "nfcapd.*", layout).scan(null, new DirectoryScanner.Visitor() {
+            @Override
+            public void visit(String relativePath) {
+                if (FileWatcher.fileTimestamp(relativePath, FILE_TIME_ZONE) >= 0 && !relativePath.contains("current")) {
+                    files.add(relativePath);
+                }
+            }
+        });
+        // Names contain the date, so sorted names are in time order.
+        Collections.sort(files);
+        logger.info("Replaying " + files.size() + " files from " + sourceDir + " to " + outputDir + " at "
+                + (speed > 0 ? speed + "x speed." : "full speed."));
+
+        long start = System.currentTimeMillis();
+        long firstFileTime = files.isEmpty() ? 0 : FileWatcher.fileTimestamp(files.get(0), FILE_TIME_ZONE);
+        for (String file : files) {
+            if (speed > 0) {
+                long due = start + (long) ((FileWatcher.fileTimestamp(file, FILE_TIME_ZONE) - firstFileTime) / speed);
+                long now = System.currentTimeMillis();
+                if (due > now) {
+                    Thread.sleep(due - now);
+                }
+            }
+            replay(file);
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        logger.info("Replay finished: " + flowsReplayed + " flows, " + bytesReplayed + " bytes, " + filesReplayed
+                + " files in " + elapsed + " ms. Achieved " + flowsReplayed * 1000 / elapsed + " flows/s, "
+                + bytesReplayed * 1000 / elapsed / 1024 + " KiB/s.");
+    }
+
+    public long getFlowsReplayed() {
+        return flowsReplayed;
+    }
+
+    public int getFilesReplayed() {
+        return filesReplayed;
+    }
+
+    /**
+     * Copies a file to the output directory, counting its lines, i.e. flows of
+     * plain .csv files. Compressed files are copied as they are, and their flows
+     * are not counted.
+     *
+     * @param file String Path of the file relative to the source directory.
+     * @throws IOException If the file cannot be read or written.
+     */
+    private void replay(String file) throws IOException {
+        Path target = outputDir.resolve(file);
+        Path tmpTarget = target.resolveSibling("." + target.getFileName() + ".tmp");
+        Files.createDirectories(target.getParent());
+
+        byte[] buffer = new byte[256 * 1024];
+        try (InputStream in = Files.newInputStream(sourceDir.resolve(file));
+             OutputStream out = Files.newOutputStream(tmpTarget)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                bytesReplayed += n;
+                if (file.endsWith(".csv")) {
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            flowsReplayed++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpTarget);
+            throw e;
+        }
+        Files.move(tmpTarget, target, StandardCopyOption.REPLACE_EXISTING);
+        filesReplayed++;
+        logger.debug("Replayed file " + file + ".");
+    }
+}
@@ -0,0 +1,95 @@
+package utils;
+
+/**
+ * RecordRateLimiter is a token bucket, that limits how many records are sent
+ * to Kafka per second. Tokens are refilled continuously at the configured
+ * rate, up to one second of records, so that short pauses do not turn into
+ * bursts. Records are granted in chunks of at least a tenth of a second,
+ * so that a throttled source returns reasonable batches instead of single
+ * records. It never blocks: callers ask how many records they may send now,
+ * and how long to wait until they may send more. It is used only by the
+ * task's thread, so it is not synchronized.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class RecordRateLimiter {
+    /**
+     * Maximum number of records per second.
+     */
+    private final long recordsPerSecond;
+
+    /**
+     * Minimum number of records granted at once.
+     */
+    private final long minChunk;
+
+    /**
+     * Available tokens, i.e. records that may be sent now.
+     */
+    private double tokens;
+
+    /**
+     * Time (System.nanoTime()) of the last refill.
+     */
+    private long lastRefillNanos;
+
+    /**
+     * Constructor. The bucket starts full.
+     *
+     * @param recordsPerSecond long Maximum number of records per second.
+     */
+    public RecordRateLimiter(long recordsPerSecond) {
+        this.recordsPerSecond = recordsPerSecond;
+        this.minChunk = Math.max(1, recordsPerSecond / 10);
+        this.tokens = recordsPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns how many records may be sent now.
+     *
+     * @param max long Maximum number of records, that the caller wants to send.
+     * @return long Number of records, between 0 and max. 0 until a chunk of records
+     * (or max, if it is smaller) is available.
+     */
+    public long available(long max) {
+        refill();
+        if (tokens < Math.min(max, minChunk)) {
+            return 0;
+        }
+        return Math.min(max, (long) tokens);
+    }
+
+    /**
+     * Registers records, that have been sent.
+     *
+     * @param count long Number of records.
+     */
+    public void consume(long count) {
+        tokens -= count;
+    }
+
+    /**
+     * Returns the time until a chunk of records may be sent.
+     *
+     * @return long Time (milliseconds), 0 if records may be sent now.
+     */
+    public long millisUntilAvailable() {
+        refill();
+        if (tokens >= minChunk) {
+            return 0;
+        }
+        return (long) Math.ceil((minChunk - tokens) * 1000.0 / recordsPerSecond);
+    }
+
+    /**
+     * Adds the tokens earned since the last refill.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(recordsPerSecond, tokens + (now - lastRefillNanos) * recordsPerSecond / 1e9);
+        lastRefillNanos = now;
+    }
+}
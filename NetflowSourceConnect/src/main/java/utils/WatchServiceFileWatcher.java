@@ -0,0 +1,327 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Event-driven Filewatcher service. Instead of listing the observed directory
+ * every X seconds, it registers the directory to the file system's WatchService
+ * (inotify in Linux) and reacts only to created or modified files. Files moved
+ * into the directory are reported as created files by the WatchService.
+ * As nfdump writes the converted .csv file after creating it, a file is
+ * considered complete and is sent to listeners, only if no other event has been
+ * received for it for a configured settle time. The whole directory is scanned
+ * only once on start, to detect files created while the connector was down, and
+ * every time the WatchService reports that events have been lost (OVERFLOW).
+ * Files found by a scan wait for the settle time too.
+ * Deleted files are forgotten by the state immediately. In "date" layout, the
+ * year, month and day directories from the floor on are watched too. A created
+ * directory is watched with its subdirectories, and the files already in it are
+ * handled as created files, so that files created before it was watched are not
+ * missed. When all pending files have been sent, the directory is scanned once,
+ * so that the floor moves on, and day directories older than the floor are not
+ * watched anymore.
+ * This service runs in its own thread until it is interrupted.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class WatchServiceFileWatcher extends FileWatcher {
+    /**
+     * Logger Instance.
+     */
+    private Logger logger = Logger.getLogger(WatchServiceFileWatcher.class);
+
+    /**
+     * Paths of year, month and day directories, relative to the observed directory.
+     */
+    private static final Pattern DATE_DIR_PATTERN = Pattern.compile("\\d{4}(/\\d{2}){0,2}");
+
+    /**
+     * Time (milliseconds) without any new event for a file, before it is
+     * considered completely written.
+     */
+    private long settleMs;
+
+    /**
+     * Files with received events, that have not been sent to listeners yet,
+     * with the time (milliseconds) of their last event.
+     */
+    private Map<String, Long> pendingFiles = new HashMap<String, Long>();
+
+    /**
+     * The observed directory.
+     */
+    private Path root;
+
+    /**
+     * WatchService, where directories are registered.
+     */
+    private WatchService watchService;
+
+    /**
+     * Watched subdirectories, in "date" layout, by path relative to the observed directory.
+     */
+    private Map<String, WatchKey> watchedDirs = new HashMap<String, WatchKey>();
+
+    /**
+     * Constructor
+     *
+     * @param collectorId   Id of this collector. Id must be unique.
+     * @param prefix        Prefix of file, where last seen nfcapd is stored.
+     * @param pathToObserve Path to watch for new nfcapd files.
+     * @param shardIndex    Index of the shard of this file watcher, in range [0, shardCount).
+     * @param shardCount    Number of shards, that files are shared among.
+     * @param settleMs      Time (milliseconds) without events, before a file is considered complete.
+     */
+    public WatchServiceFileWatcher(int collectorId, String prefix, String pathToObserve,
+                                   int shardIndex, int shardCount, long settleMs) {
+        super(collectorId, prefix, pathToObserve, shardIndex, shardCount);
+        this.settleMs = settleMs;
+    }
+
+    /**
+     * Main method of service. It scans the directory once and then waits for
+     * WatchService events, until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        root = Paths.get(pathObserve);
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            this.watchService = watchService;
+            // Register before scanning, so that no file is missed between the two.
+            WatchKey rootKey = register(root);
+            logger.info("Watching directory " + pathObserve + " for new files (" + layout + " layout).");
+
+            // Catch up with files created while the connector was down.
+            rescan();
+            if (DirectoryScanner.LAYOUT_DATE.equals(layout)) {
+                // The floor is known after the first scan. Scan again, for files
+                // created before their day directory was watched.
+                registerDateDirs(root, "", false);
+                rescan();
+            }
+
+            // True if a date directory has been created, and the floor may move on.
+            boolean floorPending = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean overflow = false;
+
+                WatchKey key = watchService.poll(settleMs, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                            continue;
+                        }
+
+                        Path path = dir.resolve((Path) event.context());
+                        String filename = relativeName(path);
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                && DirectoryScanner.LAYOUT_DATE.equals(layout)
+                                && DATE_DIR_PATTERN.matcher(filename).matches() && Files.isDirectory(path)) {
+                            registerDateDirs(path, filename + "/", true);
+                            floorPending = true;
+                        } else if (!isNetflowFile(filename) || !isAssigned(filename)) {
+                            continue;
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            pendingFiles.remove(filename);
+                            fileRemoved(filename);
+                        } else {
+                            pendingFiles.put(filename, System.currentTimeMillis());
+                        }
+                    }
+
+                    if (!key.reset()) {
+                        if (key == rootKey) {
+                            logger.error("Directory " + pathObserve + " cannot be watched anymore. Stopping FileWatcher service.");
+                            break;
+                        }
+                        // A subdirectory has been deleted.
+                        watchedDirs.values().remove(key);
+                    }
+                }
+
+                if (overflow) {
+                    // Events have been lost. Fall back to a full scan of the directory.
+                    logger.warn("WatchService events lost for directory " + pathObserve + ". Scanning directory.");
+                    pendingFiles.clear();
+                    rescan();
+                    floorPending = false;
+                } else {
+                    notifyListeners(settledFiles());
+                    if (floorPending && pendingFiles.isEmpty()) {
+                        rescan();
+                        floorPending = false;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("IOException. Cannot watch directory " + pathObserve + ". Stopping FileWatcher service.");
+            logger.error(e.getCause());
+            logger.error(e.getMessage());
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        logger.info("Stopped watching directory " + pathObserve + ".");
+    }
+
+    /**
+     * Scans the whole directory for new files and adds them to the pending
+     * files, so that, like files of create events, they are sent to listeners
+     * only after the settle time without events, and a file still being
+     * written is not read partially. In "date" layout, day directories older
+     * than the floor are not watched anymore.
+     */
+    private void rescan() {
+        long now = System.currentTimeMillis();
+        for (String filename : scanNewFiles()) {
+            pendingFiles.put(filename, now);
+        }
+
+        String floor = getFloor();
+        if (floor != null) {
+            Iterator<Map.Entry<String, WatchKey>> it = watchedDirs.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, WatchKey> entry = it.next();
+                String dir = entry.getKey();
+                if (dir.length() == floor.length() && dir.compareTo(floor) < 0) {
+                    entry.getValue().cancel();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a directory to the WatchService, for created, modified and deleted entries.
+     *
+     * @param dir Path The directory.
+     * @return WatchKey The key of the directory.
+     * @throws IOException If the directory cannot be registered.
+     */
+    private WatchKey register(Path dir) throws IOException {
+        return dir.register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE
+        );
+    }
+
+    /**
+     * Registers a directory, and its year, month and day subdirectories, that
+     * are not older than the floor, recursively.
+     *
+     * @param dir        Path The directory.
+     * @param prefix     String Path of the directory relative to the observed one, with a
+     *                   trailing '/', or empty for the observed directory.
+     * @param queueFiles boolean True to handle the files in day directories as created files.
+     * @throws IOException If a directory cannot be listed or registered.
+     */
+    private void registerDateDirs(Path dir, String prefix, boolean queueFiles) throws IOException {
+        if (prefix.length() > 0 && !watchedDirs.containsKey(prefix.substring(0, prefix.length() - 1))) {
+            watchedDirs.put(prefix.substring(0, prefix.length() - 1), register(dir));
+        }
+        // Year, month and day directories: "YYYY/", "YYYY/MM/", "YYYY/MM/DD/".
+        if (prefix.length() >= 11) {
+            if (queueFiles) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "nfcapd.*")) {
+                    for (Path file : stream) {
+                        String filename = prefix + file.getFileName().toString();
+                        if (isNetflowFile(filename) && isAssigned(filename) && !isDetected(filename)) {
+                            pendingFiles.put(filename, System.currentTimeMillis());
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        String floor = getFloor();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix.isEmpty() ? "[0-9][0-9][0-9][0-9]" : "[0-9][0-9]")) {
+            for (Path subdir : stream) {
+                String name = prefix + subdir.getFileName().toString();
+                if (Files.isDirectory(subdir)
+                        && (floor == null || name.compareTo(floor.substring(0, name.length())) >= 0)) {
+                    registerDateDirs(subdir, name + "/", queueFiles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the path of a file relative to the observed directory, with '/' separators.
+     *
+     * @param path Path The file.
+     * @return String The relative path.
+     */
+    private String relativeName(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Retrieves all pending files, that have not received any event for the
+     * settle time and have not been sent to listeners yet. A settled
+     * file is kept pending, while an older file is still being written, so that
+     * files are always sent in order.
+     *
+     * @return ArrayList(String) The names of the completed new files, sorted by name.
+     */
+    private ArrayList<String> settledFiles() {
+        ArrayList<String> settled = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+
+        // Find the oldest file, that is still being written.
+        String oldestUnsettled = null;
+        for (Map.Entry<String, Long> entry : pendingFiles.entrySet()) {
+            if (now - entry.getValue() < settleMs
+                    && (oldestUnsettled == null || entry.getKey().compareTo(oldestUnsettled) < 0)) {
+                oldestUnsettled = entry.getKey();
+            }
+        }
+
+        Iterator<Map.Entry<String, Long>> it = pendingFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            String filename = entry.getKey();
+
+            if (isDetected(filename)) {
+                // Ignore events of files, that have already been sent.
+                it.remove();
+            } else if (now - entry.getValue() >= settleMs
+                    && (oldestUnsettled == null || filename.compareTo(oldestUnsettled) < 0)) {
+                it.remove();
+                settled.add(filename);
+            }
+        }
+
+        Collections.sort(settled);
+        filesDetected(settled);
+
+        return settled;
+    }
+}
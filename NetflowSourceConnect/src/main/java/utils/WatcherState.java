@@ -0,0 +1,322 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * WatcherState keeps, in memory, the netflow files, that FileWatcher service
+ * has sent to listeners and are not completely processed yet (in-flight), and
+ * the files, that are completely processed (completed). A file is new, if it
+ * is in neither set, so files that appear late, with an older name, are not
+ * missed. The state is checkpointed to a file atomically: it is written to a
+ * temporary file, synced to disk, and renamed over the old one, so that a
+ * crash never leaves an empty or partial state.
+ * <p>
+ * The checkpoint is a text file with a header line and one file per line,
+ * prefixed by its set. Files stored by older versions, with only the name of
+ * the last processed file, are read as a baseline: files with names up to it
+ * are considered completed. In "date" layout, the state also keeps the floor:
+ * the oldest day directory, that is still scanned. Completed files of older
+ * days are forgotten, as these days are not scanned anymore. Methods are called from the FileWatcher's thread,
+ * the task's thread and the checkpoint thread, so they are synchronized.
+ *
+ * @author Space Hellas S.A.
+ * @version 0.1-SNAPSHOT
+ * @since 0.1-SNAPSHOT
+ */
+public class WatcherState {
+    /**
+     * First line of checkpoint files.
+     */
+    private static final String HEADER = "# netflow-watcher-state 2";
+
+    // Prefixes of the lines of checkpoint files.
+    private static final String BASELINE = "baseline ";
+    private static final String IN_FLIGHT = "inflight ";
+    private static final String COMPLETED = "completed ";
+    private static final String FLOOR = "floor ";
+
+    /**
+     * Name of the last processed file of older versions. Files with names up to
+     * it are completed. Null if there is none.
+     */
+    private String baseline = null;
+
+    /**
+     * Files sent to listeners, that are not completely processed yet, in the order they were detected.
+     */
+    private Set<String> inFlight = new LinkedHashSet<String>();
+
+    /**
+     * Files completely processed.
+     */
+    private Set<String> completed = new HashSet<String>();
+
+    /**
+     * Oldest day directory ("YYYY/MM/DD"), that is scanned for new files. Null
+     * if all are scanned, e.g. in "flat" layout.
+     */
+    private String floor = null;
+
+    /**
+     * True if the state has changed since the last checkpoint.
+     */
+    private boolean dirty = false;
+
+    /**
+     * Reads a checkpoint file. If it does not exist, or cannot be read, the state is empty.
+     *
+     * @param file File The checkpoint file.
+     * @return WatcherState The state.
+     * @throws IOException If the file exists, but cannot be read.
+     */
+    public static WatcherState read(File file) throws IOException {
+        WatcherState state = new WatcherState();
+        if (!file.exists()) {
+            return state;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null || line.isEmpty()) {
+                return state;
+            }
+            if (!HEADER.equals(line)) {
+                // Older versions store only the name of the last processed file.
+                state.baseline = line;
+                return state;
+            }
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(COMPLETED)) {
+                    state.completed.add(line.substring(COMPLETED.length()));
+                } else if (line.startsWith(IN_FLIGHT)) {
+                    state.inFlight.add(line.substring(IN_FLIGHT.length()));
+                } else if (line.startsWith(FLOOR)) {
+                    state.floor = line.substring(FLOOR.length());
+                } else if (line.startsWith(BASELINE)) {
+                    state.baseline = line.substring(BASELINE.length());
+                }
+            }
+        }
+        return state;
+    }
+
+    public synchronized String getBaseline() {
+        return baseline;
+    }
+
+    public synchronized String getFloor() {
+        return floor;
+    }
+
+    /**
+     * Sets the oldest day directory, that will be scanned for new files. The
+     * floor never passes the day of an in-flight file, so that it is scanned
+     * again after a restart, as well as the completed files of its day.
+     *
+     * @param newFloor String The oldest day directory to scan, "YYYY/MM/DD", or null for all.
+     */
+    public synchronized void setFloor(String newFloor) {
+        if (newFloor != null) {
+            for (String filename : inFlight) {
+                String day = DirectoryScanner.dayOf(filename);
+                if (day != null && day.compareTo(newFloor) < 0) {
+                    newFloor = day;
+                }
+            }
+        }
+        if (newFloor == null ? floor != null : !newFloor.equals(floor)) {
+            floor = newFloor;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Checks if the state is empty, i.e. no file has been detected yet.
+     *
+     * @return boolean True if there is no baseline and no in-flight or completed files.
+     */
+    public synchronized boolean isEmpty() {
+        return baseline == null && inFlight.isEmpty() && completed.isEmpty();
+    }
+
+    /**
+     * Returns the in-flight files, i.e. files, that were being processed, when the state was checkpointed.
+     *
+     * @return List(String) The files, in the order they were detected.
+     */
+    public synchronized List<String> getInFlight() {
+        return new ArrayList<String>(inFlight);
+    }
+
+    /**
+     * Checks if a file has already been sent to listeners, or completely processed.
+     * The baseline is compared with the name of the file, without its directory.
+     *
+     * @param filename String Name of the file, relative to the observed directory.
+     * @return boolean True if the file is in-flight or completed.
+     */
+    public synchronized boolean isKnown(String filename) {
+        return inFlight.contains(filename) || completed.contains(filename)
+                || baseline != null && filename.substring(filename.lastIndexOf('/') + 1).compareTo(baseline) <= 0;
+    }
+
+    /**
+     * Registers a file, that has been sent to listeners.
+     *
+     * @param filename String Name of the file.
+     */
+    public synchronized void fileDetected(String filename) {
+        dirty |= inFlight.add(filename);
+    }
+
+    /**
+     * Registers a file, that has been completely processed.
+     *
+     * @param filename String Name of the file.
+     */
+    public synchronized void fileCompleted(String filename) {
+        inFlight.remove(filename);
+        dirty |= completed.add(filename);
+    }
+
+    /**
+     * Forgets a completed file, that has been removed from the observed directory.
+     *
+     * @param filename String Name of the file.
+     */
+    public synchronized void fileRemoved(String filename) {
+        dirty |= completed.remove(filename);
+    }
+
+    /**
+     * Forgets in-flight files, so that they are detected again, e.g. after a restart.
+     */
+    public synchronized void resetInFlight() {
+        dirty |= !inFlight.isEmpty();
+        inFlight.clear();
+    }
+
+    /**
+     * Adds the completed files, the baseline and the floor of another state, e.g.
+     * of another shard of the same collector. The older baseline and floor are kept.
+     *
+     * @param other WatcherState The other state.
+     */
+    public synchronized void mergeCompleted(WatcherState other) {
+        dirty |= completed.addAll(other.completed);
+        if (baseline != null && other.baseline != null && other.baseline.compareTo(baseline) < 0) {
+            baseline = other.baseline;
+            dirty = true;
+        }
+        if (floor != null && (other.floor == null || other.floor.compareTo(floor) < 0)) {
+            floor = other.floor;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Forgets completed files, that were not found by the last scan, so that the
+     * state does not grow forever: files deleted or archived, and files of day
+     * directories older than the floor, that are not scanned anymore.
+     *
+     * @param existingFiles Collection(String) Names of the files found by the last scan.
+     */
+    public synchronized void retainCompleted(Collection<String> existingFiles) {
+        Iterator<String> it = completed.iterator();
+        while (it.hasNext()) {
+            if (!existingFiles.contains(it.next())) {
+                it.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the state to a checkpoint file, if it has changed since the last
+     * checkpoint. The state is copied while locked, and written without locking it.
+     *
+     * @param file File The checkpoint file.
+     * @return boolean True if the state has been written.
+     * @throws IOException If the file cannot be written. The state remains changed.
+     */
+    public boolean checkpoint(File file) throws IOException {
+        StringBuilder sb;
+        synchronized (this) {
+            if (!dirty) {
+                return false;
+            }
+            sb = new StringBuilder(64 * (1 + inFlight.size() + completed.size()));
+            sb.append(HEADER).append('\n');
+            if (baseline != null) {
+                sb.append(BASELINE).append(baseline).append('\n');
+            }
+            if (floor != null) {
+                sb.append(FLOOR).append(floor).append('\n');
+            }
+            for (String filename : inFlight) {
+                sb.append(IN_FLIGHT).append(filename).append('\n');
+            }
+            for (String filename : completed) {
+                sb.append(COMPLETED).append(filename).append('\n');
+            }
+            dirty = false;
+        }
+
+        try {
+            writeAtomically(file, sb);
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a file atomically: to a temporary file in the same directory, which
+     * is synced to disk and renamed over the file.
+     *
+     * @param file    File The file.
+     * @param content CharSequence Content of the file.
+     * @throws IOException If any error occurs writing.
+     */
+    private static void writeAtomically(File file, CharSequence content) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.append(content);
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile.toPath());
+            throw e;
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}